@@ -0,0 +1,252 @@
+/* Copyright (C) 2016 James E. Stark
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uoguelph.socs.icc.edm.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathFactory;
+
+import com.google.common.io.ByteStreams;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+import ca.uoguelph.socs.icc.edm.resolver.ARINResponse;
+import ca.uoguelph.socs.icc.edm.resolver.CIDRAddress;
+
+/**
+ * Benchmark for parsing ARIN's responses to "whois" queries.  The
+ * <code>stax</code> benchmark measures <code>ARINResponse.parse</code>, and
+ * the <code>dom</code> benchmark measures the DOM and XPath parser which
+ * <code>ARINQuery</code> used previously, for comparison.  Both parse the
+ * same recorded responses and extract the same fields.
+ * <p>
+ * JMH reports the average time per response.  The number of bytes allocated
+ * per response is reported in the <code>bytesPerResponse</code> counter.
+ * <p>
+ * The responses are the ones recorded for the <code>resolver</code> unit
+ * tests, which are added to the benchmark jar by the build.  The
+ * <code>${parent}</code> placeholder in the responses is replaced with the
+ * URL of the parent network when the response is loaded.
+ *
+ * @author  James E. Stark
+ * @version 1.0
+ */
+
+@State (Scope.Thread)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 3, time = 5)
+@Measurement (iterations = 5, time = 10)
+@Fork (1)
+public class ARINResponseBenchmark
+{
+	/**
+	 * Counter for the number of bytes allocated per response, over the
+	 * iteration.
+	 *
+	 * @author  James E. Stark
+	 * @version 1.0
+	 */
+
+	@AuxCounters (AuxCounters.Type.EVENTS)
+	@State (Scope.Thread)
+	public static class Allocation
+	{
+		/** The bytes allocated by the calling thread per response */
+		public long bytesPerResponse;
+
+		/** The bytes allocated during the iteration */
+		private long allocated;
+
+		/** The responses parsed during the iteration */
+		private long responses;
+
+		/**
+		 * Reset the counter before each iteration.
+		 */
+
+		@Setup (Level.Iteration)
+		public void reset ()
+		{
+			this.bytesPerResponse = 0;
+			this.allocated = 0;
+			this.responses = 0;
+		}
+
+		/**
+		 * Record the allocations for an operation.
+		 *
+		 * @param  bytes The number of bytes allocated
+		 */
+
+		private void add (final long bytes)
+		{
+			this.allocated += bytes;
+			this.responses += 1;
+			this.bytesPerResponse = this.allocated / this.responses;
+		}
+	}
+
+	/** The URL of the parent network, substituted into the responses */
+	private static final String PARENT;
+
+	/** The recorded response to parse */
+	@Param ({"net-uog.xml", "net-131.xml", "net-multi.xml"})
+	public String response;
+
+	/** The body of the response */
+	private byte[] body;
+
+	/** The DOM parser */
+	private DocumentBuilder parser;
+
+	/** XPath to get the netblocks */
+	private XPathExpression netblocks;
+
+	/** XPath Query to get the base address of the network */
+	private XPathExpression startAddress;
+
+	/** XPath Query to get the length of the netmask */
+	private XPathExpression cidrLength;
+
+	/** XPath Query to get the name of the organization */
+	private XPathExpression orgName;
+
+	/** XPath Query to get the parent network */
+	private XPathExpression parent;
+
+	/** The thread allocation counter */
+	private com.sun.management.ThreadMXBean mx;
+
+	/**
+	 * Static initializer to set the URL of the parent network.
+	 */
+
+	static
+	{
+		PARENT = "https://whois.arin.net/rest/net/NET-131-0-0-0-0";
+	}
+
+	/**
+	 * Load the response, and create the DOM parser and XPath expressions.
+	 *
+	 * @throws Exception if the response can not be loaded
+	 */
+
+	@Setup (Level.Trial)
+	public void setup () throws Exception
+	{
+		try (InputStream in = ARINResponseBenchmark.class.getResourceAsStream ("/arin/" + this.response))
+		{
+			this.body = new String (ByteStreams.toByteArray (in), StandardCharsets.UTF_8)
+				.replace ("${parent}", ARINResponseBenchmark.PARENT)
+				.getBytes (StandardCharsets.UTF_8);
+		}
+
+		XPath xpath = XPathFactory.newInstance ().newXPath ();
+
+		this.parser = DocumentBuilderFactory.newInstance ().newDocumentBuilder ();
+		this.netblocks = xpath.compile ("/net/netBlocks/netBlock");
+		this.startAddress = xpath.compile ("./startAddress");
+		this.cidrLength = xpath.compile ("./cidrLength");
+		this.orgName = xpath.compile ("/net/orgRef/@name");
+		this.parent = xpath.compile ("/net/parentNetRef");
+
+		this.mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean ();
+	}
+
+	/**
+	 * Parse the response with <code>ARINResponse</code>.
+	 *
+	 * @param  allocation The <code>Allocation</code> counter, not null
+	 * @return            The <code>ARINResponse</code>
+	 */
+
+	@Benchmark
+	public ARINResponse stax (final Allocation allocation)
+	{
+		long before = this.mx.getThreadAllocatedBytes (Thread.currentThread ().getId ());
+
+		ARINResponse result = ARINResponse.parse (this.body);
+
+		allocation.add (this.mx.getThreadAllocatedBytes (Thread.currentThread ().getId ()) - before);
+
+		return result;
+	}
+
+	/**
+	 * Parse the response into a DOM tree, and extract the fields with the
+	 * XPath expressions.
+	 *
+	 * @param  allocation The <code>Allocation</code> counter, not null
+	 * @return            The network blocks
+	 *
+	 * @throws Exception if the response can not be parsed
+	 */
+
+	@Benchmark
+	public List<CIDRAddress> dom (final Allocation allocation) throws Exception
+	{
+		long before = this.mx.getThreadAllocatedBytes (Thread.currentThread ().getId ());
+
+		Document ipData = this.parser.parse (new ByteArrayInputStream (this.body));
+		List<CIDRAddress> result = new ArrayList<> ();
+
+		this.parent.evaluate (ipData);
+		this.orgName.evaluate (ipData);
+
+		NodeList nl = (NodeList) this.netblocks.evaluate (ipData, XPathConstants.NODESET);
+
+		for (int i = 0; i < nl.getLength (); i ++)
+		{
+			result.add (CIDRAddress.builder ()
+					.setAddress (this.startAddress.evaluate (nl.item (i)))
+					.setLength (Integer.parseInt (this.cidrLength.evaluate (nl.item (i))))
+					.build ());
+		}
+
+		allocation.add (this.mx.getThreadAllocatedBytes (Thread.currentThread ().getId ()) - before);
+
+		return result;
+	}
+}
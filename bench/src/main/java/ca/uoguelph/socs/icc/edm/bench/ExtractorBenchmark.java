@@ -0,0 +1,262 @@
+/* Copyright (C) 2016 James E. Stark
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uoguelph.socs.icc.edm.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.uoguelph.socs.icc.edm.domain.DomainModel;
+import ca.uoguelph.socs.icc.edm.domain.datastore.Profile;
+import ca.uoguelph.socs.icc.edm.domain.datastore.jpa.JPADataStore;
+import ca.uoguelph.socs.icc.edm.domain.datastore.memory.MemDataStore;
+import ca.uoguelph.socs.icc.edm.moodle.Extractor;
+import ca.uoguelph.socs.icc.edm.moodle.ExtractorFactory;
+import ca.uoguelph.socs.icc.edm.resolver.Resolver;
+
+/**
+ * End-to-end benchmark for <code>Extractor.extract</code>.  The source is a
+ * synthetic Moodle database in an in-memory H2 database, and the destination
+ * is a <code>MemDataStore</code>.  Each operation extracts every course in the
+ * synthetic database into a new scratch <code>DomainModel</code>.  The IP
+ * addresses are resolved locally by a <code>SyntheticQuery</code>.
+ * <p>
+ * The <code>rows</code> counter reports the number of log entries converted
+ * per second.  The number of bytes allocated per log entry by the calling
+ * thread is reported in the <code>bytesPerRow</code> counter; run with
+ * <code>-prof gc</code> to include the allocations of the worker threads
+ * when <code>threads</code> is greater than one.  The <code>Extractor</code>
+ * instances are not closed, since closing them would close the shared source
+ * <code>DomainModel</code>.
+ *
+ * @author  James E. Stark
+ * @version 1.0
+ */
+
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.SECONDS)
+@Warmup (iterations = 2, time = 10)
+@Measurement (iterations = 5, time = 20)
+@Fork (1)
+public class ExtractorBenchmark
+{
+	/**
+	 * Counter for the number of log entries converted.  JMH reports it as a
+	 * rate.
+	 *
+	 * @author  James E. Stark
+	 * @version 1.0
+	 */
+
+	@AuxCounters (AuxCounters.Type.OPERATIONS)
+	@State (Scope.Thread)
+	public static class Rows
+	{
+		/** The number of log entries converted */
+		public long rows;
+
+		/**
+		 * Reset the counter before each iteration.
+		 */
+
+		@Setup (Level.Iteration)
+		public void reset ()
+		{
+			this.rows = 0;
+		}
+	}
+
+	/**
+	 * Counter for the number of bytes allocated per log entry, over the
+	 * iteration.
+	 *
+	 * @author  James E. Stark
+	 * @version 1.0
+	 */
+
+	@AuxCounters (AuxCounters.Type.EVENTS)
+	@State (Scope.Thread)
+	public static class Allocation
+	{
+		/** The bytes allocated by the calling thread per log entry */
+		public long bytesPerRow;
+
+		/** The bytes allocated during the iteration */
+		private long allocated;
+
+		/** The log entries converted during the iteration */
+		private long converted;
+
+		/**
+		 * Reset the counter before each iteration.
+		 */
+
+		@Setup (Level.Iteration)
+		public void reset ()
+		{
+			this.bytesPerRow = 0;
+			this.allocated = 0;
+			this.converted = 0;
+		}
+
+		/**
+		 * Record the allocations for an operation.
+		 *
+		 * @param  bytes The number of bytes allocated
+		 * @param  rows  The number of log entries converted
+		 */
+
+		private void add (final long bytes, final long rows)
+		{
+			this.allocated += bytes;
+			this.converted += rows;
+			this.bytesPerRow = (this.converted > 0) ? this.allocated / this.converted : 0;
+		}
+	}
+
+	/** The JDBC URL of the synthetic Moodle database */
+	private static final String URL;
+
+	/** The number of courses */
+	@Param ({"1"})
+	public int courses;
+
+	/** The number of users */
+	@Param ({"500"})
+	public int users;
+
+	/** The number of activities per course */
+	@Param ({"30"})
+	public int activities;
+
+	/** The number of discussions per forum */
+	@Param ({"10"})
+	public int subActivities;
+
+	/** The number of log entries per course */
+	@Param ({"100000"})
+	public int rows;
+
+	/** The number of distinct IP addresses */
+	@Param ({"2000"})
+	public int addresses;
+
+	/** The number of worker threads for the <code>Extractor</code> */
+	@Param ({"1", "4"})
+	public int threads;
+
+	/** The source <code>DomainModel</code> */
+	private DomainModel source;
+
+	/** The scratch <code>Profile</code> */
+	private Profile scratch;
+
+	/** The <code>Resolver</code>, shared so that addresses are cached */
+	private Resolver resolver;
+
+	/**
+	 * Static initializer to set the database URL.
+	 */
+
+	static
+	{
+		URL = "jdbc:h2:mem:moodle;DB_CLOSE_DELAY=-1";
+	}
+
+	/**
+	 * Create the schema for the synthetic Moodle database (by opening the
+	 * source <code>DomainModel</code>), and generate the data.
+	 */
+
+	@Setup (Level.Trial)
+	public void setup ()
+	{
+		this.scratch = Profile.load (ExtractorBenchmark.class.getResource ("/BenchScratchProfile.xml"));
+		this.source = JPADataStore.create (Profile.load (ExtractorBenchmark.class.getResource ("/BenchInputProfile.xml")));
+		this.resolver = SyntheticQuery.createResolver ();
+
+		new SyntheticMoodle (ExtractorBenchmark.URL, this.courses, this.users,
+				this.activities, this.subActivities, this.rows, this.addresses)
+			.generate ();
+	}
+
+	/**
+	 * Close the source <code>DomainModel</code>.
+	 */
+
+	@TearDown (Level.Trial)
+	public void tearDown ()
+	{
+		this.source.close ();
+	}
+
+	/**
+	 * Extract all of the courses into a new scratch <code>DomainModel</code>.
+	 *
+	 * @param  rows       The <code>Rows</code> counter, not null
+	 * @param  allocation The <code>Allocation</code> counter, not null
+	 * @return            The scratch <code>DomainModel</code>
+	 */
+
+	@Benchmark
+	public DomainModel extract (final Rows rows, final Allocation allocation)
+	{
+		com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean ();
+		long before = mx.getThreadAllocatedBytes (Thread.currentThread ().getId ());
+
+		DomainModel dest = MemDataStore.create (this.scratch);
+
+		for (long course = 1; course <= this.courses; course++)
+		{
+			Extractor extractor = new ExtractorFactory (() -> this.resolver)
+				.create (this.source);
+
+			for (long user = 1; user <= this.users; user++)
+			{
+				extractor.addRegistration ("student", SyntheticMoodle.getUsername (user));
+			}
+
+			extractor.setCourse (course)
+				.setThreads (this.threads)
+				.extract (dest);
+		}
+
+		dest.close ();
+
+		long converted = (long) this.courses * this.rows;
+
+		rows.rows += converted;
+		allocation.add (mx.getThreadAllocatedBytes (Thread.currentThread ().getId ()) - before, converted);
+
+		return dest;
+	}
+}
@@ -0,0 +1,483 @@
+/* Copyright (C) 2016 James E. Stark
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uoguelph.socs.icc.edm.bench;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generate a synthetic Moodle database.  The database contains a number of
+ * courses, each with the same number of users, activities, sub-activities and
+ * log entries.  The activities are a mix of forums (with discussions and
+ * posts as their sub-activities), pages and resources.  The log is a mix of
+ * the actions which are common in a real Moodle log: course and user views,
+ * activity views, forum discussion views and posts, along with a small
+ * fraction of entries referring to course modules which have been deleted.
+ * <p>
+ * The data is generated from a fixed seed, so the same parameters always
+ * produce the same database.  The tables must already exist; they are
+ * created by Hibernate when the source <code>DomainModel</code> is opened.
+ *
+ * @author  James E. Stark
+ * @version 1.0
+ */
+
+public final class SyntheticMoodle
+{
+	/** The number of posts in each forum discussion */
+	private static final int POSTS;
+
+	/** The number of rows to insert per JDBC batch */
+	private static final int BATCH;
+
+	/** The start date of the courses, in seconds since the epoch */
+	private static final long START;
+
+	/** The random number seed */
+	private static final long SEED;
+
+	/** The first course module ID used for deleted course modules */
+	private static final long DELETED;
+
+	/** The log */
+	private final Logger log;
+
+	/** The JDBC URL of the database */
+	private final String url;
+
+	/** The number of courses */
+	private final int courses;
+
+	/** The number of users */
+	private final int users;
+
+	/** The number of activities per course */
+	private final int activities;
+
+	/** The number of sub-activities (discussions) per forum */
+	private final int subActivities;
+
+	/** The number of log entries per course */
+	private final int rows;
+
+	/** The number of distinct IP addresses */
+	private final int addresses;
+
+	/** The random number generator */
+	private final Random random;
+
+	/** The activities of each course: course module, instance, module and first discussion IDs */
+	private final List<List<long[]>> modules;
+
+	/** The next ID number for the course modules */
+	private long nextModule;
+
+	/** The next ID number for the activity instances */
+	private long nextInstance;
+
+	/** The next ID number for the forum discussions */
+	private long nextDiscussion;
+
+	/** The next ID number for the forum posts */
+	private long nextPost;
+
+	/** The next ID number for the log entries */
+	private long nextEntry;
+
+	/**
+	 * Static initializer to set the constants.
+	 */
+
+	static
+	{
+		POSTS = 3;
+		BATCH = 1000;
+		START = 1441080000L; // 2015-09-01
+		SEED = 0x5eed;
+		DELETED = 1000000000L;
+	}
+
+	/**
+	 * Create the <code>SyntheticMoodle</code> generator.
+	 *
+	 * @param  url           The JDBC URL of the database, not null
+	 * @param  courses       The number of courses
+	 * @param  users         The number of users
+	 * @param  activities    The number of activities per course
+	 * @param  subActivities The number of discussions per forum
+	 * @param  rows          The number of log entries per course
+	 * @param  addresses     The number of distinct IP addresses
+	 */
+
+	public SyntheticMoodle (
+			final String url,
+			final int courses,
+			final int users,
+			final int activities,
+			final int subActivities,
+			final int rows,
+			final int addresses)
+	{
+		this.log = LoggerFactory.getLogger (this.getClass ());
+
+		Preconditions.checkNotNull (url, "url");
+		Preconditions.checkArgument (courses > 0, "courses must be positive");
+		Preconditions.checkArgument (users > 0, "users must be positive");
+		Preconditions.checkArgument (activities >= 3, "at least one activity of each type is required");
+		Preconditions.checkArgument (subActivities > 0, "subActivities must be positive");
+		Preconditions.checkArgument (rows >= 0, "rows is negative");
+		Preconditions.checkArgument (addresses > 0 && addresses <= 65536, "addresses out of range");
+
+		this.url = url;
+		this.courses = courses;
+		this.users = users;
+		this.activities = activities;
+		this.subActivities = subActivities;
+		this.rows = rows;
+		this.addresses = addresses;
+
+		this.random = new Random (SyntheticMoodle.SEED);
+		this.modules = new ArrayList<> ();
+	}
+
+	/**
+	 * Get a <code>String</code> representation of the generator parameters.
+	 *
+	 * @return The <code>String</code>
+	 */
+
+	@Override
+	public String toString ()
+	{
+		return MoreObjects.toStringHelper (this)
+			.add ("courses", this.courses)
+			.add ("users", this.users)
+			.add ("activities", this.activities)
+			.add ("subActivities", this.subActivities)
+			.add ("rows", this.rows)
+			.add ("addresses", this.addresses)
+			.toString ();
+	}
+
+	/**
+	 * Get the number of log entries generated for each course.
+	 *
+	 * @return The number of log entries per course
+	 */
+
+	public int getRows ()
+	{
+		return this.rows;
+	}
+
+	/**
+	 * Get the username of the specified user.
+	 *
+	 * @param  user The user number
+	 * @return      The username
+	 */
+
+	public static String getUsername (final long user)
+	{
+		return String.format ("user%06d", user);
+	}
+
+	/**
+	 * Insert the activity types.  Module 1 is the forum, 2 is the page and 3
+	 * is the resource.
+	 *
+	 * @param  connection The database <code>Connection</code>, not null
+	 */
+
+	private void generateModules (final Connection connection) throws SQLException
+	{
+		try (PreparedStatement stmt = connection.prepareStatement ("INSERT INTO mdl_modules (id, name) VALUES (?, ?)"))
+		{
+			String[] names = {"forum", "page", "resource"};
+
+			for (int i = 0; i < names.length; i++)
+			{
+				stmt.setLong (1, i + 1);
+				stmt.setString (2, names[i]);
+				stmt.addBatch ();
+			}
+
+			stmt.executeBatch ();
+		}
+	}
+
+	/**
+	 * Insert the users.
+	 *
+	 * @param  connection The database <code>Connection</code>, not null
+	 */
+
+	private void generateUsers (final Connection connection) throws SQLException
+	{
+		try (PreparedStatement stmt = connection.prepareStatement ("INSERT INTO mdl_user (id, username, firstname, lastname) VALUES (?, ?, ?, ?)"))
+		{
+			for (long i = 1; i <= this.users; i++)
+			{
+				stmt.setLong (1, i);
+				stmt.setString (2, SyntheticMoodle.getUsername (i));
+				stmt.setString (3, String.format ("First%d", i));
+				stmt.setString (4, String.format ("Last%d", i));
+				stmt.addBatch ();
+
+				if (i % SyntheticMoodle.BATCH == 0)
+				{
+					stmt.executeBatch ();
+				}
+			}
+
+			stmt.executeBatch ();
+		}
+	}
+
+	/**
+	 * Insert a course and its activities.  The course module and instance ID
+	 * numbers for the activities are recorded, so that they can be
+	 * referenced in the log.
+	 *
+	 * @param  connection The database <code>Connection</code>, not null
+	 * @param  course     The course ID number
+	 */
+
+	private void generateCourse (final Connection connection, final long course) throws SQLException
+	{
+		List<long[]> cms = new ArrayList<> ();
+
+		try (PreparedStatement cstmt = connection.prepareStatement ("INSERT INTO mdl_course (id, fullname, startdate) VALUES (?, ?, ?)");
+				PreparedStatement mstmt = connection.prepareStatement ("INSERT INTO mdl_course_modules (id, instance, course, module) VALUES (?, ?, ?, ?)");
+				PreparedStatement fstmt = connection.prepareStatement ("INSERT INTO mdl_forum (id, name) VALUES (?, ?)");
+				PreparedStatement pstmt = connection.prepareStatement ("INSERT INTO mdl_page (id, name) VALUES (?, ?)");
+				PreparedStatement rstmt = connection.prepareStatement ("INSERT INTO mdl_resource (id, name) VALUES (?, ?)");
+				PreparedStatement dstmt = connection.prepareStatement ("INSERT INTO mdl_forum_discussions (id, name, forum) VALUES (?, ?, ?)");
+				PreparedStatement ppstmt = connection.prepareStatement ("INSERT INTO mdl_forum_posts (id, subject, discussion) VALUES (?, ?, ?)"))
+		{
+			cstmt.setLong (1, course);
+			cstmt.setString (2, String.format ("Synthetic Course %d", course));
+			cstmt.setLong (3, SyntheticMoodle.START);
+			cstmt.executeUpdate ();
+
+			for (int i = 0; i < this.activities; i++)
+			{
+				long module = (i % 3) + 1;
+				long cm = ++this.nextModule;
+				long instance = ++this.nextInstance;
+
+				PreparedStatement istmt = (module == 1) ? fstmt : (module == 2) ? pstmt : rstmt;
+				istmt.setLong (1, instance);
+				istmt.setString (2, String.format ("Activity %d-%d", course, i));
+				istmt.executeUpdate ();
+
+				mstmt.setLong (1, cm);
+				mstmt.setLong (2, instance);
+				mstmt.setLong (3, course);
+				mstmt.setLong (4, module);
+				mstmt.executeUpdate ();
+
+				long firstDiscussion = this.nextDiscussion + 1;
+
+				if (module == 1)
+				{
+					for (int d = 0; d < this.subActivities; d++)
+					{
+						long discussion = ++this.nextDiscussion;
+
+						dstmt.setLong (1, discussion);
+						dstmt.setString (2, String.format ("Discussion %d", discussion));
+						dstmt.setLong (3, instance);
+						dstmt.addBatch ();
+
+						for (int p = 0; p < SyntheticMoodle.POSTS; p++)
+						{
+							long post = ++this.nextPost;
+
+							ppstmt.setLong (1, post);
+							ppstmt.setString (2, String.format ("Post %d", post));
+							ppstmt.setLong (3, discussion);
+							ppstmt.addBatch ();
+						}
+					}
+
+					dstmt.executeBatch ();
+					ppstmt.executeBatch ();
+				}
+
+				cms.add (new long[] {cm, instance, module, firstDiscussion});
+			}
+		}
+
+		this.modules.add (cms);
+	}
+
+	/**
+	 * Insert the log for a course.  About 20% of the entries are course views,
+	 * 5% are user views and 1% refer to deleted course modules.  The rest
+	 * refer to a randomly selected activity: views for pages and resources,
+	 * and a mix of forum views, discussion views and posts for forums.
+	 *
+	 * @param  connection The database <code>Connection</code>, not null
+	 * @param  course     The course ID number
+	 * @param  cms        The activities in the course, not null
+	 */
+
+	private void generateLog (final Connection connection, final long course, final List<long[]> cms) throws SQLException
+	{
+		try (PreparedStatement stmt = connection.prepareStatement ("INSERT INTO mdl_log (id, action, cmid, time, module, userid, ip, info, url, course) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"))
+		{
+			long time = SyntheticMoodle.START;
+
+			for (int i = 1; i <= this.rows; i++)
+			{
+				long user = 1 + this.random.nextInt (this.users);
+				int address = this.random.nextInt (this.addresses);
+				long[] cm = cms.get (this.random.nextInt (cms.size ()));
+				int kind = this.random.nextInt (100);
+
+				long cmid = 0;
+				String module;
+				String action;
+				String info;
+				String url;
+
+				if (kind < 20)
+				{
+					module = "course";
+					action = "view";
+					info = Long.toString (course);
+					url = String.format ("view.php?id=%d", course);
+				}
+				else if (kind < 25)
+				{
+					module = "user";
+					action = "view";
+					info = Long.toString (user);
+					url = String.format ("view.php?id=%d&course=%d", user, course);
+				}
+				else if (kind < 99 && cm[2] != 1)
+				{
+					cmid = cm[0];
+					module = (cm[2] == 2) ? "page" : "resource";
+					action = "view";
+					info = Long.toString (cm[1]);
+					url = String.format ("view.php?id=%d", cm[0]);
+				}
+				else if (kind < 55)
+				{
+					cmid = cm[0];
+					module = "forum";
+					action = "view forum";
+					info = Long.toString (cm[1]);
+					url = String.format ("view.php?f=%d", cm[1]);
+				}
+				else if (kind < 90)
+				{
+					long discussion = cm[3] + this.random.nextInt (this.subActivities);
+
+					cmid = cm[0];
+					module = "forum";
+					action = "view discussion";
+					info = Long.toString (discussion);
+					url = String.format ("discuss.php?d=%d", discussion);
+				}
+				else if (kind < 99)
+				{
+					long discussion = cm[3] + this.random.nextInt (this.subActivities);
+					long post = ((discussion - 1) * SyntheticMoodle.POSTS) + 1 + this.random.nextInt (SyntheticMoodle.POSTS);
+
+					cmid = cm[0];
+					module = "forum";
+					action = "add post";
+					info = Long.toString (post);
+					url = String.format ("discuss.php?d=%d&parent=%d", discussion, post);
+				}
+				else
+				{
+					cmid = SyntheticMoodle.DELETED + this.random.nextInt (1000);
+					module = "page";
+					action = "view";
+					info = "0";
+					url = String.format ("view.php?id=%d", cmid);
+				}
+
+				time += this.random.nextInt (120);
+
+				stmt.setLong (1, ++this.nextEntry);
+				stmt.setString (2, action);
+				stmt.setLong (3, cmid);
+				stmt.setLong (4, time);
+				stmt.setString (5, module);
+				stmt.setLong (6, user);
+				stmt.setString (7, String.format ("131.%d.%d.%d", 104 + (address >> 12), (address >> 4) & 0xff, 1 + (address & 0xf)));
+				stmt.setString (8, info);
+				stmt.setString (9, url);
+				stmt.setLong (10, course);
+				stmt.addBatch ();
+
+				if (i % SyntheticMoodle.BATCH == 0)
+				{
+					stmt.executeBatch ();
+				}
+			}
+
+			stmt.executeBatch ();
+		}
+	}
+
+	/**
+	 * Generate the synthetic Moodle data.  The courses are numbered from one.
+	 */
+
+	public void generate ()
+	{
+		this.log.trace ("generate:");
+
+		this.log.info ("Generating synthetic Moodle data: {}", this);
+
+		try (Connection connection = DriverManager.getConnection (this.url, "sa", ""))
+		{
+			connection.setAutoCommit (false);
+
+			this.generateModules (connection);
+			this.generateUsers (connection);
+
+			for (long course = 1; course <= this.courses; course++)
+			{
+				this.generateCourse (connection, course);
+				this.generateLog (connection, course, this.modules.get ((int) course - 1));
+				connection.commit ();
+			}
+		}
+		catch (SQLException ex)
+		{
+			throw new RuntimeException ("Failed to generate the synthetic Moodle data:", ex);
+		}
+	}
+}
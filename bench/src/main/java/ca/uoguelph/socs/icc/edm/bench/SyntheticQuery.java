@@ -0,0 +1,92 @@
+/* Copyright (C) 2016 James E. Stark
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uoguelph.socs.icc.edm.bench;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import ca.uoguelph.socs.icc.edm.resolver.CIDRAddress;
+import ca.uoguelph.socs.icc.edm.resolver.NetBlock;
+import ca.uoguelph.socs.icc.edm.resolver.Resolver;
+import ca.uoguelph.socs.icc.edm.resolver.WhoisQuery;
+
+/**
+ * "whois" query for the benchmarks.  This class answers every query locally,
+ * by assigning the address to a synthetic /16 network, so that the
+ * benchmarks do not depend on (or measure) the network.
+ *
+ * @author  James E. Stark
+ * @version 1.0
+ */
+
+public final class SyntheticQuery implements WhoisQuery
+{
+	/** The length of the synthetic networks */
+	private static final int LENGTH;
+
+	/**
+	 * Static initializer to set the network length.
+	 */
+
+	static
+	{
+		LENGTH = 16;
+	}
+
+	/**
+	 * Create a <code>Resolver</code> which uses a <code>SyntheticQuery</code>.
+	 *
+	 * @return The <code>Resolver</code>
+	 */
+
+	public static Resolver createResolver ()
+	{
+		return new Resolver (new SyntheticQuery ());
+	}
+
+	/**
+	 * Get the synthetic <code>NetBlock</code> for the specified address.
+	 *
+	 * @param  address The IP address, not null
+	 * @return         A <code>List</code> containing the <code>NetBlock</code>
+	 */
+
+	@Override
+	public List<NetBlock> getNetBlocks (final CIDRAddress address)
+	{
+		byte[] bytes = address.getAddress ().getAddress ();
+		Arrays.fill (bytes, SyntheticQuery.LENGTH / 8, bytes.length, (byte) 0);
+
+		try
+		{
+			CIDRAddress network = CIDRAddress.builder ()
+				.setAddress (InetAddress.getByAddress (bytes))
+				.setLength (SyntheticQuery.LENGTH)
+				.build ();
+
+			return Collections.singletonList (new NetBlock (String.format ("Synthetic Network %d.%d",
+							bytes[0] & 0xff, bytes[1] & 0xff), network));
+		}
+		catch (UnknownHostException ex)
+		{
+			throw new RuntimeException ("Failed to create the network address:", ex);
+		}
+	}
+}
@@ -17,10 +17,37 @@
 package ca.uoguelph.socs.icc.edm;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
 import java.net.URL;
 import java.net.MalformedURLException;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
 
 import com.google.common.base.Preconditions;
 
@@ -28,23 +55,49 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Node;
 
+import ca.uoguelph.socs.icc.edm.domain.Activity;
+import ca.uoguelph.socs.icc.edm.domain.ActivityReference;
 import ca.uoguelph.socs.icc.edm.domain.Course;
 import ca.uoguelph.socs.icc.edm.domain.DomainModel;
+import ca.uoguelph.socs.icc.edm.domain.Element;
+import ca.uoguelph.socs.icc.edm.domain.Enrolment;
+import ca.uoguelph.socs.icc.edm.domain.ParentActivity;
+import ca.uoguelph.socs.icc.edm.domain.SubActivity;
 import ca.uoguelph.socs.icc.edm.domain.User;
 import ca.uoguelph.socs.icc.edm.domain.datastore.ConfigLoader;
 import ca.uoguelph.socs.icc.edm.domain.datastore.Profile;
+import ca.uoguelph.socs.icc.edm.domain.datastore.TranslationTable;
 import ca.uoguelph.socs.icc.edm.domain.datastore.jpa.JPADataStore;
 import ca.uoguelph.socs.icc.edm.domain.datastore.memory.MemDataStore;
 import ca.uoguelph.socs.icc.edm.moodle.Extractor;
+import ca.uoguelph.socs.icc.edm.resolver.ARINQuery;
+import ca.uoguelph.socs.icc.edm.resolver.CIDRAddress;
 
 /**
  * Extract data from a Learning Management System database and store it into a
  * research database.  This class acts as a driver for performing the
  * extraction, synchronization and storage of the data in the LMS.  All of the
  * information concerning the location and format of the source and destination
- * databases, along with the <code>Course</code> to process, is stored in a
- * series of configuration files, which this class will load and use to guide
- * its operation.
+ * databases, along with the <code>Course</code> instances to process, is
+ * stored in a series of configuration files, which this class will load and
+ * use to guide its operation.
+ * <p>
+ * Multiple <code>Course</code> instances may be processed in a single run.
+ * The data for each <code>Course</code> is extracted into its own scratch
+ * <code>DomainModel</code>, using a bounded pool of worker threads.  The
+ * extracted data is written to the output <code>DataStore</code> one
+ * <code>Course</code> at a time, since the <code>Course</code> instances may
+ * share <code>User</code>, <code>Action</code> and <code>Network</code>
+ * instances.  A failure processing one <code>Course</code> does not prevent
+ * the rest of the <code>Course</code> instances from being processed.
+ * <p>
+ * If a high-water mark file is configured, then the <code>DataStore</code> ID
+ * of the last log entry which was stored is recorded for each
+ * <code>Course</code>.  On subsequent runs only the log entries above the
+ * high-water mark are extracted, and they are appended to the existing
+ * <code>Course</code> in the output <code>DataStore</code>, along with any new
+ * <code>Activity</code>, <code>User</code> and <code>Network</code>
+ * instances.
  *
  * @author  James E. Stark
  * @version 1.0
@@ -52,6 +105,36 @@ import ca.uoguelph.socs.icc.edm.moodle.Extractor;
 
 public final class Harvester implements AutoCloseable
 {
+	/**
+	 * The configuration for a single <code>Course</code> to be processed.
+	 *
+	 * @author  James E. Stark
+	 * @version 1.0
+	 */
+
+	private static final class Job
+	{
+		/** The course ID number */
+		private final Long courseId;
+
+		/** The registrations */
+		private final Map<String, URL> registrations;
+
+		/**
+		 * Create the <code>Job</code>.
+		 *
+		 * @param  courseId The course ID number, not null
+		 */
+
+		private Job (final Long courseId)
+		{
+			assert courseId != null : "courseId is NULL";
+
+			this.courseId = courseId;
+			this.registrations = new HashMap<> ();
+		}
+	}
+
 	/**
 	 * Loader to create a Harvester from a configuration file.
 	 *
@@ -70,11 +153,50 @@ public final class Harvester implements AutoCloseable
 		/** The <code>Profile</code> instances for the data-sets */
 		private final Map<String, Profile> profiles;
 
-		/** The registrations */
-		private final Map<String, URL> registrations;
+		/** The courses to process */
+		private final List<Job> jobs;
 
-		/** The course ID number */
-		private Long courseId;
+		/** The number of threads for resolving the IP addresses */
+		private Integer threads;
+
+		/** The number of courses to process concurrently */
+		private Integer workers;
+
+		/** The number of parallel writers for the output data-store */
+		private Integer writers;
+
+		/** The minimum number of elements committed in a batch */
+		private Integer batchMin;
+
+		/** The maximum number of elements committed in a batch */
+		private Integer batchMax;
+
+		/** The target time to commit a batch, in milliseconds */
+		private Integer commitTarget;
+
+		/** The file containing the high-water marks, null if not configured */
+		private @Nullable Path marks;
+
+		/** The directory for the synchronization journals, null if not configured */
+		private @Nullable Path journals;
+
+		/** The file containing the "whois" data, null if not configured */
+		private @Nullable Path whois;
+
+		/** The settings for the ARIN "whois" queries, null if not configured */
+		private @Nullable ARINQuery.Builder arin;
+
+		/** The file for the resolver cache, null if not configured */
+		private @Nullable Path resolver;
+
+		/** The time to live for the resolver cache, in days */
+		private Integer ttl;
+
+		/** The networks which are resolved without a query */
+		private final Map<CIDRAddress, String> networks;
+
+		/** Aggregate the resolver results to the prefix of the address */
+		private Boolean aggregate;
 
 		/**
 		 * Create the <code>Loader</code>.
@@ -84,16 +206,90 @@ public final class Harvester implements AutoCloseable
 		{
 			this.log = LoggerFactory.getLogger (this.getClass ());
 
-			this.courseId = Long.valueOf (0);
+			this.threads = Integer.valueOf (1);
+			this.workers = Integer.valueOf (1);
+			this.writers = Integer.valueOf (1);
+			this.batchMin = Integer.valueOf (100);
+			this.batchMax = Integer.valueOf (10000);
+			this.commitTarget = Integer.valueOf (1000);
+			this.marks = null;
+			this.journals = null;
+			this.whois = null;
+			this.arin = null;
+			this.resolver = null;
+			this.ttl = Integer.valueOf (30);
+			this.networks = new LinkedHashMap<> ();
+			this.aggregate = Boolean.FALSE;
 			this.profiles = new HashMap<> ();
-			this.registrations = new HashMap<> ();
+			this.jobs = new ArrayList<> ();
 
 			this.loader = ConfigLoader.create (this.getClass ().getResource ("/Harvester.xsd"))
+				.registerProcessor ("harvester", (n -> this.processHarvester (n)))
 				.registerProcessor ("datastore", (n -> this.processDataStore (n)))
+				.registerProcessor ("marks", (n -> this.processMarks (n)))
+				.registerProcessor ("journals", (n -> this.processJournals (n)))
+				.registerProcessor ("whois", (n -> this.processWhois (n)))
+				.registerProcessor ("arin", (n -> this.processARIN (n)))
+				.registerProcessor ("resolver", (n -> this.processResolver (n)))
+				.registerProcessor ("networks", (n -> this.processNetworks (n)))
+				.registerProcessor ("network", (n -> this.processNetwork (n)))
 				.registerProcessor ("course", (n -> this.processCourse (n)))
 				.registerProcessor ("registration", (n -> this.processRegistration (n)));
 		}
 
+		/**
+		 * Process the harvester configuration element to extract the number of
+		 * resolver threads, the number of courses to process concurrently, the
+		 * number of parallel writers for the output, and the bounds on the
+		 * size of the batches committed to the output.
+		 *
+		 * @param  node The DOM tree node for the harvester, not null
+		 */
+
+		private void processHarvester (final Node node)
+		{
+			this.log.trace ("processHarvester: node={}", node);
+
+			assert node != null : "node is NULL";
+
+			Node threads = node.getAttributes ().getNamedItem ("threads");
+			Node workers = node.getAttributes ().getNamedItem ("workers");
+			Node writers = node.getAttributes ().getNamedItem ("writers");
+			Node batchMin = node.getAttributes ().getNamedItem ("batchmin");
+			Node batchMax = node.getAttributes ().getNamedItem ("batchmax");
+			Node commitTarget = node.getAttributes ().getNamedItem ("committarget");
+
+			if (threads != null)
+			{
+				this.threads = Integer.valueOf (threads.getNodeValue ());
+			}
+
+			if (workers != null)
+			{
+				this.workers = Integer.valueOf (workers.getNodeValue ());
+			}
+
+			if (writers != null)
+			{
+				this.writers = Integer.valueOf (writers.getNodeValue ());
+			}
+
+			if (batchMin != null)
+			{
+				this.batchMin = Integer.valueOf (batchMin.getNodeValue ());
+			}
+
+			if (batchMax != null)
+			{
+				this.batchMax = Integer.valueOf (batchMax.getNodeValue ());
+			}
+
+			if (commitTarget != null)
+			{
+				this.commitTarget = Integer.valueOf (commitTarget.getNodeValue ());
+			}
+		}
+
 		/**
 		 * Process a datastore configuration element.
 		 *
@@ -117,6 +313,166 @@ public final class Harvester implements AutoCloseable
 			}
 		}
 
+		/**
+		 * Process a marks configuration element.
+		 *
+		 * @param  node The DOM tree node for the marks, not null
+		 */
+
+		private void processMarks (final Node node)
+		{
+			this.log.trace ("processMarks: node={}", node);
+
+			assert node != null : "node is NULL";
+
+			this.marks = Paths.get (URI.create (node.getChildNodes ().item (0).getNodeValue ()));
+		}
+
+		/**
+		 * Process a journals configuration element.
+		 *
+		 * @param  node The DOM tree node for the journals, not null
+		 */
+
+		private void processJournals (final Node node)
+		{
+			this.log.trace ("processJournals: node={}", node);
+
+			assert node != null : "node is NULL";
+
+			this.journals = Paths.get (URI.create (node.getChildNodes ().item (0).getNodeValue ()));
+		}
+
+		/**
+		 * Process a whois configuration element.
+		 *
+		 * @param  node The DOM tree node for the whois data, not null
+		 */
+
+		private void processWhois (final Node node)
+		{
+			this.log.trace ("processWhois: node={}", node);
+
+			assert node != null : "node is NULL";
+
+			this.whois = Paths.get (URI.create (node.getChildNodes ().item (0).getNodeValue ()));
+		}
+
+		/**
+		 * Process an ARIN configuration element, to extract the concurrency,
+		 * rate limit, timeout and retry settings for the "whois" queries.
+		 * The defaults are used for the settings which are not specified.
+		 *
+		 * @param  node The DOM tree node for the ARIN settings, not null
+		 */
+
+		private void processARIN (final Node node)
+		{
+			this.log.trace ("processARIN: node={}", node);
+
+			assert node != null : "node is NULL";
+
+			Node concurrency = node.getAttributes ().getNamedItem ("concurrency");
+			Node rate = node.getAttributes ().getNamedItem ("rate");
+			Node timeout = node.getAttributes ().getNamedItem ("timeout");
+			Node attempts = node.getAttributes ().getNamedItem ("attempts");
+			Node backoff = node.getAttributes ().getNamedItem ("backoff");
+
+			this.arin = ARINQuery.builder ();
+
+			if (concurrency != null)
+			{
+				this.arin.setConcurrency (Integer.parseInt (concurrency.getNodeValue ()));
+			}
+
+			if (rate != null)
+			{
+				this.arin.setRate (Double.parseDouble (rate.getNodeValue ()));
+			}
+
+			if (timeout != null)
+			{
+				this.arin.setTimeout (Integer.parseInt (timeout.getNodeValue ()));
+			}
+
+			if (attempts != null)
+			{
+				this.arin.setAttempts (Integer.parseInt (attempts.getNodeValue ()));
+			}
+
+			if (backoff != null)
+			{
+				this.arin.setBackoff (Long.parseLong (backoff.getNodeValue ()));
+			}
+		}
+
+		/**
+		 * Process a resolver configuration element, to extract the resolver
+		 * cache file and its time to live.
+		 *
+		 * @param  node The DOM tree node for the resolver, not null
+		 */
+
+		private void processResolver (final Node node)
+		{
+			this.log.trace ("processResolver: node={}", node);
+
+			assert node != null : "node is NULL";
+
+			Node ttl = node.getAttributes ().getNamedItem ("ttl");
+
+			if (ttl != null)
+			{
+				this.ttl = Integer.valueOf (ttl.getNodeValue ());
+			}
+
+			this.resolver = Paths.get (URI.create (node.getChildNodes ().item (0).getNodeValue ()));
+		}
+
+		/**
+		 * Process a networks configuration element, to extract the
+		 * aggregation setting for the resolver.
+		 *
+		 * @param  node The DOM tree node for the networks, not null
+		 */
+
+		private void processNetworks (final Node node)
+		{
+			this.log.trace ("processNetworks: node={}", node);
+
+			assert node != null : "node is NULL";
+
+			Node aggregate = node.getAttributes ().getNamedItem ("aggregate");
+
+			if (aggregate != null)
+			{
+				this.aggregate = Boolean.valueOf (aggregate.getNodeValue ());
+			}
+		}
+
+		/**
+		 * Process a network configuration element.
+		 *
+		 * @param  node The DOM tree node for the network, not null
+		 */
+
+		private void processNetwork (final Node node)
+		{
+			this.log.trace ("processNetwork: node={}", node);
+
+			assert node != null : "node is NULL";
+
+			try
+			{
+				this.networks.put (CIDRAddress.create (node.getChildNodes ().item (0).getNodeValue ()),
+						node.getAttributes ().getNamedItem ("owner").getNodeValue ());
+			}
+			catch (UnknownHostException ex)
+			{
+				throw new RuntimeException ("Failed to load network:", ex);
+			}
+		}
+
 		/**
 		 * Process a course configuration element.
 		 *
@@ -129,11 +485,12 @@ public final class Harvester implements AutoCloseable
 
 			assert node != null : "node is NULL";
 
-			this.courseId = Long.valueOf (node.getAttributes ().getNamedItem ("id").getNodeValue ());
+			this.jobs.add (new Job (Long.valueOf (node.getAttributes ().getNamedItem ("id").getNodeValue ())));
 		}
 
 		/**
-		 * Process a registration configuration element.
+		 * Process a registration configuration element.  The registration is
+		 * added to the most recently processed course.
 		 *
 		 * @param  node The DOM tree node for the registration, not null
 		 */
@@ -143,10 +500,11 @@ public final class Harvester implements AutoCloseable
 			this.log.trace ("processRegistration: node={}", node);
 
 			assert node != null : "node is NULL";
+			assert this.jobs.size () > 0 : "registration outside of a course";
 
 			try
 			{
-				this.registrations.put (node.getAttributes ().getNamedItem ("role").getNodeValue (),
+				this.jobs.get (this.jobs.size () - 1).registrations.put (node.getAttributes ().getNamedItem ("role").getNodeValue (),
 						new URL (node.getChildNodes ().item (0).getNodeValue ()));
 			}
 			catch (MalformedURLException ex)
@@ -180,15 +538,21 @@ public final class Harvester implements AutoCloseable
 	/** The loader, containing the data from the configuration file */
 	private final Loader loader;
 
-	/** The DomainModel holding the data extracted from the source datastore */
-	private final DomainModel model;
+	/** Lock to serialize the writes to the output data-store */
+	private final Object storeLock;
+
+	/** The high-water marks, by course ID number */
+	private final Properties marks;
 
 	/**
 	 * The main program.  This method confirms the existence of the config file,
 	 * then creates the <code>Harvester</code> and has it extract the input data
-	 * then write the data out to the destination data-store.
+	 * then write the data out to the destination data-store, for each of the
+	 * configured courses.
 	 *
 	 * @param  args  The program arguments.  It expects a single file name
+	 *
+	 * @throws IllegalStateException if any of the courses failed
 	 */
 
     public static void main (final String[] args) throws Exception
@@ -199,11 +563,15 @@ public final class Harvester implements AutoCloseable
 
 		Preconditions.checkArgument (input.canRead (), "Input file is not readable");
 
+		Map<Long, Boolean> report = null;
+
 		try (Harvester harvester = Harvester.create (input.toURI ().toURL ()))
 		{
-			harvester.extract ();
-			harvester.store ();
+			report = harvester.harvest ();
 		}
+
+		Preconditions.checkState (! report.containsValue (Boolean.FALSE),
+				"Failed to process one or more courses: %s", report);
 	}
 
 	/**
@@ -235,92 +603,677 @@ public final class Harvester implements AutoCloseable
 		assert loader != null : "loader is NULL";
 
 		this.loader = loader;
+		this.storeLock = new Object ();
+		this.marks = new Properties ();
+
+		if ((this.loader.marks != null) && Files.exists (this.loader.marks))
+		{
+			try (InputStream in = Files.newInputStream (this.loader.marks))
+			{
+				this.marks.load (in);
+			}
+			catch (IOException ex)
+			{
+				throw new RuntimeException ("Failed to load the high-water marks:", ex);
+			}
+		}
+
+		if (this.loader.whois != null)
+		{
+			Extractor.setWhoisData (this.loader.whois);
+		}
+		else if (this.loader.arin != null)
+		{
+			Extractor.setWhoisQuery (this.loader.arin);
+		}
+
+		Extractor.getResolver ()
+			.setRules (this.loader.networks);
+
+		Extractor.getResolver ()
+			.setAggregation (this.loader.aggregate.booleanValue ());
 
-		this.model = MemDataStore.create (this.loader.profiles.get ("scratch"));
+		if (this.loader.resolver != null)
+		{
+			Extractor.getResolver ()
+				.setCache (this.loader.resolver, Duration.ofDays (this.loader.ttl.longValue ()));
+		}
+
+		JPADataStore.retain (this.loader.profiles.get ("input"));
+		JPADataStore.retain (this.loader.profiles.get ("output"));
 	}
 
 	/**
-	 * Close the <code>Harvester</code>.
+	 * Get the high-water mark for the specified course.
+	 *
+	 * @param  courseId The course ID number, not null
+	 * @return          The <code>DataStore</code> ID of the last log entry
+	 *                  which was stored for the course, zero if the course
+	 *                  has not been stored
 	 */
 
-	@Override
-	public void close ()
+	private long getMark (final Long courseId)
+	{
+		assert courseId != null : "courseId is NULL";
+
+		synchronized (this.marks)
+		{
+			return Long.parseLong (this.marks.getProperty (courseId.toString (), "0"));
+		}
+	}
+
+	/**
+	 * Write the specified <code>Properties</code> to a file.  The
+	 * <code>Properties</code> are written to a temporary file which then
+	 * replaces the file, so that a failure while writing does not corrupt
+	 * the file.
+	 *
+	 * @param  properties The <code>Properties</code>, not null
+	 * @param  file       The file, not null
+	 * @param  comment    The comment for the head of the file, not null
+	 *
+	 * @throws IOException if the file could not be written
+	 */
+
+	private static void writeProperties (final Properties properties, final Path file, final String comment) throws IOException
+	{
+		assert properties != null : "properties is NULL";
+		assert file != null : "file is NULL";
+		assert comment != null : "comment is NULL";
+
+		Path temp = file.resolveSibling (file.getFileName () + ".tmp");
+
+		try (OutputStream out = Files.newOutputStream (temp))
+		{
+			properties.store (out, comment);
+		}
+
+		Files.move (temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Record the high-water mark for the specified course, and write all of
+	 * the high-water marks out to the configured file.  The high-water marks
+	 * are not recorded if the file is not configured.
+	 *
+	 * @param  courseId The course ID number, not null
+	 * @param  mark     The <code>DataStore</code> ID of the last log entry
+	 *                  which was stored for the course
+	 */
+
+	private void putMark (final Long courseId, final long mark)
+	{
+		assert courseId != null : "courseId is NULL";
+
+		if (this.loader.marks != null)
+		{
+			synchronized (this.marks)
+			{
+				this.marks.setProperty (courseId.toString (), Long.toString (mark));
+
+				try
+				{
+					Harvester.writeProperties (this.marks, this.loader.marks, "High-water marks: course ID = last log entry ID");
+				}
+				catch (IOException ex)
+				{
+					throw new RuntimeException ("Failed to store the high-water marks:", ex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the journal file for the output of the specified course.
+	 *
+	 * @param  courseId The course ID number, not null
+	 * @return          The journal file, null if the journal directory is
+	 *                  not configured
+	 */
+
+	private @Nullable Path getJournal (final Long courseId)
+	{
+		assert courseId != null : "courseId is NULL";
+
+		return (this.loader.journals != null)
+			? this.loader.journals.resolve (String.format ("course-%d.journal", courseId))
+			: null;
+	}
+
+	/**
+	 * Get the file containing the output <code>DataStore</code> IDs of the
+	 * <code>Activity</code> and <code>SubActivity</code> instances for the
+	 * specified course, indexed by their source keys.  The file is kept
+	 * alongside the high-water marks.
+	 *
+	 * @param  courseId The course ID number, not null
+	 * @return          The file, null if the high-water marks are not
+	 *                  configured
+	 */
+
+	private @Nullable Path getKeysFile (final Long courseId)
+	{
+		assert courseId != null : "courseId is NULL";
+
+		return (this.loader.marks != null)
+			? this.loader.marks.resolveSibling (String.format ("course-%d.keys", courseId))
+			: null;
+	}
+
+	/**
+	 * Load the output <code>DataStore</code> IDs of the <code>Activity</code>
+	 * and <code>SubActivity</code> instances, indexed by their source keys,
+	 * from the specified file.
+	 *
+	 * @param  file The file, may be null
+	 * @return      The IDs, empty if the file is null or does not exist
+	 */
+
+	private static Properties loadKeys (final @Nullable Path file)
+	{
+		Properties ids = new Properties ();
+
+		if ((file != null) && Files.exists (file))
+		{
+			try (InputStream in = Files.newInputStream (file))
+			{
+				ids.load (in);
+			}
+			catch (IOException ex)
+			{
+				throw new RuntimeException ("Failed to load the source keys:", ex);
+			}
+		}
+
+		return ids;
+	}
+
+	/**
+	 * Get the single existing <code>ParentActivity</code> from the specified
+	 * <code>Stream</code> of candidates.
+	 *
+	 * @param  candidates The candidates, not null
+	 * @param  element    The <code>ParentActivity</code> being matched, not
+	 *                    null
+	 * @return            The matching <code>ParentActivity</code>, empty if
+	 *                    there are no candidates
+	 *
+	 * @throws IllegalStateException if there is more than one candidate
+	 */
+
+	private static <T extends ParentActivity> Optional<T> matchOne (final Stream<T> candidates, final T element)
 	{
-		this.model.close ();
+		assert candidates != null : "candidates is NULL";
+		assert element != null : "element is NULL";
+
+		List<T> matches = candidates.collect (Collectors.toList ());
+
+		Preconditions.checkState (matches.size () <= 1,
+				"%s %s matches more than one existing element", element.getType ().getName (), element.getName ());
+
+		return matches.stream ().findFirst ();
 	}
 
 	/**
-	 * Extract the course data from the input data-store.
+	 * Match the <code>ParentActivity</code> instances in the scratch
+	 * <code>DomainModel</code> to the existing <code>ParentActivity</code>
+	 * instances in the output <code>DomainModel</code>.  An instance is
+	 * matched by the output <code>DataStore</code> ID which was recorded for
+	 * its source key by a previous run, so that it is found even if it has
+	 * been renamed.  The instances which do not have a recorded ID are
+	 * matched to the remaining existing instances by their
+	 * <code>ActivityType</code> and name.  An instance which does not match
+	 * is new.
+	 *
+	 * @param  elements The instances in the scratch <code>DomainModel</code>,
+	 *                  not null
+	 * @param  existing The instances in the output <code>DomainModel</code>,
+	 *                  not null
+	 * @param  keys     The source keys of the scratch instances, not null
+	 * @param  ids      The recorded output IDs, by source key, not null
+	 * @return          The matching existing instance for each matched
+	 *                  scratch instance
 	 *
-	 * @return This <code>Harvester</code>
+	 * @throws IllegalStateException if an instance matches more than one
+	 *                               existing instance, or an existing
+	 *                               instance matches more than one instance
 	 */
 
-	public Harvester extract ()
+	private static <T extends ParentActivity> Map<T, T> match (
+			final Collection<T> elements,
+			final Collection<T> existing,
+			final Map<Element, String> keys,
+			final Properties ids)
 	{
-		this.log.trace ("extract:");
+		assert elements != null : "elements is NULL";
+		assert existing != null : "existing is NULL";
+		assert keys != null : "keys is NULL";
+		assert ids != null : "ids is NULL";
+
+		final Map<T, T> result = new IdentityHashMap<> ();
+		final Set<T> used = Collections.newSetFromMap (new IdentityHashMap<> ());
+		final List<T> unmatched = new ArrayList<> ();
+
+		for (T element : elements)
+		{
+			String id = (keys.containsKey (element)) ? ids.getProperty (keys.get (element)) : null;
+
+			Optional<T> match = Harvester.matchOne (existing.stream ()
+					.filter (x -> x.getId ().toString ().equals (id))
+					.filter (x -> x.getType ().getName ().equals (element.getType ().getName ())),
+				element);
 
-		this.log.info ("Extracting data from the input data-store");
+			if (match.isPresent ())
+			{
+				Preconditions.checkState (used.add (match.get ()),
+						"%s %s is matched by more than one element", match.get ().getType ().getName (), match.get ().getName ());
+
+				result.put (element, match.get ());
+			}
+			else
+			{
+				unmatched.add (element);
+			}
+		}
+
+		final Set<T> keyed = Collections.newSetFromMap (new IdentityHashMap<> ());
+		keyed.addAll (used);
+
+		for (T element : unmatched)
+		{
+			Optional<T> match = Harvester.matchOne (existing.stream ()
+					.filter (x -> ! keyed.contains (x))
+					.filter (x -> x.getType ().getName ().equals (element.getType ().getName ()))
+					.filter (x -> x.getName ().equals (element.getName ())),
+				element);
+
+			if (match.isPresent ())
+			{
+				Preconditions.checkState (used.add (match.get ()),
+						"%s %s is matched by more than one element", match.get ().getType ().getName (), match.get ().getName ());
+
+				result.put (element, match.get ());
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Map the <code>SubActivity</code> instances of the specified
+	 * <code>ParentActivity</code> to the corresponding
+	 * <code>SubActivity</code> instances in the existing
+	 * <code>ParentActivity</code>.
+	 *
+	 * @param  parent   The <code>ParentActivity</code> in the scratch
+	 *                  <code>DomainModel</code>, not null
+	 * @param  existing The corresponding <code>ParentActivity</code> in the
+	 *                  output <code>DomainModel</code>, not null
+	 * @param  keys     The source keys of the scratch instances, not null
+	 * @param  ids      The recorded output IDs, by source key, not null
+	 */
+
+	private void mapSubActivities (final ParentActivity parent, final ParentActivity existing, final Map<Element, String> keys, final Properties ids)
+	{
+		assert parent != null : "parent is NULL";
+		assert existing != null : "existing is NULL";
+
+		Harvester.match (parent.getSubActivities (), existing.getSubActivities (), keys, ids)
+			.forEach ((subActivity, match) -> {
+				TranslationTable.getInstance ().put (subActivity, match);
+				this.mapSubActivities (subActivity, match, keys, ids);
+			});
+	}
+
+	/**
+	 * Map the <code>Element</code> instances in the scratch
+	 * <code>DomainModel</code> to the corresponding <code>Element</code>
+	 * instances which were stored in the output <code>DomainModel</code> by a
+	 * previous run.  <code>Element</code> instances such as
+	 * <code>Activity</code> and <code>Enrolment</code> can not be found in the
+	 * output <code>DomainModel</code> by their fields, so they are matched
+	 * here and entered into the <code>TranslationTable</code>.  Activities
+	 * and <code>SubActivity</code> instances are matched by their source
+	 * keys, falling back to their <code>ActivityType</code> and name, and
+	 * enrolments by the username of the <code>User</code>.  A changed final
+	 * grade or usable flag is written to the existing <code>Enrolment</code>
+	 * when it is synchronized.
+	 *
+	 * @param  model    The scratch <code>DomainModel</code>, not null
+	 * @param  coursedb The output <code>DomainModel</code>, not null
+	 * @param  keys     The source keys of the scratch instances, not null
+	 * @param  ids      The recorded output IDs, by source key, not null
+	 *
+	 * @throws IllegalStateException if the course does not exist in the output
+	 *                               <code>DomainModel</code>, if an
+	 *                               <code>Activity</code> or
+	 *                               <code>SubActivity</code> can not be
+	 *                               matched unambiguously, or if the
+	 *                               <code>Role</code> of an
+	 *                               <code>Enrolment</code> has changed
+	 */
+
+	private void mapExisting (final DomainModel model, final DomainModel coursedb, final Map<Element, String> keys, final Properties ids)
+	{
+		this.log.trace ("mapExisting: model={}, coursedb={}, keys={}, ids={}", model, coursedb, keys, ids);
+
+		assert model != null : "model is NULL";
+		assert coursedb != null : "coursedb is NULL";
+		assert keys != null : "keys is NULL";
+		assert ids != null : "ids is NULL";
+
+		for (Course course : model.getQuery (Course.SELECTOR_ALL).queryAll ())
+		{
+			Course existing = coursedb.getQuery (Course.SELECTOR_OFFERING)
+				.setAllValues (course)
+				.query ()
+				.orElseThrow (() -> new IllegalStateException ("The course does not exist in the destination DomainModel"));
+
+			Harvester.match (course.getActivities (), existing.getActivities (), keys, ids)
+				.forEach ((activity, match) -> {
+					Optional<ActivityReference> reference = Activity.REFERENCE.stream (activity).findFirst ();
+					Optional<ActivityReference> matchReference = Activity.REFERENCE.stream (match).findFirst ();
+
+					if (reference.isPresent () && matchReference.isPresent ())
+					{
+						TranslationTable.getInstance ().put (reference.get (), matchReference.get ());
+					}
+
+					TranslationTable.getInstance ().put (activity, match);
+					this.mapSubActivities (activity, match, keys, ids);
+				});
+
+			for (User user : model.getQuery (User.SELECTOR_ALL).queryAll ())
+			{
+				Enrolment enrolment = user.getEnrolment (course);
+
+				Optional<Enrolment> match = coursedb.getQuery (User.SELECTOR_USERNAME)
+					.setValue (User.USERNAME, user.getUsername ())
+					.query ()
+					.map (x -> x.getEnrolment (existing));
+
+				if ((enrolment != null) && match.isPresent ())
+				{
+					Preconditions.checkState (enrolment.getRole ().equalsAll (match.get ().getRole ()),
+							"The role for %s has changed, the course must be harvested again", user.getUsername ());
+
+					if (! enrolment.equalsAll (match.get ()))
+					{
+						this.log.info ("Updating the enrolment for {}", user.getUsername ());
+					}
+
+					TranslationTable.getInstance ().put (enrolment, match.get ());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Extract the data for a course from the input data-store into the
+	 * specified <code>DomainModel</code>.
+	 *
+	 * Only the log entries above the specified high-water mark, and not above
+	 * the specified limit, are extracted.
+	 *
+	 * @param  job   The <code>Job</code> for the course, not null
+	 * @param  mark  The high-water mark for the course
+	 * @param  limit The <code>DataStore</code> ID of the last log entry to
+	 *               extract
+	 * @param  model The scratch <code>DomainModel</code>, not null
+	 * @param  keys  <code>Map</code> to receive the source keys of the
+	 *               extracted <code>Activity</code> and
+	 *               <code>SubActivity</code> instances, not null
+	 * @return       The <code>DataStore</code> ID of the last log entry which
+	 *               was extracted
+	 */
+
+	private long extract (final Job job, final long mark, final long limit, final DomainModel model, final Map<Element, String> keys)
+	{
+		this.log.trace ("extract: job={}, mark={}, limit={}, model={}, keys={}", job, mark, limit, model, keys);
+
+		assert job != null : "job is NULL";
+		assert model != null : "model is NULL";
+		assert keys != null : "keys is NULL";
+
+		this.log.info ("Extracting data for course {} from the input data-store, after log entry {}", job.courseId, mark);
+
+		long result;
 
 		try (Extractor extractor = Extractor.create (JPADataStore.create (this.loader.profiles.get ("input"))))
 		{
-			this.loader.registrations.entrySet ()
+			job.registrations.entrySet ()
 				.stream ()
 				.forEach (r -> extractor.addRegistrations (r.getKey (), r.getValue ()));
 
-			extractor.setCourse (this.loader.courseId)
+			extractor.setCourse (job.courseId)
+				.setThreads (this.loader.threads)
+				.setHighWaterMark (mark)
+				.setLimit (limit)
 				.addRegistration ("admin", "admin")
 				.extract (model);
+
+			result = extractor.getHighWaterMark ();
+			keys.putAll (extractor.getSourceKeys ());
 		}
 
-		this.log.info ("Data extraction complete");
+		this.log.info ("Data extraction complete for course {}", job.courseId);
 
-		return this;
+		return result;
 	}
 
 	/**
-	 * Get a reference to the <code>DomainModel</code>.
+	 * Write the contents of the specified <code>DomainModel</code> out to the
+	 * output <code>DataStore</code>.  Only one <code>DomainModel</code> is
+	 * written at a time.  In incremental mode, the contents of the
+	 * <code>DomainModel</code> are appended to the existing course.
+	 * <p>
+	 * If the journal directory is configured, then the progress of the write
+	 * is journaled, and a write which failed part way through is resumed
+	 * from the last committed batch.  Otherwise, the course is written by the
+	 * configured number of parallel writers.
+	 * <p>
+	 * The output <code>DataStore</code> IDs of the <code>Activity</code> and
+	 * <code>SubActivity</code> instances are recorded by their source keys,
+	 * alongside the high-water marks, so that they can be matched by a later
+	 * incremental run.
+	 *
+	 * @param  job         The <code>Job</code> for the course, not null
+	 * @param  model       The scratch <code>DomainModel</code>, not null
+	 * @param  keys        The source keys of the extracted
+	 *                     <code>Activity</code> and <code>SubActivity</code>
+	 *                     instances, not null
+	 * @param  mark        The high-water mark of the extracted data
+	 * @param  incremental <code>true</code> to append to an existing course,
+	 *                     <code>false</code> otherwise
 	 *
-	 * @return The <code>DomainModel</code>
+	 * @throws IllegalstateException if the course is already in the destination
+	 *                               <code>DomainModel</code>, and the
+	 *                               <code>DomainModel</code> is not being
+	 *                               written incrementally
 	 */
 
-	public DomainModel getModel ()
+	private void store (final Job job, final DomainModel model, final Map<Element, String> keys, final long mark, final boolean incremental)
 	{
-		return this.model;
+		this.log.trace ("store: job={}, model={}, keys={}, mark={}, incremental={}", job, model, keys, mark, incremental);
+
+		assert job != null : "job is NULL";
+		assert model != null : "model is NULL";
+		assert keys != null : "keys is NULL";
+
+		synchronized (this.storeLock)
+		{
+			this.log.info ("Writing data for course {} to the output data-store", job.courseId);
+
+			try (DomainModel coursedb = JPADataStore.create (this.loader.profiles.get ("output")))
+			{
+				Path journal = this.getJournal (job.courseId);
+
+				Path file = this.getKeysFile (job.courseId);
+				Properties ids = Harvester.loadKeys (file);
+
+				if (incremental)
+				{
+					this.mapExisting (model, coursedb, keys, ids);
+				}
+				else if (journal != null && Files.exists (journal))
+				{
+					this.log.info ("Resuming the interrupted output of course {}", job.courseId);
+				}
+				else
+				{
+					Preconditions.checkState (model.getQuery (Course.SELECTOR_ALL)
+						.stream ()
+						.allMatch (c -> (! coursedb.getQuery (Course.SELECTOR_OFFERING)
+									.setAllValues (c).query ()
+									.isPresent ())),
+						"The course already exists in the destination DomainModel");
+				}
+
+				coursedb.getSynchronizer ()
+					.addAll (model.getQuery (User.SELECTOR_ALL)
+							.queryAll ())
+					.retain (keys.keySet ())
+					.setJournal (journal)
+					.setMark (mark)
+					.setWriters (this.loader.writers)
+					.setBatchSize (this.loader.batchMin, this.loader.batchMax)
+					.setCommitTarget (this.loader.commitTarget)
+					.synchronize ();
+
+				if (file != null)
+				{
+					keys.forEach ((k, v) -> TranslationTable.getInstance ().get (k, coursedb)
+							.ifPresent (x -> ids.setProperty (v, x.getId ().toString ())));
+
+					try
+					{
+						Harvester.writeProperties (ids, file, "Source keys: Moodle key = output ID");
+					}
+					catch (IOException ex)
+					{
+						throw new RuntimeException ("Failed to store the source keys:", ex);
+					}
+				}
+			}
+
+			this.log.info ("Data output complete for course {}", job.courseId);
+		}
 	}
 
 	/**
-	 * Write the contents of the specified <code>DomainModel</code> out to the
-	 * output <code>DataStore</code>
+	 * Extract the data for the specified course and write it to the output
+	 * data-store.  If the course has a high-water mark, then only the new log
+	 * entries are extracted and appended to the course.  The high-water mark
+	 * is updated once the data has been written.  If the output of the course
+	 * was interrupted, then the log is extracted up to the high-water mark
+	 * which was recorded in the journal, so that the output can be resumed
+	 * with the same data.
 	 *
-	 * @return This <code>Harvester</code>
+	 * @param  job The <code>Job</code> for the course, not null
+	 */
+
+	private void harvest (final Job job)
+	{
+		this.log.trace ("harvest: job={}", job);
+
+		assert job != null : "job is NULL";
+
+		final long mark = this.getMark (job.courseId);
+		final Path journal = this.getJournal (job.courseId);
+		final Map<Element, String> keys = new IdentityHashMap<> ();
+
+		final long limit = (journal != null && Files.exists (journal))
+			? DomainModel.Synchronizer.readMark (journal)
+			: Long.MAX_VALUE;
+
+		try (DomainModel model = MemDataStore.create (this.loader.profiles.get ("scratch")))
+		{
+			long last = this.extract (job, mark, limit, model, keys);
+
+			if (last > mark)
+			{
+				this.store (job, model, keys, last, mark > 0);
+				this.putMark (job.courseId, last);
+			}
+			else
+			{
+				this.log.info ("No new log entries for course {}", job.courseId);
+			}
+		}
+	}
+
+	/**
+	 * Process all of the configured courses.  The courses are processed
+	 * concurrently by a bounded pool of worker threads, and the outcome for
+	 * each course is reported in the returned <code>Map</code>.
 	 *
-	 * @throws IllegalstateException if the course is already in the destination
-	 *                               <code>DomainModel</code>
+	 * @return A <code>Map</code> from the course ID number to
+	 *         <code>true</code> if the course was processed successfully,
+	 *         <code>false</code> otherwise
 	 */
 
-	public Harvester store ()
+	public Map<Long, Boolean> harvest ()
 	{
-		this.log.trace ("store:");
+		this.log.trace ("harvest:");
 
-		this.log.info ("Writing data to the output data-store");
+		final Map<Long, Future<?>> results = new LinkedHashMap<> ();
+		final Map<Long, Boolean> report = new LinkedHashMap<> ();
+		final ExecutorService workers = Executors.newFixedThreadPool (this.loader.workers);
 
-		try (DomainModel coursedb = JPADataStore.create (this.loader.profiles.get ("output")))
+		try
 		{
-			Preconditions.checkState (this.model.getQuery (Course.SELECTOR_ALL)
-				.stream ()
-				.allMatch (c -> (! coursedb.getQuery (Course.SELECTOR_OFFERING)
-							.setAllValues (c).query ()
-							.isPresent ())),
-				"The course already exists in the destination DomainModel");
+			this.loader.jobs.forEach (j -> results.put (j.courseId, workers.submit (() -> this.harvest (j))));
 
-			coursedb.getSynchronizer ()
-				.addAll (this.model.getQuery (User.SELECTOR_ALL)
-						.queryAll ())
-				.synchronize ();
+			for (Map.Entry<Long, Future<?>> result : results.entrySet ())
+			{
+				try
+				{
+					result.getValue ().get ();
+					report.put (result.getKey (), Boolean.TRUE);
+				}
+				catch (ExecutionException ex)
+				{
+					this.log.error ("Failed to process course {}", result.getKey (), ex.getCause ());
+					report.put (result.getKey (), Boolean.FALSE);
+				}
+			}
 		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread ().interrupt ();
+			throw new RuntimeException ("Interrupted while processing the courses:", ex);
+		}
+		finally
+		{
+			workers.shutdownNow ();
+		}
+
+		report.forEach ((k, v) -> this.log.info ("Course {}: {}", k, (v) ? "complete" : "FAILED"));
+
+		return report;
+	}
 
-		this.log.info ("Data output complete");
+	/**
+	 * Close the <code>Harvester</code>.  This method releases the JPA
+	 * <code>EntityManagerFactory</code> instances for the input and output
+	 * databases, which are shared by all of the courses, and closes the file
+	 * which backs the <code>Resolver</code> cache, if one was configured.
+	 */
 
-		return this;
+	@Override
+	public void close ()
+	{
+		this.log.trace ("close:");
+
+		try
+		{
+			JPADataStore.release (this.loader.profiles.get ("input"));
+			JPADataStore.release (this.loader.profiles.get ("output"));
+		}
+		finally
+		{
+			Extractor.getResolver ()
+				.close ();
+		}
 	}
 }
@@ -551,6 +551,9 @@ public abstract class Activity extends ParentActivity
 	/** The <code>DomainModel</code> which contains the <code>Activity</code> */
 	public static final Property<Activity, DomainModel> MODEL;
 
+	/** The <code>Course</code> containing the <code>Activity</code> */
+	public static final Property<Activity, Course> COURSE;
+
 	/** The name of the <code>Activity</code> */
 	public static final Property<Activity, String> NAME;
 
@@ -563,6 +566,9 @@ public abstract class Activity extends ParentActivity
 	/** Select all of the <code>Activity</code> instances */
 	public static final Selector<Activity> SELECTOR_ALL;
 
+	/** Select all of the <code>Activity</code> instances for a <code>Course</code> */
+	public static final Selector<Activity> SELECTOR_COURSE;
+
 	/** The associated <code>ActivityReference</code> instance */
 	private ActivityReference reference;
 
@@ -581,6 +587,9 @@ public abstract class Activity extends ParentActivity
 		MODEL = Property.of (Activity.class, DomainModel.class, "domainmodel",
 				Activity::getDomainModel, Activity::setDomainModel);
 
+		COURSE = Property.of (Activity.class, Course.class, "course",
+				Activity::getCourse);
+
 		NAME = Property.of (Activity.class, String.class, "name",
 				Activity::getName);
 
@@ -595,6 +604,8 @@ public abstract class Activity extends ParentActivity
 			.setName ("all")
 			.build ();
 
+		SELECTOR_COURSE = Selector.of (Selector.Cardinality.MULTIPLE, COURSE);
+
 		METADATA = MetaData.builder (Activity.class, ParentActivity.METADATA)
 			.addProperty (ID)
 			.addProperty (MODEL)
@@ -666,6 +677,26 @@ public abstract class Activity extends ParentActivity
 		return (Activity.activities.containsKey (key)) ? Activity.activities.get (key) : GenericActivity.class;
 	}
 
+	/**
+	 * Get the <code>Activity</code> implementation class which is associated
+	 * with the <code>ActivityType</code> with the specified names.
+	 *
+	 * @param  source The name of the <code>ActivitySource</code>, not null
+	 * @param  type   The name of the <code>ActivityType</code>, not null
+	 * @return        The <code>Activity </code> data class for the given
+	 *                <code>ActivityType</code>
+	 */
+
+	public static final Class<? extends Activity> getActivityClass (final String source, final String type)
+	{
+		Preconditions.checkNotNull (source, "source");
+		Preconditions.checkNotNull (type, "type");
+
+		TypeKey key = TypeKey.create (source, type);
+
+		return (Activity.activities.containsKey (key)) ? Activity.activities.get (key) : GenericActivity.class;
+	}
+
 	/**
 	 * Get an instance of the <code>Builder</code> for the specified
 	 * <code>DomainModel</code>.  The <code>Builder</code> will be initialized
@@ -851,7 +882,10 @@ public abstract class Activity extends ParentActivity
 
 	/**
 	 * Get a <code>Stream</code> containing all of the dependencies for this
-	 * <code>Element</code> instance.
+	 * <code>Element</code> instance.  The <code>Builder</code> loads the
+	 * <code>ActivityReference</code> along with the <code>Activity</code>,
+	 * so the dependencies of the <code>ActivityReference</code> are also
+	 * dependencies of the <code>Activity</code>.
 	 *
 	 * @return  The <code>Stream</code>
 	 */
@@ -859,11 +893,12 @@ public abstract class Activity extends ParentActivity
 	@Override
 	public Stream<Element> dependencies ()
 	{
-		return Activity.METADATA.properties ()
-			.filter (p -> p.hasFlags (Property.Flags.RELATIONSHIP))
-			.filter (p -> p.hasFlags (Property.Flags.REQUIRED) || p.hasFlags (Property.Flags.MUTABLE))
-			.flatMap (p -> p.stream (this))
-			.map (e -> (Element) e);
+		return Stream.concat (Activity.METADATA.properties ()
+				.filter (p -> p.hasFlags (Property.Flags.RELATIONSHIP))
+				.filter (p -> p.hasFlags (Property.Flags.REQUIRED) || p.hasFlags (Property.Flags.MUTABLE))
+				.flatMap (p -> p.stream (this))
+				.map (e -> (Element) e),
+			this.getReference ().dependencies ());
 	}
 
 	/**
@@ -442,6 +442,9 @@ public abstract class ActivityReference extends Element
 	/** Select the <code>ActivityReference</code> instance by its id */
 	public static final Selector<ActivityReference> SELECTOR_ID;
 
+	/** Select all of the <code>ActivityReference</code> instances for a <code>Course</code> */
+	public static final Selector<ActivityReference> SELECTOR_COURSE;
+
 	/** Select all of the <code>ActivityReference</code> instances */
 	public static final Selector<ActivityReference> SELECTOR_ALL;
 
@@ -481,6 +484,7 @@ public abstract class ActivityReference extends Element
 
 		SELECTOR_ID = Selector.of (Selector.Cardinality.KEY, ID);
 		SELECTOR_TYPE = Selector.of (Selector.Cardinality.MULTIPLE, TYPE);
+		SELECTOR_COURSE = Selector.of (Selector.Cardinality.MULTIPLE, COURSE);
 
 		SELECTOR_ALL = Selector.builder (ActivityReference.class)
 			.setCardinality (Selector.Cardinality.MULTIPLE)
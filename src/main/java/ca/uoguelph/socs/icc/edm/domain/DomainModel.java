@@ -16,15 +16,33 @@
 
 package ca.uoguelph.socs.icc.edm.domain;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
 
 import javax.annotation.Nullable;
 
@@ -44,6 +62,7 @@ import ca.uoguelph.socs.icc.edm.domain.datastore.Profile;
 import ca.uoguelph.socs.icc.edm.domain.datastore.Transaction;
 import ca.uoguelph.socs.icc.edm.domain.datastore.TranslationTable;
 import ca.uoguelph.socs.icc.edm.domain.datastore.idgenerator.IdGenerator;
+import ca.uoguelph.socs.icc.edm.domain.metadata.Property;
 import ca.uoguelph.socs.icc.edm.domain.metadata.Selector;
 
 /**
@@ -65,7 +84,52 @@ public final class DomainModel implements AutoCloseable
 	 * <code>DomainModel</code> instances.  <code>Element</code> instances are
 	 * inserted into the destination <code>DomainModel</code> in there natural
 	 * order, to ensure that the dependencies for an <code>Element</code>
-	 * instance are inserted before it.
+	 * instance are inserted before it.  The order is computed by a
+	 * <code>SynchronizationPlan</code>, rather than by sorting the
+	 * <code>Element</code> instances with <code>compareTo</code>.
+	 * <p>
+	 * If a journal file is set, then the progress of the synchronization is
+	 * written to the journal after each batch is committed.  The journal
+	 * records the number of <code>Element</code> instances that have been
+	 * committed, the last committed <code>Element</code>, and the
+	 * <code>TranslationTable</code> mappings for the committed
+	 * <code>Element</code> instances which are still required by the
+	 * <code>Element</code> instances that have not been committed.  If the
+	 * journal exists when the synchronization is started, then the committed
+	 * <code>Element</code> instances are skipped, and the synchronization
+	 * resumes with the batch that failed.  Resuming requires the source
+	 * <code>Element</code> instances to be identical (including their
+	 * <code>DataStore</code> ID numbers) to those of the failed run.  The
+	 * journal is deleted once the synchronization completes.
+	 * <p>
+	 * The <code>Element</code> instances are written to the destination
+	 * <code>DataStore</code> in groups, by <code>Element</code> type.  Each
+	 * group is flushed to the <code>DataStore</code> as a whole, so that the
+	 * rows for a table are sent to the database as JDBC batches, rather than
+	 * one at a time.  The <code>TranslationTable</code> mappings for the
+	 * <code>Element</code> instances in a group are recorded when the group is
+	 * flushed.  A group is flushed early if an <code>Element</code> depends on
+	 * another <code>Element</code> in the same group.
+	 * <p>
+	 * The number of <code>Element</code> instances committed in each
+	 * transaction is adjusted between the configured bounds, based on the
+	 * time taken by the previous commit and the free space on the heap.  The
+	 * statistics for each batch are logged, and are available over JMX while
+	 * the synchronization is running.
+	 * <p>
+	 * If more than one writer is set, then the <code>Element</code> instances
+	 * at each dependency level are divided into disjoint shards, and each
+	 * shard is written by its own thread, through its own
+	 * <code>DataStore</code> session.  The writers commit their own batches,
+	 * and all of the writers must finish a level before the next level is
+	 * started, so that the dependencies of an <code>Element</code> have been
+	 * committed before it is written.  An <code>Element</code> type which
+	 * depends on itself is written by a single writer.  Parallel writers
+	 * require a <code>DataStore</code> in which all of the sessions created
+	 * from the same <code>Profile</code> share the underlying storage, such
+	 * as the <code>JPADataStore</code>, and are not used for a journaled
+	 * synchronization.  A parallel synchronization which fails is not rolled
+	 * back, see <code>setWriters</code>.
 	 *
 	 * @author  James E. Stark
 	 * @version 1.0
@@ -73,11 +137,20 @@ public final class DomainModel implements AutoCloseable
 
 	public static final class Synchronizer
 	{
-		/** Size of the evict queue relative to the cache, at which it is processed */
-		private static final double EVICT_FACTOR;
+		/** The default minimum number of <code>Element</code> instances in a batch */
+		private static final int BATCH_MIN;
+
+		/** The default maximum number of <code>Element</code> instances in a batch */
+		private static final int BATCH_MAX;
+
+		/** The default target commit latency, in milliseconds */
+		private static final long COMMIT_TARGET;
+
+		/** The number of <code>Element</code> instances between checks of the heap */
+		private static final int HEAP_CHECK;
 
-		/** The minimum size of the evict queue before it is process */
-		private static final int EVICT_MIN;
+		/** The number of <code>Element</code> instances committed at a time by a parallel writer */
+		private static final int WRITER_BATCH;
 
 		/** The log */
 		private final Logger log;
@@ -88,14 +161,38 @@ public final class DomainModel implements AutoCloseable
 		/** The <code>Element</code> instances to synchronize */
 		private Map<Element, Integer> elements;
 
+		/** The <code>Element</code> instances for which the mappings are kept */
+		private final Set<Element> retained;
+
+		/** The journal file, null if the progress is not journaled */
+		private @Nullable Path journal;
+
+		/** The high-water mark of the synchronized data, recorded in the journal */
+		private long mark;
+
+		/** The number of parallel writers */
+		private int writers;
+
+		/** The minimum batch size */
+		private int batchMin;
+
+		/** The maximum batch size */
+		private int batchMax;
+
+		/** The target commit latency, in milliseconds */
+		private long commitTarget;
+
 		/**
 		 * Static initializer to set the Batch size
 		 */
 
 		static
 		{
-			EVICT_FACTOR = 0.2;
-			EVICT_MIN = 100;
+			BATCH_MIN = 100;
+			BATCH_MAX = 10000;
+			COMMIT_TARGET = 1000;
+			HEAP_CHECK = 256;
+			WRITER_BATCH = 1000;
 		}
 
 		/**
@@ -126,6 +223,299 @@ public final class DomainModel implements AutoCloseable
 
 			this.dest = dest;
 			this.elements = new IdentityHashMap<> ();
+			this.retained = Collections.newSetFromMap (new IdentityHashMap<> ());
+			this.journal = null;
+			this.mark = 0;
+			this.writers = 1;
+			this.batchMin = Synchronizer.BATCH_MIN;
+			this.batchMax = Synchronizer.BATCH_MAX;
+			this.commitTarget = Synchronizer.COMMIT_TARGET;
+		}
+
+		/**
+		 * Get the key which identifies the specified <code>Element</code> in
+		 * the journal.
+		 *
+		 * @param  element The <code>Element</code>, not null
+		 * @return         The key
+		 */
+
+		private static String getKey (final Element element)
+		{
+			assert element != null : "element is NULL";
+
+			return String.format ("%s %d", element.getClass ().getName (), element.getId ());
+		}
+
+		/**
+		 * Add the key for the specified <code>Element</code> to the checksum
+		 * of the committed <code>Element</code> instances.
+		 *
+		 * @param  digest  The <code>Checksum</code>, not null
+		 * @param  element The <code>Element</code>, not null
+		 */
+
+		private static void update (final Checksum digest, final Element element)
+		{
+			assert digest != null : "digest is NULL";
+			assert element != null : "element is NULL";
+
+			byte[] key = String.format ("%s%n", Synchronizer.getKey (element)).getBytes (StandardCharsets.UTF_8);
+
+			digest.update (key, 0, key.length);
+		}
+
+		/**
+		 * Read the header line of the journal.  The header contains the
+		 * number of committed <code>Element</code> instances, the checksum of
+		 * their keys, the high-water mark of the synchronized data and the
+		 * key of the last committed <code>Element</code>.
+		 *
+		 * @param  reader The <code>BufferedReader</code> for the journal, not
+		 *                null
+		 * @return        The fields of the header
+		 *
+		 * @throws IllegalStateException if the journal is empty, or the
+		 *                               header is malformed
+		 * @throws IOException           if the journal could not be read
+		 */
+
+		private static String[] readHeader (final BufferedReader reader) throws IOException
+		{
+			assert reader != null : "reader is NULL";
+
+			String line = reader.readLine ();
+
+			Preconditions.checkState (line != null, "The synchronization journal is empty");
+
+			String[] header = line.split (" ", 4);
+
+			Preconditions.checkState (header.length == 4, "The synchronization journal header is malformed");
+
+			return header;
+		}
+
+		/**
+		 * Read the high-water mark which was recorded in the specified
+		 * journal.  An interrupted synchronization can only be resumed with
+		 * the data which was extracted up to exactly this mark.
+		 *
+		 * @param  journal The journal file, not null
+		 * @return         The high-water mark
+		 *
+		 * @throws IllegalStateException if the journal is empty, or the
+		 *                               header is malformed
+		 */
+
+		public static long readMark (final Path journal)
+		{
+			Preconditions.checkNotNull (journal, "journal");
+
+			try (BufferedReader reader = Files.newBufferedReader (journal, StandardCharsets.UTF_8))
+			{
+				return Long.parseLong (Synchronizer.readHeader (reader)[2]);
+			}
+			catch (IOException ex)
+			{
+				throw new RuntimeException ("Failed to read the synchronization journal:", ex);
+			}
+		}
+
+		/**
+		 * Fetch the <code>Element</code> with the specified
+		 * <code>DataStore</code> ID, and the same type as the specified
+		 * <code>Element</code>, from the destination
+		 * <code>DomainModel</code>.
+		 *
+		 * @param  <T>     The type of the <code>Element</code>
+		 * @param  element The source <code>Element</code>, not null
+		 * @param  id      The <code>DataStore</code> ID in the destination
+		 *                 <code>DomainModel</code>, not null
+		 * @return         The <code>Element</code> from the destination
+		 *                 <code>DomainModel</code>
+		 *
+		 * @throws IllegalStateException if the <code>Element</code> does not
+		 *                               exist in the destination
+		 *                               <code>DomainModel</code>
+		 */
+
+		@SuppressWarnings ("unchecked")
+		private <T extends Element> T fetch (final T element, final Long id)
+		{
+			assert element != null : "element is NULL";
+			assert id != null : "id is NULL";
+
+			Selector<T> selector = (Selector<T>) Profile.ELEMENT_DEFINITIONS.get (element.getClass ())
+				.selectors ()
+				.filter (s -> s.getCardinality () == Selector.Cardinality.KEY)
+				.filter (s -> s.getProperties ().size () == 1)
+				.filter (s -> s.getProperties ().iterator ().next ().getValueClass () == Long.class)
+				.findFirst ()
+				.orElseThrow (() -> new IllegalStateException ("No ID selector for: " + element.getClass ().getSimpleName ()));
+
+			return this.dest.getQuery (selector)
+				.setValue ((Property<T, Long>) selector.getProperties ().iterator ().next (), id)
+				.query ()
+				.orElseThrow (() -> new IllegalStateException ("Journaled element is missing from the destination DomainModel"));
+		}
+
+		/**
+		 * Read the journal, and skip over the <code>Element</code> instances
+		 * which have already been committed.  The dependency counts for the
+		 * skipped <code>Element</code> instances are updated and the
+		 * <code>TranslationTable</code> mappings recorded in the journal are
+		 * restored.  The journal is only accepted if it was written for the
+		 * same high-water mark, the checksum of the keys of the skipped
+		 * <code>Element</code> instances matches, and every journaled mapping
+		 * is for a skipped <code>Element</code> which is still required.
+		 *
+		 * @param  iterator The <code>Iterator</code> over the sorted
+		 *                  <code>Element</code> instances, not null
+		 * @param  live     The committed <code>Element</code> instances which
+		 *                  are still required, and their corresponding
+		 *                  <code>DataStore</code> ID in the destination, not
+		 *                  null
+		 * @param  digest   The <code>Checksum</code> of the committed
+		 *                  <code>Element</code> instances, not null
+		 * @return          The number of <code>Element</code> instances which
+		 *                  were skipped
+		 *
+		 * @throws IllegalStateException if the journal does not match the
+		 *                               <code>Element</code> instances being
+		 *                               synchronized
+		 */
+
+		private long resume (final Iterator<Element> iterator, final Map<Element, Long> live, final Checksum digest)
+		{
+			this.log.trace ("resume: iterator={}, live={}, digest={}", iterator, live, digest);
+
+			assert iterator != null : "iterator is NULL";
+			assert live != null : "live is NULL";
+			assert digest != null : "digest is NULL";
+			assert this.journal != null : "journal is NULL";
+
+			long count;
+			long checksum;
+			long mark;
+			String last;
+			Map<String, Long> mappings = new HashMap<> ();
+
+			try (BufferedReader reader = Files.newBufferedReader (this.journal, StandardCharsets.UTF_8))
+			{
+				String[] header = Synchronizer.readHeader (reader);
+
+				count = Long.parseLong (header[0]);
+				checksum = Long.parseLong (header[1]);
+				mark = Long.parseLong (header[2]);
+				last = header[3];
+
+				String line;
+
+				while ((line = reader.readLine ()) != null)
+				{
+					int split = line.lastIndexOf (' ');
+					mappings.put (line.substring (0, split), Long.valueOf (line.substring (split + 1)));
+				}
+			}
+			catch (IOException ex)
+			{
+				throw new RuntimeException ("Failed to read the synchronization journal:", ex);
+			}
+
+			Preconditions.checkState (mark == this.mark,
+					"The journal was written for the data up to %s, not %s", mark, this.mark);
+
+			this.log.info ("Resuming synchronization after {} committed elements", count);
+
+			int journaled = mappings.size ();
+			Element element = null;
+
+			for (long i = 0; i < count; i++)
+			{
+				Preconditions.checkState (iterator.hasNext (), "The journal does not match the elements being synchronized");
+
+				element = iterator.next ();
+				Synchronizer.update (digest, element);
+
+				element.dependencies ()
+					.map (e -> this.decDependency (e))
+					.filter (e -> this.elements.get (e) == 0)
+					.filter (e -> ! this.retained.contains (e))
+					.forEach (e -> live.remove (e));
+
+				Long id = mappings.remove (Synchronizer.getKey (element));
+
+				if (id != null)
+				{
+					Preconditions.checkState (this.elements.get (element) > 0 || this.retained.contains (element),
+							"The journal does not match the elements being synchronized");
+
+					live.put (element, id);
+
+					if (! DomainModel.table.contains (element, this.dest))
+					{
+						DomainModel.table.put (element, this.fetch (element, id));
+					}
+				}
+			}
+
+			Preconditions.checkState (count == 0 || Synchronizer.getKey (element).equals (last),
+					"The journal does not match the elements being synchronized");
+
+			Preconditions.checkState (digest.getValue () == checksum,
+					"The journal does not match the elements being synchronized");
+
+			Preconditions.checkState (mappings.isEmpty () && live.size () == journaled,
+					"The journal does not match the elements being synchronized");
+
+			return count;
+		}
+
+		/**
+		 * Write the progress of the synchronization to the journal.  The
+		 * journal is written to a temporary file which then replaces the
+		 * journal, so that a failure while writing does not corrupt the
+		 * journal.
+		 *
+		 * @param  count    The number of committed <code>Element</code>
+		 *                  instances
+		 * @param  checksum The checksum of the keys of the committed
+		 *                  <code>Element</code> instances
+		 * @param  last     The last committed <code>Element</code>, not null
+		 * @param  live     The committed <code>Element</code> instances which
+		 *                  are still required, and their corresponding
+		 *                  <code>DataStore</code> ID in the destination, not
+		 *                  null
+		 */
+
+		private void writeJournal (final long count, final long checksum, final Element last, final Map<Element, Long> live)
+		{
+			this.log.trace ("writeJournal: count={}, checksum={}, last={}, live={}", count, checksum, last, live);
+
+			assert last != null : "last is NULL";
+			assert live != null : "live is NULL";
+			assert this.journal != null : "journal is NULL";
+
+			Path temp = this.journal.resolveSibling (this.journal.getFileName () + ".tmp");
+
+			try
+			{
+				try (BufferedWriter writer = Files.newBufferedWriter (temp, StandardCharsets.UTF_8))
+				{
+					writer.write (String.format ("%d %d %d %s%n", count, checksum, this.mark, Synchronizer.getKey (last)));
+
+					for (Map.Entry<Element, Long> entry : live.entrySet ())
+					{
+						writer.write (String.format ("%s %d%n", Synchronizer.getKey (entry.getKey ()), entry.getValue ()));
+					}
+				}
+
+				Files.move (temp, this.journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (IOException ex)
+			{
+				throw new RuntimeException ("Failed to write the synchronization journal:", ex);
+			}
 		}
 
 		/**
@@ -263,6 +653,191 @@ public final class DomainModel implements AutoCloseable
 			return this;
 		}
 
+		/**
+		 * Keep the <code>TranslationTable</code> mappings for the specified
+		 * <code>Element</code> instances once the synchronization is
+		 * complete.  The mappings for all of the other <code>Element</code>
+		 * instances are removed as soon as they are no longer required, so
+		 * the copy of an <code>Element</code> can only be found after the
+		 * synchronization if it was retained.  The retained
+		 * <code>Element</code> instances are not evicted from the
+		 * destination.
+		 *
+		 * @param  elements The <code>Collection</code> of <code>Element</code>
+		 *                  instances to retain, not null
+		 * @return          This <code>Synchronizer</code>
+		 */
+
+		public Synchronizer retain (final Collection<? extends Element> elements)
+		{
+			this.log.trace ("retain: elements={}", elements);
+
+			Preconditions.checkNotNull (elements, "elements");
+
+			this.retained.addAll (elements);
+
+			return this;
+		}
+
+		/**
+		 * Set the journal file.  If the journal exists, then the
+		 * synchronization will resume from the point recorded in the journal.
+		 * The journal must have been written for the same high-water mark,
+		 * see <code>setMark</code>.
+		 *
+		 * @param  journal The journal file, null to disable journaling
+		 * @return         This <code>Synchronizer</code>
+		 */
+
+		public Synchronizer setJournal (final @Nullable Path journal)
+		{
+			this.log.trace ("setJournal: journal={}", journal);
+
+			this.journal = journal;
+
+			return this;
+		}
+
+		/**
+		 * Set the high-water mark of the data being synchronized.  The mark
+		 * is recorded in the journal, and a journal is only resumed by a
+		 * synchronization of the data which was extracted up to the same
+		 * mark.
+		 *
+		 * @param  mark The high-water mark, must not be negative
+		 * @return      This <code>Synchronizer</code>
+		 *
+		 * @throws IllegalArgumentException if the mark is negative
+		 */
+
+		public Synchronizer setMark (final long mark)
+		{
+			this.log.trace ("setMark: mark={}", mark);
+
+			Preconditions.checkArgument (mark >= 0, "mark is negative");
+
+			this.mark = mark;
+
+			return this;
+		}
+
+		/**
+		 * Set the number of parallel writers.  Each writer has its own
+		 * session, so parallel writers require a destination
+		 * <code>DataStore</code> with shared storage, such as the
+		 * <code>JPADataStore</code>.  A journaled synchronization always uses
+		 * a single writer.
+		 * <p>
+		 * The parallel writers commit their batches independently, so a
+		 * failed synchronization leaves the levels which were already
+		 * written, and the batches committed by the writers of the failed
+		 * level, in the destination.  The parallel synchronization is not
+		 * journaled, so the partially written data must be removed before
+		 * the synchronization is repeated.
+		 *
+		 * @param  writers The number of writers, greater than zero
+		 * @return         This <code>Synchronizer</code>
+		 *
+		 * @throws IllegalArgumentException if the number of writers is less
+		 *                                  than one, or is greater than one
+		 *                                  and the storage of the
+		 *                                  destination <code>DataStore</code>
+		 *                                  is not shared
+		 */
+
+		public Synchronizer setWriters (final int writers)
+		{
+			this.log.trace ("setWriters: writers={}", writers);
+
+			Preconditions.checkArgument (writers > 0, "writers must be greater than zero");
+			Preconditions.checkArgument (writers == 1 || this.dest.getDataStore ().isShared (),
+					"Parallel writers require a DataStore with shared storage");
+
+			this.writers = writers;
+
+			return this;
+		}
+
+		/**
+		 * Set the bounds on the number of <code>Element</code> instances
+		 * which are committed in each batch.  Within the bounds, the batch
+		 * size is adjusted to meet the target commit latency.
+		 *
+		 * @param  min The minimum batch size, greater than zero
+		 * @param  max The maximum batch size, not less than <code>min</code>
+		 * @return     This <code>Synchronizer</code>
+		 *
+		 * @throws IllegalArgumentException if <code>min</code> is less than
+		 *                                  one, or <code>max</code> is less
+		 *                                  than <code>min</code>
+		 */
+
+		public Synchronizer setBatchSize (final int min, final int max)
+		{
+			this.log.trace ("setBatchSize: min={}, max={}", min, max);
+
+			Preconditions.checkArgument (min > 0, "min must be greater than zero");
+			Preconditions.checkArgument (max >= min, "max must not be less than min");
+
+			this.batchMin = min;
+			this.batchMax = max;
+
+			return this;
+		}
+
+		/**
+		 * Set the target time to commit each batch.  The batch size is
+		 * adjusted so that each commit takes roughly the target time.
+		 *
+		 * @param  millis The target commit latency in milliseconds, greater
+		 *                than zero
+		 * @return        This <code>Synchronizer</code>
+		 *
+		 * @throws IllegalArgumentException if the target is less than one
+		 */
+
+		public Synchronizer setCommitTarget (final long millis)
+		{
+			this.log.trace ("setCommitTarget: millis={}", millis);
+
+			Preconditions.checkArgument (millis > 0, "millis must be greater than zero");
+
+			this.commitTarget = millis;
+
+			return this;
+		}
+
+		/**
+		 * Flush the current group of <code>Element</code> instances to the
+		 * destination <code>DataStore</code> and record their
+		 * <code>TranslationTable</code> mappings.  The time spent flushing
+		 * is returned, since this is where the batched writes are sent to
+		 * the <code>DataStore</code>.
+		 *
+		 * @return The time taken to flush the <code>DataStore</code>, in
+		 *         nanoseconds
+		 */
+
+		private long flush ()
+		{
+			this.log.trace ("flush:");
+
+			assert this.dest.pending != null : "pending is NULL";
+
+			long begin = System.nanoTime ();
+			this.dest.getDataStore ().flush ();
+			long elapsed = System.nanoTime () - begin;
+
+			if (! this.dest.pending.isEmpty ())
+			{
+				this.log.debug ("Recording {} TranslationTable mappings", this.dest.pending.size ());
+				DomainModel.table.putAll (this.dest.pending);
+				this.dest.pending.clear ();
+			}
+
+			return elapsed;
+		}
+
 		/**
 		 * Perform the synchronization.  This methods inserts all of the
 		 * <code>Elements</code> that are in the <code>Synchronizer</code> into
@@ -275,49 +850,149 @@ public final class DomainModel implements AutoCloseable
 		{
 			this.log.trace ("synchronize:");
 
-			int cachesize = 0;
+			long count = 0;
 
-			final Deque<Element> evictions = new ArrayDeque<> ();
+			final Map<Element, Long> live = new IdentityHashMap<> ();
+			final Checksum digest = new CRC32 ();
+
+			this.log.debug ("Planning the synchronization of {} elements", this.elements.size ());
+			SynchronizationPlan plan = SynchronizationPlan.create (this.elements.keySet ());
+
+			if (this.writers > 1 && this.journal == null)
+			{
+				this.processParallel (plan);
+
+				return this.dest;
+			}
+
+			SynchronizationPlan.Cursor iterator = plan.iterator ();
+
+			if (this.journal != null && Files.exists (this.journal))
+			{
+				count = this.resume (iterator, live, digest);
+			}
 
-			Iterator<Element> iterator = this.elements.keySet ()
-				.stream ()
-				.sorted ()
-				.iterator ();
+			SynchronizerMetrics metrics = new SynchronizerMetrics (this.batchMin, this.batchMax, this.commitTarget);
+			metrics.register ();
+
+			this.dest.pending = new IdentityHashMap<> ();
+
+			try
+			{
+				this.process (iterator, count, live, digest, metrics);
+				metrics.report ();
+			}
+			finally
+			{
+				this.dest.pending = null;
+				metrics.unregister ();
+			}
+
+			if (this.journal != null)
+			{
+				try
+				{
+					Files.deleteIfExists (this.journal);
+				}
+				catch (IOException ex)
+				{
+					throw new RuntimeException ("Failed to delete the synchronization journal:", ex);
+				}
+			}
+
+			return this.dest;
+		}
+
+		/**
+		 * Insert the sorted <code>Element</code> instances into the
+		 * destination <code>DomainModel</code>, in batches.  The size of each
+		 * batch is set by the <code>SynchronizerMetrics</code>, and a batch is
+		 * committed early if the heap runs low.  The <code>Element</code>
+		 * instances which are no longer required are evicted after each
+		 * commit.
+		 *
+		 * @param  iterator The <code>Cursor</code> over the planned
+		 *                  <code>Element</code> instances, not null
+		 * @param  skipped  The number of <code>Element</code> instances which
+		 *                  were committed by a previous run
+		 * @param  live     The committed <code>Element</code> instances which
+		 *                  are still required, and their corresponding
+		 *                  <code>DataStore</code> ID in the destination, not
+		 *                  null
+		 * @param  digest   The <code>Checksum</code> of the committed
+		 *                  <code>Element</code> instances, not null
+		 * @param  metrics  The <code>SynchronizerMetrics</code>, not null
+		 */
+
+		private void process (final SynchronizationPlan.Cursor iterator, final long skipped, final Map<Element, Long> live, final Checksum digest, final SynchronizerMetrics metrics)
+		{
+			this.log.trace ("process: iterator={}, skipped={}, live={}, digest={}, metrics={}", iterator, skipped, live, digest, metrics);
+
+			assert iterator != null : "iterator is NULL";
+			assert live != null : "live is NULL";
+			assert digest != null : "digest is NULL";
+			assert metrics != null : "metrics is NULL";
+			assert this.dest.pending != null : "pending is NULL";
+
+			long count = skipped;
+			Element last = null;
+			SynchronizationPlan.Bucket group = null;
+
+			final Deque<Element> evictions = new ArrayDeque<> ();
 
 			while (iterator.hasNext ())
 			{
-				this.log.debug ("Processing batch");
+				int batch = 0;
+				long elapsed = 0;
+				int size = metrics.getBatchSize ();
+
+				this.log.debug ("Processing batch of {} elements", size);
 				this.dest.getTransaction ().begin ();
 
-				while (iterator.hasNext ()
-						&& (evictions.size () < (cachesize * Synchronizer.EVICT_FACTOR)
-							|| evictions.size () < Synchronizer.EVICT_MIN))
+				while (iterator.hasNext () && batch < size
+						&& (batch % Synchronizer.HEAP_CHECK != 0 || batch == 0 || ! metrics.isHeapLow ()))
 				{
 					try
 					{
 						Element element = iterator.next ();
 
+						if (iterator.getBucket () != group || element.dependencies ().anyMatch (e -> this.dest.pending.containsKey (e)))
+						{
+							elapsed += this.flush ();
+							group = iterator.getBucket ();
+						}
+
 						this.log.trace ("Processing: {}/id={} dependencies={}", element.getClass (), element.getId (), this.elements.get (element));
 						Element n = element.getBuilder (this.dest)
 							.build ();
 
-						cachesize += 1;
+						count += 1;
+						batch += 1;
+						last = element;
+						Synchronizer.update (digest, element);
 
-						if (this.elements.get (element) == 0)
+						if (this.elements.get (element) == 0 && ! this.retained.contains (element))
 						{
 							this.log.trace ("Evicting element {}/id={} dependencies={}", element.getClass (), element.getId (), this.elements.get (element));
 							evictions.add (n);
 						}
+						else if (this.journal != null)
+						{
+							live.put (element, n.getId ());
+						}
 
 						element.dependencies ()
 							.map (e -> this.decDependency (e))
 							.filter (e -> this.elements.get (e) == 0)
+							.filter (e -> ! this.retained.contains (e))
 							.peek (e -> this.log.trace ("Evicting dependency {}/id={} dependencies={}", e.getClass (), e.getId (), this.elements.get (e)))
+							.peek (e -> live.remove (e))
 							.map (e -> DomainModel.table.get (e, this.dest).get ())
 							.forEach (e -> evictions.add (e));
 					}
 					catch (Exception ex)
 					{
+						this.dest.pending.clear ();
 						this.dest.getTransaction ().rollback ();
 
 						throw ex;
@@ -325,10 +1000,19 @@ public final class DomainModel implements AutoCloseable
 				}
 
 				this.log.debug ("Committing batch");
+				long begin = System.nanoTime ();
+				this.flush ();
 				this.dest.getTransaction ().commit ();
+				elapsed += System.nanoTime () - begin;
 
-				this.log.debug ("evicting {}/{} elements", evictions.size (), cachesize);
-				cachesize -= evictions.size ();
+				if (this.journal != null && last != null)
+				{
+					this.writeJournal (count, digest.getValue (), last, live);
+				}
+
+				int evicted = evictions.size ();
+
+				this.log.debug ("evicting {} elements", evicted);
 
 				while (! evictions.isEmpty ())
 				{
@@ -337,9 +1021,245 @@ public final class DomainModel implements AutoCloseable
 					DomainModel.table.remove (element);
 					this.dest.datastore.evict (element);
 				}
+
+				metrics.record (batch, elapsed, evicted);
 			}
+		}
 
-			return this.dest;
+		/**
+		 * Determine if any of the <code>Element</code> instances in the
+		 * specified <code>Bucket</code> depend on another <code>Element</code>
+		 * in the same <code>Bucket</code>.
+		 *
+		 * @param  plan   The <code>SynchronizationPlan</code>, not null
+		 * @param  bucket The <code>Bucket</code>, not null
+		 * @return        <code>true</code> if the <code>Bucket</code> depends
+		 *                on itself, <code>false</code> otherwise
+		 */
+
+		private static boolean isSelfDependent (final SynchronizationPlan plan, final SynchronizationPlan.Bucket bucket)
+		{
+			assert plan != null : "plan is NULL";
+			assert bucket != null : "bucket is NULL";
+
+			for (int i = 0; i < bucket.size (); i++)
+			{
+				if (bucket.get (i).dependencies ().anyMatch (e -> plan.getBucket (e) == bucket))
+				{
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		/**
+		 * Write a shard of the <code>Element</code> instances at a dependency
+		 * level.  This method is run by each of the parallel writers.  It
+		 * opens a <code>DataStore</code> session for the thread, and writes
+		 * its part of each <code>Bucket</code> in the level, committing every
+		 * <code>WRITER_BATCH</code> <code>Element</code> instances.  The
+		 * session is closed once the shard has been written.
+		 *
+		 * @param  level  The <code>Bucket</code> instances in the level, and
+		 *                the number of shards into which each of them is
+		 *                divided, not null
+		 * @param  shard  The shard to write
+		 * @return        The number of <code>Element</code> instances written
+		 */
+
+		private long write (final Map<SynchronizationPlan.Bucket, Integer> level, final int shard)
+		{
+			this.log.trace ("write: level={}, shard={}", level, shard);
+
+			assert level != null : "level is NULL";
+
+			long count = 0;
+			DataStore session = this.dest.factory.getDataStore (this.dest.profile);
+
+			this.dest.session.set (session);
+
+			try
+			{
+				Transaction transaction = this.dest.getTransaction ();
+				transaction.begin ();
+
+				try
+				{
+					for (Map.Entry<SynchronizationPlan.Bucket, Integer> entry : level.entrySet ())
+					{
+						SynchronizationPlan.Bucket bucket = entry.getKey ();
+						int shards = entry.getValue ();
+
+						if (shard < shards)
+						{
+							int last = (int) (((long) bucket.size () * (shard + 1)) / shards);
+
+							for (int i = (int) (((long) bucket.size () * shard) / shards); i < last; i++)
+							{
+								bucket.get (i).getBuilder (this.dest)
+									.build ();
+
+								count += 1;
+
+								if (count % Synchronizer.WRITER_BATCH == 0)
+								{
+									transaction.commit ();
+									session.clear ();
+									transaction.begin ();
+								}
+							}
+
+							session.flush ();
+						}
+					}
+
+					transaction.commit ();
+				}
+				catch (RuntimeException ex)
+				{
+					if (transaction.isActive ())
+					{
+						transaction.rollback ();
+					}
+
+					throw ex;
+				}
+			}
+			finally
+			{
+				this.dest.session.remove ();
+				session.close ();
+			}
+
+			return count;
+		}
+
+		/**
+		 * Remove the <code>TranslationTable</code> mappings which are no
+		 * longer required once the <code>Element</code> instances in the
+		 * specified level have been written.  The dependency counts are
+		 * updated, and the mappings for the <code>Element</code> instances
+		 * which no longer have any dependents are removed.
+		 *
+		 * @param  level The <code>Bucket</code> instances in the level, not
+		 *               null
+		 */
+
+		private void release (final Collection<SynchronizationPlan.Bucket> level)
+		{
+			this.log.trace ("release: level={}", level);
+
+			assert level != null : "level is NULL";
+
+			for (SynchronizationPlan.Bucket bucket : level)
+			{
+				for (int i = 0; i < bucket.size (); i++)
+				{
+					Element element = bucket.get (i);
+
+					if (this.elements.get (element) == 0 && ! this.retained.contains (element))
+					{
+						DomainModel.table.get (element, this.dest)
+							.ifPresent (e -> DomainModel.table.remove (e));
+					}
+
+					element.dependencies ()
+						.map (e -> this.decDependency (e))
+						.filter (e -> this.elements.get (e) == 0)
+						.filter (e -> ! this.retained.contains (e))
+						.forEach (e -> DomainModel.table.get (e, this.dest)
+								.ifPresent (x -> DomainModel.table.remove (x)));
+				}
+			}
+		}
+
+		/**
+		 * Insert the <code>Element</code> instances into the destination
+		 * <code>DomainModel</code> with parallel writers.  The levels of the
+		 * <code>SynchronizationPlan</code> are written in order, and each
+		 * level is divided between the writers.  The writers for a level must
+		 * all finish before the next level is started.
+		 *
+		 * @param  plan The <code>SynchronizationPlan</code>, not null
+		 *
+		 * @throws RuntimeException if any of the writers fail, after all of
+		 *                          the writers for the level have finished.
+		 *                          The committed batches are not rolled back.
+		 */
+
+		private void processParallel (final SynchronizationPlan plan)
+		{
+			this.log.trace ("processParallel: plan={}", plan);
+
+			assert plan != null : "plan is NULL";
+
+			final ExecutorService workers = Executors.newFixedThreadPool (this.writers);
+			final Iterator<SynchronizationPlan.Bucket> buckets = plan.getBuckets ().iterator ();
+
+			SynchronizationPlan.Bucket next = (buckets.hasNext ()) ? buckets.next () : null;
+
+			try
+			{
+				while (next != null)
+				{
+					final int depth = next.getLevel ();
+					final Map<SynchronizationPlan.Bucket, Integer> level = new LinkedHashMap<> ();
+
+					while (next != null && next.getLevel () == depth)
+					{
+						level.put (next, (Synchronizer.isSelfDependent (plan, next)) ? 1 : this.writers);
+						next = (buckets.hasNext ()) ? buckets.next () : null;
+					}
+
+					this.log.debug ("Writing dependency level {} with {} writers", depth, this.writers);
+
+					List<Future<Long>> results = new ArrayList<> ();
+
+					for (int i = 0; i < this.writers; i++)
+					{
+						final int shard = i;
+						results.add (workers.submit (() -> this.write (level, shard)));
+					}
+
+					long count = 0;
+					RuntimeException failure = null;
+
+					for (Future<Long> result : results)
+					{
+						try
+						{
+							count += result.get ();
+						}
+						catch (ExecutionException ex)
+						{
+							failure = (failure != null) ? failure
+								: (ex.getCause () instanceof RuntimeException)
+									? (RuntimeException) ex.getCause ()
+									: new RuntimeException ("Writer failed:", ex.getCause ());
+						}
+						catch (InterruptedException ex)
+						{
+							Thread.currentThread ().interrupt ();
+							throw new RuntimeException ("Interrupted while waiting for the writers:", ex);
+						}
+					}
+
+					if (failure != null)
+					{
+						this.log.error ("Writer failed at dependency level {}, the destination has been partially written", depth);
+						throw failure;
+					}
+
+					this.log.debug ("Wrote {} elements at dependency level {}", count, depth);
+
+					this.release (level.keySet ());
+				}
+			}
+			finally
+			{
+				workers.shutdownNow ();
+			}
 		}
 	}
 
@@ -430,9 +1350,21 @@ public final class DomainModel implements AutoCloseable
 	/** The profile */
 	private final Profile profile;
 
+	/** The factory used to create the <code>DataStore</code> */
+	private final DataStore.DataStoreFactory factory;
+
 	/** The data store which contains all of the data */
 	private final DataStore datastore;
 
+	/** The <code>DataStore</code> session used by the current thread, if it is not <code>datastore</code> */
+	private final ThreadLocal<DataStore> session;
+
+	/** Lock held while connecting relationships, which may be shared between threads */
+	private final Object lock;
+
+	/** <code>TranslationTable</code> mappings which are waiting for a flush, null if they are recorded on insert */
+	private @Nullable Map<Element, Element> pending;
+
 	/**
 	 * Static initializer to create the <code>TranslationTable</code> instance.
 	 */
@@ -456,10 +1388,31 @@ public final class DomainModel implements AutoCloseable
 		this.log = LoggerFactory.getLogger (DomainModel.class);
 
 		this.profile = profile;
+		this.factory = factory;
 		this.datastore = factory.getDataStore (profile);
+		this.session = new ThreadLocal<> ();
+		this.lock = new Object ();
+
+		this.elementComponents = new ConcurrentHashMap<> ();
+		this.idComponents = new ConcurrentHashMap<> ();
+
+		this.pending = null;
+	}
+
+	/**
+	 * Get the <code>DataStore</code> used by the current thread.  This is the
+	 * <code>DataStore</code> session opened for the thread by a parallel
+	 * <code>Synchronizer</code>, or the <code>DataStore</code> for the
+	 * <code>DomainModel</code> otherwise.
+	 *
+	 * @return The <code>DataStore</code>
+	 */
+
+	private DataStore getDataStore ()
+	{
+		DataStore result = this.session.get ();
 
-		this.elementComponents = new HashMap<> ();
-		this.idComponents = new HashMap<> ();
+		return (result != null) ? result : this.datastore;
 	}
 
 	/**
@@ -492,22 +1445,33 @@ public final class DomainModel implements AutoCloseable
 		assert definition != null : "definition is NULL";
 		assert newElement != null : "newElement is NULL";
 
-		Preconditions.checkState (this.datastore.getTransaction (this).isActive (), "transaction required");
+		Preconditions.checkState (this.getDataStore ().getTransaction (this).isActive (), "transaction required");
 
 		this.log.debug ("inserting element into the DataStore: {}", newElement);
-		T result = this.datastore.insert (definition, newElement);
+		T result = this.getDataStore ().insert (definition, newElement);
 
 		this.log.debug ("connecting relationships");
-		if (! result.connect ())
+		synchronized (this.lock)
 		{
-			this.log.error ("Failed to connect relationships");
-			throw new IllegalStateException ("Failed to connect relationships");
+			if (! result.connect ())
+			{
+				this.log.error ("Failed to connect relationships");
+				throw new IllegalStateException ("Failed to connect relationships");
+			}
 		}
 
 		if (result.equalsAll (oldElement))
 		{
-			this.log.debug ("Inserting the Element mapping into the TranslationTable");
-			DomainModel.table.put (oldElement, result);
+			if (this.pending != null)
+			{
+				this.log.debug ("Deferring the Element mapping until the DataStore is flushed");
+				this.pending.put (oldElement, result);
+			}
+			else
+			{
+				this.log.debug ("Inserting the Element mapping into the TranslationTable");
+				DomainModel.table.put (oldElement, result);
+			}
 		}
 
 		return result;
@@ -541,7 +1505,7 @@ public final class DomainModel implements AutoCloseable
 		{
 			if (this.profile.hasGenerator (element))
 			{
-				this.idComponents.put (element, this.profile.getGenerator (this, element));
+				this.idComponents.putIfAbsent (element, this.profile.getGenerator (this, element));
 			}
 			else
 			{
@@ -550,7 +1514,7 @@ public final class DomainModel implements AutoCloseable
 					throw new IllegalStateException ("Can't find an IDGenerator");
 				}
 
-				this.idComponents.put (element, this.getIdGeneratorComponent ((Class<? extends Element>) element.getSuperclass ()));
+				this.idComponents.putIfAbsent (element, this.getIdGeneratorComponent ((Class<? extends Element>) element.getSuperclass ()));
 			}
 		}
 
@@ -575,7 +1539,7 @@ public final class DomainModel implements AutoCloseable
 
 		if (! this.elementComponents.containsKey (element))
 		{
-			this.elementComponents.put (element, this.profile.getDefinition (element)
+			this.elementComponents.putIfAbsent (element, this.profile.getDefinition (element)
 					.getComponent (this));
 		}
 
@@ -602,7 +1566,7 @@ public final class DomainModel implements AutoCloseable
 
 		if (! this.elementComponents.containsKey (impl))
 		{
-			this.elementComponents.put (impl, this.profile.getDefinition (element, impl)
+			this.elementComponents.putIfAbsent (impl, this.profile.getDefinition (element, impl)
 					.getComponent (this));
 		}
 
@@ -706,6 +1670,29 @@ public final class DomainModel implements AutoCloseable
 		return this.profile.getDefinition (element, impl);
 	}
 
+	/**
+	 * Determine if a <code>Query</code> can be created for the specified
+	 * <code>Selector</code> and implementation class.  Not every
+	 * <code>DataStore</code> can run every <code>Query</code>, so this
+	 * method should be used to check for optional queries before calling
+	 * <code>getQuery</code>.
+	 *
+	 * @param  selector The <code>Selector</code>, not null
+	 * @param  impl     The <code>Element</code> implementation class, not null
+	 * @return          <code>true</code> if the <code>Query</code> can be
+	 *                  created, <code>false</code> otherwise
+	 */
+
+	public boolean hasQuery (final Selector<?> selector, final Class<?> impl)
+	{
+		this.log.trace ("hasQuery: selector={}, impl={}", selector, impl);
+
+		Preconditions.checkNotNull (selector, "selector");
+		Preconditions.checkNotNull (impl, "impl");
+
+		return this.getDataStore ().hasQuery (selector, impl);
+	}
+
 	/**
 	 * Get a <code>Query</code> for the specified <code>Element</code> using
 	 * the default implementation class defined in the <code>Profile</code>.
@@ -745,7 +1732,7 @@ public final class DomainModel implements AutoCloseable
 		Preconditions.checkNotNull (selector, "selector");
 		Preconditions.checkNotNull (impl, "impl");
 
-		return this.datastore.createQuery (selector, impl, this, T::setDomainModel);
+		return this.getDataStore ().createQuery (selector, impl, this, T::setDomainModel);
 	}
 
 	/**
@@ -777,7 +1764,7 @@ public final class DomainModel implements AutoCloseable
 			throw new IllegalStateException ("DataStore is immutable");
 		}
 
-		return this.datastore.getTransaction (this);
+		return this.getDataStore ().getTransaction (this);
 	}
 
 	/**
@@ -791,6 +1778,12 @@ public final class DomainModel implements AutoCloseable
 	 * <code>True</code>.  Otherwise, this method should return
 	 * <code>False</code>, even if an identical <code>Element</code> instance
 	 * exists in the <code>DataStore</code>.
+	 * <p>
+	 * On a thread which is writing for a parallel <code>Synchronizer</code>,
+	 * the <code>Element</code> instances which were committed by the other
+	 * writers are detached from the session for the thread, but they are in
+	 * the shared storage, so they are contained in the
+	 * <code>DomainModel</code> if they have been assigned an ID.
 	 *
 	 * @param  element The <code>Element</code> instance to test, not null
 	 * @return         <code>True</code> if the <code>DataStore</code>
@@ -804,7 +1797,9 @@ public final class DomainModel implements AutoCloseable
 
 		Preconditions.checkNotNull (element, "element");
 
-		return (this == element.getDomainModel () && this.datastore.contains (element));
+		return (this == element.getDomainModel ()
+				&& (this.getDataStore ().contains (element)
+					|| (this.session.get () != null && element.getId () != null)));
 	}
 
 	/**
@@ -826,8 +1821,8 @@ public final class DomainModel implements AutoCloseable
 		this.log.trace ("remove: element={}", element);
 
 		Preconditions.checkNotNull (element, "element");
-		Preconditions.checkArgument (this.datastore.contains (element), "element is not in the datastore");
-		Preconditions.checkState (this.datastore.getTransaction (this).isActive (), "transaction required");
+		Preconditions.checkArgument (this.getDataStore ().contains (element), "element is not in the datastore");
+		Preconditions.checkState (this.getDataStore ().getTransaction (this).isActive (), "transaction required");
 
 		this.log.debug ("Disconnecting relationships");
 		if (! element.disconnect ())
@@ -837,7 +1832,7 @@ public final class DomainModel implements AutoCloseable
 		}
 
 		this.log.debug ("removing Element from the DataStore");
-		this.datastore.remove (element);
+		this.getDataStore ().remove (element);
 		DomainModel.table.remove (element);
 	}
 }
@@ -541,7 +541,7 @@ public abstract class Element implements Comparable<Element>, Serializable
 		 *         dependency graph
 		 */
 
-		private Integer getDependencyLevel ()
+		Integer getDependencyLevel ()
 		{
 			return this.metadata.getDependencyLevel ();
 		}
@@ -195,6 +195,37 @@ public abstract class Enrolment extends Element
 			return enrolment;
 		}
 
+		/**
+		 * Implementation of the post-build hook to update the final grade and
+		 * the usable flag.  These fields are not a part of the identity of
+		 * the <code>Enrolment</code>, so <code>build</code> returns the
+		 * existing <code>Enrolment</code> when only they have changed, and it
+		 * is updated here.
+		 *
+		 * @param  enrolment The <code>Enrolment</code>, not null
+		 * @return           The <code>Enrolment</code>
+		 */
+
+		@Override
+		protected Enrolment postBuild (final Enrolment enrolment)
+		{
+			assert enrolment != null : "enrolment is NULL";
+
+			if (! Objects.equals (enrolment.getFinalGrade (), this.finalGrade))
+			{
+				this.log.debug ("Updating the final grade: {}", this.finalGrade);
+				enrolment.setFinalGrade (this.finalGrade);
+			}
+
+			if (! Objects.equals (enrolment.isUsable (), this.usable))
+			{
+				this.log.debug ("Updating the usable flag: {}", this.usable);
+				enrolment.setUsable (this.usable);
+			}
+
+			return enrolment;
+		}
+
 		/**
 		 * Reset the builder.  This method will set all of the fields for the
 		 * <code>Element</code> to be built to <code>null</code>.
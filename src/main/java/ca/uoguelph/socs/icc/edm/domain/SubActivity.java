@@ -431,6 +431,9 @@ public abstract class SubActivity extends ParentActivity
 	/** The <code>DomainModel</code> which contains the <code>SubActivity</code> */
 	public static final Property<SubActivity, DomainModel> MODEL;
 
+	/** The <code>Course</code> containing the <code>SubActivity</code> */
+	public static final Property<SubActivity, Course> COURSE;
+
 	/** The name of the <code>SubActivity</code> */
 	public static final Property<SubActivity, String> NAME;
 
@@ -446,6 +449,9 @@ public abstract class SubActivity extends ParentActivity
 	/** Select all of the <code>SubActivity</code> instances */
 	public static final Selector<SubActivity> SELECTOR_ALL;
 
+	/** Select all of the <code>SubActivity</code> instances for a <code>Course</code> */
+	public static final Selector<SubActivity> SELECTOR_COURSE;
+
 	/**
 	 * Initialize the <code>MetaData</code>, <code>Property</code> and
 	 * <code>Selector</code> instances for the <code>SubActivity</code>.
@@ -461,6 +467,9 @@ public abstract class SubActivity extends ParentActivity
 		MODEL = Property.of (SubActivity.class, DomainModel.class, "domainmodel",
 				SubActivity::getDomainModel, SubActivity::setDomainModel);
 
+		COURSE = Property.of (SubActivity.class, Course.class, "course",
+				SubActivity::getCourse);
+
 		NAME = Property.of (SubActivity.class, String.class, "name",
 				SubActivity::getName, SubActivity::setName,
 				Property.Flags.REQUIRED);
@@ -479,6 +488,8 @@ public abstract class SubActivity extends ParentActivity
 			.setName ("all")
 			.build ();
 
+		SELECTOR_COURSE = Selector.of (Selector.Cardinality.MULTIPLE, COURSE);
+
 		METADATA = MetaData.builder (SubActivity.class, ParentActivity.METADATA)
 			.addProperty (ID)
 			.addProperty (MODEL)
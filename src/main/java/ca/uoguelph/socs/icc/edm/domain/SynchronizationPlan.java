@@ -0,0 +1,495 @@
+/* Copyright (C) 2016 James E. Stark
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uoguelph.socs.icc.edm.domain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+
+import ca.uoguelph.socs.icc.edm.domain.datastore.Profile;
+
+/**
+ * The order in which the <code>Synchronizer</code> inserts a set of
+ * <code>Element</code> instances.  The <code>Element</code> instances are
+ * placed into a <code>Bucket</code> for each <code>Element</code> type,
+ * and the <code>Bucket</code> instances are ordered by dependency level and
+ * then by the name of the <code>Element</code> type.  Within a
+ * <code>Bucket</code> the <code>Element</code> instances are ordered by their
+ * <code>DataStore</code> ID.  This is the same order as is defined by
+ * <code>Element.compareTo</code>, but the <code>Definition</code> for each
+ * implementation class is only looked up once, and the ID numbers are sorted
+ * as primitive values.
+ *
+ * @author  James E. Stark
+ * @version 1.0
+ * @see     DomainModel.Synchronizer
+ */
+
+final class SynchronizationPlan implements Iterable<Element>
+{
+	/**
+	 * The <code>Element</code> instances of a single type, in the order in
+	 * which they are to be inserted.
+	 *
+	 * @author  James E. Stark
+	 * @version 1.0
+	 */
+
+	static final class Bucket
+	{
+		/** The dependency level of the <code>Element</code> type */
+		private final int level;
+
+		/** The <code>Element</code> interface class */
+		private final Class<? extends Element> type;
+
+		/** The <code>DataStore</code> ID numbers of the <code>Element</code> instances */
+		private long[] ids;
+
+		/** The <code>Element</code> instances */
+		private Element[] elements;
+
+		/** The number of <code>Element</code> instances in the <code>Bucket</code> */
+		private int size;
+
+		/**
+		 * Create the <code>Bucket</code>.
+		 *
+		 * @param  definition The <code>Definition</code> for the
+		 *                    <code>Element</code> type, not null
+		 */
+
+		private Bucket (final Element.Definition<? extends Element> definition)
+		{
+			assert definition != null : "definition is NULL";
+
+			this.level = definition.getDependencyLevel ();
+			this.type = definition.getElementType ();
+
+			this.ids = new long[16];
+			this.elements = new Element[16];
+			this.size = 0;
+		}
+
+		/**
+		 * Add the specified <code>Element</code> to the <code>Bucket</code>.
+		 *
+		 * @param  element The <code>Element</code>, not null
+		 */
+
+		private void add (final Element element)
+		{
+			assert element != null : "element is NULL";
+
+			Preconditions.checkArgument (element.getId () != null, "Element does not have an ID: %s", element);
+
+			if (this.size == this.ids.length)
+			{
+				this.ids = Arrays.copyOf (this.ids, this.size * 2);
+				this.elements = Arrays.copyOf (this.elements, this.size * 2);
+			}
+
+			this.ids[this.size] = element.getId ();
+			this.elements[this.size] = element;
+			this.size += 1;
+		}
+
+		/**
+		 * Sort the <code>Element</code> instances in the range
+		 * <code>[low, high]</code> by their ID numbers.  This is a quicksort
+		 * on the primitive ID numbers which moves the <code>Element</code>
+		 * instances along with them.  It recurses on the smaller partition, so
+		 * the stack depth is logarithmic, and uses an insertion sort for short
+		 * ranges.
+		 *
+		 * @param  low  The index of the first <code>Element</code> to sort
+		 * @param  high The index of the last <code>Element</code> to sort
+		 */
+
+		private void sort (int low, int high)
+		{
+			while (high - low > 16)
+			{
+				int mid = (low + high) >>> 1;
+
+				if (this.ids[mid] < this.ids[low])
+				{
+					this.swap (mid, low);
+				}
+
+				if (this.ids[high] < this.ids[low])
+				{
+					this.swap (high, low);
+				}
+
+				if (this.ids[high] < this.ids[mid])
+				{
+					this.swap (high, mid);
+				}
+
+				long pivot = this.ids[mid];
+				int i = low;
+				int j = high;
+
+				while (i <= j)
+				{
+					while (this.ids[i] < pivot)
+					{
+						i += 1;
+					}
+
+					while (this.ids[j] > pivot)
+					{
+						j -= 1;
+					}
+
+					if (i <= j)
+					{
+						this.swap (i, j);
+						i += 1;
+						j -= 1;
+					}
+				}
+
+				if (j - low < high - i)
+				{
+					this.sort (low, j);
+					low = i;
+				}
+				else
+				{
+					this.sort (i, high);
+					high = j;
+				}
+			}
+
+			for (int i = low + 1; i <= high; i++)
+			{
+				long id = this.ids[i];
+				Element element = this.elements[i];
+				int j = i - 1;
+
+				while (j >= low && this.ids[j] > id)
+				{
+					this.ids[j + 1] = this.ids[j];
+					this.elements[j + 1] = this.elements[j];
+					j -= 1;
+				}
+
+				this.ids[j + 1] = id;
+				this.elements[j + 1] = element;
+			}
+		}
+
+		/**
+		 * Exchange the <code>Element</code> instances at the specified
+		 * indices.
+		 *
+		 * @param  i The first index
+		 * @param  j The second index
+		 */
+
+		private void swap (final int i, final int j)
+		{
+			long id = this.ids[i];
+			this.ids[i] = this.ids[j];
+			this.ids[j] = id;
+
+			Element element = this.elements[i];
+			this.elements[i] = this.elements[j];
+			this.elements[j] = element;
+		}
+
+		/**
+		 * Get the dependency level of the <code>Element</code> type.
+		 *
+		 * @return The dependency level
+		 */
+
+		int getLevel ()
+		{
+			return this.level;
+		}
+
+		/**
+		 * Get the <code>Element</code> interface class.
+		 *
+		 * @return The <code>Element</code> interface class
+		 */
+
+		Class<? extends Element> getElementType ()
+		{
+			return this.type;
+		}
+
+		/**
+		 * Get the number of <code>Element</code> instances in the
+		 * <code>Bucket</code>.
+		 *
+		 * @return The number of <code>Element</code> instances
+		 */
+
+		int size ()
+		{
+			return this.size;
+		}
+
+		/**
+		 * Get the <code>Element</code> at the specified position.
+		 *
+		 * @param  index The position of the <code>Element</code>
+		 * @return       The <code>Element</code>
+		 */
+
+		Element get (final int index)
+		{
+			Preconditions.checkElementIndex (index, this.size);
+
+			return this.elements[index];
+		}
+	}
+
+	/**
+	 * <code>Iterator</code> over the <code>Element</code> instances in the
+	 * <code>SynchronizationPlan</code>, which also reports the
+	 * <code>Bucket</code> containing the last <code>Element</code> that it
+	 * returned.
+	 *
+	 * @author  James E. Stark
+	 * @version 1.0
+	 */
+
+	final class Cursor implements Iterator<Element>
+	{
+		/** The index of the current <code>Bucket</code> */
+		private int bucket;
+
+		/** The index of the next <code>Element</code> in the current <code>Bucket</code> */
+		private int index;
+
+		/** The <code>Bucket</code> containing the last <code>Element</code> returned */
+		private Bucket current;
+
+		/**
+		 * Create the <code>Cursor</code>.
+		 */
+
+		private Cursor ()
+		{
+			this.bucket = 0;
+			this.index = 0;
+			this.current = null;
+		}
+
+		/**
+		 * Determine if there are more <code>Element</code> instances.
+		 *
+		 * @return <code>true</code> if there are more <code>Element</code>
+		 *         instances, <code>false</code> otherwise
+		 */
+
+		@Override
+		public boolean hasNext ()
+		{
+			while (this.bucket < SynchronizationPlan.this.buckets.size ()
+					&& this.index >= SynchronizationPlan.this.buckets.get (this.bucket).size)
+			{
+				this.bucket += 1;
+				this.index = 0;
+			}
+
+			return this.bucket < SynchronizationPlan.this.buckets.size ();
+		}
+
+		/**
+		 * Get the next <code>Element</code>.
+		 *
+		 * @return The next <code>Element</code>
+		 *
+		 * @throws NoSuchElementException if there are no more
+		 *                                <code>Element</code> instances
+		 */
+
+		@Override
+		public Element next ()
+		{
+			if (! this.hasNext ())
+			{
+				throw new NoSuchElementException ();
+			}
+
+			this.current = SynchronizationPlan.this.buckets.get (this.bucket);
+			this.index += 1;
+
+			return this.current.elements[this.index - 1];
+		}
+
+		/**
+		 * Get the <code>Bucket</code> containing the last <code>Element</code>
+		 * returned by <code>next</code>.
+		 *
+		 * @return The <code>Bucket</code>, null if <code>next</code> has not
+		 *         been called
+		 */
+
+		Bucket getBucket ()
+		{
+			return this.current;
+		}
+	}
+
+	/** The <code>Bucket</code> for each <code>Element</code> implementation class */
+	private final Map<Class<? extends Element>, Bucket> classes;
+
+	/** The <code>Bucket</code> instances, in the order that they are inserted */
+	private final List<Bucket> buckets;
+
+	/** The total number of <code>Element</code> instances */
+	private final long size;
+
+	/**
+	 * Create the <code>SynchronizationPlan</code> for the specified
+	 * <code>Element</code> instances.
+	 *
+	 * @param  elements The <code>Element</code> instances, not null
+	 * @return          The <code>SynchronizationPlan</code>
+	 *
+	 * @throws IllegalArgumentException if an <code>Element</code> does not have
+	 *                                  an ID
+	 * @throws IllegalStateException    if the <code>Definition</code> for an
+	 *                                  <code>Element</code> is not registered
+	 */
+
+	static SynchronizationPlan create (final Collection<? extends Element> elements)
+	{
+		assert elements != null : "elements is NULL";
+
+		Map<Class<? extends Element>, Bucket> byClass = new HashMap<> ();
+		Map<Class<? extends Element>, Bucket> byType = new HashMap<> ();
+
+		for (Element element : elements)
+		{
+			Bucket bucket = byClass.get (element.getClass ());
+
+			if (bucket == null)
+			{
+				Element.Definition<? extends Element> definition = Profile.ELEMENT_DEFINITIONS.get (element.getClass ());
+
+				Preconditions.checkState (definition != null, "Definition not registered: %s", element.getClass ().getSimpleName ());
+
+				bucket = byType.computeIfAbsent (definition.getElementType (), x -> new Bucket (definition));
+				byClass.put (element.getClass (), bucket);
+			}
+
+			bucket.add (element);
+		}
+
+		List<Bucket> buckets = new ArrayList<> (byType.values ());
+
+		buckets.sort ((x, y) -> (x.level != y.level)
+				? Integer.compare (x.level, y.level)
+				: x.type.getName ().compareTo (y.type.getName ()));
+
+		buckets.forEach (b -> b.sort (0, b.size - 1));
+
+		return new SynchronizationPlan (byClass, buckets, elements.size ());
+	}
+
+	/**
+	 * Create the <code>SynchronizationPlan</code>.
+	 *
+	 * @param  classes The <code>Bucket</code> for each implementation class,
+	 *                 not null
+	 * @param  buckets The sorted <code>Bucket</code> instances, not null
+	 * @param  size    The total number of <code>Element</code> instances
+	 */
+
+	private SynchronizationPlan (final Map<Class<? extends Element>, Bucket> classes, final List<Bucket> buckets, final long size)
+	{
+		assert classes != null : "classes is NULL";
+		assert buckets != null : "buckets is NULL";
+
+		this.classes = classes;
+		this.buckets = buckets;
+		this.size = size;
+	}
+
+	/**
+	 * Get the <code>Bucket</code> instances in the order that they are to be
+	 * inserted.
+	 *
+	 * @return An unmodifiable <code>List</code> of the <code>Bucket</code>
+	 *         instances
+	 */
+
+	List<Bucket> getBuckets ()
+	{
+		return Collections.unmodifiableList (this.buckets);
+	}
+
+	/**
+	 * Get the <code>Bucket</code> which contains <code>Element</code>
+	 * instances of the same class as the specified <code>Element</code>.
+	 *
+	 * @param  element The <code>Element</code>, not null
+	 * @return         The <code>Bucket</code>, null if the
+	 *                 <code>SynchronizationPlan</code> does not contain any
+	 *                 <code>Element</code> instances of the class
+	 */
+
+	@Nullable Bucket getBucket (final Element element)
+	{
+		assert element != null : "element is NULL";
+
+		return this.classes.get (element.getClass ());
+	}
+
+	/**
+	 * Get the total number of <code>Element</code> instances in the
+	 * <code>SynchronizationPlan</code>.
+	 *
+	 * @return The number of <code>Element</code> instances
+	 */
+
+	long size ()
+	{
+		return this.size;
+	}
+
+	/**
+	 * Get a <code>Cursor</code> over the <code>Element</code> instances in
+	 * the order that they are to be inserted.
+	 *
+	 * @return The <code>Cursor</code>
+	 */
+
+	@Override
+	public Cursor iterator ()
+	{
+		return new Cursor ();
+	}
+}
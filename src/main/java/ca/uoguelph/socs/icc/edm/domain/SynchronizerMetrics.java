@@ -0,0 +1,417 @@
+/* Copyright (C) 2016 James E. Stark
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uoguelph.socs.icc.edm.domain;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Batch sizing and metrics for a <code>DomainModel.Synchronizer</code>.  The
+ * size of each batch is computed from the measured commit latency of the
+ * previous batch (the time taken to flush the batch to the database and
+ * commit it), so that each commit takes roughly the target amount of time,
+ * and from the free space on the heap, so that the persistence context does
+ * not exhaust the heap.  The free space is measured from the heap usage after
+ * the last garbage collection, so that garbage which has not been collected
+ * yet is not counted.  The batch size is always kept between the configured
+ * minimum and maximum.
+ * <p>
+ * The statistics for each batch are written to the log, and are available
+ * over JMX, once registered.  The metrics are updated by the thread running
+ * the synchronization, and may be read by other threads.
+ *
+ * @author  James E. Stark
+ * @version 1.0
+ */
+
+final class SynchronizerMetrics implements SynchronizerMetricsMXBean
+{
+	/** The fraction of the heap which must be free for the batch to grow */
+	private static final double HEAP_LOW;
+
+	/** The largest factor by which the batch size is changed at a time */
+	private static final int STEP;
+
+	/** Sequence used to give each registered instance a unique name */
+	private static final AtomicLong SEQUENCE;
+
+	/** The heap memory pools */
+	private static final List<MemoryPoolMXBean> POOLS;
+
+	/** The log */
+	private final Logger log;
+
+	/** The minimum batch size */
+	private final int min;
+
+	/** The maximum batch size */
+	private final int max;
+
+	/** The target commit latency, in nanoseconds */
+	private final long target;
+
+	/** The number of committed batches */
+	private final AtomicLong batches;
+
+	/** The number of committed <code>Element</code> instances */
+	private final AtomicLong elements;
+
+	/** The number of evicted <code>Element</code> instances */
+	private final AtomicLong evicted;
+
+	/** The total commit time, in nanoseconds */
+	private final AtomicLong commit;
+
+	/** The number of <code>Element</code> instances in the last batch */
+	private volatile int lastElements;
+
+	/** The commit time for the last batch, in nanoseconds */
+	private volatile long lastCommit;
+
+	/** The number of <code>Element</code> instances evicted after the last batch */
+	private volatile int lastEvicted;
+
+	/** The heap headroom when the last batch was committed */
+	private volatile double headroom;
+
+	/** The size of the next batch */
+	private volatile int size;
+
+	/** The JMX name, null if the metrics are not registered */
+	private ObjectName name;
+
+	/**
+	 * Static initializer to set the sizing parameters.
+	 */
+
+	static
+	{
+		HEAP_LOW = 0.2;
+		STEP = 2;
+		SEQUENCE = new AtomicLong ();
+
+		POOLS = ManagementFactory.getMemoryPoolMXBeans ()
+			.stream ()
+			.filter (x -> x.getType () == MemoryType.HEAP)
+			.collect (Collectors.toList ());
+	}
+
+	/**
+	 * Create the <code>SynchronizerMetrics</code>.  The first batch is
+	 * the minimum size.
+	 *
+	 * @param  min    The minimum batch size, greater than zero
+	 * @param  max    The maximum batch size, not less than <code>min</code>
+	 * @param  target The target commit latency, in milliseconds
+	 */
+
+	public SynchronizerMetrics (final int min, final int max, final long target)
+	{
+		assert min > 0 : "min must be greater than zero";
+		assert max >= min : "max is less than min";
+		assert target > 0 : "target must be greater than zero";
+
+		this.log = LoggerFactory.getLogger (this.getClass ());
+
+		this.min = min;
+		this.max = max;
+		this.target = TimeUnit.MILLISECONDS.toNanos (target);
+
+		this.batches = new AtomicLong ();
+		this.elements = new AtomicLong ();
+		this.evicted = new AtomicLong ();
+		this.commit = new AtomicLong ();
+
+		this.lastElements = 0;
+		this.lastCommit = 0;
+		this.lastEvicted = 0;
+		this.headroom = SynchronizerMetrics.measureHeadroom ();
+		this.size = min;
+
+		this.name = null;
+	}
+
+	/**
+	 * Measure the fraction of the maximum heap size which is free.  The
+	 * space used by each heap memory pool is taken from its usage after the
+	 * last garbage collection, so that only live objects are counted.  A
+	 * pool which does not support collection usage is skipped.
+	 *
+	 * @return The heap headroom, between zero and one
+	 */
+
+	private static double measureHeadroom ()
+	{
+		long max = Runtime.getRuntime ().maxMemory ();
+
+		long used = SynchronizerMetrics.POOLS.stream ()
+			.filter (x -> x.isValid ())
+			.map (x -> x.getCollectionUsage ())
+			.filter (x -> x != null)
+			.mapToLong (MemoryUsage::getUsed)
+			.sum ();
+
+		return Math.max (0.0, (double) (max - used) / max);
+	}
+
+	/**
+	 * Determine if the free space on the heap has dropped below the
+	 * low-water mark.  The current batch should be committed early if it
+	 * has.
+	 *
+	 * @return <code>true</code> if the heap is low, <code>false</code>
+	 *         otherwise
+	 */
+
+	public boolean isHeapLow ()
+	{
+		return SynchronizerMetrics.measureHeadroom () < SynchronizerMetrics.HEAP_LOW;
+	}
+
+	/**
+	 * Record a committed batch, and compute the size of the next batch.  The
+	 * next batch is sized so that its commit should take the target time,
+	 * based on the commit time per <code>Element</code> of this batch, but
+	 * it is never changed by more than <code>STEP</code> times at once.  The
+	 * batch is not allowed to grow while the heap is low, and is halved
+	 * instead.
+	 *
+	 * @param  elements The number of <code>Element</code> instances in the
+	 *                  batch
+	 * @param  commit   The time taken to flush and commit the batch, in
+	 *                  nanoseconds
+	 * @param  evicted  The number of <code>Element</code> instances evicted
+	 *                  after the batch was committed
+	 */
+
+	public void record (final int elements, final long commit, final int evicted)
+	{
+		this.log.trace ("record: elements={}, commit={}, evicted={}", elements, commit, evicted);
+
+		this.batches.incrementAndGet ();
+		this.elements.addAndGet (elements);
+		this.evicted.addAndGet (evicted);
+		this.commit.addAndGet (commit);
+
+		this.lastElements = elements;
+		this.lastCommit = commit;
+		this.lastEvicted = evicted;
+		this.headroom = SynchronizerMetrics.measureHeadroom ();
+
+		long next;
+
+		if (this.headroom < SynchronizerMetrics.HEAP_LOW)
+		{
+			next = this.size / SynchronizerMetrics.STEP;
+		}
+		else if (elements < this.size)
+		{
+			next = this.size;
+		}
+		else
+		{
+			next = (long) (((double) elements * this.target) / Math.max (commit, 1));
+			next = Math.max (next, this.size / SynchronizerMetrics.STEP);
+			next = Math.min (next, (long) this.size * SynchronizerMetrics.STEP);
+		}
+
+		this.size = (int) Math.max (this.min, Math.min (this.max, next));
+
+		this.log.debug ("Committed {} elements in {} ms, evicted {} elements, heap headroom {}, next batch {}",
+				elements, TimeUnit.NANOSECONDS.toMillis (commit), evicted,
+				String.format ("%.2f", this.headroom), this.size);
+	}
+
+	/**
+	 * Register the metrics with the platform <code>MBeanServer</code>.  A
+	 * failure to register is logged, and otherwise ignored.
+	 */
+
+	public void register ()
+	{
+		this.log.trace ("register:");
+
+		try
+		{
+			this.name = new ObjectName (String.format ("ca.uoguelph.socs.icc.edm:type=Synchronizer,id=%d", SynchronizerMetrics.SEQUENCE.incrementAndGet ()));
+			ManagementFactory.getPlatformMBeanServer ().registerMBean (this, this.name);
+		}
+		catch (JMException ex)
+		{
+			this.log.warn ("Failed to register the synchronizer metrics: {}", ex.getMessage ());
+			this.name = null;
+		}
+	}
+
+	/**
+	 * Remove the metrics from the platform <code>MBeanServer</code>.
+	 */
+
+	public void unregister ()
+	{
+		this.log.trace ("unregister:");
+
+		if (this.name != null)
+		{
+			try
+			{
+				ManagementFactory.getPlatformMBeanServer ().unregisterMBean (this.name);
+			}
+			catch (JMException ex)
+			{
+				this.log.warn ("Failed to unregister the synchronizer metrics: {}", ex.getMessage ());
+			}
+
+			this.name = null;
+		}
+	}
+
+	/**
+	 * Write a summary of the synchronization to the log.
+	 */
+
+	public void report ()
+	{
+		this.log.info ("Committed {} elements in {} batches, {} ms committing, evicted {} elements",
+				this.getElements (), this.getBatches (), this.getCommitMillis (), this.getEvicted ());
+	}
+
+	/**
+	 * Get the number of batches which have been committed.
+	 *
+	 * @return The number of batches
+	 */
+
+	@Override
+	public long getBatches ()
+	{
+		return this.batches.get ();
+	}
+
+	/**
+	 * Get the number of <code>Element</code> instances which have been
+	 * committed.
+	 *
+	 * @return The number of <code>Element</code> instances
+	 */
+
+	@Override
+	public long getElements ()
+	{
+		return this.elements.get ();
+	}
+
+	/**
+	 * Get the number of <code>Element</code> instances which have been
+	 * evicted from the destination <code>DataStore</code>.
+	 *
+	 * @return The number of evicted <code>Element</code> instances
+	 */
+
+	@Override
+	public long getEvicted ()
+	{
+		return this.evicted.get ();
+	}
+
+	/**
+	 * Get the total time spent committing the batches.
+	 *
+	 * @return The total commit time, in milliseconds
+	 */
+
+	@Override
+	public long getCommitMillis ()
+	{
+		return TimeUnit.NANOSECONDS.toMillis (this.commit.get ());
+	}
+
+	/**
+	 * Get the number of <code>Element</code> instances in the last batch.
+	 *
+	 * @return The size of the last batch
+	 */
+
+	@Override
+	public int getLastBatchElements ()
+	{
+		return this.lastElements;
+	}
+
+	/**
+	 * Get the time taken to commit the last batch.
+	 *
+	 * @return The commit time, in milliseconds
+	 */
+
+	@Override
+	public long getLastCommitMillis ()
+	{
+		return TimeUnit.NANOSECONDS.toMillis (this.lastCommit);
+	}
+
+	/**
+	 * Get the number of <code>Element</code> instances evicted after the
+	 * last batch.
+	 *
+	 * @return The number of evicted <code>Element</code> instances
+	 */
+
+	@Override
+	public int getLastEvicted ()
+	{
+		return this.lastEvicted;
+	}
+
+	/**
+	 * Get the number of <code>Element</code> instances to be written in the
+	 * next batch.
+	 *
+	 * @return The size of the next batch
+	 */
+
+	@Override
+	public int getBatchSize ()
+	{
+		return this.size;
+	}
+
+	/**
+	 * Get the fraction of the maximum heap size which was free when the last
+	 * batch was committed.
+	 *
+	 * @return The heap headroom, between zero and one
+	 */
+
+	@Override
+	public double getHeapHeadroom ()
+	{
+		return this.headroom;
+	}
+}
@@ -0,0 +1,106 @@
+/* Copyright (C) 2016 James E. Stark
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uoguelph.socs.icc.edm.domain;
+
+/**
+ * JMX management interface for the batches committed by a
+ * <code>DomainModel.Synchronizer</code>.  The attributes describing the last
+ * batch are updated as each batch is committed.
+ *
+ * @author  James E. Stark
+ * @version 1.0
+ */
+
+public interface SynchronizerMetricsMXBean
+{
+	/**
+	 * Get the number of batches which have been committed.
+	 *
+	 * @return The number of batches
+	 */
+
+	public abstract long getBatches ();
+
+	/**
+	 * Get the number of <code>Element</code> instances which have been
+	 * committed.
+	 *
+	 * @return The number of <code>Element</code> instances
+	 */
+
+	public abstract long getElements ();
+
+	/**
+	 * Get the number of <code>Element</code> instances which have been
+	 * evicted from the destination <code>DataStore</code>.
+	 *
+	 * @return The number of evicted <code>Element</code> instances
+	 */
+
+	public abstract long getEvicted ();
+
+	/**
+	 * Get the total time spent committing the batches.
+	 *
+	 * @return The total commit time, in milliseconds
+	 */
+
+	public abstract long getCommitMillis ();
+
+	/**
+	 * Get the number of <code>Element</code> instances in the last batch.
+	 *
+	 * @return The size of the last batch
+	 */
+
+	public abstract int getLastBatchElements ();
+
+	/**
+	 * Get the time taken to commit the last batch.
+	 *
+	 * @return The commit time, in milliseconds
+	 */
+
+	public abstract long getLastCommitMillis ();
+
+	/**
+	 * Get the number of <code>Element</code> instances evicted after the
+	 * last batch.
+	 *
+	 * @return The number of evicted <code>Element</code> instances
+	 */
+
+	public abstract int getLastEvicted ();
+
+	/**
+	 * Get the number of <code>Element</code> instances to be written in the
+	 * next batch.
+	 *
+	 * @return The size of the next batch
+	 */
+
+	public abstract int getBatchSize ();
+
+	/**
+	 * Get the fraction of the maximum heap size which was free when the last
+	 * batch was committed.
+	 *
+	 * @return The heap headroom, between zero and one
+	 */
+
+	public abstract double getHeapHeadroom ();
+}
@@ -21,6 +21,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import javax.annotation.CheckReturnValue;
@@ -603,6 +604,9 @@ public abstract class User extends Element
 	/** The <code>Enrolment</code> instances associated with the <code>User</code> */
 	public static final Property<User, Enrolment> ENROLMENTS;
 
+	/** The <code>Course</code> instances in which the <code>User</code> participates, read-only */
+	public static final Property<User, Course> COURSES;
+
 	/** Select the <code>User</code> instance by its id */
 	public static final Selector<User> SELECTOR_ID;
 
@@ -615,6 +619,9 @@ public abstract class User extends Element
 	/** Select an <code>User</code> instance by its username */
 	public static final Selector<User> SELECTOR_USERNAME;
 
+	/** Select all of the <code>User</code> instances participating in a <code>Course</code> */
+	public static final Selector<User> SELECTOR_COURSES;
+
 	/**
 	 * Initialize the <code>MetaData</code>, <code>Property</code> and
 	 * <code>Selector</code> instances for the <code>User</code>.
@@ -644,9 +651,16 @@ public abstract class User extends Element
 				User::getEnrolments, User::addEnrolment, User::removeEnrolment,
 				Property.Flags.MUTABLE);
 
+		COURSES = Property.ofCollection (User.class, Course.class, "courses",
+				x -> x.getEnrolments ()
+					.stream ()
+					.map (Enrolment::getCourse)
+					.collect (Collectors.toList ()));
+
 		SELECTOR_ID = Selector.of (Selector.Cardinality.KEY, ID);
 		SELECTOR_USERNAME = Selector.of (Selector.Cardinality.SINGLE, USERNAME);
 		SELECTOR_ENROLMENTS = Selector.of (Selector.Cardinality.SINGLE, ENROLMENTS);
+		SELECTOR_COURSES = Selector.of (Selector.Cardinality.MULTIPLE, COURSES);
 
 		SELECTOR_ALL =  Selector.builder (User.class)
 			.setCardinality (Selector.Cardinality.MULTIPLE)
@@ -90,6 +90,18 @@ public interface DataStore
 			DomainModel model,
 			BiConsumer<T, DomainModel> reference);
 
+	/**
+	 * Determine if the <code>DataStore</code> can run a <code>Query</code>
+	 * for the specified <code>Selector</code> and implementation class.
+	 *
+	 * @param  selector The <code>Selector</code>, not null
+	 * @param  impl     The <code>Element</code> implementation class, not null
+	 * @return          <code>true</code> if the <code>Query</code> can be
+	 *                  created, <code>false</code> otherwise
+	 */
+
+	public abstract boolean hasQuery (Selector<?> selector, Class<?> impl);
+
 	/**
 	 * Get a <code>List</code> containing all of the ID numbers in the
 	 * <code>DataStore</code> for instances of the specified
@@ -120,6 +132,17 @@ public interface DataStore
 
 	public abstract boolean isOpen ();
 
+	/**
+	 * Determine if all of the <code>DataStore</code> instances created from
+	 * the same <code>Profile</code> share the underlying storage, so that the
+	 * data committed by one of them can be read by the others.
+	 *
+	 * @return <code>true</code> if the storage is shared, <code>false</code>
+	 *         otherwise
+	 */
+
+	public abstract boolean isShared ();
+
 	/**
 	 * Close the <code>DataStore</code>.  If there is an active transaction
 	 * then the <code>DataStore</code> will be closed when the transaction
@@ -155,6 +178,13 @@ public interface DataStore
 
 	public abstract void evict (Element element);
 
+	/**
+	 * Write any pending changes to the <code>DataStore</code>, without
+	 * committing the active <code>Transaction</code>.
+	 */
+
+	public abstract void flush ();
+
 	/**
 	 * Insert the specified <code>Element</code> instance into the
 	 * <code>DataStore</code>.
@@ -16,13 +16,15 @@
 
 package ca.uoguelph.socs.icc.edm.domain.datastore;
 
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.IdentityHashMap;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import javax.annotation.Nullable;
 
@@ -41,9 +43,31 @@ import ca.uoguelph.socs.icc.edm.domain.Element;
  * <code>DomainModel</code> instances when an <code>Element</code> instance can
  * not be uniquely identified based on its required fields.
  * <p>
- * The <code>TranslationTable</code> is implemented as a Map of maps.  However,
- * due to the transitive nature of the storage of the relationships, each set
- * of equivalent <code>Element</code> instances will share a nested map.
+ * The mappings are stored in a <code>Segment</code> for each combination of
+ * source <code>DomainModel</code>, destination <code>DomainModel</code> and
+ * <code>Element</code> implementation class.  A <code>Segment</code> is an
+ * open-addressed hash table, from the <code>DataStore</code> ID of the source
+ * <code>Element</code> to the destination <code>Element</code>, so that a
+ * mapping costs a <code>long</code> and a reference in each direction, and
+ * the source <code>Element</code> instances are not held by the keys.  All of
+ * the <code>Segment</code> instances for a <code>DomainModel</code> are
+ * dropped at once by <code>removeAll</code>.
+ * <p>
+ * A mapping is created by <code>put</code> from the first
+ * <code>Element</code> (normally the one which was copied) to the second
+ * (normally the copy).  The reference from the second <code>Element</code>
+ * back to the first is weak, so that the <code>TranslationTable</code> does
+ * not keep the source <code>Element</code> instances reachable after their
+ * own <code>DomainModel</code> has let them go.  Once a source
+ * <code>Element</code> has been reclaimed, it is no longer found by a lookup
+ * from the destination.
+ * <p>
+ * Reads do not take a lock, so that the <code>TranslationTable</code> may be
+ * used by many threads at once.  The methods which change the mappings are
+ * synchronized, so that each of the changes is applied to all of the
+ * affected <code>Segment</code> instances before the next one starts.
+ * <code>Element</code> instances must have a <code>DataStore</code> ID before
+ * they are entered into the <code>TranslationTable</code>.
  *
  * @author  James E. Stark
  * @version 1.0
@@ -51,14 +75,272 @@ import ca.uoguelph.socs.icc.edm.domain.Element;
 
 public final class TranslationTable
 {
+	/**
+	 * The mappings from one <code>DomainModel</code> to another, for a
+	 * single <code>Element</code> implementation class.  The keys are held in
+	 * a plain <code>long</code> array and the values in an
+	 * <code>AtomicReferenceArray</code>.  A key is written before its value is
+	 * first published, and the key in a slot is never changed once it is
+	 * written, so that a reader which sees a value can safely read its key
+	 * without a lock.  Removed mappings are left in place as tombstones until
+	 * the table is rebuilt.  A value may be held through a
+	 * <code>WeakReference</code>, in which case the mapping is dropped when
+	 * the table is rebuilt after the <code>Element</code> has been reclaimed.
+	 * <p>
+	 * All of the methods which modify the <code>Segment</code> are
+	 * synchronized.  When the table is rebuilt it is replaced as a whole, so
+	 * readers always see a complete table.
+	 *
+	 * @author  James E. Stark
+	 * @version 1.0
+	 */
+
+	static final class Segment
+	{
+		/**
+		 * The arrays holding the mappings in a <code>Segment</code>.
+		 *
+		 * @author  James E. Stark
+		 * @version 1.0
+		 */
+
+		private static final class Table
+		{
+			/** The keys */
+			private final long[] keys;
+
+			/** The values, null for an empty slot */
+			private final AtomicReferenceArray<Object> values;
+
+			/** Mask to convert a hash into an index */
+			private final int mask;
+
+			/**
+			 * Create the <code>Table</code>.
+			 *
+			 * @param  capacity The number of slots, a power of two
+			 */
+
+			private Table (final int capacity)
+			{
+				assert Integer.bitCount (capacity) == 1 : "capacity is not a power of two";
+
+				this.keys = new long[capacity];
+				this.values = new AtomicReferenceArray<> (capacity);
+				this.mask = capacity - 1;
+			}
+		}
+
+		/** The value stored in the slot of a removed mapping */
+		private static final Object TOMBSTONE;
+
+		/** The initial number of slots */
+		private static final int INITIAL_CAPACITY;
+
+		/** The table */
+		private volatile Table table;
+
+		/** The number of live mappings */
+		private int size;
+
+		/** The number of used slots, including the tombstones */
+		private int used;
+
+		/**
+		 * Static initializer to create the tombstone.
+		 */
+
+		static
+		{
+			TOMBSTONE = new Object ();
+			INITIAL_CAPACITY = 16;
+		}
+
+		/**
+		 * Create the <code>Segment</code>.
+		 */
+
+		Segment ()
+		{
+			this.table = new Table (Segment.INITIAL_CAPACITY);
+			this.size = 0;
+			this.used = 0;
+		}
+
+		/**
+		 * Compute the starting index for the specified key.
+		 *
+		 * @param  key   The key
+		 * @param  table The <code>Table</code>, not null
+		 * @return       The index
+		 */
+
+		private static int index (final long key, final Table table)
+		{
+			long hash = key * 0x9E3779B97F4A7C15L;
+
+			return (int) (hash ^ (hash >>> 32)) & table.mask;
+		}
+
+		/**
+		 * Get the <code>Element</code> which is mapped to the specified key.
+		 *
+		 * @param  key The key
+		 * @return     The <code>Element</code>, null if the key is not mapped
+		 */
+
+		public @Nullable Element get (final long key)
+		{
+			Table table = this.table;
+
+			for (int i = Segment.index (key, table); ; i = (i + 1) & table.mask)
+			{
+				Object value = table.values.get (i);
+
+				if (value == null)
+				{
+					return null;
+				}
+				else if (value != Segment.TOMBSTONE && table.keys[i] == key)
+				{
+					return (Element) ((value instanceof Reference) ? ((Reference<?>) value).get () : value);
+				}
+			}
+		}
+
+		/**
+		 * Map the specified key to the specified <code>Element</code>.  A slot
+		 * which already holds the key, live or removed, is reused.
+		 *
+		 * @param  key     The key
+		 * @param  element The <code>Element</code>, not null
+		 * @param  weak    <code>true</code> if the <code>Element</code> is to
+		 *                 be held through a <code>WeakReference</code>
+		 */
+
+		public synchronized void put (final long key, final Element element, final boolean weak)
+		{
+			assert element != null : "element is NULL";
+
+			Table table = this.table;
+
+			int i = Segment.index (key, table);
+			Object value = table.values.get (i);
+
+			while (value != null && table.keys[i] != key)
+			{
+				i = (i + 1) & table.mask;
+				value = table.values.get (i);
+			}
+
+			if (value == null)
+			{
+				table.keys[i] = key;
+				this.used += 1;
+			}
+
+			if (value == null || value == Segment.TOMBSTONE)
+			{
+				this.size += 1;
+			}
+
+			table.values.set (i, (weak) ? new WeakReference<> (element) : element);
+
+			if (this.used > (table.keys.length - (table.keys.length >>> 2)))
+			{
+				this.rebuild ();
+			}
+		}
+
+		/**
+		 * Remove the mapping for the specified key.
+		 *
+		 * @param  key The key
+		 */
+
+		public synchronized void remove (final long key)
+		{
+			Table table = this.table;
+
+			for (int i = Segment.index (key, table); table.values.get (i) != null; i = (i + 1) & table.mask)
+			{
+				if (table.keys[i] == key)
+				{
+					if (table.values.get (i) != Segment.TOMBSTONE)
+					{
+						table.values.set (i, Segment.TOMBSTONE);
+						this.size -= 1;
+					}
+
+					break;
+				}
+			}
+		}
+
+		/**
+		 * Get the number of mappings in the <code>Segment</code>.  The count
+		 * includes the weak mappings which have been reclaimed, until the
+		 * table is rebuilt.
+		 *
+		 * @return The number of mappings
+		 */
+
+		public synchronized int size ()
+		{
+			return this.size;
+		}
+
+		/**
+		 * Replace the table with one that is at most two-thirds full, and
+		 * contains only the live mappings.  The weak mappings for the
+		 * <code>Element</code> instances which have been reclaimed are
+		 * dropped.  The new table is filled before it is published.
+		 */
+
+		private void rebuild ()
+		{
+			Table table = this.table;
+			Table next = new Table (Math.max (Segment.INITIAL_CAPACITY, Integer.highestOneBit (this.size + (this.size >>> 1)) << 1));
+
+			int live = 0;
+
+			for (int i = 0; i < table.keys.length; i++)
+			{
+				Object value = table.values.get (i);
+
+				if (value != null && value != Segment.TOMBSTONE
+						&& ! ((value instanceof Reference) && ((Reference<?>) value).get () == null))
+				{
+					int j = Segment.index (table.keys[i], next);
+
+					while (next.values.get (j) != null)
+					{
+						j = (j + 1) & next.mask;
+					}
+
+					next.keys[j] = table.keys[i];
+					next.values.lazySet (j, value);
+					live += 1;
+				}
+			}
+
+			this.size = live;
+			this.used = live;
+			this.table = next;
+		}
+	}
+
 	/** Singleton Instance */
 	private static final TranslationTable INSTANCE;
 
+	/** The <code>Element</code> implementation class used to select the <code>Segment</code> */
+	private static final ClassValue<Class<?>> TYPES;
+
 	/** The log */
 	private final Logger log;
 
-	/** The table */
-	private final Map<Element, Map<DomainModel, Element>> table;
+	/** The <code>Segment</code> instances, by source and destination <code>DomainModel</code> and type */
+	private final ConcurrentMap<DomainModel, ConcurrentMap<DomainModel, ConcurrentMap<Class<?>, Segment>>> segments;
 
 	/**
 	 * Static initializer to create the Singleton instance.
@@ -67,6 +349,23 @@ public final class TranslationTable
 	static
 	{
 		INSTANCE = new TranslationTable ();
+
+		TYPES = new ClassValue<Class<?>> ()
+		{
+			@Override
+			protected Class<?> computeValue (final Class<?> type)
+			{
+				for (Class<?> c = type; c != null; c = c.getSuperclass ())
+				{
+					if (Profile.ELEMENT_DEFINITIONS.containsKey (c))
+					{
+						return c;
+					}
+				}
+
+				return type;
+			}
+		};
 	}
 
 	/**
@@ -88,7 +387,107 @@ public final class TranslationTable
 	{
 		this.log = LoggerFactory.getLogger (TranslationTable.class);
 
-		this.table = new IdentityHashMap<> ();
+		this.segments = new ConcurrentHashMap<> ();
+	}
+
+	/**
+	 * Get the <code>Segment</code> containing the mappings for the
+	 * <code>Element</code> implementation class of the specified
+	 * <code>Element</code> from its <code>DomainModel</code> to the specified
+	 * <code>DomainModel</code>.
+	 *
+	 * @param  element The source <code>Element</code>, not null
+	 * @param  model   The destination <code>DomainModel</code>, not null
+	 * @return         The <code>Segment</code>, null if there are no mappings
+	 */
+
+	private @Nullable Segment getSegment (final Element element, final DomainModel model)
+	{
+		assert element != null : "element is NULL";
+		assert model != null : "model is NULL";
+
+		Map<DomainModel, ConcurrentMap<Class<?>, Segment>> targets = this.segments.get (element.getDomainModel ());
+		Map<Class<?>, Segment> types = (targets != null) ? targets.get (model) : null;
+
+		return (types != null) ? types.get (TranslationTable.TYPES.get (element.getClass ())) : null;
+	}
+
+	/**
+	 * Get the <code>Segment</code> containing the mappings for the
+	 * <code>Element</code> implementation class of the specified
+	 * <code>Element</code> from its <code>DomainModel</code> to the specified
+	 * <code>DomainModel</code>, creating it if it does not exist.
+	 *
+	 * @param  element The source <code>Element</code>, not null
+	 * @param  model   The destination <code>DomainModel</code>, not null
+	 * @return         The <code>Segment</code>
+	 */
+
+	private Segment createSegment (final Element element, final DomainModel model)
+	{
+		assert element != null : "element is NULL";
+		assert model != null : "model is NULL";
+
+		return this.segments.computeIfAbsent (element.getDomainModel (), m -> new ConcurrentHashMap<> ())
+			.computeIfAbsent (model, m -> new ConcurrentHashMap<> ())
+			.computeIfAbsent (TranslationTable.TYPES.get (element.getClass ()), t -> new Segment ());
+	}
+
+	/**
+	 * Get the <code>Element</code> instance in the specified
+	 * <code>DomainModel</code> which is mapped to the specified
+	 * <code>Element</code>.
+	 *
+	 * @param  element The <code>Element</code> instance, not null
+	 * @param  model   The <code>DomainModel</code>, not null
+	 * @return         The mapped <code>Element</code>, null if there is no
+	 *                 mapping
+	 */
+
+	private @Nullable Element lookup (final Element element, final DomainModel model)
+	{
+		assert element != null : "element is NULL";
+		assert model != null : "model is NULL";
+
+		Long id = element.getId ();
+		Segment segment = (id != null) ? this.getSegment (element, model) : null;
+
+		return (segment != null) ? segment.get (id) : null;
+	}
+
+	/**
+	 * Get all of the <code>Element</code> instances which are mapped to the
+	 * specified <code>Element</code>, including the <code>Element</code>
+	 * itself.
+	 *
+	 * @param  element The <code>Element</code> instance, not null
+	 * @return         A <code>Map</code> of the <code>Element</code>
+	 *                 instances, by <code>DomainModel</code>
+	 */
+
+	private Map<DomainModel, Element> partners (final Element element)
+	{
+		assert element != null : "element is NULL";
+
+		Map<DomainModel, Element> result = new IdentityHashMap<> ();
+		result.put (element.getDomainModel (), element);
+
+		Map<DomainModel, ConcurrentMap<Class<?>, Segment>> targets = this.segments.get (element.getDomainModel ());
+
+		if (targets != null)
+		{
+			for (DomainModel model : targets.keySet ())
+			{
+				Element partner = this.lookup (element, model);
+
+				if (partner != null)
+				{
+					result.put (model, partner);
+				}
+			}
+		}
+
+		return result;
 	}
 
 	/**
@@ -109,27 +508,16 @@ public final class TranslationTable
 
 		boolean result = false;
 
-		if (this.table.containsKey (element))
+		if (element != null && model != null && element.getId () != null)
 		{
-			result = this.table.get (element).containsKey (model);
+			result = (element.getDomainModel () == model)
+				? this.partners (element).size () > 1
+				: this.lookup (element, model) != null;
 		}
 
 		return result;
 	}
 
-	/**
-	 * Get a <code>Set</code> containing all of the <code>Element</code>
-	 * instances in the <code>TranslationTable</code>.
-	 *
-	 * @return A <code>Set</code> containing all of the <code>Element</code>
-	 *         instances in the <code>TranslationTable</code>
-	 */
-
-	public Set<Element> elements ()
-	{
-		return Collections.unmodifiableSet (this.table.keySet ());
-	}
-
 	/**
 	 * Get the <code>Element</code> instance in the specified
 	 * <code>DomainModel</code> which corresponds to the specified
@@ -150,9 +538,7 @@ public final class TranslationTable
 		assert model != null : "model is NULL";
 		assert element.getDomainModel () != model : "The specified element is in the specified model";
 
-		return (this.table.containsKey (element))
-			? Optional.ofNullable ((T) this.table.get (element).get (model))
-			: Optional.empty ();
+		return Optional.ofNullable ((T) this.lookup (element, model));
 	}
 
 	/**
@@ -168,10 +554,12 @@ public final class TranslationTable
 	 *
 	 * @throws IllegalArguementException if the <code>left</code> and
 	 *                                   <code>right</code> <code>Element</code>
-	 *                                   instances are not identical
+	 *                                   instances are not identical, or if
+	 *                                   either of them does not have a
+	 *                                   <code>DataStore</code> ID
 	 */
 
-	public <T extends Element> void put (final T left, final T right)
+	public synchronized <T extends Element> void put (final T left, final T right)
 	{
 		this.log.trace ("put: left={}, right={}", left, right);
 
@@ -184,69 +572,81 @@ public final class TranslationTable
 			throw new IllegalArgumentException ("The Elements are not Identical");
 		}
 
-		if (this.table.containsKey (left) && this.table.containsKey (right))
+		if (left.getId () == null || right.getId () == null)
+		{
+			throw new IllegalArgumentException ("The Elements must have a DataStore ID");
+		}
+
+		Map<DomainModel, Element> lefts = this.partners (left);
+
+		if (lefts.get (right.getDomainModel ()) != right)
 		{
-			if (this.table.get (left) != this.table.get (right))
+			Map<DomainModel, Element> rights = this.partners (right);
+
+			if (! Collections.disjoint (lefts.keySet (), rights.keySet ()))
 			{
-				if (Collections.disjoint (this.table.get (left).keySet (), this.table.get (right).keySet ()))
-				{
-					this.log.debug ("Merging disjoint Translation table entries for {} and {}", left, right);
+				this.log.error ("Attempting to replace an existing mapping");
+				throw new IllegalArgumentException ("Can't replace a mapping");
+			}
 
-					Map<DomainModel, Element> e = this.table.get (left);
-					e.putAll (this.table.get (right));
+			this.log.debug ("Creating translation table mappings for {} <-> {}", lefts.values (), rights.values ());
 
-					e.forEach ((k, v) -> this.table.put (v, e));
-				}
-				else
+			for (Element l : lefts.values ())
+			{
+				for (Element r : rights.values ())
 				{
-					this.log.error ("Attempting to replace an existing mapping");
-					throw new IllegalArgumentException ("Can't replace a mapping");
+					this.createSegment (l, r.getDomainModel ()).put (l.getId (), r, false);
+					this.createSegment (r, l.getDomainModel ()).put (r.getId (), l, true);
 				}
 			}
 		}
-		else if (this.table.containsKey (left) && (! this.table.containsKey (right)))
-		{
-			this.log.debug ("Adding {} to the existing translation table mapping for {}", right, left);
+	}
 
-			Map<DomainModel, Element> e = this.table.get (left);
-			e.put (right.getDomainModel (), right);
-			this.table.put (right, e);
-		}
-		else if ((! this.table.containsKey (left)) && this.table.containsKey (right))
-		{
-			this.log.debug ("Adding {} to the existing translation table mapping for {}", left, right);
+	/**
+	 * Create translation mappings between each of the <code>Element</code>
+	 * instances in the specified <code>Map</code> and its associated value.
+	 * This is equivalent to calling <code>put</code> for each entry, but it
+	 * only acquires the lock on the <code>TranslationTable</code> once.
+	 *
+	 * @param  mappings The <code>Map</code> of <code>Element</code> instances,
+	 *                  not null
+	 *
+	 * @throws IllegalArguementException if the <code>Element</code> instances
+	 *                                   in any of the mappings are not
+	 *                                   identical
+	 */
 
-			Map<DomainModel, Element> e = this.table.get (right);
-			e.put (left.getDomainModel (), left);
-			this.table.put (left, e);
-		}
-		else
-		{
-			this.log.debug ("Creating new translation table entry for {} <-> {}", left, right);
+	public synchronized void putAll (final Map<? extends Element, ? extends Element> mappings)
+	{
+		this.log.trace ("putAll: mappings={}", mappings);
 
-			Map<DomainModel, Element> e = new HashMap<DomainModel, Element> ();
-			e.put (left.getDomainModel (), left);
-			e.put (right.getDomainModel (), right);
+		assert mappings != null : "mappings is NULL";
 
-			this.table.put (left, e);
-			this.table.put (right, e);
-		}
+		mappings.forEach ((k, v) -> this.put (k, v));
 	}
 
 	/**
-	 * Remove the specified <code>Element</code> instance.
+	 * Remove the specified <code>Element</code> instance.  The mappings
+	 * between the other <code>Element</code> instances which were mapped to
+	 * the specified <code>Element</code> are retained.
 	 *
 	 * @param  element The <code>Element</code> instance to remove
 	 */
 
-	public void remove (final @Nullable Element element)
+	public synchronized void remove (final @Nullable Element element)
 	{
-		this.log.trace ("remove: element=", element);
+		this.log.trace ("remove: element={}", element);
 
-		if (this.table.containsKey (element))
+		if (element != null && element.getId () != null)
 		{
-			this.table.get (element).remove (element.getDomainModel ());
-			this.table.remove (element);
+			for (Element partner : this.partners (element).values ())
+			{
+				if (partner != element)
+				{
+					this.getSegment (element, partner.getDomainModel ()).remove (element.getId ());
+					this.getSegment (partner, element.getDomainModel ()).remove (partner.getId ());
+				}
+			}
 		}
 	}
 
@@ -257,21 +657,15 @@ public final class TranslationTable
 	 * @param  model The <code>DomainModel</code>
 	 */
 
-	public void removeAll (final @Nullable DomainModel model)
+	public synchronized void removeAll (final @Nullable DomainModel model)
 	{
 		this.log.trace ("removeAll: model={}", model);
 
-		Iterator<Map.Entry<Element, Map<DomainModel, Element>>> i = this.table.entrySet ().iterator ();
-
-		while (i.hasNext ())
+		if (model != null)
 		{
-			Map.Entry<Element, Map<DomainModel, Element>> entry = i.next ();
-
-			if (entry.getKey ().getDomainModel () == model)
-			{
-				entry.getValue ().remove (model);
-				i.remove ();
-			}
+			this.segments.remove (model);
+			this.segments.values ()
+				.forEach (t -> t.remove (model));
 		}
 	}
 }
@@ -194,6 +194,25 @@ public final class DummyDataStore implements DataStore
 		return new DummyQuery<T> (selector, impl, model);
 	}
 
+	/**
+	 * Determine if the <code>DataStore</code> can run a <code>Query</code>
+	 * for the specified <code>Selector</code> and implementation class.  A
+	 * <code>Query</code> can be created for every <code>Selector</code>.
+	 *
+	 * @param  selector The <code>Selector</code>, not null
+	 * @param  impl     The <code>Element</code> implementation class, not null
+	 * @return          <code>true</code>
+	 */
+
+	@Override
+	public boolean hasQuery (final Selector<?> selector, final Class<?> impl)
+	{
+		assert selector != null;
+		assert impl != null;
+
+		return true;
+	}
+
 	/**
 	 * Get a <code>List</code> containing all of the ID numbers in the
 	 * <code>DataStore</code> for instances of the specified
@@ -246,6 +265,19 @@ public final class DummyDataStore implements DataStore
 		return this.open || this.transaction.isActive ();
 	}
 
+	/**
+	 * Determine if the storage is shared.  The <code>DummyDataStore</code>
+	 * does not store anything.
+	 *
+	 * @return <code>false</code>
+	 */
+
+	@Override
+	public boolean isShared ()
+	{
+		return false;
+	}
+
 	/**
 	 * Close the <code>DummyDataStore</code>.
 	 */
@@ -297,6 +329,15 @@ public final class DummyDataStore implements DataStore
 	@Override
 	public void evict (final Element element) {}
 
+	/**
+	 * Write any pending changes to the <code>DataStore</code>, without
+	 * committing the active <code>Transaction</code>.  This does nothing, as
+	 * changes are never pending.
+	 */
+
+	@Override
+	public void flush () {}
+
 	/**
 	 * Insert the specified <code>Element</code> instance into the
 	 * <code>DataStore</code>.  For the <code>DummyDataStore</code> this does
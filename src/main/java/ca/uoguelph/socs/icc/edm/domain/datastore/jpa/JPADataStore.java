@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.function.BiConsumer;
 
+import javax.annotation.Nullable;
 import javax.inject.Singleton;
 
 import javax.persistence.EntityManager;
@@ -106,28 +107,48 @@ public final class JPADataStore implements DataStore
 		}
 	}
 
+	/** <code>Profile</code> parameter for the JDBC fetch size used when streaming results */
+	public static final String FETCH_SIZE;
+
+	/** The shared <code>EntityManagerFactory</code> instances, by <code>Profile</code> */
+	private static final Map<Profile, EntityManagerFactory> FACTORIES;
+
+	/** The number of open <code>JPADataStore</code> instances using each <code>Profile</code> */
+	private static final Map<Profile, Integer> REFERENCES;
+
 	/** The component for creating instances of the <code>DataStore</code>*/
 	private static final DataStore.DataStoreComponent COMPONENT;
 
 	/** The logger */
 	private final Logger log;
 
+	/** The <code>Profile</code> used to create the <code>DataStore</code> */
+	private final Profile profile;
+
 	/** The JPA Entity manager factory for this database */
-	private final EntityManagerFactory emf;
+	private @Nullable EntityManagerFactory emf;
 
 	/** The JPA entity manager for access to the database. */
 	private final EntityManager em;
 
+	/** The JDBC fetch size for streaming results, zero to disable streaming */
+	private final int fetchSize;
+
 	/** The <code>Transaction</code> instance */
 	private Transaction transaction;
 
 	/**
-	 * Static initializer to create a constance instance of the Dagger
-	 * component.
+	 * Static initializer to set the constants, and to create a constant
+	 * instance of the Dagger component.
 	 */
 
 	static
 	{
+		FETCH_SIZE = "edm.stream.fetchsize";
+
+		FACTORIES = new HashMap<> ();
+		REFERENCES = new HashMap<> ();
+
 		COMPONENT = DaggerJPADataStore_JPADataStoreComponent.create ();
 	}
 
@@ -148,6 +169,98 @@ public final class JPADataStore implements DataStore
 			.create (profile);
 	}
 
+	/**
+	 * Get the <code>EntityManagerFactory</code> for the specified
+	 * <code>Profile</code>.  The <code>EntityManagerFactory</code> is shared
+	 * by all of the open <code>JPADataStore</code> instances which were
+	 * created from the same <code>Profile</code>, and is only created if there
+	 * are no such <code>JPADataStore</code> instances.
+	 *
+	 * @param  profile The <code>Profile</code>, not null
+	 * @return         The <code>EntityManagerFactory</code>
+	 */
+
+	private static synchronized EntityManagerFactory acquireFactory (final Profile profile)
+	{
+		assert profile != null : "profile is NULL";
+
+		if (! JPADataStore.FACTORIES.containsKey (profile))
+		{
+			JPADataStore.FACTORIES.put (profile, Persistence.createEntityManagerFactory (profile.getName (), profile.getParameters ()));
+			JPADataStore.REFERENCES.put (profile, 0);
+		}
+
+		JPADataStore.REFERENCES.put (profile, JPADataStore.REFERENCES.get (profile) + 1);
+
+		return JPADataStore.FACTORIES.get (profile);
+	}
+
+	/**
+	 * Release the <code>EntityManagerFactory</code> for the specified
+	 * <code>Profile</code>.  The <code>EntityManagerFactory</code> is closed
+	 * when it is no longer used by any <code>JPADataStore</code> instances,
+	 * and is not retained.
+	 *
+	 * @param  profile The <code>Profile</code>, not null
+	 */
+
+	private static synchronized void releaseFactory (final Profile profile)
+	{
+		assert profile != null : "profile is NULL";
+		assert JPADataStore.REFERENCES.containsKey (profile) : "factory is not open";
+
+		int references = JPADataStore.REFERENCES.get (profile) - 1;
+
+		if (references > 0)
+		{
+			JPADataStore.REFERENCES.put (profile, references);
+		}
+		else
+		{
+			JPADataStore.REFERENCES.remove (profile);
+			JPADataStore.FACTORIES.remove (profile).close ();
+		}
+	}
+
+	/**
+	 * Retain the <code>EntityManagerFactory</code> for the specified
+	 * <code>Profile</code>.  The <code>EntityManagerFactory</code> is created
+	 * if necessary, and is kept open until it is released, even while there
+	 * are no open <code>JPADataStore</code> instances for the
+	 * <code>Profile</code>.  This allows a series of short-lived
+	 * <code>JPADataStore</code> instances to share one
+	 * <code>EntityManagerFactory</code>.  Each call to this method must be
+	 * matched by a call to <code>release</code>.
+	 *
+	 * @param  profile The <code>Profile</code>, not null
+	 */
+
+	public static void retain (final Profile profile)
+	{
+		Preconditions.checkNotNull (profile, "profile");
+
+		JPADataStore.acquireFactory (profile);
+	}
+
+	/**
+	 * Release the <code>EntityManagerFactory</code> for the specified
+	 * <code>Profile</code>, which was retained by a call to
+	 * <code>retain</code>.
+	 *
+	 * @param  profile The <code>Profile</code>, not null
+	 *
+	 * @throws IllegalStateException if the <code>EntityManagerFactory</code>
+	 *                               is not open
+	 */
+
+	public static synchronized void release (final Profile profile)
+	{
+		Preconditions.checkNotNull (profile, "profile");
+		Preconditions.checkState (JPADataStore.REFERENCES.containsKey (profile), "factory is not open");
+
+		JPADataStore.releaseFactory (profile);
+	}
+
 	/**
 	 * Get the instance of the <code>DataStoreComponent</code> which is used to
 	 * create <code>JPADataStore</code> instances.
@@ -171,10 +284,18 @@ public final class JPADataStore implements DataStore
 
 		this.log = LoggerFactory.getLogger (this.getClass ());
 
+		this.profile = profile;
+
+		this.fetchSize = (profile.getParameters ().containsKey (JPADataStore.FETCH_SIZE))
+			? Integer.parseInt (profile.getParameters ().get (JPADataStore.FETCH_SIZE))
+			: 0;
+
+		Preconditions.checkArgument (this.fetchSize >= 0, "fetch size is negative");
+
 		try
 		{
-			this.log.debug ("Creating the JPA EntityManagerFactory");
-			this.emf = Persistence.createEntityManagerFactory (profile.getName (), profile.getParameters ());
+			this.log.debug ("Acquiring the JPA EntityManagerFactory");
+			this.emf = JPADataStore.acquireFactory (profile);
 
 			this.log.debug ("Creating the JPA EntityManager");
 			this.em = this.emf.createEntityManager ();
@@ -213,7 +334,30 @@ public final class JPADataStore implements DataStore
 
 		return (selector.getCardinality () == Selector.Cardinality.KEY)
 			? new JPAIdQuery<T> (selector, impl, model, reference, this.em)
-			: new JPANamedQuery<T> (selector, impl, model, reference, this.em);
+			: new JPANamedQuery<T> (selector, impl, model, reference, this.em, this.fetchSize);
+	}
+
+	/**
+	 * Determine if the <code>DataStore</code> can run a <code>Query</code>
+	 * for the specified <code>Selector</code> and implementation class.
+	 * Queries by ID are always available, all other queries require a
+	 * named query for either the implementation class or the
+	 * <code>Element</code> interface.
+	 *
+	 * @param  selector The <code>Selector</code>, not null
+	 * @param  impl     The <code>Element</code> implementation class, not null
+	 * @return          <code>true</code> if the <code>Query</code> can be
+	 *                  created, <code>false</code> otherwise
+	 */
+
+	@Override
+	public boolean hasQuery (final Selector<?> selector, final Class<?> impl)
+	{
+		assert selector != null;
+		assert impl != null;
+
+		return (selector.getCardinality () == Selector.Cardinality.KEY)
+			|| JPANamedQuery.hasQuery (this.em, selector, impl);
 	}
 
 	/**
@@ -271,8 +415,24 @@ public final class JPADataStore implements DataStore
 	}
 
 	/**
-	 * Close the JPA data store, including all connections to the underlying
-	 * database.  The behaviour of this data store, and its associated queries
+	 * Determine if the storage is shared.  All of the
+	 * <code>JPADataStore</code> instances for a <code>Profile</code> use the
+	 * same database.
+	 *
+	 * @return <code>true</code>
+	 */
+
+	@Override
+	public boolean isShared ()
+	{
+		return true;
+	}
+
+	/**
+	 * Close the JPA data store.  The <code>EntityManagerFactory</code>, and
+	 * all of the connections to the underlying database, are closed when the
+	 * last <code>JPADataStore</code> using the same <code>Profile</code> is
+	 * closed, unless the <code>EntityManagerFactory</code> is retained.  The behaviour of this data store, and its associated queries
 	 * once it has been closed is undefined.
 	 */
 
@@ -287,10 +447,11 @@ public final class JPADataStore implements DataStore
 			this.em.close ();
 		}
 
-		if ((this.emf != null) && (this.emf.isOpen ()))
+		if (this.emf != null)
 		{
-			this.log.debug ("Closing the EntityManagerFactory");
-			this.emf.close ();
+			this.log.debug ("Releasing the EntityManagerFactory");
+			JPADataStore.releaseFactory (this.profile);
+			this.emf = null;
 		}
 	}
 
@@ -339,9 +500,29 @@ public final class JPADataStore implements DataStore
 		this.em.detach (element);
 	}
 
+	/**
+	 * Write any pending changes to the <code>DataStore</code>, without
+	 * committing the active <code>Transaction</code>.  The pending inserts are
+	 * sent to the database as JDBC batches, if the batch size is set in the
+	 * <code>Profile</code>.
+	 */
+
+	@Override
+	public void flush ()
+	{
+		this.log.trace ("flush:");
+
+		assert this.transaction.isActive () : "No Active transaction";
+
+		this.em.flush ();
+	}
+
 	/**
 	 * Insert the specified <code>Element</code> instance into the
-	 * <code>DataStore</code>.
+	 * <code>DataStore</code>.  The <code>Element</code> is assigned its ID
+	 * and becomes managed by the <code>EntityManager</code>, but the row is
+	 * not written to the database until the <code>DataStore</code> is flushed,
+	 * so that consecutive inserts can be sent as a JDBC batch.
 	 *
 	 * @param  definition The <code>Definition</code> for the, not null
 	 * @param  element    The <code>Element</code> instance to insert, not null
@@ -359,9 +540,7 @@ public final class JPADataStore implements DataStore
 		this.log.debug ("Persisting the Element");
 		this.em.persist (element);
 
-		T result = this.em.find (definition.getElementClass (), element.getId ());
-
-		return result;
+		return element;
 	}
 
 	/**
@@ -16,11 +16,16 @@
 
 package ca.uoguelph.socs.icc.edm.domain.datastore.jpa;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.function.BiConsumer;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NonUniqueResultException;
@@ -29,6 +34,11 @@ import javax.persistence.TypedQuery;
 
 import com.google.common.base.Preconditions;
 
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.jpa.QueryHints;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,6 +64,142 @@ import ca.uoguelph.socs.icc.edm.domain.metadata.Selector;
 
 final class JPANamedQuery<T extends Element> implements Query<T>
 {
+	/**
+	 * <code>Iterator</code> over a server-side database cursor.  This class
+	 * reads the results of the <code>Query</code> though a forward-only
+	 * <code>ScrollableResults</code>, so that only one block of rows (as
+	 * determined by the fetch size) is held by the JDBC driver at a time.
+	 * Since the <code>EntityManager</code> keeps a reference to every
+	 * <code>Element</code> that it loads, the <code>Cursor</code> also
+	 * detaches the <code>Element</code> instances that it has returned, once a
+	 * full block has been processed.
+	 * <p>
+	 * The <code>Cursor</code> assumes that an <code>Element</code> instance
+	 * has been processed by the time that the next <code>Element</code> is
+	 * requested, which holds for a sequential <code>Stream</code>.
+	 *
+	 * @author  James E. Stark
+	 * @version 1.0
+	 */
+
+	private final class Cursor implements Iterator<T>, AutoCloseable
+	{
+		/** The database cursor */
+		private final ScrollableResults results;
+
+		/** <code>Element</code> instances which have been returned by the <code>Cursor</code> */
+		private final List<T> processed;
+
+		/** Indication that the next row has been read from the cursor */
+		private boolean fetched;
+
+		/** Indication that the cursor has more rows */
+		private boolean more;
+
+		/**
+		 * Create the <code>Cursor</code>.
+		 *
+		 * @param  results The <code>ScrollableResults</code>, not null
+		 */
+
+		private Cursor (final ScrollableResults results)
+		{
+			assert results != null : "results is NULL";
+
+			this.results = results;
+			this.processed = new ArrayList<> (JPANamedQuery.this.fetchSize);
+
+			this.fetched = false;
+			this.more = true;
+		}
+
+		/**
+		 * Detach all of the <code>Element</code> instances which have been
+		 * returned by the <code>Cursor</code> from the
+		 * <code>EntityManager</code>.
+		 */
+
+		private void detach ()
+		{
+			JPANamedQuery.this.log.debug ("Detaching {} processed elements", this.processed.size ());
+
+			this.processed.forEach (e -> JPANamedQuery.this.manager.detach (e));
+			this.processed.clear ();
+		}
+
+		/**
+		 * Close the <code>Cursor</code>, releasing the database resources.
+		 */
+
+		@Override
+		public void close ()
+		{
+			JPANamedQuery.this.log.trace ("close:");
+
+			if (this.more)
+			{
+				this.more = false;
+				this.results.close ();
+			}
+
+			this.detach ();
+		}
+
+		/**
+		 * Determine if there are more <code>Element</code> instances available
+		 * from the <code>Cursor</code>.
+		 *
+		 * @return <code>true</code> if there are more <code>Element</code>
+		 *         instances, <code>false</code> otherwise
+		 */
+
+		@Override
+		public boolean hasNext ()
+		{
+			if ((! this.fetched) && this.more)
+			{
+				if (this.processed.size () >= JPANamedQuery.this.fetchSize)
+				{
+					this.detach ();
+				}
+
+				this.fetched = this.results.next ();
+
+				if (! this.fetched)
+				{
+					this.close ();
+				}
+			}
+
+			return this.fetched;
+		}
+
+		/**
+		 * Get the next <code>Element</code> instance from the
+		 * <code>Cursor</code>.
+		 *
+		 * @return The next <code>Element</code> instance
+		 * @throws NoSuchElementException if the <code>Cursor</code> is
+		 *                                exhausted
+		 */
+
+		@Override
+		public T next ()
+		{
+			if (! this.hasNext ())
+			{
+				throw new NoSuchElementException ();
+			}
+
+			this.fetched = false;
+
+			T result = JPANamedQuery.this.impl.cast (this.results.get (0));
+			this.processed.add (result);
+
+			return JPANamedQuery.this.setDomainModel (result);
+		}
+	}
+
 	/** The logger for this Query instance */
 	private final Logger log;
 
@@ -75,9 +221,81 @@ final class JPANamedQuery<T extends Element> implements Query<T>
 	/** The name of the query for JPA mapping */
 	private final String qname;
 
+	/** The JDBC fetch size for streaming results, zero to disable */
+	private final int fetchSize;
+
 	/** The JPA query */
 	private TypedQuery<? extends T> query;
 
+	/**
+	 * Get the name of the JPA named query for the specified
+	 * <code>Selector</code> and implementation class.  Named queries are
+	 * normally defined for the <code>Element</code> interface, and named
+	 * using the simple name of the <code>Element</code> interface and the
+	 * name of the <code>Selector</code>.  A query which is specific to the
+	 * implementation class may be defined using the simple name of the
+	 * implementation class, in which case it takes precedence.
+	 *
+	 * @param  manager  The <code>EntityManager</code>, not null
+	 * @param  selector The <code>Selector</code>, not null
+	 * @param  impl     The <code>Element</code> implementation class, not null
+	 * @return          The name of the query
+	 */
+
+	private static String getQueryName (final EntityManager manager, final Selector<?> selector, final Class<?> impl)
+	{
+		assert manager != null : "manager is NULL";
+		assert selector != null : "selector is NULL";
+		assert impl != null : "impl is NULL";
+
+		String name = String.format ("%s:%s", impl.getSimpleName (), selector.getName ());
+
+		return (impl != selector.getElementClass () && JPANamedQuery.isDefined (manager, name))
+			? name
+			: String.format ("%s:%s", selector.getElementClass ().getSimpleName (), selector.getName ());
+	}
+
+	/**
+	 * Determine if a named query with the specified name is defined.
+	 *
+	 * @param  manager The <code>EntityManager</code>, not null
+	 * @param  name    The name of the query, not null
+	 * @return         <code>true</code> if the query is defined,
+	 *                 <code>false</code> otherwise
+	 */
+
+	private static boolean isDefined (final EntityManager manager, final String name)
+	{
+		assert manager != null : "manager is NULL";
+		assert name != null : "name is NULL";
+
+		return manager.getEntityManagerFactory ()
+			.unwrap (SessionFactoryImplementor.class)
+			.getNamedQuery (name) != null;
+	}
+
+	/**
+	 * Determine if there is a JPA named query for the specified
+	 * <code>Selector</code> and implementation class, under either the name
+	 * of the implementation class or the name of the <code>Element</code>
+	 * interface.
+	 *
+	 * @param  manager  The <code>EntityManager</code>, not null
+	 * @param  selector The <code>Selector</code>, not null
+	 * @param  impl     The <code>Element</code> implementation class, not null
+	 * @return          <code>true</code> if the query is defined,
+	 *                  <code>false</code> otherwise
+	 */
+
+	static boolean hasQuery (final EntityManager manager, final Selector<?> selector, final Class<?> impl)
+	{
+		assert manager != null : "manager is NULL";
+		assert selector != null : "selector is NULL";
+		assert impl != null : "impl is NULL";
+
+		return JPANamedQuery.isDefined (manager, JPANamedQuery.getQueryName (manager, selector, impl));
+	}
+
 	/**
 	 * Create the <code>JPAIdQuery</code>.
 	 *
@@ -87,6 +305,8 @@ final class JPANamedQuery<T extends Element> implements Query<T>
 	 * @param  reference Method reference for setting the
 	 *                   <code>DomainModel</code>, not null
 	 * @param  manager   The <code>EntityManager</code>, not null
+	 * @param  fetchSize The JDBC fetch size for streaming results, zero to
+	 *                   load the entire result set into memory
 	 */
 
 	JPANamedQuery (
@@ -94,7 +314,8 @@ final class JPANamedQuery<T extends Element> implements Query<T>
 			final Class<? extends T> impl,
 			final DomainModel model,
 			final BiConsumer<T, DomainModel> reference,
-			final EntityManager manager)
+			final EntityManager manager,
+			final int fetchSize)
 	{
 		this.log = LoggerFactory.getLogger (this.getClass ());
 
@@ -102,15 +323,16 @@ final class JPANamedQuery<T extends Element> implements Query<T>
 		assert impl != null : "impl is NULL";
 		assert model != null : "model is NULL";
 		assert manager != null : "manager is NULL";
+		assert fetchSize >= 0 : "fetchSize is negative";
 
 		this.selector = selector;
 		this.impl = impl;
 		this.model = model;
 		this.reference = reference;
 		this.manager = manager;
+		this.fetchSize = fetchSize;
 
-		this.qname = String.format ("%s:%s", this.selector.getElementClass ()
-				.getSimpleName (), this.selector.getName ());
+		this.qname = JPANamedQuery.getQueryName (this.manager, this.selector, this.impl);
 
 		this.query = this.manager.createNamedQuery (this.qname, this.impl);
 	}
@@ -273,12 +495,31 @@ final class JPANamedQuery<T extends Element> implements Query<T>
 	{
 		this.log.trace ("queryAll:");
 
-		return this.stream ().collect (Collectors.toList ());
+		Preconditions.checkState (this.manager.isOpen (), "DataStore is Closed");
+		Preconditions.checkState (this.query.getParameters ()
+				.stream ()
+				.allMatch (p -> this.query.isBound (p)), "Query Parameters must not be null");
+
+		List<T> result = new ArrayList<> ();
+
+		this.query.getResultList ()
+			.forEach (e -> result.add (this.setDomainModel (e)));
+
+		return result;
 	}
 
 	/**
 	 * Get a <code>Stream</code> of <code>Element</code> instances from the
 	 * <code>DataStore</code> which match the <code>Query</code>.
+	 * <p>
+	 * If a fetch size has been configured for the <code>DataStore</code>, then
+	 * the results will be read, as they are consumed, though a read-only
+	 * server-side cursor and the <code>Element</code> instances will be
+	 * periodically detached from the <code>EntityManager</code>.  In this
+	 * case, the <code>Element</code> instances should not be retained after
+	 * they are processed, and the <code>Stream</code> should be closed if it
+	 * is not consumed completely.  Otherwise, the entire result set is loaded
+	 * before the <code>Stream</code> is returned.
 	 *
 	 * @return                       A <code>Stream</code> containing the
 	 *                               <code>Element</code> instances with match
@@ -298,8 +539,29 @@ final class JPANamedQuery<T extends Element> implements Query<T>
 				.stream ()
 				.allMatch (p -> this.query.isBound (p)), "Query Parameters must not be null");
 
-		return this.query.getResultList ()
-			.stream ()
-			.map (e -> this.setDomainModel (e));
+		Stream<T> result = null;
+
+		if (this.fetchSize > 0)
+		{
+			this.log.debug ("Streaming results for query {} with a fetch size of {}", this.qname, this.fetchSize);
+
+			this.query.setHint (QueryHints.HINT_FETCH_SIZE, this.fetchSize);
+			this.query.setHint (QueryHints.HINT_READONLY, Boolean.TRUE);
+
+			final Cursor cursor = new Cursor (this.query.unwrap (org.hibernate.Query.class)
+					.scroll (ScrollMode.FORWARD_ONLY));
+
+			result = StreamSupport.stream (Spliterators.spliteratorUnknownSize (cursor,
+						Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose (() -> cursor.close ());
+		}
+		else
+		{
+			result = this.query.getResultList ()
+				.stream ()
+				.map (e -> this.setDomainModel (e));
+		}
+
+		return result;
 	}
 }
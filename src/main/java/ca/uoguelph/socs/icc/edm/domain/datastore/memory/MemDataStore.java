@@ -247,6 +247,25 @@ public final class MemDataStore implements DataStore
 		return new MemQuery<T> (selector, impl, this);
 	}
 
+	/**
+	 * Determine if the <code>DataStore</code> can run a <code>Query</code>
+	 * for the specified <code>Selector</code> and implementation class.  A
+	 * <code>Query</code> can be created for every <code>Selector</code>.
+	 *
+	 * @param  selector The <code>Selector</code>, not null
+	 * @param  impl     The <code>Element</code> implementation class, not null
+	 * @return          <code>true</code>
+	 */
+
+	@Override
+	public boolean hasQuery (final Selector<?> selector, final Class<?> impl)
+	{
+		assert selector != null;
+		assert impl != null;
+
+		return true;
+	}
+
 	/**
 	 * Get an instance of the transaction manager for the
 	 * <code>DataStore</code>.
@@ -279,6 +298,19 @@ public final class MemDataStore implements DataStore
 		return this.open || this.transaction.isActive ();
 	}
 
+	/**
+	 * Determine if the storage is shared.  Each <code>MemDataStore</code> has
+	 * its own storage.
+	 *
+	 * @return <code>false</code>
+	 */
+
+	@Override
+	public boolean isShared ()
+	{
+		return false;
+	}
+
 	/**
 	 * Close the <code>DataStore</code>.  If there is an active transaction
 	 * then the <code>DataStore</code> will be closed when the transaction
@@ -337,6 +369,15 @@ public final class MemDataStore implements DataStore
 	@Override
 	public void evict (final Element element) {}
 
+	/**
+	 * Write any pending changes to the <code>DataStore</code>, without
+	 * committing the active <code>Transaction</code>.  This does nothing, as
+	 * changes are never pending.
+	 */
+
+	@Override
+	public void flush () {}
+
 	/**
 	 * Get a <code>List</code> containing all of the ID numbers in the
 	 * <code>DataStore</code> for instances of the specified
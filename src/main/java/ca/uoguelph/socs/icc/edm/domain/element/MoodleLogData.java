@@ -37,6 +37,7 @@ import ca.uoguelph.socs.icc.edm.domain.LogReference;
 import ca.uoguelph.socs.icc.edm.domain.Network;
 import ca.uoguelph.socs.icc.edm.domain.SubActivity;
 import ca.uoguelph.socs.icc.edm.domain.User;
+import ca.uoguelph.socs.icc.edm.domain.metadata.Selector;
 
 /**
  * Moodle specific implementation of the <code>LogEntry</code> interface.  This
@@ -74,6 +75,16 @@ public class MoodleLogData extends LogEntry
 	/** Serial version id, required by the Serializable interface */
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * Select the <code>LogEntry</code> instances for a <code>Course</code>
+	 * with a <code>DataStore</code> ID greater than the specified ID
+	 */
+
+	public static final Selector<LogEntry> SELECTOR_AFTER;
+
+	/** Select the last <code>LogEntry</code> instance for a <code>Course</code> */
+	public static final Selector<LogEntry> SELECTOR_LAST;
+
 	/** The primary key for the log entry */
 	private Long id;
 
@@ -104,6 +115,27 @@ public class MoodleLogData extends LogEntry
 	/** The URL contained in the <code>LogEntry</code> */
 	private String url;
 
+	/**
+	 * Initialize the <code>Selector</code> instances for the
+	 * <code>MoodleLogData</code>.
+	 */
+
+	static
+	{
+		SELECTOR_AFTER = Selector.builder (LogEntry.class)
+			.setCardinality (Selector.Cardinality.MULTIPLE)
+			.setName ("after")
+			.addProperty (LogEntry.COURSE)
+			.addProperty (LogEntry.ID)
+			.build ();
+
+		SELECTOR_LAST = Selector.builder (LogEntry.class)
+			.setCardinality (Selector.Cardinality.SINGLE)
+			.setName ("last")
+			.addProperty (LogEntry.COURSE)
+			.build ();
+	}
+
 	/**
 	 * Create the <code>MoodleLogData</code>
 	 */
@@ -50,10 +50,24 @@ public final class MultiReference<T extends Element, V extends Element> implemen
 	final Function<T, Collection<V>> get;
 
 	/** Method reference for adding values */
-	final BiPredicate<T, V> add;
+	final @Nullable BiPredicate<T, V> add;
 
 	/** Method reference for removing values */
-	final BiPredicate<T, V> remove;
+	final @Nullable BiPredicate<T, V> remove;
+
+	/**
+	 * Create a read-only <code>MultiReference</code> for the specified
+	 * values.
+	 *
+	 * @param  get      Method reference to get the value, not null
+	 */
+
+	public static <T extends Element, V extends Element> MultiReference<T, V> of (final Function<T, Collection<V>> get)
+	{
+		assert get != null : "get is NULL";
+
+		return new MultiReference<T, V> (get, null, null);
+	}
 
 	/**
 	 * Create the <code>MultiReference</code> for the specified values.
@@ -79,14 +93,14 @@ public final class MultiReference<T extends Element, V extends Element> implemen
 	 * Create the <code>MultiReference</code>.
 	 *
 	 * @param  get      Method reference to get the values, not null
-	 * @param  add      Method reference to add a value, not null
-	 * @param  remove   Method reference to remove a value, not null
+	 * @param  add      Method reference to add a value, may be null
+	 * @param  remove   Method reference to remove a value, may be null
 	 */
 
 	private MultiReference (
 			final Function<T, Collection<V>> get,
-			final BiPredicate<T, V> add,
-			final BiPredicate<T, V> remove)
+			final @Nullable BiPredicate<T, V> add,
+			final @Nullable BiPredicate<T, V> remove)
 	{
 		this.get = get;
 		this.add = add;
@@ -145,8 +159,7 @@ public final class MultiReference<T extends Element, V extends Element> implemen
 	}
 
 	/**
-	 * Determine if this reference can write to the specified value.  For a
-	 * <code>MultiReference</code> this will always return <code>true</code>.
+	 * Determine if this reference can write to the specified value.
 	 *
 	 * @return <code>true</code> is the value is read-write, <code>false</code>
 	 *         if the value is read-only
@@ -155,7 +168,7 @@ public final class MultiReference<T extends Element, V extends Element> implemen
 	@Override
 	public boolean isWritable ()
 	{
-		return true;
+		return this.add != null;
 	}
 
 	/**
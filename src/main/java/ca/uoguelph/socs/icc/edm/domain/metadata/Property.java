@@ -224,6 +224,33 @@ public final class Property<T extends Element, V>
 		return new Property<T, V> (element, value, name, SingleReference.of (get, set), nflags);
 	}
 
+	/**
+	 * Create a Read-Only Multi-Valued <code>Property</code>.
+	 *
+	 * @param  element The <code>Element</code> interface class, not null
+	 * @param  value   The value class, not null
+	 * @param  name    The name of the <code>Property</code>, not null
+	 * @param  get     Method reference to retrieve the values, not null
+	 *
+	 * @return         The <code>Property</code>
+	 */
+
+	public static <T extends Element, V extends Element> Property<T, V> ofCollection (
+			final Class<T> element,
+			final Class<V> value,
+			final String name,
+			final Function<T, Collection<V>> get)
+	{
+		Preconditions.checkNotNull (element, "element");
+		Preconditions.checkNotNull (value, "value");
+		Preconditions.checkNotNull (name, "name");
+		Preconditions.checkNotNull (get, "get");
+		Preconditions.checkArgument (name.length () > 0, "name can not be empty");
+
+		return new Property<T, V> (element, value, name,
+				MultiReference.of (get), EnumSet.of (Flags.RELATIONSHIP));
+	}
+
 	/**
 	 * Create a Multi-Valued <code>Property</code>.
 	 *
@@ -16,8 +16,12 @@
 
 package ca.uoguelph.socs.icc.edm.moodle;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -142,6 +146,9 @@ public final class ActivityConverter
 	/** The name to assign to null </code>Activity</code> instances  */
 	public static final String NULL_ACTIVITY_NAME = "-=- NO ACTIVITY SPECIFIED -=-";
 
+	/** The name of the <code>ActivitySource</code> for the converted <code>Activity</code> instances */
+	public static final String ACTIVITY_SOURCE_NAME = "moodle";
+
 	/** The log */
 	private final Logger log;
 
@@ -179,7 +186,7 @@ public final class ActivityConverter
 
 		this.typeBuilder = ActivityType.builder (this.dest)
 			.setActivitySource (ActivitySource.builder (this.dest)
-					.setName ("moodle")
+					.setName (ActivityConverter.ACTIVITY_SOURCE_NAME)
 					.build ());
 
 		this.idCache = new HashMap<> ();
@@ -188,6 +195,30 @@ public final class ActivityConverter
 
 	/**
 	 * Import an <code>Activity</code> instance into the destination
+	 * <code>DomainModel</code>.  The <code>ActivityType</code> of the
+	 * <code>Activity</code> is imported first, since the
+	 * <code>Activity</code> may not have come from a log entry.
+	 *
+	 * @param  activity The <code>Activity</code>, not null
+	 * @return          The <code>Activity</code> in the destination
+	 *                  <code>DomainModel</code>
+	 */
+
+	private Activity importActivity (final Activity activity)
+	{
+		this.log.trace ("importActivity: activity={}", activity);
+
+		assert activity != null : "activity is NULL";
+
+		this.typeBuilder.setName (activity.getType ().getName ())
+			.build ();
+
+		return activity.getBuilder (this.dest).build ();
+	}
+
+	/**
+	 * Import the <code>Activity</code> for the specified
+	 * <code>ActivityReference</code> into the destination
 	 * <code>DomainModel</code>.
 	 *
 	 * @param  ref The <code>ActivityReference</code>, not null
@@ -207,7 +238,7 @@ public final class ActivityConverter
 		Preconditions.checkState (Activity.hasActivityClass (ref.getType ()),
 				"Missing Activity implementation for: %s", ref.getType ().getName ());
 
-		return ref.getActivity ().getBuilder (this.dest).build ();
+		return this.importActivity (ref.getActivity ());
 	}
 
 	/**
@@ -264,6 +295,136 @@ public final class ActivityConverter
 		return this.idCache.get (id);
 	}
 
+	/**
+	 * Import the <code>Activity</code> for the specified
+	 * <code>ActivityReference</code> into the destination
+	 * <code>DomainModel</code>.  This method is used to load the
+	 * <code>Activity</code> instances for a <code>Course</code> before the log
+	 * is processed.  The imported <code>Activity</code> is cached, using the
+	 * <code>DataStore</code> ID of the <code>ActivityReference</code>, so it
+	 * will be used for the log entries which refer to it.
+	 *
+	 * @param  ref The <code>ActivityReference</code>, not null
+	 * @return     The <code>Activity</code>
+	 *
+	 * @throws IllegalStateException if an <code>Activity</code> implementation
+	 *                               is not registered for the associated
+	 *                               <code>ActivityType</code>
+	 */
+
+	public Activity getActivity (final ActivityReference ref)
+	{
+		this.log.trace ("getActivity: ref={}", ref);
+
+		Preconditions.checkNotNull (ref, "ref");
+
+		if (! this.idCache.containsKey (ref.getId ()))
+		{
+			this.idCache.put (ref.getId (), this.loadActivity (ref));
+		}
+
+		return this.idCache.get (ref.getId ());
+	}
+
+	/**
+	 * Get the <code>Activity</code> instances which have been imported into
+	 * the destination <code>DomainModel</code>, indexed by the
+	 * <code>DataStore</code> ID of the corresponding
+	 * <code>ActivityReference</code> in the source.  The
+	 * <code>ActivityReference</code> ID is stable across extractions, so it
+	 * can be used to identify the <code>Activity</code> in a later
+	 * extraction.
+	 *
+	 * @return An unmodifiable <code>Map</code> of the imported
+	 *         <code>Activity</code> instances
+	 */
+
+	public Map<Long, Activity> getActivities ()
+	{
+		return Collections.unmodifiableMap (this.idCache);
+	}
+
+	/**
+	 * Get the <code>Activity</code> implementation class for the
+	 * <code>Activity</code> which is referenced by the specified log entry.
+	 * The class is determined from the name of the module, without loading
+	 * the <code>Activity</code>.
+	 *
+	 * @param  entry The <code>MoodleLogData</code>, not null
+	 * @return       The <code>Activity</code> implementation class
+	 */
+
+	public static Class<? extends Activity> getActivityClass (final MoodleLogData entry)
+	{
+		Preconditions.checkNotNull (entry, "entry");
+
+		return Activity.getActivityClass (ActivityConverter.ACTIVITY_SOURCE_NAME, entry.getModule ());
+	}
+
+	/**
+	 * Import the <code>Activity</code> instances for the specified
+	 * <code>Course</code>, which are referenced by the log, into the
+	 * destination <code>DomainModel</code>.  The
+	 * <code>ActivityReference</code> instances for the <code>Course</code>
+	 * are loaded with a single query, followed by one query for the
+	 * <code>Activity</code> data of each <code>ActivityType</code>.  The
+	 * <code>Activity</code> instances returned by each query are imported
+	 * and cached, using the <code>DataStore</code> ID of their
+	 * <code>ActivityReference</code>, so that the log entries which refer to
+	 * an existing course-module do not need to query the source
+	 * <code>DomainModel</code>.  Any <code>ActivityReference</code> which was
+	 * not covered by the queries (including those for an
+	 * <code>Activity</code> class without a query) is loaded individually.
+	 * <p>
+	 * Only the <code>ActivityReference</code> instances with an ID in the
+	 * specified <code>Set</code> are imported, so that the
+	 * <code>Activity</code> instances which are imported depend on the log
+	 * entries which are being extracted, and not on the
+	 * <code>Activity</code> instances which were added to the
+	 * <code>Course</code> later.  <code>ActivityReference</code> instances
+	 * with an <code>ActivityType</code> which does not have a registered
+	 * <code>Activity</code> implementation are skipped.
+	 *
+	 * @param  course     The <code>Course</code> from the source
+	 *                    <code>DomainModel</code>, not null
+	 * @param  references The <code>DataStore</code> IDs of the
+	 *                    <code>ActivityReference</code> instances to import,
+	 *                    not null
+	 */
+
+	public void preload (final Course course, final Set<Long> references)
+	{
+		this.log.trace ("preload: course={}, references={}", course, references);
+
+		Preconditions.checkNotNull (course, "course");
+		Preconditions.checkNotNull (references, "references");
+
+		Map<Class<? extends Activity>, List<ActivityReference>> refs = this.source.getQuery (ActivityReference.SELECTOR_COURSE)
+			.setValue (ActivityReference.COURSE, course)
+			.queryAll ()
+			.stream ()
+			.filter (x -> references.contains (x.getId ()))
+			.filter (x -> Activity.hasActivityClass (x.getType ()))
+			.collect (Collectors.groupingBy (x -> Activity.getActivityClass (x.getType ())));
+
+		refs.forEach ((activity, loaded) -> {
+			if (this.source.hasQuery (Activity.SELECTOR_COURSE, activity))
+			{
+				List<Activity> activities = this.source.getQuery (Activity.SELECTOR_COURSE, activity)
+					.setValue (Activity.COURSE, course)
+					.queryAll ();
+
+				this.log.debug ("Preloading {} {} instances", activities.size (), activity.getSimpleName ());
+
+				activities.forEach (x -> Activity.REFERENCE.stream (x)
+						.filter (r -> references.contains (r.getId ()))
+						.forEach (r -> this.idCache.computeIfAbsent (r.getId (), k -> this.importActivity (x))));
+			}
+
+			loaded.forEach (x -> this.getActivity (x));
+		});
+	}
+
 	/**
 	 * Load or generate the default <code>Activity</code> for the specified
 	 * module.
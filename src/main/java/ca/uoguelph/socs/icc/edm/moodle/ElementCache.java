@@ -0,0 +1,175 @@
+/* Copyright (C) 2015 James E. Stark
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uoguelph.socs.icc.edm.moodle;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.google.common.base.MoreObjects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uoguelph.socs.icc.edm.domain.Element;
+
+/**
+ * Cache of the <code>Element</code> instances which have been built on the
+ * destination <code>DomainModel</code>.  Building an <code>Element</code>
+ * requires a query against the destination <code>DomainModel</code> to
+ * determine if the <code>Element</code> already exists.  For the
+ * <code>Element</code> instances which are referenced by many log entries,
+ * such as <code>Action</code> and <code>Network</code> instances, this class
+ * allows the query to be skipped if the <code>Element</code> has already been
+ * built.
+ * <p>
+ * The <code>ElementCache</code> counts the number of lookups that were
+ * satisfied by the cache (hits) and the number that required the
+ * <code>Element</code> to be built (misses).
+ *
+ * @author  James E. Stark
+ * @version 1.0
+ * @param   <K> The type of the key
+ * @param   <T> The type of the <code>Element</code>
+ */
+
+final class ElementCache<K, T extends Element>
+{
+	/** The log */
+	private final Logger log;
+
+	/** The name of the cache, for logging */
+	private final String name;
+
+	/** Method reference to build the <code>Element</code> for a key */
+	private final Function<K, T> builder;
+
+	/** The cached <code>Element</code> instances */
+	private final Map<K, T> elements;
+
+	/** The number of lookups which were found in the cache */
+	private long hits;
+
+	/** The number of lookups which required an <code>Element</code> to be built */
+	private long misses;
+
+	/**
+	 * Create the <code>ElementCache</code>.
+	 *
+	 * @param  name    The name of the cache, not null
+	 * @param  builder Method reference to build the <code>Element</code>
+	 *                 for a key, not null
+	 */
+
+	public ElementCache (final String name, final Function<K, T> builder)
+	{
+		this.log = LoggerFactory.getLogger (this.getClass ());
+
+		assert name != null : "name is NULL";
+		assert builder != null : "builder is NULL";
+
+		this.name = name;
+		this.builder = builder;
+
+		this.elements = new HashMap<> ();
+		this.hits = 0;
+		this.misses = 0;
+	}
+
+	/**
+	 * Get a <code>String</code> representation of the
+	 * <code>ElementCache</code>.
+	 *
+	 * @return The <code>String</code>
+	 */
+
+	@Override
+	public String toString ()
+	{
+		return MoreObjects.toStringHelper (this)
+			.add ("name", this.name)
+			.add ("size", this.elements.size ())
+			.add ("hits", this.hits)
+			.add ("misses", this.misses)
+			.toString ();
+	}
+
+	/**
+	 * Get the <code>Element</code> associated with the specified key.  If
+	 * the <code>Element</code> is not in the cache, then it will be built
+	 * and added to the cache.
+	 *
+	 * @param  key The key, not null
+	 * @return     The <code>Element</code>
+	 */
+
+	public T get (final K key)
+	{
+		this.log.trace ("get: key={}", key);
+
+		assert key != null : "key is NULL";
+
+		T element = this.elements.get (key);
+
+		if (element != null)
+		{
+			this.hits += 1;
+		}
+		else
+		{
+			this.misses += 1;
+			element = this.builder.apply (key);
+			this.elements.put (key, element);
+		}
+
+		return element;
+	}
+
+	/**
+	 * Get the number of lookups which were satisfied by the cache.
+	 *
+	 * @return The number of cache hits
+	 */
+
+	public long getHits ()
+	{
+		return this.hits;
+	}
+
+	/**
+	 * Get the number of lookups which required an <code>Element</code> to be
+	 * built.
+	 *
+	 * @return The number of cache misses
+	 */
+
+	public long getMisses ()
+	{
+		return this.misses;
+	}
+
+	/**
+	 * Get the number of <code>Element</code> instances in the cache.
+	 *
+	 * @return The number of cached <code>Element</code> instances
+	 */
+
+	public int size ()
+	{
+		return this.elements.size ();
+	}
+}
@@ -19,13 +19,21 @@ package ca.uoguelph.socs.icc.edm.moodle;
 import java.io.IOException;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.annotation.Nullable;
 import javax.inject.Singleton;
@@ -59,6 +67,7 @@ import ca.uoguelph.socs.icc.edm.domain.datastore.Query;
 import ca.uoguelph.socs.icc.edm.domain.datastore.Transaction;
 import ca.uoguelph.socs.icc.edm.domain.element.MoodleLogData;
 import ca.uoguelph.socs.icc.edm.resolver.ARINQuery;
+import ca.uoguelph.socs.icc.edm.resolver.OfflineQuery;
 import ca.uoguelph.socs.icc.edm.resolver.Resolver;
 
 /**
@@ -115,31 +124,112 @@ public final class Extractor implements AutoCloseable
 		/** The <code>SubActivityConverter</code> instance */
 		private final SubActivityConverter sConverter;
 
+		/** Source <code>User</code> id to destination <code>Enrolment</code> */
+		private final EnrolmentTable enrolments;
+
+		/** IP address to <code>Network</code> name, resolved before conversion */
+		private final Map<String, String> addresses;
+
+		/** <code>Action</code> instances, by name */
+		private final ElementCache<String, Action> actions;
+
+		/** <code>Network</code> instances, by name */
+		private final ElementCache<String, Network> networks;
+
+		/** <code>Role</code> instances, by name */
+		private final ElementCache<String, Role> roles;
+
+		/** The throughput and latency metrics */
+		private final ExtractorMetrics metrics;
+
 		/**
-		 * Create the <code>Processor</code>
+		 * Create the <code>Processor</code>.  The <code>User</code>,
+		 * <code>Activity</code> and <code>SubActivity</code> instances which
+		 * are referenced by the log entries in the <code>Window</code> are
+		 * loaded in bulk before the log is processed.
 		 *
 		 * @param  aConverter The <code>ActivityConverter</code>, not null
 		 * @param  sConverter The <code>SubActivityConverter</code>, not null
+		 * @param  addresses  IP address to <code>Network</code> name
+		 *                    mapping, not null
+		 * @param  window     The source elements which are referenced by
+		 *                    the log, not null
+		 * @param  metrics    The <code>ExtractorMetrics</code>, not null
 		 * @param  dest       The destination <code>DomainModel</code>, not null
 		 */
 
 		private Processor (
 				final ActivityConverter aConverter,
 				final SubActivityConverter sConverter,
+				final Map<String, String> addresses,
+				final Window window,
+				final ExtractorMetrics metrics,
 				final DomainModel dest)
 		{
 			this.log = LoggerFactory.getLogger (this.getClass ());
 
 			assert aConverter != null : "aConverter is NULL";
 			assert sConverter != null : "sConverter is NULL";
+			assert addresses != null : "addresses is NULL";
+			assert window != null : "window is NULL";
+			assert metrics != null : "metrics is NULL";
 			assert dest != null : "dest is NULL";
 
 			this.aConverter = aConverter;
 			this.sConverter = sConverter;
+			this.addresses = addresses;
+			this.metrics = metrics;
 			this.dest = dest;
 
+			this.actions = new ElementCache<> ("actions", x -> Action.builder (this.dest)
+					.setName (x)
+					.build ());
+
+			this.networks = new ElementCache<> ("networks", x -> Network.builder (this.dest)
+					.setName (x)
+					.build ());
+
+			this.roles = new ElementCache<> ("roles", x -> Role.builder (this.dest)
+					.setName (x)
+					.build ());
+
 			this.course = Extractor.this.course.getBuilder (this.dest)
 				.build ();
+
+			this.enrolments = new EnrolmentTable (window.users.size ());
+
+			Extractor.this.source.getQuery (User.SELECTOR_COURSES)
+				.setValue (User.COURSES, Extractor.this.course)
+				.queryAll ()
+				.stream ()
+				.filter (x -> window.users.contains (x.getId ()))
+				.forEach (x -> this.enrolments.put (x.getId (), this.enrol (this.importUser (x))));
+
+			this.aConverter.preload (Extractor.this.course, window.activities);
+			this.sConverter.preload (Extractor.this.course, window.subActivities);
+		}
+
+		/**
+		 * Get the <code>Enrolment</code> in the destination <code>Course</code>
+		 * for the specified <code>User</code>, creating the
+		 * <code>Enrolment</code> if it does not already exist.
+		 *
+		 * @param  user The destination <code>User</code>, not null
+		 * @return      The <code>Enrolment</code>
+		 */
+
+		private Enrolment enrol (final User user)
+		{
+			assert user != null : "user is NULL";
+
+			if (user.getEnrolment (this.course) == null)
+			{
+				User.enrol (user, (Extractor.this.registrations.containsKey (user.getUsername ()))
+					? this.createEnrolment (Extractor.this.registrations.get (user.getUsername ()))
+					: this.createEnrolment ());
+			}
+
+			return user.getEnrolment (this.course);
 		}
 
 		/**
@@ -156,9 +246,7 @@ public final class Extractor implements AutoCloseable
 
 			assert name != null : "name is NULL";
 
-			return Action.builder (this.dest)
-				.setName (name)
-				.build ();
+			return this.actions.get (name);
 		}
 
 		/**
@@ -166,6 +254,12 @@ public final class Extractor implements AutoCloseable
 		 * <code>DomainModel</code>, which is associated with the specified user
 		 * ID number.  The user id number should identify a <code>User</code>
 		 * instance in the source <code>DomainModel</code>.
+		 * <p>
+		 * All of the <code>User</code> instances which appear in the extracted
+		 * log entries are loaded when the <code>Processor</code> is created,
+		 * so the source <code>DomainModel</code> is only queried for user id
+		 * numbers which were not loaded.  Ids for which there is no
+		 * <code>User</code> are mapped to the null (unknown) <code>User</code>.
 		 *
 		 * @param  id The <code>DataStore</code> ID for the <code>User</code>,
 		 *            not null
@@ -178,20 +272,20 @@ public final class Extractor implements AutoCloseable
 
 			assert userId != null : "userId is NULL";
 
-			User user = Extractor.this.source.getQuery (User.SELECTOR_ID)
-				.setValue (User.ID, userId)
-				.query ()
-				.map (x -> this.importUser (x))
-				.orElseGet (() -> this.createUser ());
+			Enrolment enrolment = this.enrolments.get (userId);
 
-			if (user.getEnrolment (course) == null)
+			if (enrolment == null)
 			{
-				User.enrol (user, (Extractor.this.registrations.containsKey (user.getUsername ()))
-					? this.createEnrolment (Extractor.this.registrations.get (user.getUsername ()))
-					: this.createEnrolment ());
+				enrolment = this.enrol (Extractor.this.source.getQuery (User.SELECTOR_ID)
+						.setValue (User.ID, userId)
+						.query ()
+						.map (x -> this.importUser (x))
+						.orElseGet (() -> this.createUser ()));
+
+				this.enrolments.put (userId, enrolment);
 			}
 
-			return user.getEnrolment (course);
+			return enrolment;
 		}
 
 		/**
@@ -236,7 +330,8 @@ public final class Extractor implements AutoCloseable
 
 		/**
 		 * Create a <code>LogEntry</code> from the provided
-		 * <code>MoodleLogData</code> instance.
+		 * <code>MoodleLogData</code> instance.  The time spent in each stage
+		 * of the conversion is recorded in the <code>ExtractorMetrics</code>.
 		 *
 		 * @param  entry The <code>MoodleLogData</code> instance, not null
 		 * @return       The <code>LogEntry</code>
@@ -248,17 +343,39 @@ public final class Extractor implements AutoCloseable
 
 			assert entry != null : "entry is NULL";
 
+			long begin = System.nanoTime ();
 			Activity activity = this.aConverter.getActivity (this.course, entry);
+			this.metrics.record (ExtractorMetrics.Stage.ACTIVITY, begin);
+
+			begin = System.nanoTime ();
+			SubActivity subActivity = this.sConverter.getSubActivity (activity, entry)
+				.orElse (null);
+			this.metrics.record (ExtractorMetrics.Stage.SUBACTIVITY, begin);
+
+			begin = System.nanoTime ();
+			Enrolment enrolment = this.getEnrolment (entry.getUserId ());
+			this.metrics.record (ExtractorMetrics.Stage.ENROLMENT, begin);
+
+			begin = System.nanoTime ();
+			Network net = this.getNetwork (entry.getIpAddress ());
+			this.metrics.record (ExtractorMetrics.Stage.NETWORK, begin);
+
+			Extractor.this.mark = Math.max (Extractor.this.mark, entry.getId ());
 
-			return LogEntry.builder (this.dest)
+			begin = System.nanoTime ();
+			LogEntry result = LogEntry.builder (this.dest)
 				.setAction (this.getAction (entry.getActionName ()))
-				.setNetwork (this.getNetwork (entry.getIpAddress ()))
-				.setEnrolment (this.getEnrolment (entry.getUserId ()))
+				.setNetwork (net)
+				.setEnrolment (enrolment)
 				.setActivity (activity)
-				.setSubActivity (this.sConverter.getSubActivity (activity, entry)
-						.orElse (null))
+				.setSubActivity (subActivity)
 				.setTime (entry.getTime ())
 				.build ();
+			this.metrics.record (ExtractorMetrics.Stage.BUILD, begin);
+
+			this.metrics.row (entry.getId ());
+
+			return result;
 		}
 
 		/**
@@ -275,9 +392,26 @@ public final class Extractor implements AutoCloseable
 
 			assert ipAddress != null : "ipAddress is NULL";
 
-			return Network.builder (this.dest)
-				.setName (Extractor.this.resolver.getOrgName (ipAddress))
-				.build ();
+			return this.networks.get (this.getNetworkName (ipAddress));
+		}
+
+		/**
+		 * Get the name of the <code>Network</code> for the specified IP
+		 * address.  The name is taken from the addresses which were resolved
+		 * before the conversion started, falling back to the
+		 * <code>Resolver</code> for addresses which were not resolved.
+		 *
+		 * @param  ipAddress The IP address, not null
+		 * @return           The name of the <code>Network</code>
+		 */
+
+		public String getNetworkName (final String ipAddress)
+		{
+			assert ipAddress != null : "ipAddress is NULL";
+
+			String name = this.addresses.get (ipAddress);
+
+			return (name != null) ? name : Extractor.this.resolver.getOrgName (ipAddress);
 		}
 
 		/**
@@ -294,9 +428,7 @@ public final class Extractor implements AutoCloseable
 
 			assert name != null : "name is NULL";
 
-			return Role.builder (this.dest)
-				.setName (name)
-				.build ();
+			return this.roles.get (name);
 		}
 
 		/**
@@ -337,10 +469,227 @@ public final class Extractor implements AutoCloseable
 	}
 
 	/**
-	 * Dagger component to create the Extractor.  The component currently
-	 * declared a hard dependency on the <code>ARINQuery</code> implementation
-	 * for the <code>Resolver</code>.  Ideally this would be handled in a more
-	 * independent way.
+	 * The <code>Enrolment</code> instances for a <code>Processor</code>,
+	 * indexed by the <code>DataStore</code> ID of the <code>User</code> in the
+	 * source.  This is an open-addressed hash table, with the keys held in a
+	 * plain <code>long</code> array, so that the lookup for each log entry
+	 * does not box the ID.  Mappings are never removed.  The
+	 * <code>EnrolmentTable</code> is only used by the thread which is running
+	 * the <code>Processor</code>, so it is not synchronized.
+	 *
+	 * @author  James E. Stark
+	 * @version 1.0
+	 */
+
+	private static final class EnrolmentTable
+	{
+		/** The minimum number of slots */
+		private static final int MIN_CAPACITY;
+
+		/** The keys */
+		private long[] keys;
+
+		/** The values, null for an empty slot */
+		private Enrolment[] values;
+
+		/** Mask to convert a hash into an index */
+		private int mask;
+
+		/** The number of mappings */
+		private int size;
+
+		/**
+		 * Static initializer to set the minimum capacity.
+		 */
+
+		static
+		{
+			MIN_CAPACITY = 16;
+		}
+
+		/**
+		 * Create the <code>EnrolmentTable</code>, with enough slots for the
+		 * expected number of mappings.
+		 *
+		 * @param  expected The expected number of mappings
+		 */
+
+		private EnrolmentTable (final int expected)
+		{
+			int capacity = Integer.highestOneBit (Math.max (EnrolmentTable.MIN_CAPACITY, expected + (expected >>> 1)) - 1) << 1;
+
+			this.keys = new long[capacity];
+			this.values = new Enrolment[capacity];
+			this.mask = capacity - 1;
+			this.size = 0;
+		}
+
+		/**
+		 * Compute the starting index for the specified key.
+		 *
+		 * @param  key The key
+		 * @return     The index
+		 */
+
+		private int index (final long key)
+		{
+			long hash = key * 0x9E3779B97F4A7C15L;
+
+			return (int) (hash ^ (hash >>> 32)) & this.mask;
+		}
+
+		/**
+		 * Get the <code>Enrolment</code> which is mapped to the specified key.
+		 *
+		 * @param  key The key
+		 * @return     The <code>Enrolment</code>, null if the key is not mapped
+		 */
+
+		private @Nullable Enrolment get (final long key)
+		{
+			for (int i = this.index (key); this.values[i] != null; i = (i + 1) & this.mask)
+			{
+				if (this.keys[i] == key)
+				{
+					return this.values[i];
+				}
+			}
+
+			return null;
+		}
+
+		/**
+		 * Map the specified key to the specified <code>Enrolment</code>,
+		 * replacing the existing mapping, if there is one.
+		 *
+		 * @param  key       The key
+		 * @param  enrolment The <code>Enrolment</code>, not null
+		 */
+
+		private void put (final long key, final Enrolment enrolment)
+		{
+			assert enrolment != null : "enrolment is NULL";
+
+			int i = this.index (key);
+
+			while (this.values[i] != null && this.keys[i] != key)
+			{
+				i = (i + 1) & this.mask;
+			}
+
+			if (this.values[i] == null)
+			{
+				this.keys[i] = key;
+				this.size += 1;
+			}
+
+			this.values[i] = enrolment;
+
+			if (this.size > (this.keys.length - (this.keys.length >>> 2)))
+			{
+				this.grow ();
+			}
+		}
+
+		/**
+		 * Double the number of slots, and re-insert the mappings.
+		 */
+
+		private void grow ()
+		{
+			long[] oldKeys = this.keys;
+			Enrolment[] oldValues = this.values;
+
+			this.keys = new long[oldKeys.length << 1];
+			this.values = new Enrolment[oldValues.length << 1];
+			this.mask = this.keys.length - 1;
+
+			for (int j = 0; j < oldKeys.length; j++)
+			{
+				if (oldValues[j] != null)
+				{
+					int i = this.index (oldKeys[j]);
+
+					while (this.values[i] != null)
+					{
+						i = (i + 1) & this.mask;
+					}
+
+					this.keys[i] = oldKeys[j];
+					this.values[i] = oldValues[j];
+				}
+			}
+		}
+	}
+
+	/**
+	 * The source elements which are referenced by the log entries which are
+	 * being extracted.  The <code>Window</code> is filled in from the log
+	 * entries above the high-water mark, and not above the limit, before the
+	 * log is converted.  It bounds the elements which are loaded in bulk, so
+	 * that the elements which are imported depend only on the log entries in
+	 * the extraction, and an interrupted extraction imports the same elements
+	 * when it is resumed, even if elements were added to the source in the
+	 * meantime.
+	 *
+	 * @author  James E. Stark
+	 * @version 1.0
+	 */
+
+	private static final class Window
+	{
+		/** The distinct IP addresses */
+		private final Set<String> addresses;
+
+		/** The <code>DataStore</code> IDs of the <code>User</code> instances */
+		private final Set<Long> users;
+
+		/** The <code>DataStore</code> IDs of the <code>ActivityReference</code> instances */
+		private final Set<Long> activities;
+
+		/** The keys of the <code>SubActivity</code> instances */
+		private final Set<SubActivityConverter.Key> subActivities;
+
+		/**
+		 * Create the <code>Window</code>.
+		 */
+
+		private Window ()
+		{
+			this.addresses = new HashSet<> ();
+			this.users = new HashSet<> ();
+			this.activities = new HashSet<> ();
+			this.subActivities = new HashSet<> ();
+		}
+
+		/**
+		 * Add the elements which are referenced by the specified log entry to
+		 * the <code>Window</code>.
+		 *
+		 * @param  entry The <code>MoodleLogData</code>, not null
+		 */
+
+		private void add (final MoodleLogData entry)
+		{
+			assert entry != null : "entry is NULL";
+
+			this.addresses.add (entry.getIpAddress ());
+			this.users.add (entry.getUserId ());
+
+			if (entry.getActivityId () != 0)
+			{
+				this.activities.add (entry.getActivityId ());
+			}
+
+			SubActivityConverter.getKey (ActivityConverter.getActivityClass (entry), entry)
+				.ifPresent (this.subActivities::add);
+		}
+	}
+
+	/**
+	 * Dagger component to create the Extractor.  The component uses the
+	 * <code>ARINQuery</code> implementation for the <code>Resolver</code>,
+	 * unless it is replaced by the <code>OfflineExtractorComponent</code>.
 	 */
 
 	@Component (modules = {ARINQuery.ARINQueryModule.class})
@@ -354,6 +703,43 @@ public final class Extractor implements AutoCloseable
 		 */
 
 		public abstract ExtractorFactory getExtractorFactory ();
+
+		/**
+		 * Get a reference to the <code>Resolver</code>.
+		 *
+		 * @return The <code>Resolver</code>
+		 */
+
+		public abstract Resolver getResolver ();
+	}
+
+	/**
+	 * Dagger component to create the Extractor, using the
+	 * <code>OfflineQuery</code> implementation for the <code>Resolver</code>,
+	 * so that the IP addresses are resolved from a local file.
+	 */
+
+	@Component (modules = {OfflineQuery.OfflineQueryModule.class})
+	@Singleton
+	public static interface OfflineExtractorComponent extends ExtractorComponent
+	{
+		/**
+		 * Get a reference to the <code>ExtractorFactory</code>.
+		 *
+		 * @return The <code>ExtractorFactory</code>
+		 */
+
+		@Override
+		public abstract ExtractorFactory getExtractorFactory ();
+
+		/**
+		 * Get a reference to the <code>Resolver</code>.
+		 *
+		 * @return The <code>Resolver</code>
+		 */
+
+		@Override
+		public abstract Resolver getResolver ();
 	}
 
 	/** The CSV dialect to parse */
@@ -371,8 +757,11 @@ public final class Extractor implements AutoCloseable
 	/** The name of the <code>Role</code> to assign to unknown <code>user</code> instances */
 	private static final String UNKNOWN_ROLE_NAME;
 
+	/** The interval between progress reports, in seconds */
+	private static final long REPORT_INTERVAL;
+
 	/** Dagger Component to get Extractor instances */
-	private static final ExtractorComponent COMPONENT;
+	private static volatile ExtractorComponent component;
 
 	/** The Log*/
 	private final Logger log;
@@ -389,6 +778,18 @@ public final class Extractor implements AutoCloseable
 	/** The <code>Course</code> to process */
 	private @Nullable Course course;
 
+	/** The number of threads used to resolve the IP addresses */
+	private int threads;
+
+	/** The <code>DataStore</code> ID of the last extracted log entry */
+	private long mark;
+
+	/** The <code>DataStore</code> ID of the last log entry to extract */
+	private long limit;
+
+	/** The source keys for the extracted <code>Activity</code> and <code>SubActivity</code> instances */
+	private final Map<Element, String> keys;
+
 	/**
 	 * Static intializer to set the constants, and to create the Dagger
 	 * Component instance.
@@ -401,8 +802,9 @@ public final class Extractor implements AutoCloseable
 		NULL_USER_FIRSTNAME = "NULL";
 		NULL_USER_LASTNAME = "USER";
 		UNKNOWN_ROLE_NAME = "UNKNOWN";
+		REPORT_INTERVAL = 30;
 
-		COMPONENT = DaggerExtractor_ExtractorComponent.create ();
+		component = DaggerExtractor_ExtractorComponent.create ();
 	}
 
 	/**
@@ -416,10 +818,61 @@ public final class Extractor implements AutoCloseable
 	{
 		Preconditions.checkNotNull (source, "source");
 
-		return Extractor.COMPONENT.getExtractorFactory ()
+		return Extractor.component.getExtractorFactory ()
 			.create (source);
 	}
 
+	/**
+	 * Query ARIN with the settings in the specified <code>Builder</code>,
+	 * rather than the default settings.  This replaces the shared
+	 * <code>Resolver</code>, so it must be called before
+	 * <code>getResolver</code> or <code>create</code>.
+	 *
+	 * @param  builder The <code>Builder</code> for the
+	 *                 <code>ARINQuery</code>, not null
+	 * @see    ARINQuery
+	 */
+
+	public static void setWhoisQuery (final ARINQuery.Builder builder)
+	{
+		Preconditions.checkNotNull (builder, "builder");
+
+		Extractor.component = DaggerExtractor_ExtractorComponent.builder ()
+			.aRINQueryModule (new ARINQuery.ARINQueryModule (builder))
+			.build ();
+	}
+
+	/**
+	 * Resolve the IP addresses from the networks in the specified file,
+	 * rather than by querying ARIN.  This replaces the shared
+	 * <code>Resolver</code>, so it must be called before
+	 * <code>getResolver</code> or <code>create</code>.
+	 *
+	 * @param  file The file containing the networks, not null
+	 * @see    OfflineQuery
+	 */
+
+	public static void setWhoisData (final Path file)
+	{
+		Preconditions.checkNotNull (file, "file");
+
+		Extractor.component = DaggerExtractor_OfflineExtractorComponent.builder ()
+			.offlineQueryModule (new OfflineQuery.OfflineQueryModule (file))
+			.build ();
+	}
+
+	/**
+	 * Get the <code>Resolver</code> which is shared by the
+	 * <code>Extractor</code> instances returned by <code>create</code>.
+	 *
+	 * @return The <code>Resolver</code>
+	 */
+
+	public static Resolver getResolver ()
+	{
+		return Extractor.component.getResolver ();
+	}
+
 	/**
 	 * Create the <code>Extractor</code>.
 	 *
@@ -438,6 +891,10 @@ public final class Extractor implements AutoCloseable
 		this.source = source;
 
 		this.registrations = new HashMap<> ();
+		this.keys = new IdentityHashMap<> ();
+		this.threads = 1;
+		this.mark = 0;
+		this.limit = Long.MAX_VALUE;
 
 		this.registrations.put (Extractor.NULL_USER_USERNAME,
 			Registration.create (Extractor.UNKNOWN_ROLE_NAME,
@@ -474,7 +931,10 @@ public final class Extractor implements AutoCloseable
 		this.log.trace ("clear:");
 
 		this.course = null;
+		this.mark = 0;
+		this.limit = Long.MAX_VALUE;
 		this.registrations.clear ();
+		this.keys.clear ();
 
 		return this;
 	}
@@ -554,6 +1014,118 @@ public final class Extractor implements AutoCloseable
 		return this;
 	}
 
+	/**
+	 * Get the high-water mark for the log.  This is the
+	 * <code>DataStore</code> ID of the last log entry which was extracted, or
+	 * the value set by <code>setHighWaterMark</code> if no log entries were
+	 * extracted.
+	 *
+	 * @return The <code>DataStore</code> ID of the last extracted log entry
+	 */
+
+	public long getHighWaterMark ()
+	{
+		return this.mark;
+	}
+
+	/**
+	 * Set the high-water mark for the log.  Only the log entries with a
+	 * <code>DataStore</code> ID greater than the high-water mark will be
+	 * extracted.  Setting the high-water mark to zero will cause the entire
+	 * log to be extracted.
+	 *
+	 * @param  mark The <code>DataStore</code> ID of the last log entry which
+	 *              was previously extracted, must not be negative
+	 * @return      This <code>Extractor</code>
+	 */
+
+	public Extractor setHighWaterMark (final long mark)
+	{
+		this.log.trace ("setHighWaterMark: mark={}", mark);
+
+		Preconditions.checkArgument (mark >= 0, "mark is negative");
+
+		this.mark = mark;
+
+		return this;
+	}
+
+	/**
+	 * Set the upper bound for the log.  Only the log entries with a
+	 * <code>DataStore</code> ID which is less than or equal to the limit
+	 * will be extracted, so that the same log entries can be extracted again
+	 * after more entries have been added to the log.  By default, the log is
+	 * extracted to its end.
+	 *
+	 * @param  limit The <code>DataStore</code> ID of the last log entry to
+	 *               be extracted, must not be negative
+	 * @return       This <code>Extractor</code>
+	 */
+
+	public Extractor setLimit (final long limit)
+	{
+		this.log.trace ("setLimit: limit={}", limit);
+
+		Preconditions.checkArgument (limit >= 0, "limit is negative");
+
+		this.limit = limit;
+
+		return this;
+	}
+
+	/**
+	 * Get the source keys for the <code>Activity</code> and
+	 * <code>SubActivity</code> instances from the last extraction.  The key
+	 * is built from the Moodle <code>DataStore</code> ID of the
+	 * <code>ActivityReference</code>, or of the <code>SubActivity</code> and
+	 * its class, so it identifies the same <code>Activity</code> or
+	 * <code>SubActivity</code> across extractions, even if it has been
+	 * renamed.
+	 *
+	 * @return An unmodifiable <code>Map</code> from the extracted
+	 *         <code>Element</code> instances to their source keys
+	 */
+
+	public Map<Element, String> getSourceKeys ()
+	{
+		return Collections.unmodifiableMap (this.keys);
+	}
+
+	/**
+	 * Get the number of threads which are used to resolve the IP addresses
+	 * in the log.
+	 *
+	 * @return The number of threads
+	 */
+
+	public int getThreads ()
+	{
+		return this.threads;
+	}
+
+	/**
+	 * Set the number of threads which are used to resolve the distinct IP
+	 * addresses in the log before the conversion starts.  The log itself is
+	 * converted sequentially, by the calling thread, since neither the
+	 * source nor the destination <code>DomainModel</code> may be shared
+	 * between threads, and all of the per-entry work, other than the
+	 * address resolution, accesses one or the other.
+	 *
+	 * @param  threads The number of threads, must be positive
+	 * @return         This <code>Extractor</code>
+	 */
+
+	public Extractor setThreads (final int threads)
+	{
+		this.log.trace ("setThreads: threads={}", threads);
+
+		Preconditions.checkArgument (threads > 0, "threads must be positive");
+
+		this.threads = threads;
+
+		return this;
+	}
+
 	/**
 	 * Get a <code>List</code> containing all of the <code>Registration</code>
 	 * instances in the <code>Extractor</code>
@@ -672,6 +1244,18 @@ public final class Extractor implements AutoCloseable
 	/**
 	 * Extract the data for a <code>Course</code> from the Moodle
 	 * <code>DomainModel</code> into the specified <code>DomainModel</code>.
+	 * The log is scanned once before it is converted, to collect the source
+	 * elements which it references.  The distinct IP addresses are resolved,
+	 * so that the conversion does not wait on "whois" queries, and the
+	 * bulk loading of the source elements is limited to the referenced
+	 * elements.
+	 * Only the log entries above the high-water mark, and not above the
+	 * limit, are extracted, and the high-water mark is advanced to the last
+	 * extracted log entry.
+	 * <p>
+	 * The throughput and per-stage latency of the conversion are registered
+	 * over JMX for the duration of the extraction, and a summary of the
+	 * progress is written to the log periodically.
 	 *
 	 * @param  dest The destination <code>DomainModel</code>, not null
 	 * @return      The destination <code>DomainModel</code>
@@ -687,21 +1271,73 @@ public final class Extractor implements AutoCloseable
 		Preconditions.checkNotNull (dest, "dest");
 		Preconditions.checkState (this.course != null, "course is not set");
 
+		final Window window = new Window ();
+
+		try (Stream<LogEntry> entries = this.source.getQuery (MoodleLogData.SELECTOR_AFTER)
+				.setValue (LogEntry.COURSE, this.course)
+				.setValue (LogEntry.ID, this.mark)
+				.stream ())
+		{
+			entries.filter (x -> x.getId () <= this.limit)
+				.forEach (x -> window.add ((MoodleLogData) x));
+		}
+
+		final Map<String, String> addresses = this.resolver.getOrgNames (window.addresses, this.threads);
+
+		this.log.debug ("Resolved {} distinct IP addresses", addresses.size ());
+
 		dest.getTransaction ().begin ();
 
+		final ExtractorMetrics metrics = new ExtractorMetrics (this.mark,
+				this.source.getQuery (MoodleLogData.SELECTOR_LAST)
+					.setValue (LogEntry.COURSE, this.course)
+					.query ()
+					.map (x -> Math.min (x.getId (), this.limit))
+					.orElse (this.mark));
+
 		final Processor processor = new Processor (
 				new ActivityConverter (dest, this.source),
 				new SubActivityConverter (dest, this.source),
+				addresses,
+				window,
+				metrics,
 				dest);
 
-		this.source.getQuery (LogEntry.SELECTOR_COURSE)
-			.setValue (LogEntry.COURSE, this.course)
-			.stream ()
-			.map (x -> (MoodleLogData) x)
-			.forEach (x -> processor.createLogEntry (x));
+		final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor ();
+
+		metrics.register (this.course.getId ());
+		reporter.scheduleAtFixedRate (metrics::report, Extractor.REPORT_INTERVAL, Extractor.REPORT_INTERVAL, TimeUnit.SECONDS);
+
+		try (Stream<LogEntry> entries = this.source.getQuery (MoodleLogData.SELECTOR_AFTER)
+				.setValue (LogEntry.COURSE, this.course)
+				.setValue (LogEntry.ID, this.mark)
+				.stream ())
+		{
+			entries.filter (x -> x.getId () <= this.limit)
+				.forEach (x -> processor.createLogEntry ((MoodleLogData) x));
+		}
+		finally
+		{
+			reporter.shutdownNow ();
+			metrics.unregister ();
+		}
+
+		metrics.report ();
+		this.log.debug ("Stage latency (ns): mean={}, p99={}, max={}", metrics.getStageMeanNanos (),
+				metrics.getStage99thPercentileNanos (), metrics.getStageMaxNanos ());
+
+		this.log.debug ("Element caches: {}, {}, {}", processor.actions, processor.networks, processor.roles);
 
 		dest.getTransaction ().commit ();
 
+		this.keys.clear ();
+
+		processor.aConverter.getActivities ()
+			.forEach ((k, v) -> this.keys.putIfAbsent (v, String.format ("Activity:%d", k)));
+
+		processor.sConverter.getSubActivities ()
+			.forEach ((k, v) -> this.keys.putIfAbsent (v, String.format ("%s:%d", k.getSubActivityClass ().getSimpleName (), k.getId ())));
+
 		return dest;
 	}
 }
@@ -0,0 +1,420 @@
+/* Copyright (C) 2016 James E. Stark
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uoguelph.socs.icc.edm.moodle;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntToLongFunction;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Throughput and latency metrics for an extraction.  The time spent in each
+ * stage of the conversion of a log entry is recorded into a counter, a
+ * running total and a histogram with power-of-two buckets.  All of the
+ * counters are held in pre-allocated arrays of atomic values, so that the
+ * recording methods do not allocate, and the metrics can be read by other
+ * threads while the extraction is in progress.
+ * <p>
+ * The progress of the extraction is estimated from the position of the
+ * current log entry between the first and the last <code>DataStore</code> ID
+ * of the log entries being extracted.  The metrics are available over JMX,
+ * once registered, and as a summary written to the log.
+ *
+ * @author  James E. Stark
+ * @version 1.0
+ */
+
+final class ExtractorMetrics implements ExtractorMetricsMXBean
+{
+	/**
+	 * The instrumented stages of the conversion of a log entry.
+	 */
+
+	enum Stage
+	{
+		/** Conversion of the <code>Activity</code> */
+		ACTIVITY ("getActivity"),
+
+		/** Conversion of the <code>SubActivity</code> */
+		SUBACTIVITY ("getSubActivity"),
+
+		/** Lookup of the <code>Enrolment</code> */
+		ENROLMENT ("getEnrolment"),
+
+		/** Lookup of the <code>Network</code> */
+		NETWORK ("getNetwork"),
+
+		/** Building the <code>LogEntry</code> */
+		BUILD ("build");
+
+		/** The name of the stage */
+		private final String name;
+
+		/**
+		 * Create the <code>Stage</code>.
+		 *
+		 * @param  name The name of the stage, not null
+		 */
+
+		private Stage (final String name)
+		{
+			this.name = name;
+		}
+
+		/**
+		 * Get the name of the <code>Stage</code>.
+		 *
+		 * @return The name
+		 */
+
+		@Override
+		public String toString ()
+		{
+			return this.name;
+		}
+	}
+
+	/** The number of histogram buckets for each stage */
+	private static final int BUCKETS;
+
+	/** The log */
+	private final Logger log;
+
+	/** The time at which the extraction started, in nanoseconds */
+	private final long start;
+
+	/** The <code>DataStore</code> ID below the first log entry */
+	private final long first;
+
+	/** The <code>DataStore</code> ID of the last log entry */
+	private final long last;
+
+	/** The number of converted log entries */
+	private final AtomicLong rows;
+
+	/** The <code>DataStore</code> ID of the most recently converted entry */
+	private volatile long position;
+
+	/** The number of calls to each stage */
+	private final AtomicLongArray counts;
+
+	/** The total time spent in each stage, in nanoseconds */
+	private final AtomicLongArray totals;
+
+	/** The maximum time spent in each stage, in nanoseconds */
+	private final AtomicLongArray maxima;
+
+	/** The latency histograms, <code>BUCKETS</code> entries per stage */
+	private final AtomicLongArray histograms;
+
+	/** The JMX name, null if the metrics are not registered */
+	private ObjectName name;
+
+	/**
+	 * Static initializer to set the number of histogram buckets.
+	 */
+
+	static
+	{
+		BUCKETS = Long.SIZE;
+	}
+
+	/**
+	 * Create the <code>ExtractorMetrics</code>.
+	 *
+	 * @param  first The <code>DataStore</code> ID below the first log entry
+	 *               to be extracted
+	 * @param  last  The <code>DataStore</code> ID of the last log entry to be
+	 *               extracted
+	 */
+
+	public ExtractorMetrics (final long first, final long last)
+	{
+		this.log = LoggerFactory.getLogger (this.getClass ());
+
+		this.start = System.nanoTime ();
+		this.first = first;
+		this.last = last;
+		this.position = first;
+
+		int stages = Stage.values ().length;
+
+		this.rows = new AtomicLong ();
+		this.counts = new AtomicLongArray (stages);
+		this.totals = new AtomicLongArray (stages);
+		this.maxima = new AtomicLongArray (stages);
+		this.histograms = new AtomicLongArray (stages * ExtractorMetrics.BUCKETS);
+
+		this.name = null;
+	}
+
+	/**
+	 * Create a <code>Map</code> containing the specified value for each
+	 * stage.
+	 *
+	 * @param  value Function to compute the value from the index of the stage,
+	 *               not null
+	 * @return       The <code>Map</code>
+	 */
+
+	private static Map<String, Long> toMap (final IntToLongFunction value)
+	{
+		assert value != null : "value is NULL";
+
+		Map<String, Long> result = new LinkedHashMap<> ();
+
+		for (Stage stage : Stage.values ())
+		{
+			result.put (stage.toString (), value.applyAsLong (stage.ordinal ()));
+		}
+
+		return Collections.unmodifiableMap (result);
+	}
+
+	/**
+	 * Get the time since the extraction started, in nanoseconds.
+	 *
+	 * @return The elapsed time
+	 */
+
+	private long getElapsed ()
+	{
+		return System.nanoTime () - this.start;
+	}
+
+	/**
+	 * Record the completion of a stage, which started at the specified time.
+	 *
+	 * @param  stage The <code>Stage</code>, not null
+	 * @param  begin The value of <code>System.nanoTime</code> when the stage
+	 *               started
+	 */
+
+	public void record (final Stage stage, final long begin)
+	{
+		assert stage != null : "stage is NULL";
+
+		long elapsed = Math.max (System.nanoTime () - begin, 1);
+		int index = stage.ordinal ();
+
+		this.counts.incrementAndGet (index);
+		this.totals.addAndGet (index, elapsed);
+		this.histograms.incrementAndGet (index * ExtractorMetrics.BUCKETS + (Long.SIZE - 1 - Long.numberOfLeadingZeros (elapsed)));
+
+		long max = this.maxima.get (index);
+
+		while (elapsed > max && ! this.maxima.compareAndSet (index, max, elapsed))
+		{
+			max = this.maxima.get (index);
+		}
+	}
+
+	/**
+	 * Record the conversion of a log entry.
+	 *
+	 * @param  id The <code>DataStore</code> ID of the log entry
+	 */
+
+	public void row (final long id)
+	{
+		this.rows.incrementAndGet ();
+		this.position = id;
+	}
+
+	/**
+	 * Register the metrics with the platform <code>MBeanServer</code>.  A
+	 * failure to register is logged, and otherwise ignored.
+	 *
+	 * @param  course The <code>DataStore</code> ID of the course being
+	 *                extracted
+	 */
+
+	public void register (final long course)
+	{
+		this.log.trace ("register: course={}", course);
+
+		try
+		{
+			this.name = new ObjectName (String.format ("ca.uoguelph.socs.icc.edm:type=Extractor,course=%d", course));
+			ManagementFactory.getPlatformMBeanServer ().registerMBean (this, this.name);
+		}
+		catch (JMException ex)
+		{
+			this.log.warn ("Failed to register the extractor metrics: {}", ex.getMessage ());
+			this.name = null;
+		}
+	}
+
+	/**
+	 * Remove the metrics from the platform <code>MBeanServer</code>.
+	 */
+
+	public void unregister ()
+	{
+		this.log.trace ("unregister:");
+
+		if (this.name != null)
+		{
+			try
+			{
+				ManagementFactory.getPlatformMBeanServer ().unregisterMBean (this.name);
+			}
+			catch (JMException ex)
+			{
+				this.log.warn ("Failed to unregister the extractor metrics: {}", ex.getMessage ());
+			}
+
+			this.name = null;
+		}
+	}
+
+	/**
+	 * Write a summary of the progress of the extraction to the log.
+	 */
+
+	public void report ()
+	{
+		long remaining = this.getEstimatedSecondsRemaining ();
+
+		this.log.info ("Converted {} log entries, {} rows/sec, ETA {}", this.rows.get (),
+				String.format ("%.1f", this.getRowsPerSecond ()),
+				(remaining < 0) ? "unknown" : String.format ("%d:%02d", remaining / 60, remaining % 60));
+
+		this.log.debug ("Mean stage latency (ns): {}", this.getStageMeanNanos ());
+	}
+
+	/**
+	 * Get the number of log entries which have been converted.
+	 *
+	 * @return The number of log entries
+	 */
+
+	@Override
+	public long getRows ()
+	{
+		return this.rows.get ();
+	}
+
+	/**
+	 * Get the average number of log entries converted per second, since the
+	 * extraction started.
+	 *
+	 * @return The conversion rate
+	 */
+
+	@Override
+	public double getRowsPerSecond ()
+	{
+		return this.rows.get () / (this.getElapsed () / (double) TimeUnit.SECONDS.toNanos (1));
+	}
+
+	/**
+	 * Get the estimated number of seconds until the extraction completes,
+	 * based on the fraction of the <code>DataStore</code> ID range which has
+	 * been processed.
+	 *
+	 * @return The estimated number of seconds remaining, -1 if the estimate
+	 *         is not available
+	 */
+
+	@Override
+	public long getEstimatedSecondsRemaining ()
+	{
+		long done = this.position - this.first;
+		long todo = this.last - this.position;
+
+		return (done > 0 && todo >= 0)
+			? TimeUnit.NANOSECONDS.toSeconds ((long) (this.getElapsed () * ((double) todo / done)))
+			: -1;
+	}
+
+	/**
+	 * Get the number of calls to each stage.
+	 *
+	 * @return A <code>Map</code> of the call counts
+	 */
+
+	@Override
+	public Map<String, Long> getStageCounts ()
+	{
+		return ExtractorMetrics.toMap (i -> this.counts.get (i));
+	}
+
+	/**
+	 * Get the mean latency of each stage, in nanoseconds.
+	 *
+	 * @return A <code>Map</code> of the mean latencies
+	 */
+
+	@Override
+	public Map<String, Long> getStageMeanNanos ()
+	{
+		return ExtractorMetrics.toMap (i -> (this.counts.get (i) > 0) ? this.totals.get (i) / this.counts.get (i) : 0);
+	}
+
+	/**
+	 * Get the maximum latency of each stage, in nanoseconds.
+	 *
+	 * @return A <code>Map</code> of the maximum latencies
+	 */
+
+	@Override
+	public Map<String, Long> getStageMaxNanos ()
+	{
+		return ExtractorMetrics.toMap (i -> this.maxima.get (i));
+	}
+
+	/**
+	 * Get the upper bound of the 99th percentile latency of each stage, in
+	 * nanoseconds.  The bound is the upper edge of the histogram bucket which
+	 * contains the 99th percentile.
+	 *
+	 * @return A <code>Map</code> of the 99th percentile latencies
+	 */
+
+	@Override
+	public Map<String, Long> getStage99thPercentileNanos ()
+	{
+		return ExtractorMetrics.toMap (i -> {
+			long target = (long) Math.ceil (this.counts.get (i) * 0.99);
+			long seen = 0;
+			int bucket = 0;
+
+			for (; bucket < ExtractorMetrics.BUCKETS - 1; bucket++)
+			{
+				seen += this.histograms.get (i * ExtractorMetrics.BUCKETS + bucket);
+
+				if (seen >= target)
+				{
+					break;
+				}
+			}
+
+			return (target > 0) ? (1L << Math.min (bucket + 1, Long.SIZE - 2)) : 0;
+		});
+	}
+}
@@ -0,0 +1,89 @@
+/* Copyright (C) 2016 James E. Stark
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uoguelph.socs.icc.edm.moodle;
+
+import java.util.Map;
+
+/**
+ * JMX management interface for the progress and per-stage latency of an
+ * extraction.  The per-stage attributes are keyed by the name of the stage.
+ *
+ * @author  James E. Stark
+ * @version 1.0
+ */
+
+public interface ExtractorMetricsMXBean
+{
+	/**
+	 * Get the number of log entries which have been converted.
+	 *
+	 * @return The number of log entries
+	 */
+
+	public abstract long getRows ();
+
+	/**
+	 * Get the average number of log entries converted per second, since the
+	 * extraction started.
+	 *
+	 * @return The conversion rate
+	 */
+
+	public abstract double getRowsPerSecond ();
+
+	/**
+	 * Get the estimated number of seconds until the extraction completes.
+	 *
+	 * @return The estimated number of seconds remaining, -1 if the estimate
+	 *         is not available
+	 */
+
+	public abstract long getEstimatedSecondsRemaining ();
+
+	/**
+	 * Get the number of calls to each stage.
+	 *
+	 * @return A <code>Map</code> of the call counts
+	 */
+
+	public abstract Map<String, Long> getStageCounts ();
+
+	/**
+	 * Get the mean latency of each stage, in nanoseconds.
+	 *
+	 * @return A <code>Map</code> of the mean latencies
+	 */
+
+	public abstract Map<String, Long> getStageMeanNanos ();
+
+	/**
+	 * Get the maximum latency of each stage, in nanoseconds.
+	 *
+	 * @return A <code>Map</code> of the maximum latencies
+	 */
+
+	public abstract Map<String, Long> getStageMaxNanos ();
+
+	/**
+	 * Get the upper bound of the 99th percentile latency of each stage, in
+	 * nanoseconds.
+	 *
+	 * @return A <code>Map</code> of the 99th percentile latencies
+	 */
+
+	public abstract Map<String, Long> getStage99thPercentileNanos ();
+}
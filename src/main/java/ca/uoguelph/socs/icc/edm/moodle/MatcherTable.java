@@ -0,0 +1,288 @@
+/* Copyright (C) 2016 James E. Stark
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uoguelph.socs.icc.edm.moodle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import com.google.common.base.Preconditions;
+
+import ca.uoguelph.socs.icc.edm.domain.Activity;
+import ca.uoguelph.socs.icc.edm.domain.SubActivity;
+import ca.uoguelph.socs.icc.edm.domain.element.MoodleLogData;
+
+/**
+ * Compiled dispatch table for a set of <code>Matcher</code> instances.  The
+ * <code>Matcher</code> instances are compiled, by <code>Activity</code> class,
+ * into a form which can be evaluated against a log entry without testing
+ * each <code>Matcher</code> in turn.  The <code>ActionMatcher</code>
+ * instances become a hash table, indexed by the name of the
+ * <code>Action</code>, and the patterns from the <code>URLMatcher</code>
+ * instances are combined into a single regular expression, with one
+ * alternative (group) per pattern.  The group which matched the URL
+ * identifies the <code>SubActivity</code> class.
+ * <p>
+ * Any other <code>Matcher</code> implementations are evaluated individually,
+ * after the compiled <code>Matcher</code> instances.
+ *
+ * @author  James E. Stark
+ * @version 1.0
+ * @see     SubActivityConverter
+ */
+
+final class MatcherTable
+{
+	/**
+	 * The compiled <code>Matcher</code> instances for an <code>Activity</code>
+	 * class.
+	 *
+	 * @author  James E. Stark
+	 * @version 1.0
+	 */
+
+	private static final class Entry
+	{
+		/** <code>Action</code> name to <code>SubActivity</code> mapping */
+		private final Map<String, Class<? extends SubActivity>> actions;
+
+		/** The combined URL pattern, null if there are no URL patterns */
+		private final Pattern urls;
+
+		/** The group number of each alternative in the combined pattern */
+		private final int[] groups;
+
+		/** The <code>SubActivity</code> class for each alternative */
+		private final List<Class<? extends SubActivity>> urlSubActivities;
+
+		/** The remaining, uncompiled, <code>Matcher</code> instances */
+		private final List<Matcher> others;
+
+		/**
+		 * Create the <code>Entry</code> from the <code>Matcher</code>
+		 * instances for an <code>Activity</code>.
+		 *
+		 * @param  matchers The <code>Matcher</code> instances, not null
+		 *
+		 * @throws IllegalStateException if an <code>Action</code> is mapped to
+		 *                               more than one <code>SubActivity</code>
+		 */
+
+		private Entry (final List<Matcher> matchers)
+		{
+			assert matchers != null : "matchers is NULL";
+
+			Map<String, Class<? extends SubActivity>> actions = new HashMap<> ();
+			List<Class<? extends SubActivity>> urlSubActivities = new ArrayList<> ();
+			List<Integer> groups = new ArrayList<> ();
+			List<Matcher> others = new ArrayList<> ();
+			StringBuilder urls = new StringBuilder ();
+			int group = 1;
+
+			for (Matcher matcher : matchers)
+			{
+				if (matcher instanceof ActionMatcher)
+				{
+					Class<? extends SubActivity> previous = actions.putIfAbsent (((ActionMatcher) matcher).action,
+							matcher.getSubActivityClass ());
+
+					Preconditions.checkState (previous == null || previous == matcher.getSubActivityClass (),
+							"Action %s is mapped to both %s and %s", ((ActionMatcher) matcher).action,
+							previous, matcher.getSubActivityClass ());
+				}
+				else if (matcher instanceof URLMatcher)
+				{
+					Pattern pattern = ((URLMatcher) matcher).pattern;
+
+					if (urls.length () > 0)
+					{
+						urls.append ('|');
+					}
+
+					urls.append ('(')
+						.append (pattern.pattern ())
+						.append (')');
+
+					groups.add (group);
+					urlSubActivities.add (matcher.getSubActivityClass ());
+
+					group += pattern.matcher ("").groupCount () + 1;
+				}
+				else
+				{
+					others.add (matcher);
+				}
+			}
+
+			this.actions = Collections.unmodifiableMap (actions);
+			this.urls = (urls.length () > 0) ? Pattern.compile (urls.toString ()) : null;
+			this.groups = groups.stream ()
+				.mapToInt (Integer::intValue)
+				.toArray ();
+			this.urlSubActivities = Collections.unmodifiableList (urlSubActivities);
+			this.others = Collections.unmodifiableList (others);
+		}
+
+		/**
+		 * Determine which <code>SubActivity</code> class is referenced by the
+		 * specified log entry.
+		 *
+		 * @param  entry The <code>MoodleLogData</code> to process, not null
+		 * @return       The <code>SubActivity</code> class, null if the log
+		 *               entry does not reference a <code>SubActivity</code>
+		 */
+
+		private Class<? extends SubActivity> match (final MoodleLogData entry)
+		{
+			assert entry != null : "entry is NULL";
+
+			Class<? extends SubActivity> result = this.actions.get (entry.getActionName ());
+
+			if (result == null && this.urls != null)
+			{
+				java.util.regex.Matcher matcher = this.urls.matcher (entry.getUrl ());
+
+				if (matcher.find ())
+				{
+					for (int i = 0; i < this.groups.length && result == null; i++)
+					{
+						if (matcher.start (this.groups[i]) >= 0)
+						{
+							result = this.urlSubActivities.get (i);
+						}
+					}
+				}
+			}
+
+			for (int i = 0; i < this.others.size () && result == null; i++)
+			{
+				if (this.others.get (i).matches (entry))
+				{
+					result = this.others.get (i).getSubActivityClass ();
+				}
+			}
+
+			return result;
+		}
+	}
+
+	/** <code>Activity</code> class to compiled <code>Matcher</code> mapping */
+	private final Map<Class<? extends Activity>, Entry> entries;
+
+	/** The <code>SubActivity</code> classes, in the order they were loaded */
+	private final List<Class<? extends SubActivity>> subActivities;
+
+	/**
+	 * Create the <code>MatcherTable</code>.
+	 *
+	 * @param  entries       The compiled <code>Matcher</code> instances, not
+	 *                       null
+	 * @param  subActivities The <code>SubActivity</code> classes, not null
+	 */
+
+	private MatcherTable (final Map<Class<? extends Activity>, Entry> entries, final List<Class<? extends SubActivity>> subActivities)
+	{
+		assert entries != null : "entries is NULL";
+		assert subActivities != null : "subActivities is NULL";
+
+		this.entries = entries;
+		this.subActivities = subActivities;
+	}
+
+	/**
+	 * Compile the specified <code>Matcher</code> instances into a
+	 * <code>MatcherTable</code>.
+	 *
+	 * @param  matchers The <code>Matcher</code> instances, not null
+	 * @return          The <code>MatcherTable</code>
+	 *
+	 * @throws IllegalStateException if an <code>Activity</code> and
+	 *                               <code>Action</code> are mapped to more
+	 *                               than one <code>SubActivity</code>
+	 */
+
+	public static MatcherTable create (final List<Matcher> matchers)
+	{
+		Preconditions.checkNotNull (matchers, "matchers");
+
+		return new MatcherTable (matchers.stream ()
+				.collect (Collectors.collectingAndThen (
+						Collectors.groupingBy (Matcher::getActivityClass,
+							Collectors.collectingAndThen (Collectors.toList (), Entry::new)),
+						Collections::unmodifiableMap)),
+				matchers.stream ()
+				.map (Matcher::getSubActivityClass)
+				.distinct ()
+				.collect (Collectors.collectingAndThen (Collectors.toList (), Collections::unmodifiableList)));
+	}
+
+	/**
+	 * Determine if there are any <code>Matcher</code> instances for the
+	 * specified <code>Activity</code> class.
+	 *
+	 * @param  activity The <code>Activity</code> class, not null
+	 * @return          <code>true</code> if the <code>Activity</code> class
+	 *                  has <code>Matcher</code> instances, <code>false</code>
+	 *                  otherwise
+	 */
+
+	public boolean contains (final Class<? extends Activity> activity)
+	{
+		Preconditions.checkNotNull (activity, "activity");
+
+		return this.entries.containsKey (activity);
+	}
+
+	/**
+	 * Get the <code>SubActivity</code> classes which can be matched by the
+	 * <code>MatcherTable</code>.  The classes are returned in the order in
+	 * which the <code>Matcher</code> instances were loaded.
+	 *
+	 * @return An unmodifiable <code>List</code> of <code>SubActivity</code>
+	 *         classes
+	 */
+
+	public List<Class<? extends SubActivity>> getSubActivityClasses ()
+	{
+		return this.subActivities;
+	}
+
+	/**
+	 * Get the <code>SubActivity</code> class which is referenced by the
+	 * specified log entry.
+	 *
+	 * @param  activity The <code>Activity</code> class, not null
+	 * @param  entry    The <code>MoodleLogData</code> to process, not null
+	 * @return          An <code>Optional</code> containing the
+	 *                  <code>SubActivity</code> class
+	 */
+
+	public Optional<Class<? extends SubActivity>> getSubActivityClass (final Class<? extends Activity> activity, final MoodleLogData entry)
+	{
+		Preconditions.checkNotNull (activity, "activity");
+		Preconditions.checkNotNull (entry, "entry");
+
+		Entry matchers = this.entries.get (activity);
+
+		return (matchers != null) ? Optional.ofNullable (matchers.match (entry)) : Optional.empty ();
+	}
+}
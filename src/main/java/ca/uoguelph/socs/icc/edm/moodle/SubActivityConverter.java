@@ -23,17 +23,22 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
+
+import org.hibernate.Hibernate;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Node;
 
 import com.google.auto.value.AutoValue;
+import com.google.common.base.Preconditions;
 
 import ca.uoguelph.socs.icc.edm.domain.Action;
 import ca.uoguelph.socs.icc.edm.domain.Activity;
+import ca.uoguelph.socs.icc.edm.domain.Course;
 import ca.uoguelph.socs.icc.edm.domain.DomainModel;
+import ca.uoguelph.socs.icc.edm.domain.ParentActivity;
 import ca.uoguelph.socs.icc.edm.domain.SubActivity;
 import ca.uoguelph.socs.icc.edm.domain.datastore.ConfigLoader;
 import ca.uoguelph.socs.icc.edm.domain.element.MoodleLogData;
@@ -294,8 +299,8 @@ public final class SubActivityConverter
 	/** The name of the given to missing <code>SubActivity</code> instances */
 	private static final String MISSING_SUBACTIVITY_NAME = "-=- MISSING SUBACTIVITY -=-";
 
-	/** <code>Activity</code> to <code>SubActivity</code> mapping */
-	private static final Map<Class<? extends Activity>, List<Matcher>> SUBACTIVITIES;
+	/** Compiled <code>Activity</code> to <code>SubActivity</code> mapping */
+	private static final MatcherTable SUBACTIVITIES;
 
 	/** The log */
 	private final Logger log;
@@ -315,14 +320,8 @@ public final class SubActivityConverter
 
 	static
 	{
-		SUBACTIVITIES = new Loader ()
-			.load (SubActivityConverter.class.getResource ("/Matchers.xml"))
-			.stream ()
-			.collect (Collectors.collectingAndThen (
-						Collectors.groupingBy (Matcher::getActivityClass,
-							Collectors.collectingAndThen (Collectors.toList (),
-								Collections::unmodifiableList)),
-						Collections::unmodifiableMap));
+		SUBACTIVITIES = MatcherTable.create (new Loader ()
+				.load (SubActivityConverter.class.getResource ("/Matchers.xml")));
 	}
 
 	/**
@@ -423,6 +422,145 @@ public final class SubActivityConverter
 		return this.subActivityCache.get (key);
 	}
 
+	/**
+	 * Import a <code>SubActivity</code> instance, which was loaded from the
+	 * source <code>DomainModel</code>, into the cache.  If the parent of the
+	 * <code>SubActivity</code> is also a <code>SubActivity</code>, then it is
+	 * imported first.  The parent <code>Activity</code> must already exist in
+	 * the destination <code>DomainModel</code>.
+	 * <p>
+	 * The <code>SubActivity</code> is cached under the class which was
+	 * queried, rather than its runtime class, so that the <code>Key</code>
+	 * matches the <code>Key</code> which is created for the log entries, even
+	 * if the <code>SubActivity</code> is a proxy.  The parent is cached
+	 * under its underlying entity class, since it is loaded by association.
+	 *
+	 * @param  type        The <code>SubActivity</code> class, not null
+	 * @param  subActivity The <code>SubActivity</code>, not null
+	 * @return             The <code>SubActivity</code>
+	 */
+
+	@SuppressWarnings ("unchecked")
+	private SubActivity preloadSubActivity (final Class<? extends SubActivity> type, final SubActivity subActivity)
+	{
+		assert type != null : "type is NULL";
+		assert subActivity != null : "subActivity is NULL";
+
+		ParentActivity parent = subActivity.getParent ();
+
+		if (parent instanceof SubActivity)
+		{
+			this.preloadSubActivity ((Class<? extends SubActivity>) Hibernate.getClass (parent), (SubActivity) parent);
+		}
+
+		Key key = Key.create (subActivity.getId (), type);
+
+		if (! this.subActivityCache.containsKey (key))
+		{
+			this.subActivityCache.put (key, this.importSubActivity (subActivity));
+		}
+
+		return this.subActivityCache.get (key);
+	}
+
+	/**
+	 * Determine if any of the log entries for the specified
+	 * <code>Activity</code> class can reference a <code>SubActivity</code>.
+	 *
+	 * @param  activity The <code>Activity</code> class, not null
+	 * @return          <code>true</code> if the <code>Activity</code> has
+	 *                  <code>SubActivity</code> instances, <code>false</code>
+	 *                  otherwise
+	 */
+
+	public boolean hasSubActivities (final Class<? extends Activity> activity)
+	{
+		return SubActivityConverter.SUBACTIVITIES.contains (activity);
+	}
+
+	/**
+	 * Get the <code>Key</code> for the <code>SubActivity</code> which is
+	 * referenced by the specified log entry, if there is one.
+	 *
+	 * @param  activity The <code>Activity</code> class, not null
+	 * @param  entry    The <code>MoodleLogData</code> to process, not null
+	 * @return          An <code>Optional</code> containing the
+	 *                  <code>Key</code>
+	 */
+
+	static Optional<Key> getKey (final Class<? extends Activity> activity, final MoodleLogData entry)
+	{
+		assert activity != null : "activity is NULL";
+		assert entry != null : "entry is NULL";
+
+		return SubActivityConverter.SUBACTIVITIES.getSubActivityClass (activity, entry)
+			.map (x -> Key.create (Long.valueOf (entry.getInfo ()), x));
+	}
+
+	/**
+	 * Load the <code>SubActivity</code> instances for the specified
+	 * <code>Course</code>, which are referenced by the log.  The
+	 * <code>SubActivity</code> instances are loaded from the source
+	 * <code>DomainModel</code> using one query for each
+	 * <code>SubActivity</code> class, then imported into the destination
+	 * <code>DomainModel</code> and cached, so that the log entries which
+	 * refer to them do not need to query the source.  The parent
+	 * <code>Activity</code> instances must be imported into the destination
+	 * <code>DomainModel</code> before this method is called.
+	 * <p>
+	 * Only the <code>SubActivity</code> instances with a <code>Key</code> in
+	 * the specified <code>Set</code> (and their parents) are imported, so
+	 * that the <code>SubActivity</code> instances which are imported depend
+	 * on the log entries which are being extracted, and not on the
+	 * <code>SubActivity</code> instances which were added to the
+	 * <code>Course</code> later.  <code>SubActivity</code> classes for which
+	 * the source <code>DomainModel</code> does not have a query are skipped,
+	 * and are loaded individually as they are referenced by the log.
+	 *
+	 * @param  course The <code>Course</code> from the source
+	 *                <code>DomainModel</code>, not null
+	 * @param  keys   The <code>Key</code> instances of the
+	 *                <code>SubActivity</code> instances to import, not null
+	 */
+
+	public void preload (final Course course, final Set<Key> keys)
+	{
+		this.log.trace ("preload: course={}, keys={}", course, keys);
+
+		Preconditions.checkNotNull (course, "course");
+		Preconditions.checkNotNull (keys, "keys");
+
+		SubActivityConverter.SUBACTIVITIES.getSubActivityClasses ()
+			.stream ()
+			.filter (x -> keys.stream ().anyMatch (k -> k.getSubActivityClass () == x))
+			.filter (x -> this.source.hasQuery (SubActivity.SELECTOR_COURSE, x))
+			.forEach (x -> {
+				List<SubActivity> loaded = this.source.getQuery (SubActivity.SELECTOR_COURSE, x)
+					.setValue (SubActivity.COURSE, course)
+					.queryAll ();
+
+				this.log.debug ("Preloading {} {} instances", loaded.size (), x.getSimpleName ());
+
+				loaded.stream ()
+					.filter (e -> keys.contains (Key.create (e.getId (), x)))
+					.forEach (e -> this.preloadSubActivity (x, e));
+			});
+	}
+
+	/**
+	 * Get the <code>SubActivity</code> instances which have been imported
+	 * into the destination <code>DomainModel</code>, indexed by their
+	 * <code>DataStore</code> ID and class in the source.
+	 *
+	 * @return An unmodifiable <code>Map</code> of the imported
+	 *         <code>SubActivity</code> instances
+	 */
+
+	public Map<Key, SubActivity> getSubActivities ()
+	{
+		return Collections.unmodifiableMap (this.subActivityCache);
+	}
+
 	/**
 	 * Get the <code>SubActivity</code> associated with the specified
 	 * <code>MoodleLogData</code> instance.
@@ -437,12 +575,7 @@ public final class SubActivityConverter
 	{
 		this.log.trace ("getSubActivity: activity={}, entry={}", activity, entry);
 
-		return Optional.ofNullable (SubActivityConverter.SUBACTIVITIES.get (activity.getClass ()))
-			.flatMap (x -> x.stream ()
-					.filter (m -> m.matches (entry))
-					.findAny ())
-			.map (Matcher::getSubActivityClass)
-			.map (x -> Key.create (Long.valueOf (entry.getInfo ()), x))
+		return SubActivityConverter.getKey (activity.getClass (), entry)
 			.map (x -> this.loadSubActivity (x, activity));
 	}
 }
@@ -19,35 +19,41 @@ package ca.uoguelph.socs.icc.edm.resolver;
 import java.io.InputStream;
 import java.io.IOException;
 import java.net.HttpURLConnection;
-import java.net.InetAddress;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
-import javax.inject.Inject;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
+import javax.annotation.Nullable;
+import javax.inject.Singleton;
 
 import dagger.Module;
 import dagger.Provides;
 
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 /**
  * Retrieve "whois" data from ARIN.  This class retrieves "whois" data using
  * ARIN's RESTful Web-Service API and parses the XML to retrieve the network
- * and organization information.
+ * and organization information, using <code>ARINResponse</code>.
+ * <p>
+ * The queries are executed asynchronously by a fixed number of threads, which
+ * limits the number of concurrent requests, and the requests are started no
+ * faster than the configured rate.  The connections are kept alive and reused
+ * between requests to the same server.  A request which times out, or is
+ * rejected with a 429 or 5xx status, is retried after an exponentially
+ * increasing delay (or the delay requested by the server), up to a maximum
+ * number of attempts.
  *
  * @author  James E. Stark
  * @version 1.0
@@ -57,7 +63,9 @@ public final class ARINQuery implements WhoisQuery
 {
 	/**
 	 * Dagger module to specify the dependency for a <code>ARINQuery</code>
-	 * instance.
+	 * instance.  The <code>ARINQuery</code> is created from the
+	 * <code>Builder</code> supplied to the module, or with the default
+	 * settings.
 	 *
 	 * @author  James E. Stark
 	 * @version 1.0
@@ -66,171 +74,484 @@ public final class ARINQuery implements WhoisQuery
 	@Module
 	public static final class ARINQueryModule
 	{
+		/** The <code>Builder</code> for the <code>ARINQuery</code> */
+		private final Builder builder;
+
+		/**
+		 * Create the <code>ARINQueryModule</code>, with the default settings.
+		 */
+
+		public ARINQueryModule ()
+		{
+			this (new Builder ());
+		}
+
+		/**
+		 * Create the <code>ARINQueryModule</code>.
+		 *
+		 * @param  builder The <code>Builder</code> containing the settings for
+		 *                 the <code>ARINQuery</code>, not null
+		 */
+
+		public ARINQueryModule (final Builder builder)
+		{
+			this.builder = Preconditions.checkNotNull (builder, "builder");
+		}
+
 		/**
 		 * Create a new <code>ARINQuery</code> instance.
 		 *
-		 * @param  query The <code>ARINQuery</code> instance, not null
-		 * @return       The <code>ARINQuery</code> instance
+		 * @return The <code>ARINQuery</code> instance
 		 */
 
 		@Provides
-		public WhoisQuery getQuery (final ARINQuery query)
+		@Singleton
+		public WhoisQuery getQuery ()
 		{
-			return query;
+			return this.builder.build ();
 		}
 	}
 
-	/** The XML DOM parser */
-	private static final DocumentBuilder PARSER;
+	/**
+	 * Builder for the <code>ARINQuery</code>.
+	 *
+	 * @author  James E. Stark
+	 * @version 1.0
+	 */
 
-	/** XPath to get the netblocks */
-	private static final XPathExpression NETBLOCKS;
+	public static final class Builder
+	{
+		/** The URL of the ARIN IP address service */
+		private String base;
 
-	/** XPath Query to get the base address of the network */
-	private static final XPathExpression STARTADDRESS;
+		/** The maximum number of concurrent requests */
+		private int concurrency;
 
-	/** XPath Query to get the length of the netmask */
-	private static final XPathExpression CIDRLENGTH;
+		/** The maximum number of requests to start per second */
+		private double rate;
 
-	/** XPath Query to get the name of the organization which owned the network */
-	private static final XPathExpression ORGNAME;
+		/** The connect and read timeout, in milliseconds */
+		private int timeout;
 
-	/** XPath Query to get the parent network */
-	private static final XPathExpression PARENT;
+		/** The maximum number of attempts for each request */
+		private int attempts;
 
-	/** The Log */
-	private final Logger log;
+		/** The delay before the first retry, in milliseconds */
+		private long backoff;
 
-	/**
-	 * Static initilaiizer to setup the parser, sice it is constance across all
-	 * <code>ARINQuery</code> instances.
-	 */
+		/**
+		 * Create the <code>Builder</code>, with the default settings.
+		 */
 
-	static
-	{
-		XPath xpath = XPathFactory.newInstance ().newXPath ();
+		private Builder ()
+		{
+			this.base = "http://whois.arin.net/rest/ip/";
+			this.concurrency = 4;
+			this.rate = 8.0;
+			this.timeout = 30000;
+			this.attempts = 6;
+			this.backoff = 500;
+		}
 
-		try
+		/**
+		 * Build the <code>ARINQuery</code>.
+		 *
+		 * @return The new <code>ARINQuery</code>
+		 */
+
+		public ARINQuery build ()
 		{
-			PARSER = DocumentBuilderFactory.newInstance ()
-				.newDocumentBuilder ();
-
-			NETBLOCKS = xpath.compile ("/net/netBlocks/netBlock");
-			STARTADDRESS = xpath.compile ("./startAddress");
-			CIDRLENGTH = xpath.compile ("./cidrLength");
-			ORGNAME = xpath.compile ("/net/orgRef/@name");
-			PARENT = xpath.compile ("/net/parentNetRef");
+			return new ARINQuery (this);
 		}
-		catch (ParserConfigurationException ex)
+
+		/**
+		 * Set the URL of the ARIN IP address service.  The IP address is
+		 * appended to the URL to form the query.
+		 *
+		 * @param  base The URL, not null
+		 * @return      This <code>Builder</code>
+		 */
+
+		public Builder setBaseURL (final String base)
 		{
-			throw new RuntimeException (ex);
+			this.base = Preconditions.checkNotNull (base, "base");
+
+			return this;
 		}
-		catch (XPathExpressionException ex)
+
+		/**
+		 * Set the maximum number of concurrent requests.
+		 *
+		 * @param  concurrency The number of requests, must be positive
+		 * @return             This <code>Builder</code>
+		 */
+
+		public Builder setConcurrency (final int concurrency)
 		{
-			throw new RuntimeException (ex);
+			Preconditions.checkArgument (concurrency > 0, "concurrency must be positive");
+			this.concurrency = concurrency;
+
+			return this;
+		}
+
+		/**
+		 * Set the maximum number of requests to start per second.
+		 *
+		 * @param  rate The number of requests per second, must be positive
+		 * @return      This <code>Builder</code>
+		 */
+
+		public Builder setRate (final double rate)
+		{
+			Preconditions.checkArgument (rate > 0, "rate must be positive");
+			this.rate = rate;
+
+			return this;
+		}
+
+		/**
+		 * Set the connect and read timeout.
+		 *
+		 * @param  timeout The timeout, in milliseconds, must be positive
+		 * @return         This <code>Builder</code>
+		 */
+
+		public Builder setTimeout (final int timeout)
+		{
+			Preconditions.checkArgument (timeout > 0, "timeout must be positive");
+			this.timeout = timeout;
+
+			return this;
+		}
+
+		/**
+		 * Set the maximum number of attempts for each request.
+		 *
+		 * @param  attempts The number of attempts, must be positive
+		 * @return          This <code>Builder</code>
+		 */
+
+		public Builder setAttempts (final int attempts)
+		{
+			Preconditions.checkArgument (attempts > 0, "attempts must be positive");
+			this.attempts = attempts;
+
+			return this;
+		}
+
+		/**
+		 * Set the delay before the first retry.  The delay is doubled for
+		 * each subsequent retry.
+		 *
+		 * @param  backoff The delay, in milliseconds, must not be negative
+		 * @return         This <code>Builder</code>
+		 */
+
+		public Builder setBackoff (final long backoff)
+		{
+			Preconditions.checkArgument (backoff >= 0, "backoff is negative");
+			this.backoff = backoff;
+
+			return this;
 		}
 	}
 
-	@Inject
-	ARINQuery ()
+	/** The maximum delay between retries, in milliseconds */
+	private static final long MAX_BACKOFF;
+
+	/** The Log */
+	private final Logger log;
+
+	/** The URL of the ARIN IP address service */
+	private final String base;
+
+	/** The connect and read timeout, in milliseconds */
+	private final int timeout;
+
+	/** The maximum number of attempts for each request */
+	private final int attempts;
+
+	/** The delay before the first retry, in milliseconds */
+	private final long backoff;
+
+	/** The minimum interval between the start of requests, in nanoseconds */
+	private final long interval;
+
+	/** The threads which execute the requests */
+	private final ScheduledThreadPoolExecutor executor;
+
+	/** The earliest time at which the next request may start, in nanoseconds */
+	private long next;
+
+	/**
+	 * Static initializer to set the maximum backoff.
+	 */
+
+	static
+	{
+		MAX_BACKOFF = 60000;
+	}
+
+	/**
+	 * Get a new <code>Builder</code> instance.
+	 *
+	 * @return The <code>Builder</code>
+	 */
+
+	public static Builder builder ()
+	{
+		return new Builder ();
+	}
+
+	/**
+	 * Create the <code>ARINQuery</code> from the <code>Builder</code>.
+	 *
+	 * @param  builder The <code>Builder</code>, not null
+	 */
+
+	private ARINQuery (final Builder builder)
 	{
 		this.log = LoggerFactory.getLogger (this.getClass ());
+
+		assert builder != null : "builder is NULL";
+
+		this.base = builder.base;
+		this.timeout = builder.timeout;
+		this.attempts = builder.attempts;
+		this.backoff = builder.backoff;
+		this.interval = (long) (TimeUnit.SECONDS.toNanos (1) / builder.rate);
+		this.next = System.nanoTime ();
+
+		this.executor = new ScheduledThreadPoolExecutor (builder.concurrency, new ThreadFactoryBuilder ()
+				.setNameFormat ("arin-query-%d")
+				.setDaemon (true)
+				.build ());
+
+		this.executor.setKeepAliveTime (30, TimeUnit.SECONDS);
+		this.executor.allowCoreThreadTimeOut (true);
 	}
 
 	/**
-	 * Extract the <code>CIDRAddress</code> instances from the document.
+	 * Reserve the next slot for starting a request, so that the requests are
+	 * started no faster than the configured rate.
 	 *
-	 * @param  ipData The document to process, not null
-	 * @return        The <code>Set</code> of <code>CIDRAddress</code>
-	 *                instances
+	 * @param  delay The minimum delay before the request, in milliseconds
+	 * @return       The delay before the request may start, in nanoseconds
 	 */
 
-	private List<CIDRAddress> processNetBlocks (final Document ipData)
+	private synchronized long reserve (final long delay)
 	{
-		this.log.trace ("processNetBlocks: ipdata={}", ipData);
+		long now = System.nanoTime ();
+		long start = Math.max (now + TimeUnit.MILLISECONDS.toNanos (delay), this.next);
 
-		assert ipData != null : "ipData is NULL";
+		this.next = start + this.interval;
 
-		List<CIDRAddress> result = new ArrayList<> ();
+		return start - now;
+	}
 
-		try
-		{
-			NodeList nl = (NodeList) ARINQuery.NETBLOCKS.evaluate (ipData, XPathConstants.NODESET);
+	/**
+	 * Get the delay before the specified retry of a request.  The delay
+	 * requested by the server is used if it is present, otherwise the delay
+	 * is doubled for each attempt, with some random jitter.
+	 *
+	 * @param  attempt    The number of attempts which have failed
+	 * @param  retryAfter The value of the <code>Retry-After</code> header,
+	 *                    may be null
+	 * @return            The delay, in milliseconds
+	 */
 
-			for (int i = 0; i < nl.getLength (); i ++)
+	private long getBackoff (final int attempt, final @Nullable String retryAfter)
+	{
+		if (retryAfter != null)
+		{
+			try
 			{
-				result.add (CIDRAddress.builder ()
-						.setAddress (ARINQuery.STARTADDRESS.evaluate (nl.item (i)))
-						.setLength (Short.valueOf (ARINQuery.CIDRLENGTH.evaluate (nl.item (i))).shortValue ())
-						.build ());
+				return Math.min (ARINQuery.MAX_BACKOFF, TimeUnit.SECONDS.toMillis (Long.parseLong (retryAfter.trim ())));
+			}
+			catch (NumberFormatException ex)
+			{
+				this.log.debug ("Ignoring Retry-After: {}", retryAfter);
 			}
 		}
-		catch (IOException ex)
-		{
-			throw new RuntimeException (ex);
-		}
-		catch (XPathExpressionException ex)
-		{
-			throw new RuntimeException (ex);
-		}
 
-		return result;
+		long delay = Math.min (ARINQuery.MAX_BACKOFF, this.backoff << Math.min (attempt - 1, 20));
+
+		return delay + ThreadLocalRandom.current ().nextLong (delay / 4 + 1);
 	}
 
 	/**
-	 * Execute a "whois" query for the specified IP address.
+	 * Schedule an attempt of a request.
 	 *
-	 * @param  url The <code>URL</code> for the whois query, not null
-	 * @return     The name of the organization which owns the IP Address
+	 * @param  url     The <code>URL</code> for the request, not null
+	 * @param  attempt The number of the attempt, starting at one
+	 * @param  delay   The minimum delay before the attempt, in milliseconds
+	 * @param  future  The <code>CompletableFuture</code> for the response,
+	 *                 not null
 	 */
 
-	private List<NetBlock> executeQuery (final URL url)
+	private void schedule (final URL url, final int attempt, final long delay, final CompletableFuture<byte[]> future)
 	{
-		this.log.trace ("getOrg: url={}", url);
+		this.executor.schedule (() -> this.execute (url, attempt, future), this.reserve (delay), TimeUnit.NANOSECONDS);
+	}
 
-		assert url != null : "url is NULL";
+	/**
+	 * Execute an attempt of a request, and complete the future with the
+	 * response, or schedule the next attempt if the request failed and can be
+	 * retried.  The response is read completely, and the connection is not
+	 * disconnected, so that it may be reused for the next request.
+	 *
+	 * @param  url     The <code>URL</code> for the request, not null
+	 * @param  attempt The number of the attempt, starting at one
+	 * @param  future  The <code>CompletableFuture</code> for the response,
+	 *                 not null
+	 */
+
+	private void execute (final URL url, final int attempt, final CompletableFuture<byte[]> future)
+	{
+		this.log.trace ("execute: url={}, attempt={}", url, attempt);
 
-		List<NetBlock> result = null;
+		int status = -1;
+		String retryAfter = null;
+		Exception cause = null;
 
 		try
 		{
-			HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-			conn.setRequestProperty("Accept", "application/xml");
+			HttpURLConnection conn = (HttpURLConnection) url.openConnection ();
+			conn.setRequestProperty ("Accept", "application/xml");
+			conn.setConnectTimeout (this.timeout);
+			conn.setReadTimeout (this.timeout);
 
-			Document ipData = ARINQuery.PARSER.parse (conn.getInputStream ());
+			status = conn.getResponseCode ();
 
-			String parentRef = ARINQuery.PARENT.evaluate (ipData);
-			String orgName = ARINQuery.ORGNAME.evaluate (ipData).trim ();
-
-			if (parentRef.length () > 0)
+			if (status == HttpURLConnection.HTTP_OK)
 			{
-				result = this.executeQuery (new URL (parentRef));
+				try (InputStream in = conn.getInputStream ())
+				{
+					future.complete (ByteStreams.toByteArray (in));
+				}
+
+				return;
 			}
 
-			if ((result == null) || ((orgName.length () > 0) && (! orgName.equals (result.get (0).getOwner ()))))
+			retryAfter = conn.getHeaderField ("Retry-After");
+
+			try (InputStream err = conn.getErrorStream ())
 			{
-				result = this.processNetBlocks (ipData)
-					.stream ()
-					.map (x -> new NetBlock (orgName, x))
-					.collect (Collectors.toList ());
+				if (err != null)
+				{
+					ByteStreams.toByteArray (err);
+				}
 			}
-
-			conn.disconnect();
 		}
 		catch (IOException ex)
 		{
-			throw new RuntimeException (ex);
+			cause = ex;
 		}
-		catch (SAXException ex)
+		catch (RuntimeException ex)
 		{
-			throw new RuntimeException (ex);
+			future.completeExceptionally (ex);
+			return;
 		}
-		catch (XPathExpressionException ex)
+
+		boolean retry = (cause != null) || (status == 429) || (status >= 500);
+
+		if (retry && (attempt < this.attempts))
+		{
+			long delay = this.getBackoff (attempt, retryAfter);
+
+			this.log.debug ("Request for {} failed ({}), retrying in {} ms", url, (cause != null) ? cause : status, delay);
+			this.schedule (url, attempt + 1, delay, future);
+		}
+		else
+		{
+			future.completeExceptionally ((cause != null)
+					? cause
+					: new IOException (String.format ("Request for %s failed with status %d", url, status)));
+		}
+	}
+
+	/**
+	 * Fetch the response to the query for the specified <code>URL</code>.
+	 *
+	 * @param  url The <code>URL</code> for the whois query, not null
+	 * @return     The body of the response
+	 */
+
+	private CompletableFuture<byte[]> fetch (final URL url)
+	{
+		CompletableFuture<byte[]> future = new CompletableFuture<> ();
+
+		this.schedule (url, 1, 0, future);
+
+		return future;
+	}
+
+	/**
+	 * Execute a "whois" query for the specified <code>URL</code>.  If the
+	 * network has a parent, then the parent is queried, and its networks are
+	 * returned unless this network is owned by a different organization.
+	 *
+	 * @param  url The <code>URL</code> for the whois query, not null
+	 * @return     The <code>NetBlock</code> instances for the network
+	 */
+
+	private CompletableFuture<List<NetBlock>> executeQuery (final URL url)
+	{
+		this.log.trace ("executeQuery: url={}", url);
+
+		assert url != null : "url is NULL";
+
+		return this.fetch (url)
+			.thenApply (ARINResponse::parse)
+			.thenCompose (response -> {
+				CompletableFuture<List<NetBlock>> parent = (response.getParentRef ().length () > 0)
+					? this.executeQuery (this.toURL (response.getParentRef ()))
+					: CompletableFuture.completedFuture (null);
+
+				return parent.thenApply (result ->
+						((result == null) || ((response.getOrgName ().length () > 0) && (! response.getOrgName ().equals (result.get (0).getOwner ()))))
+						? response.getBlocks ().stream ()
+							.map (x -> new NetBlock (response.getOrgName (), x))
+							.collect (Collectors.toList ())
+						: result);
+			});
+	}
+
+	/**
+	 * Create a <code>URL</code> from the specified <code>String</code>.
+	 *
+	 * @param  url The <code>String</code> representation of the URL, not null
+	 * @return     The <code>URL</code>
+	 */
+
+	private URL toURL (final String url)
+	{
+		try
+		{
+			return new URL (url);
+		}
+		catch (MalformedURLException ex)
 		{
 			throw new RuntimeException (ex);
 		}
+	}
+
+	/**
+	 * Execute a "whois" query for the specified IP address asynchronously.
+	 *
+	 * @param  address The IP address, not null
+	 * @return         A <code>CompletableFuture</code> which is completed
+	 *                 with the <code>NetBlock</code> instances for the
+	 *                 network which contains the IP address
+	 */
+
+	public CompletableFuture<List<NetBlock>> getNetBlocksAsync (final CIDRAddress address)
+	{
+		this.log.trace ("getNetBlocksAsync: address={}", address);
 
-		return result;
+		Preconditions.checkNotNull (address, "address");
+
+		return this.executeQuery (this.toURL (this.base + address.getHostAddress ()));
 	}
 
 	/**
@@ -247,11 +568,14 @@ public final class ARINQuery implements WhoisQuery
 
 		try
 		{
-			return this.executeQuery (new URL ("http://whois.arin.net/rest/ip/" + address.getHostAddress ()));
+			return this.getNetBlocksAsync (address)
+				.join ();
 		}
-		catch (IOException ex)
+		catch (CompletionException ex)
 		{
-			throw new RuntimeException (ex);
+			throw (ex.getCause () instanceof RuntimeException)
+				? (RuntimeException) ex.getCause ()
+				: new RuntimeException (ex.getCause ());
 		}
 	}
 }
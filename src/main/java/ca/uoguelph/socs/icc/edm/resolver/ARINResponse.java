@@ -0,0 +1,231 @@
+/* Copyright (C) 2016 James E. Stark
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uoguelph.socs.icc.edm.resolver;
+
+import java.io.ByteArrayInputStream;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * The data extracted from ARIN's response to a "whois" query for a network.
+ * The response is parsed in a single pass with a StAX stream reader, which
+ * picks out the <code>netBlock/startAddress</code>,
+ * <code>netBlock/cidrLength</code>, <code>orgRef/@name</code> and
+ * <code>parentNetRef</code> elements of the <code>net</code> document without
+ * building a DOM tree.  DTDs and external entities are not processed.
+ * <p>
+ * This class is only used by <code>ARINQuery</code>; it is public so that
+ * the parser can be benchmarked on its own.
+ *
+ * @author  James E. Stark
+ * @version 1.0
+ * @see     ARINQuery
+ */
+
+public final class ARINResponse
+{
+	/** The StAX factory, which is not modified after it is configured */
+	private static final XMLInputFactory FACTORY;
+
+	/** The URL of the parent network, empty if there is no parent */
+	private final String parentRef;
+
+	/** The name of the organization which owns the network */
+	private final String orgName;
+
+	/** The network blocks */
+	private final List<CIDRAddress> blocks;
+
+	/**
+	 * Static initializer to configure the StAX factory.
+	 */
+
+	static
+	{
+		FACTORY = XMLInputFactory.newInstance ();
+		FACTORY.setProperty (XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		FACTORY.setProperty (XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		FACTORY.setProperty (XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+	}
+
+	/**
+	 * Create the <code>ARINResponse</code>.
+	 *
+	 * @param  parentRef The URL of the parent network, not null
+	 * @param  orgName   The name of the organization, not null
+	 * @param  blocks    The network blocks, not null
+	 */
+
+	private ARINResponse (final String parentRef, final String orgName, final List<CIDRAddress> blocks)
+	{
+		assert parentRef != null : "parentRef is NULL";
+		assert orgName != null : "orgName is NULL";
+		assert blocks != null : "blocks is NULL";
+
+		this.parentRef = parentRef;
+		this.orgName = orgName;
+		this.blocks = blocks;
+	}
+
+	/**
+	 * Parse the specified response.
+	 *
+	 * @param  response The body of the response, not null
+	 * @return          The <code>ARINResponse</code>
+	 *
+	 * @throws IllegalArgumentException if the response is not a valid
+	 *                                  <code>net</code> document
+	 */
+
+	public static ARINResponse parse (final byte[] response)
+	{
+		assert response != null : "response is NULL";
+
+		String parentRef = "";
+		String orgName = "";
+		List<CIDRAddress> blocks = new ArrayList<> ();
+
+		String startAddress = null;
+		String cidrLength = null;
+
+		try
+		{
+			XMLStreamReader reader = ARINResponse.FACTORY.createXMLStreamReader (new ByteArrayInputStream (response));
+
+			try
+			{
+				int depth = 0;
+				boolean inBlocks = false;
+
+				while (reader.hasNext ())
+				{
+					int event = reader.next ();
+
+					if (event == XMLStreamConstants.START_ELEMENT)
+					{
+						depth += 1;
+
+						String name = reader.getLocalName ();
+
+						if (depth == 1)
+						{
+							if (! name.equals ("net"))
+							{
+								throw new IllegalArgumentException ("Not a net document: " + name);
+							}
+						}
+						else if (depth == 2 && name.equals ("orgRef"))
+						{
+							String value = reader.getAttributeValue (null, "name");
+							orgName = (value != null) ? value.trim () : "";
+						}
+						else if (depth == 2 && name.equals ("parentNetRef"))
+						{
+							parentRef = reader.getElementText ().trim ();
+							depth -= 1;
+						}
+						else if (depth == 2 && name.equals ("netBlocks"))
+						{
+							inBlocks = true;
+						}
+						else if (depth == 3 && inBlocks && name.equals ("netBlock"))
+						{
+							startAddress = null;
+							cidrLength = null;
+						}
+						else if (depth == 4 && inBlocks && name.equals ("startAddress"))
+						{
+							startAddress = reader.getElementText ().trim ();
+							depth -= 1;
+						}
+						else if (depth == 4 && inBlocks && name.equals ("cidrLength"))
+						{
+							cidrLength = reader.getElementText ().trim ();
+							depth -= 1;
+						}
+					}
+					else if (event == XMLStreamConstants.END_ELEMENT)
+					{
+						if (depth == 3 && inBlocks && (startAddress != null) && (cidrLength != null))
+						{
+							blocks.add (CIDRAddress.builder ()
+									.setAddress (startAddress)
+									.setLength (Integer.parseInt (cidrLength))
+									.build ());
+						}
+						else if (depth == 2)
+						{
+							inBlocks = false;
+						}
+
+						depth -= 1;
+					}
+				}
+			}
+			finally
+			{
+				reader.close ();
+			}
+		}
+		catch (XMLStreamException | UnknownHostException ex)
+		{
+			throw new IllegalArgumentException ("Failed to parse the whois response:", ex);
+		}
+
+		return new ARINResponse (parentRef, orgName, Collections.unmodifiableList (blocks));
+	}
+
+	/**
+	 * Get the URL of the parent network.
+	 *
+	 * @return The URL, empty if the network does not have a parent
+	 */
+
+	public String getParentRef ()
+	{
+		return this.parentRef;
+	}
+
+	/**
+	 * Get the name of the organization which owns the network.
+	 *
+	 * @return The name of the organization, empty if it is not present
+	 */
+
+	public String getOrgName ()
+	{
+		return this.orgName;
+	}
+
+	/**
+	 * Get the network blocks.
+	 *
+	 * @return An unmodifiable <code>List</code> of the network blocks
+	 */
+
+	public List<CIDRAddress> getBlocks ()
+	{
+		return this.blocks;
+	}
+}
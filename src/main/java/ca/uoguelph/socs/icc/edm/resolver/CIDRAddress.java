@@ -16,10 +16,8 @@
 
 package ca.uoguelph.socs.icc.edm.resolver;
 
-import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.Objects;
 
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nullable;
@@ -165,20 +163,26 @@ public final class CIDRAddress implements Comparable<CIDRAddress>
 		}
 	}
 
-	/** The log */
-	private final Logger log;
-
 	/** The Internet Protocol address */
 	private final InetAddress address;
 
 	/** The number of set bits in the net mask */
 	private final int length;
 
-	/** Integer representation of the ip address */
-	private final BigInteger ipAddress;
+	/** The number of bits in the address, 32 for IPV4 or 128 for IPV6 */
+	private final int width;
+
+	/** The high 64 bits of the ip address */
+	private final long high;
+
+	/** The low 64 bits of the ip address */
+	private final long low;
 
-	/** The netmask */
-	private final BigInteger mask;
+	/** The high 64 bits of the netmask */
+	private final long maskHigh;
+
+	/** The low 64 bits of the netmask */
+	private final long maskLow;
 
 	/**
 	 * Get a new <code>Builder</code> instance.
@@ -210,55 +214,54 @@ public final class CIDRAddress implements Comparable<CIDRAddress>
 	}
 
 	/**
-	 * Get a representation of the IP Address as an integer from the
-	 * <code>InetAddress</code>.
+	 * Create a new <code>CIDRAddress</code> for a network from its
+	 * <code>String</code> representation in CIDR notation.  If the length of
+	 * the netmask is omitted, then the address is taken to be a host.  The
+	 * bits of the address which are not covered by the netmask are cleared.
 	 *
-	 * @param  address The <code>InetAddress</code>, not null
-	 * @return         The IP Address
+	 * @param  network The network, in CIDR notation, not null
+	 * @return         The <code>CIDRAddress</code>
+	 *
+	 * @throws UnknownHostException     if the address is invalid
+	 * @throws IllegalArgumentException if the netmask length is invalid
 	 */
 
-	private static BigInteger calculateIPAddress (final InetAddress address)
+	public static CIDRAddress create (final String network) throws UnknownHostException
 	{
-		assert address != null : "addr is NULL";
+		Preconditions.checkNotNull (network, "network");
 
-		BigInteger result = BigInteger.ZERO;
+		int slash = network.indexOf ('/');
+		CIDRAddress address = CIDRAddress.create (InetAddress.getByName ((slash < 0) ? network.trim () : network.substring (0, slash).trim ()));
 
-		for (byte b : address.getAddress ())
-		{
-			result = result.shiftLeft (8);
-			result = result.or (BigInteger.valueOf (b & 0xFF));
-		}
-
-		return result;
+		return (slash < 0)
+			? address
+			: address.getNetwork (Integer.parseInt (network.substring (slash + 1).trim ()));
 	}
 
 	/**
-	 * Calculate the Network mask for the network.
+	 * Get the high 64 bits of a 128 bit value with the specified number of
+	 * its lowest bits set.
 	 *
-	 * @param  address The <code>InetAddress</code>, not null
-	 * @param  cidrlen The number of set bits in the mask
-	 * @return         The netmask
+	 * @param  bits The number of set bits, between 0 and 128
+	 * @return      The high 64 bits of the value
 	 */
 
-	private static BigInteger calculateNetMask (final InetAddress address, final int cidrlen)
+	private static long onesHigh (final int bits)
 	{
-		BigInteger result = BigInteger.ZERO;
-
-		for (int i = 0; i < address.getAddress ().length / 4; i ++)
-		{
-			result = result.shiftLeft (32);
+		return (bits >= 128) ? -1L : (bits <= 64) ? 0L : (1L << (bits - 64)) - 1;
+	}
 
-			if (cidrlen - (i * 32) >= 32)
-			{
-				result = result.or (BigInteger.valueOf (0xFFFFFFFFL));
-			}
-			else if (cidrlen - (i * 32) > 0)
-			{
-				result = result.or (BigInteger.valueOf ((0xFFFFFFFFL << (((i + 1) * 32) - cidrlen)) & 0x00000000FFFFFFFFL));
-			}
-		}
+	/**
+	 * Get the low 64 bits of a 128 bit value with the specified number of
+	 * its lowest bits set.
+	 *
+	 * @param  bits The number of set bits, between 0 and 128
+	 * @return      The low 64 bits of the value
+	 */
 
-		return result;
+	private static long onesLow (final int bits)
+	{
+		return (bits >= 64) ? -1L : (1L << bits) - 1;
 	}
 
 	/**
@@ -271,13 +274,27 @@ public final class CIDRAddress implements Comparable<CIDRAddress>
 	{
 		assert builder != null : "builder is NULL";
 
-		this.log = LoggerFactory.getLogger (this.getClass ());
-
 		this.address = builder.address;
-		this.length = builder.length;
 
-		this.ipAddress = CIDRAddress.calculateIPAddress (this.address);
-		this.mask = CIDRAddress.calculateNetMask (this.address, length);
+		byte[] bytes = this.address.getAddress ();
+
+		this.width = bytes.length * 8;
+		this.length = Math.min (builder.length, this.width);
+
+		long h = 0;
+		long l = 0;
+
+		for (byte b : bytes)
+		{
+			h = (h << 8) | (l >>> 56);
+			l = (l << 8) | (b & 0xFF);
+		}
+
+		this.high = h;
+		this.low = l;
+
+		this.maskHigh = CIDRAddress.onesHigh (this.width) & ~ CIDRAddress.onesHigh (this.width - this.length);
+		this.maskLow = CIDRAddress.onesLow (this.width) & ~ CIDRAddress.onesLow (this.width - this.length);
 	}
 
 	/**
@@ -294,7 +311,8 @@ public final class CIDRAddress implements Comparable<CIDRAddress>
 	public boolean equals (final Object obj)
 	{
 		return (obj == this) ? true : (obj instanceof CIDRAddress)
-			&& Objects.equals (this.ipAddress, ((CIDRAddress) obj).ipAddress);
+			&& (this.high == ((CIDRAddress) obj).high)
+			&& (this.low == ((CIDRAddress) obj).low);
 	}
 
 	/**
@@ -306,7 +324,7 @@ public final class CIDRAddress implements Comparable<CIDRAddress>
 	@Override
 	public int hashCode ()
 	{
-		return Objects.hash (this.ipAddress);
+		return Long.hashCode (this.high) * 31 + Long.hashCode (this.low);
 	}
 
 	/**
@@ -323,7 +341,9 @@ public final class CIDRAddress implements Comparable<CIDRAddress>
 	{
 		Preconditions.checkNotNull (address, "address");
 
-		return this.ipAddress.compareTo (address.ipAddress);
+		int result = Long.compareUnsigned (this.high, address.high);
+
+		return (result != 0) ? result : Long.compareUnsigned (this.low, address.low);
 	}
 
 	/**
@@ -384,10 +404,105 @@ public final class CIDRAddress implements Comparable<CIDRAddress>
 
 	public boolean hasMember (final CIDRAddress address)
 	{
-		this.log.trace ("hasMember: address={}", address);
-
 		Preconditions.checkNotNull (address, "address");
 
-		return this.ipAddress.equals (address.ipAddress.and (this.mask));
+		return (this.high == (address.high & this.maskHigh))
+			&& (this.low == (address.low & this.maskLow));
+	}
+
+	/**
+	 * Get the network, with the specified netmask length, which contains this
+	 * address.  The bits of the address which are not covered by the netmask
+	 * are cleared.
+	 *
+	 * @param  length The number of set bits in the netmask, not negative
+	 * @return        The <code>CIDRAddress</code> of the network
+	 */
+
+	public CIDRAddress getNetwork (final int length)
+	{
+		Preconditions.checkArgument (length >= 0, "length is negative");
+
+		byte[] bytes = this.address.getAddress ();
+
+		for (int i = 0; i < bytes.length; i ++)
+		{
+			int bits = Math.max (0, Math.min (8, length - (i * 8)));
+
+			bytes[i] &= (byte) (0xFF00 >>> bits);
+		}
+
+		try
+		{
+			return CIDRAddress.builder ()
+				.setAddress (InetAddress.getByAddress (bytes))
+				.setLength (length)
+				.build ();
+		}
+		catch (UnknownHostException ex)
+		{
+			throw new IllegalStateException (ex);
+		}
+	}
+
+	/**
+	 * Get the number of bits in the address.  This is 32 for an IPV4 address
+	 * and 128 for an IPV6 address.
+	 *
+	 * @return The number of bits in the address
+	 */
+
+	int getWidth ()
+	{
+		return this.width;
+	}
+
+	/**
+	 * Get the high 64 bits of the address, with the bits which are not covered
+	 * by a netmask of the specified length cleared.
+	 *
+	 * @param  length The number of set bits in the netmask
+	 * @return        The high 64 bits of the masked address
+	 */
+
+	long getHigh (final int length)
+	{
+		assert length >= 0 && length <= this.width : "length is out of range";
+
+		return this.high & CIDRAddress.onesHigh (this.width) & ~ CIDRAddress.onesHigh (this.width - length);
+	}
+
+	/**
+	 * Get the low 64 bits of the address, with the bits which are not covered
+	 * by a netmask of the specified length cleared.
+	 *
+	 * @param  length The number of set bits in the netmask
+	 * @return        The low 64 bits of the masked address
+	 */
+
+	long getLow (final int length)
+	{
+		assert length >= 0 && length <= this.width : "length is out of range";
+
+		return this.low & CIDRAddress.onesLow (this.width) & ~ CIDRAddress.onesLow (this.width - length);
+	}
+
+	/**
+	 * Get the value of the specified bit of the address.  The bits are
+	 * numbered from the most significant bit, which is bit zero.
+	 *
+	 * @param  bit The index of the bit, less than the width of the address
+	 * @return     The value of the bit, zero or one
+	 */
+
+	int getBit (final int bit)
+	{
+		assert bit >= 0 && bit < this.width : "bit is out of range";
+
+		int shift = this.width - 1 - bit;
+
+		return (shift >= 64)
+			? (int) ((this.high >>> (shift - 64)) & 1)
+			: (int) ((this.low >>> shift) & 1);
 	}
 }
@@ -39,7 +39,7 @@ public final class NetBlock
 	 *                 null
 	 */
 
-	protected NetBlock (final String owner, final CIDRAddress address)
+	public NetBlock (final String owner, final CIDRAddress address)
 	{
 		assert owner != null : "owner is NULL";
 		assert address != null : "address is NULL";
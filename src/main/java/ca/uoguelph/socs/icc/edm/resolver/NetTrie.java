@@ -0,0 +1,288 @@
+/* Copyright (C) 2016 James E. Stark
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uoguelph.socs.icc.edm.resolver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * Binary radix trie of network addresses, for longest prefix matching.  Each
+ * network is stored at the node which is reached by following the bits of its
+ * address, from the most significant bit, for the length of its netmask.  A
+ * lookup walks the trie along the bits of the host address, remembering the
+ * last network that it passed, so that the most specific network containing
+ * the host is found even when the networks are nested.
+ * <p>
+ * The nodes are stored in parallel arrays, indexed by node number, so that a
+ * lookup does not allocate any memory.  IPV4 and IPV6 addresses are kept in
+ * separate tries, rooted at nodes one and two respectively.  Node zero is
+ * never used, so that a child of zero means that there is no child.  This
+ * class is not thread-safe, but a <code>NetTrie</code> which is not modified
+ * after it is published may be read by any number of threads.
+ *
+ * @author  James E. Stark
+ * @version 1.0
+ * @param   <V> The type of the value associated with each network
+ * @see     CIDRAddress
+ */
+
+final class NetTrie<V>
+{
+	/** The initial number of nodes */
+	private static final int CAPACITY;
+
+	/** The child node value used when there is no child */
+	private static final int NONE;
+
+	/** The root node for IPV4 addresses */
+	private static final int ROOT4;
+
+	/** The root node for IPV6 addresses */
+	private static final int ROOT6;
+
+	/** The child nodes for a zero bit, <code>NONE</code> if there is no child */
+	private int[] zero;
+
+	/** The child nodes for a one bit, <code>NONE</code> if there is no child */
+	private int[] one;
+
+	/** The networks stored at each node, null if there is no network */
+	private CIDRAddress[] keys;
+
+	/** The values stored at each node */
+	private Object[] values;
+
+	/** The number of nodes in use */
+	private int nodes;
+
+	/** The networks, in insertion order */
+	private final List<CIDRAddress> networks;
+
+	/**
+	 * Static initializer to set the constants.
+	 */
+
+	static
+	{
+		CAPACITY = 256;
+		NONE = 0;
+		ROOT4 = 1;
+		ROOT6 = 2;
+	}
+
+	/**
+	 * Create the <code>NetTrie</code>.
+	 */
+
+	public NetTrie ()
+	{
+		this.zero = new int[NetTrie.CAPACITY];
+		this.one = new int[NetTrie.CAPACITY];
+		this.keys = new CIDRAddress[NetTrie.CAPACITY];
+		this.values = new Object[NetTrie.CAPACITY];
+		this.nodes = 3;
+		this.networks = new ArrayList<> ();
+	}
+
+	/**
+	 * Create a copy of the specified <code>NetTrie</code>.
+	 *
+	 * @param  trie The <code>NetTrie</code> to copy, not null
+	 */
+
+	public NetTrie (final NetTrie<V> trie)
+	{
+		assert trie != null : "trie is NULL";
+
+		this.zero = Arrays.copyOf (trie.zero, trie.zero.length);
+		this.one = Arrays.copyOf (trie.one, trie.one.length);
+		this.keys = Arrays.copyOf (trie.keys, trie.keys.length);
+		this.values = Arrays.copyOf (trie.values, trie.values.length);
+		this.nodes = trie.nodes;
+		this.networks = new ArrayList<> (trie.networks);
+	}
+
+	/**
+	 * Get the root node for the specified address.
+	 *
+	 * @param  address The address, not null
+	 * @return         The root node
+	 */
+
+	private static int root (final CIDRAddress address)
+	{
+		return (address.getWidth () > 32) ? NetTrie.ROOT6 : NetTrie.ROOT4;
+	}
+
+	/**
+	 * Allocate a new node, growing the arrays if necessary.
+	 *
+	 * @return The new node
+	 */
+
+	private int allocate ()
+	{
+		if (this.nodes == this.zero.length)
+		{
+			int capacity = this.nodes * 2;
+
+			this.zero = Arrays.copyOf (this.zero, capacity);
+			this.one = Arrays.copyOf (this.one, capacity);
+			this.keys = Arrays.copyOf (this.keys, capacity);
+			this.values = Arrays.copyOf (this.values, capacity);
+		}
+
+		return this.nodes ++;
+	}
+
+	/**
+	 * Find the node for the specified network, creating it and any of its
+	 * ancestors if they do not exist.
+	 *
+	 * @param  network The network, not null
+	 * @return         The node
+	 */
+
+	private int descend (final CIDRAddress network)
+	{
+		int node = NetTrie.root (network);
+
+		for (int i = 0; i < network.getLength (); i ++)
+		{
+			int[] children = (network.getBit (i) == 0) ? this.zero : this.one;
+
+			if (children[node] == NetTrie.NONE)
+			{
+				int child = this.allocate ();
+
+				// allocate may have replaced the arrays
+				children = (network.getBit (i) == 0) ? this.zero : this.one;
+				children[node] = child;
+			}
+
+			node = children[node];
+		}
+
+		return node;
+	}
+
+	/**
+	 * Get the number of networks in the <code>NetTrie</code>.
+	 *
+	 * @return The number of networks
+	 */
+
+	public int size ()
+	{
+		return this.networks.size ();
+	}
+
+	/**
+	 * Determine if the specified network is in the <code>NetTrie</code>.  The
+	 * network must match exactly, including the length of its netmask.
+	 *
+	 * @param  network The network, not null
+	 * @return         <code>true</code> if the network is in the
+	 *                 <code>NetTrie</code>, <code>false</code> otherwise
+	 */
+
+	public boolean contains (final CIDRAddress network)
+	{
+		assert network != null : "network is NULL";
+
+		int node = NetTrie.root (network);
+
+		for (int i = 0; (i < network.getLength ()) && (node != NetTrie.NONE); i ++)
+		{
+			node = (network.getBit (i) == 0) ? this.zero[node] : this.one[node];
+		}
+
+		return (node != NetTrie.NONE) && this.keys[node] != null;
+	}
+
+	/**
+	 * Add the specified network to the <code>NetTrie</code>, replacing the
+	 * value of the network if it is already present.
+	 *
+	 * @param  network The network, not null
+	 * @param  value   The value to associate with the network, not null
+	 */
+
+	public void put (final CIDRAddress network, final V value)
+	{
+		assert network != null : "network is NULL";
+		assert value != null : "value is NULL";
+
+		int node = this.descend (network);
+
+		if (this.keys[node] == null)
+		{
+			this.keys[node] = network;
+			this.networks.add (network);
+		}
+
+		this.values[node] = value;
+	}
+
+	/**
+	 * Get the value associated with the most specific network which contains
+	 * the specified address.
+	 *
+	 * @param  address The address, not null
+	 * @return         The value, null if no network contains the address
+	 */
+
+	@SuppressWarnings("unchecked")
+	public @Nullable V get (final CIDRAddress address)
+	{
+		assert address != null : "address is NULL";
+
+		int node = NetTrie.root (address);
+		Object result = this.values[node];
+
+		for (int i = 0; i < address.getWidth (); i ++)
+		{
+			node = (address.getBit (i) == 0) ? this.zero[node] : this.one[node];
+
+			if (node == NetTrie.NONE)
+			{
+				break;
+			}
+
+			if (this.values[node] != null)
+			{
+				result = this.values[node];
+			}
+		}
+
+		return (V) result;
+	}
+
+	/**
+	 * Get the networks in the <code>NetTrie</code>.
+	 *
+	 * @return A <code>List</code> of the networks, in insertion order
+	 */
+
+	public List<CIDRAddress> getNetworks ()
+	{
+		return new ArrayList<> (this.networks);
+	}
+}
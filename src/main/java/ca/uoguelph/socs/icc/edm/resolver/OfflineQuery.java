@@ -0,0 +1,451 @@
+/* Copyright (C) 2016 James E. Stark
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uoguelph.socs.icc.edm.resolver;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.inject.Singleton;
+
+import dagger.Module;
+import dagger.Provides;
+
+import com.google.common.base.Preconditions;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Retrieve "whois" data from a local file.  This class loads all of the
+ * networks from a file when it is created, and answers every query from
+ * memory, so that IP addresses can be resolved without network access.  Two
+ * file formats are supported, and may be mixed in the same file:
+ * <ul>
+ * <li>One network per line, as the network address and netmask length in
+ *     CIDR notation, followed by a comma or tab and the name of the
+ *     organization.  For example: <code>131.104.0.0/16,University of
+ *     Guelph</code>.
+ * <li>The RIR extended delegation format, as published by ARIN, RIPE, APNIC,
+ *     LACNIC and AFRINIC.  The delegation files do not contain the names of
+ *     the organizations, so the registry and opaque id of the holder are
+ *     used as the name.
+ * </ul>
+ * Blank lines and lines starting with <code>#</code> are ignored.
+ * <p>
+ * The networks are stored in sorted arrays of primitive values, one set for
+ * each netmask length, and a query is answered by searching the arrays from
+ * the longest netmask to the shortest, so that the most specific network is
+ * returned.
+ *
+ * @author  James E. Stark
+ * @version 1.0
+ */
+
+public final class OfflineQuery implements WhoisQuery
+{
+	/**
+	 * Dagger module to specify the dependency for a <code>OfflineQuery</code>
+	 * instance.
+	 *
+	 * @author  James E. Stark
+	 * @version 1.0
+	 */
+
+	@Module
+	public static final class OfflineQueryModule
+	{
+		/** The file containing the networks */
+		private final Path file;
+
+		/**
+		 * Create the <code>OfflineQueryModule</code>.
+		 *
+		 * @param  file The file containing the networks, not null
+		 */
+
+		public OfflineQueryModule (final Path file)
+		{
+			this.file = Preconditions.checkNotNull (file, "file");
+		}
+
+		/**
+		 * Create a new <code>OfflineQuery</code> instance.
+		 *
+		 * @return The <code>OfflineQuery</code> instance
+		 */
+
+		@Provides
+		@Singleton
+		public WhoisQuery getQuery ()
+		{
+			return OfflineQuery.load (this.file);
+		}
+	}
+
+	/**
+	 * The networks with the same address width and netmask length.  The
+	 * network addresses are split into their high and low 64 bits, and stored
+	 * in parallel arrays, sorted as unsigned values.
+	 *
+	 * @author  James E. Stark
+	 * @version 1.0
+	 */
+
+	private static final class Table
+	{
+		/** The high 64 bits of the network addresses */
+		private final long[] high;
+
+		/** The low 64 bits of the network addresses */
+		private final long[] low;
+
+		/** The networks */
+		private final NetBlock[] blocks;
+
+		/**
+		 * Create the <code>Table</code>.
+		 *
+		 * @param  blocks The networks, sorted by address, not null
+		 */
+
+		private Table (final List<NetBlock> blocks)
+		{
+			assert blocks != null : "blocks is NULL";
+
+			this.high = new long[blocks.size ()];
+			this.low = new long[blocks.size ()];
+			this.blocks = blocks.toArray (new NetBlock[blocks.size ()]);
+
+			for (int i = 0; i < this.blocks.length; i ++)
+			{
+				CIDRAddress address = this.blocks[i].getAddress ();
+
+				this.high[i] = address.getHigh (address.getLength ());
+				this.low[i] = address.getLow (address.getLength ());
+			}
+		}
+
+		/**
+		 * Find the network with the specified address.
+		 *
+		 * @param  high The high 64 bits of the network address
+		 * @param  low  The low 64 bits of the network address
+		 * @return      The network, null if it is not in the table
+		 */
+
+		private @Nullable NetBlock find (final long high, final long low)
+		{
+			int lo = 0;
+			int hi = this.blocks.length - 1;
+
+			while (lo <= hi)
+			{
+				int mid = (lo + hi) >>> 1;
+				int cmp = Long.compareUnsigned (this.high[mid], high);
+
+				if (cmp == 0)
+				{
+					cmp = Long.compareUnsigned (this.low[mid], low);
+				}
+
+				if (cmp < 0)
+				{
+					lo = mid + 1;
+				}
+				else if (cmp > 0)
+				{
+					hi = mid - 1;
+				}
+				else
+				{
+					return this.blocks[mid];
+				}
+			}
+
+			return null;
+		}
+	}
+
+	/** The name of the organization for addresses which are not in the file */
+	private static final String UNKNOWN;
+
+	/** The Log */
+	private final Logger log;
+
+	/** The IPV4 networks, indexed by netmask length */
+	private final Table[] ipv4;
+
+	/** The IPV6 networks, indexed by netmask length */
+	private final Table[] ipv6;
+
+	/**
+	 * Static initializer to set the name of the unknown organization.
+	 */
+
+	static
+	{
+		UNKNOWN = "UNKNOWN";
+	}
+
+	/**
+	 * Create the <code>OfflineQuery</code>.
+	 *
+	 * @param  blocks The networks, not null
+	 */
+
+	private OfflineQuery (final List<NetBlock> blocks)
+	{
+		this.log = LoggerFactory.getLogger (this.getClass ());
+
+		assert blocks != null : "blocks is NULL";
+
+		this.ipv4 = new Table[33];
+		this.ipv6 = new Table[129];
+
+		List<List<NetBlock>> v4 = new ArrayList<> ();
+		List<List<NetBlock>> v6 = new ArrayList<> ();
+
+		for (int i = 0; i < this.ipv6.length; i ++)
+		{
+			v4.add (new ArrayList<> ());
+			v6.add (new ArrayList<> ());
+		}
+
+		for (NetBlock block : blocks)
+		{
+			((block.getAddress ().getWidth () > 32) ? v6 : v4).get (block.getAddress ().getLength ())
+				.add (block);
+		}
+
+		for (int i = 0; i < this.ipv6.length; i ++)
+		{
+			if (i < this.ipv4.length && ! v4.get (i).isEmpty ())
+			{
+				v4.get (i).sort (Comparator.comparing (NetBlock::getAddress));
+				this.ipv4[i] = new Table (v4.get (i));
+			}
+
+			if (! v6.get (i).isEmpty ())
+			{
+				v6.get (i).sort (Comparator.comparing (NetBlock::getAddress));
+				this.ipv6[i] = new Table (v6.get (i));
+			}
+		}
+	}
+
+	/**
+	 * Load the networks from the specified file.
+	 *
+	 * @param  file The file, not null
+	 * @return      The <code>OfflineQuery</code>
+	 *
+	 * @throws IllegalArgumentException if the file contains an invalid line
+	 */
+
+	public static OfflineQuery load (final Path file)
+	{
+		Preconditions.checkNotNull (file, "file");
+
+		Logger log = LoggerFactory.getLogger (OfflineQuery.class);
+		List<NetBlock> blocks = new ArrayList<> ();
+
+		log.info ("Loading the whois data from {}", file);
+
+		try (BufferedReader reader = Files.newBufferedReader (file, StandardCharsets.UTF_8))
+		{
+			int number = 0;
+
+			for (String line = reader.readLine (); line != null; line = reader.readLine ())
+			{
+				number += 1;
+				line = line.trim ();
+
+				if ((line.length () > 0) && (! line.startsWith ("#")))
+				{
+					try
+					{
+						if (line.indexOf ('|') >= 0)
+						{
+							OfflineQuery.parseDelegation (line, blocks);
+						}
+						else
+						{
+							OfflineQuery.parseNetwork (line, blocks);
+						}
+					}
+					catch (UnknownHostException | NumberFormatException ex)
+					{
+						throw new IllegalArgumentException (String.format ("Invalid network on line %d of %s", number, file), ex);
+					}
+				}
+			}
+		}
+		catch (IOException ex)
+		{
+			throw new RuntimeException ("Failed to load the whois data:", ex);
+		}
+
+		log.info ("Loaded {} networks", blocks.size ());
+
+		return new OfflineQuery (blocks);
+	}
+
+	/**
+	 * Parse a line containing a network in CIDR notation and the name of the
+	 * organization.
+	 *
+	 * @param  line   The line, not null
+	 * @param  blocks The <code>List</code> to which the network is added, not
+	 *                null
+	 *
+	 * @throws UnknownHostException     if the address is invalid
+	 * @throws IllegalArgumentException if the line is malformed
+	 */
+
+	private static void parseNetwork (final String line, final List<NetBlock> blocks) throws UnknownHostException
+	{
+		assert line != null : "line is NULL";
+		assert blocks != null : "blocks is NULL";
+
+		String[] fields = line.split ("[,\t]", 2);
+		String[] network = fields[0].trim ().split ("/", 2);
+
+		Preconditions.checkArgument ((fields.length == 2) && (network.length == 2), "Malformed line");
+
+		blocks.add (new NetBlock (fields[1].trim (), CIDRAddress.create (InetAddress.getByName (network[0]))
+					.getNetwork (Integer.parseInt (network[1]))));
+	}
+
+	/**
+	 * Parse a line in the RIR extended delegation format.  The version,
+	 * summary and unallocated lines are skipped.  An IPV4 record is split into
+	 * as many CIDR networks as are required to cover its range of addresses.
+	 *
+	 * @param  line   The line, not null
+	 * @param  blocks The <code>List</code> to which the networks are added,
+	 *                not null
+	 *
+	 * @throws UnknownHostException if the address is invalid
+	 */
+
+	private static void parseDelegation (final String line, final List<NetBlock> blocks) throws UnknownHostException
+	{
+		assert line != null : "line is NULL";
+		assert blocks != null : "blocks is NULL";
+
+		// registry|cc|type|start|value|date|status|opaque-id[|extensions...]
+		String[] fields = line.split ("\\|");
+
+		if ((fields.length < 7) || (! (fields[6].equals ("allocated") || fields[6].equals ("assigned"))))
+		{
+			return;
+		}
+
+		String owner = (fields.length > 7)
+			? fields[0].toUpperCase () + "-" + fields[7]
+			: fields[0].toUpperCase () + "-" + fields[1];
+
+		if (fields[2].equals ("ipv6"))
+		{
+			blocks.add (new NetBlock (owner, CIDRAddress.create (InetAddress.getByName (fields[3]))
+						.getNetwork (Integer.parseInt (fields[4]))));
+		}
+		else if (fields[2].equals ("ipv4"))
+		{
+			byte[] bytes = InetAddress.getByName (fields[3]).getAddress ();
+			long start = ((bytes[0] & 0xFFL) << 24) | ((bytes[1] & 0xFFL) << 16) | ((bytes[2] & 0xFFL) << 8) | (bytes[3] & 0xFFL);
+			long count = Long.parseLong (fields[4]);
+
+			while (count > 0)
+			{
+				long size = Math.min ((start == 0) ? (1L << 32) : Long.lowestOneBit (start), Long.highestOneBit (count));
+
+				blocks.add (new NetBlock (owner, CIDRAddress.builder ()
+							.setAddress (InetAddress.getByAddress (new byte[] {(byte) (start >>> 24), (byte) (start >>> 16), (byte) (start >>> 8), (byte) start}))
+							.setLength (32 - Long.numberOfTrailingZeros (size))
+							.build ()));
+
+				start += size;
+				count -= size;
+			}
+		}
+	}
+
+	/**
+	 * Find the most specific network which contains the specified address.
+	 *
+	 * @param  address The address, not null
+	 * @return         The network, null if no network contains the address
+	 */
+
+	private @Nullable NetBlock find (final CIDRAddress address)
+	{
+		Table[] tables = (address.getWidth () > 32) ? this.ipv6 : this.ipv4;
+
+		for (int i = Math.min (address.getLength (), tables.length - 1); i >= 0; i --)
+		{
+			if (tables[i] != null)
+			{
+				NetBlock block = tables[i].find (address.getHigh (i), address.getLow (i));
+
+				if (block != null)
+				{
+					return block;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Get the most specific network which contains the specified IP address.
+	 * If the address is not in any of the networks then the address itself
+	 * is returned as a network owned by an unknown organization.
+	 *
+	 * @param  address The IP address, not null
+	 * @return         A <code>List</code> containing the network
+	 */
+
+	@Override
+	public List<NetBlock> getNetBlocks (final CIDRAddress address)
+	{
+		this.log.trace ("getNetBlocks: address={}", address);
+
+		Preconditions.checkNotNull (address, "address");
+
+		NetBlock block = this.find (address);
+
+		if (block == null)
+		{
+			this.log.warn ("Address {} is not in the whois data", address);
+			block = new NetBlock (OfflineQuery.UNKNOWN, address);
+		}
+
+		return Collections.singletonList (block);
+	}
+}
@@ -18,13 +18,27 @@ package ca.uoguelph.socs.icc.edm.resolver;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.NavigableMap;
-import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Stream;
 import java.util.stream.Collectors;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -39,85 +53,506 @@ import org.slf4j.LoggerFactory;
  * for the organization field of the "whois" data.  Since it is expected that
  * the "whois" data will be queried for many IP addresses in the same network
  * the responses to the "whois" query is cached such that only one query will
- * be issued per network.
+ * be issued per network.  The cache may be backed by a file, so that the
+ * "whois" data is retained across runs.
+ * <p>
+ * This class is thread-safe.  The cache is copied when it is modified, so
+ * that it may be read without locking.  Concurrent queries for addresses in
+ * the same /24 (IPV4) or /48 (IPV6) prefix are coalesced, so that only one
+ * "whois" query is executed while the others wait for its result.
+ * <p>
+ * Addresses in the reserved ranges (private, loopback, link-local and
+ * multicast), and in any additional ranges which are configured, are
+ * resolved from a table of rules without a "whois" query.  Optionally, the
+ * result of a "whois" query may be aggregated to the /24 (IPV4) or /48 (IPV6)
+ * prefix of the address, so that one query covers every address in the
+ * prefix, even if the network returned by the query is smaller.
  *
  * @author  James E. Stark
  * @version 1.0
  */
 
 @Singleton
-public final class Resolver
+public final class Resolver implements AutoCloseable
 {
+	/** The length of the prefix used to coalesce and aggregate IPV4 queries */
+	private static final int PREFIX4;
+
+	/** The length of the prefix used to coalesce and aggregate IPV6 queries */
+	private static final int PREFIX6;
+
+	/** The reserved networks, and the names to which they are resolved */
+	private static final Map<String, String> RESERVED;
+
 	/** The log */
 	private final Logger log;
 
-	/** The address cache */
-	private final NavigableMap<CIDRAddress, String> cache;
+	/** The networks which are resolved without a query, replaced on update */
+	private volatile NetTrie<String> rules;
+
+	/** Aggregate the query results to the prefix of the address */
+	private volatile boolean aggregate;
+
+	/** The address cache, for longest prefix matching, replaced on update */
+	private volatile NetTrie<String> cache;
+
+	/** Copy of the cache with the unpublished query results, null if none */
+	private volatile @Nullable NetTrie<String> working;
+
+	/** The "whois" queries which are in progress, by prefix */
+	private final ConcurrentMap<CIDRAddress, CompletableFuture<List<NetBlock>>> pending;
 
 	/** Query to fetch whois data*/
 	private final WhoisQuery query;
 
+	/** The persistent cache, null if the cache is not persistent */
+	private @Nullable ResolverCache store;
+
 	/**
-	 * Create the <code>NetResolver</code>.
+	 * Static initializer to set the prefix lengths and the reserved networks.
+	 */
+
+	static
+	{
+		PREFIX4 = 24;
+		PREFIX6 = 48;
+
+		RESERVED = new HashMap<> ();
+		RESERVED.put ("0.0.0.0/8", "Reserved Network");
+		RESERVED.put ("10.0.0.0/8", "Private Network");
+		RESERVED.put ("100.64.0.0/10", "Shared Address Space");
+		RESERVED.put ("127.0.0.0/8", "Loopback Network");
+		RESERVED.put ("169.254.0.0/16", "Link Local Network");
+		RESERVED.put ("172.16.0.0/12", "Private Network");
+		RESERVED.put ("192.168.0.0/16", "Private Network");
+		RESERVED.put ("224.0.0.0/4", "Multicast Network");
+		RESERVED.put ("240.0.0.0/4", "Reserved Network");
+		RESERVED.put ("::/128", "Reserved Network");
+		RESERVED.put ("::1/128", "Loopback Network");
+		RESERVED.put ("fc00::/7", "Private Network");
+		RESERVED.put ("fe80::/10", "Link Local Network");
+		RESERVED.put ("ff00::/8", "Multicast Network");
+	}
+
+	/**
+	 * Create the <code>NetResolver</code>.  The <code>Resolver</code> is
+	 * normally supplied by a Dagger component, but it may be created directly
+	 * for a custom <code>WhoisQuery</code>.
+	 *
+	 * @param  query The <code>WhoisQuery</code>, not null
 	 */
 
 	@Inject
-	Resolver (final WhoisQuery query)
+	public Resolver (final WhoisQuery query)
 	{
 		this.log = LoggerFactory.getLogger (Resolver.class);
 
-		assert query != null : "query is NULL";
+		Preconditions.checkNotNull (query, "query");
 
-		this.cache = new TreeMap<> ();
+		this.cache = new NetTrie<> ();
+		this.working = null;
+		this.rules = Resolver.buildRules (Collections.emptyMap ());
+		this.aggregate = false;
+		this.pending = new ConcurrentHashMap<> ();
 		this.query = query;
+		this.store = null;
 	}
 
 	/**
-	 * Get the name of the Organization which "owns" the specified IP address.
+	 * Build the table of rules from the reserved networks and the specified
+	 * networks.  The specified networks take precedence over the reserved
+	 * networks.
+	 *
+	 * @param  networks The networks and their owners, not null
+	 * @return          The <code>NetTrie</code> containing the rules
+	 */
+
+	private static NetTrie<String> buildRules (final Map<CIDRAddress, String> networks)
+	{
+		assert networks != null : "networks is NULL";
+
+		NetTrie<String> result = new NetTrie<> ();
+
+		try
+		{
+			for (Map.Entry<String, String> entry : Resolver.RESERVED.entrySet ())
+			{
+				result.put (CIDRAddress.create (entry.getKey ()), entry.getValue ());
+			}
+		}
+		catch (UnknownHostException ex)
+		{
+			throw new IllegalStateException (ex);
+		}
+
+		networks.forEach ((k, v) -> result.put (k, v));
+
+		return result;
+	}
+
+	/**
+	 * Set the networks which are resolved to a fixed name, without a "whois"
+	 * query.  These networks are in addition to the reserved networks, and
+	 * replace any networks which were set previously.
+	 *
+	 * @param  networks The networks and the names of their owners, not null
+	 */
+
+	public void setRules (final Map<CIDRAddress, String> networks)
+	{
+		this.log.trace ("setRules: networks={}", networks);
+
+		Preconditions.checkNotNull (networks, "networks");
+
+		this.rules = Resolver.buildRules (networks);
+	}
+
+	/**
+	 * Enable or disable the aggregation of the "whois" results to the /24
+	 * (IPV4) or /48 (IPV6) prefix of the queried address.
+	 *
+	 * @param  aggregate <code>true</code> to aggregate the results,
+	 *                   <code>false</code> otherwise
+	 */
+
+	public void setAggregation (final boolean aggregate)
+	{
+		this.log.trace ("setAggregation: aggregate={}", aggregate);
+
+		this.aggregate = aggregate;
+	}
+
+	/**
+	 * Back the cache with the specified file.  The "whois" data which was
+	 * stored in the file less than the time to live ago is loaded into the
+	 * cache, and all of the "whois" data which is subsequently fetched is
+	 * appended to the file.  Any previously configured file is closed.
+	 *
+	 * @param  file The cache file, not null
+	 * @param  ttl  The time to live for the cached "whois" data, not null
+	 */
+
+	public synchronized void setCache (final Path file, final Duration ttl)
+	{
+		this.log.trace ("setCache: file={}, ttl={}", file, ttl);
+
+		Preconditions.checkNotNull (file, "file");
+		Preconditions.checkNotNull (ttl, "ttl");
+		Preconditions.checkArgument (! ttl.isNegative (), "ttl is negative");
+
+		if (this.store != null)
+		{
+			this.store.close ();
+		}
+
+		this.store = ResolverCache.open (file, ttl);
+		this.publish ();
+
+		NetTrie<String> next = new NetTrie<> (this.cache);
+
+		this.store.getNetBlocks ()
+			.forEach ((k, v) -> next.put (k, v));
+
+		this.cache = next;
+
+		this.log.info ("Loaded {} networks from the resolver cache", this.cache.size ());
+	}
+
+	/**
+	 * Close the file which backs the cache.  The cached "whois" data is
+	 * retained, and the <code>Resolver</code> may still be used, but the
+	 * data which is subsequently fetched is not appended to the file.  This
+	 * method does nothing if the cache is not backed by a file.
+	 */
+
+	@Override
+	public synchronized void close ()
+	{
+		this.log.trace ("close:");
+
+		if (this.store != null)
+		{
+			this.store.close ();
+			this.store = null;
+		}
+	}
+
+	/**
+	 * Parse the specified IP address.
 	 *
 	 * @param  address The IP address, not null
+	 * @return         The <code>CIDRAddress</code> for the IP address
 	 *
-	 * @return         The name of the owning organization
+	 * @throws IllegalArgumentException if the address is invalid
 	 */
 
-	public String getOrgName (final InetAddress address)
+	private CIDRAddress parse (final String address)
 	{
-		this.log.trace ("getOwner: address={}", address);
+		assert address != null : "address is NULL";
 
-		final CIDRAddress addr = CIDRAddress.create (Preconditions.checkNotNull (address, "address"));
+		try
+		{
+			return CIDRAddress.create (InetAddress.getByName (address));
+		}
+		catch (UnknownHostException ex)
+		{
+			this.log.error ("The address ({}) is invalid", address);
+			throw new IllegalArgumentException (ex);
+		}
+	}
 
-		String result = null;
+	/**
+	 * Get the name of the organization which owns the specified address from
+	 * the cache.  The owner of the most specific cached network which contains
+	 * the address is returned.
+	 *
+	 * @param  address The address, not null
+	 * @return         The name of the owning organization, null if the
+	 *                 address is not cached
+	 */
 
-		Map.Entry<CIDRAddress, String> entry = this.cache.floorEntry (addr);
+	private @Nullable String getCached (final CIDRAddress address)
+	{
+		assert address != null : "address is NULL";
 
-		if ((entry != null) && (entry.getKey ().hasMember (addr)))
+		if (this.working != null)
 		{
-			this.log.debug ("Address {} is cached, returning cached value: {}", address, entry.getValue ());
-			result = entry.getValue ();
+			synchronized (this)
+			{
+				if (this.working != null)
+				{
+					return this.working.get (address);
+				}
+			}
 		}
-		else
+
+		return this.cache.get (address);
+	}
+
+	/**
+	 * Add the specified <code>NetBlock</code> instances to the cache.  The
+	 * blocks are added to a working copy of the cache, which is made by the
+	 * first call after the cache was published, and which is read under the
+	 * lock until it is published.  The cache is copied once for each
+	 * batch of addresses rather than once for each query.
+	 *
+	 * @param  blocks The <code>NetBlock</code> instances, not null
+	 */
+
+	private synchronized void putCached (final List<NetBlock> blocks)
+	{
+		assert blocks != null : "blocks is NULL";
+
+		if (this.working == null)
 		{
-			this.log.debug ("Address {} is not cached, executing Whois query", address);
+			this.working = new NetTrie<> (this.cache);
+		}
 
-			for (NetBlock block : this.query.getNetBlocks (addr))
+		for (NetBlock block : blocks)
+		{
+			if (! this.working.contains (block.getAddress ()))
 			{
-				if (! this.cache.containsKey (block.getAddress ()))
+				this.working.put (block.getAddress (), block.getOwner ());
+
+				if (this.store != null)
 				{
-					this.cache.put (block.getAddress (), block.getOwner ());
+					this.store.append (block);
 				}
+			}
+		}
+	}
+
+	/**
+	 * Replace the cache with the working copy, so that the query results
+	 * which were added since the last publication can be read without
+	 * locking.  This method does nothing if there are no unpublished
+	 * results.
+	 */
+
+	private synchronized void publish ()
+	{
+		if (this.working != null)
+		{
+			this.cache = this.working;
+			this.working = null;
+		}
+	}
+
+	/**
+	 * Add a <code>NetBlock</code> for the prefix of an address to the results
+	 * of the "whois" query for the address, if the most specific network which
+	 * contains the address is smaller than the prefix.
+	 *
+	 * @param  prefix  The prefix of the address, not null
+	 * @param  address The address, not null
+	 * @param  blocks  The <code>NetBlock</code> instances returned by the
+	 *                 query, not null
+	 * @return         The <code>NetBlock</code> instances to cache
+	 */
+
+	private List<NetBlock> aggregate (final CIDRAddress prefix, final CIDRAddress address, final List<NetBlock> blocks)
+	{
+		assert prefix != null : "prefix is NULL";
+		assert address != null : "address is NULL";
+		assert blocks != null : "blocks is NULL";
+
+		NetBlock match = null;
+
+		for (NetBlock block : blocks)
+		{
+			if ((block.getAddress ().hasMember (address))
+					&& ((match == null) || (block.getAddress ().getLength () > match.getAddress ().getLength ())))
+			{
+				match = block;
+			}
+		}
+
+		if ((match == null) || (match.getAddress ().getLength () <= prefix.getLength ()))
+		{
+			return blocks;
+		}
 
-				if (block.getAddress ().hasMember (addr))
+		this.log.debug ("Aggregating {} to {}", match.getAddress (), prefix);
+
+		List<NetBlock> result = new ArrayList<> (blocks);
+		result.add (new NetBlock (match.getOwner (), prefix));
+
+		return result;
+	}
+
+	/**
+	 * Execute the "whois" query for the specified address, unless a query is
+	 * already in progress for an address with the same prefix, in which case
+	 * wait for that query to complete instead.  The results of the query are
+	 * added to the cache before any of the waiting threads are released.
+	 *
+	 * @param  address The address, not null
+	 * @return         <code>true</code> if this thread executed the query,
+	 *                 <code>false</code> if it waited for another thread
+	 */
+
+	private boolean fetch (final CIDRAddress address)
+	{
+		assert address != null : "address is NULL";
+
+		CIDRAddress prefix = address.getNetwork ((address.getWidth () > 32) ? Resolver.PREFIX6 : Resolver.PREFIX4);
+		CompletableFuture<List<NetBlock>> future = new CompletableFuture<> ();
+		CompletableFuture<List<NetBlock>> existing = this.pending.putIfAbsent (prefix, future);
+
+		if (existing != null)
+		{
+			this.log.debug ("Waiting for the Whois query for {}", prefix);
+
+			try
+			{
+				existing.join ();
+			}
+			catch (CompletionException ex)
+			{
+				throw (ex.getCause () instanceof RuntimeException)
+					? (RuntimeException) ex.getCause ()
+					: ex;
+			}
+
+			return false;
+		}
+
+		try
+		{
+			// Another thread may have completed a query since the cache was checked
+			if (this.getCached (address) == null)
+			{
+				this.log.debug ("Address {} is not cached, executing Whois query", address);
+
+				List<NetBlock> blocks = this.query.getNetBlocks (address);
+
+				if (this.aggregate)
 				{
-					result = block.getOwner ();
+					blocks = this.aggregate (prefix, address, blocks);
 				}
+
+				this.putCached (blocks);
+				future.complete (blocks);
 			}
+			else
+			{
+				future.complete (Collections.emptyList ());
+			}
+
+			return true;
+		}
+		catch (RuntimeException ex)
+		{
+			future.completeExceptionally (ex);
+			throw ex;
+		}
+		finally
+		{
+			this.pending.remove (prefix, future);
+		}
+	}
 
-			assert result != null : "failed to get a Network";
+	/**
+	 * Get the name of the Organization which "owns" the specified address.
+	 * The cache is read without locking once the results are published, and
+	 * the "whois" queries for addresses with different prefixes may be
+	 * performed concurrently.
+	 *
+	 * @param  address The address, not null
+	 * @return         The name of the owning organization
+	 */
+
+	private String getOrgName (final CIDRAddress address)
+	{
+		assert address != null : "address is NULL";
+
+		String result = this.rules.get (address);
+
+		if (result != null)
+		{
+			return result;
+		}
+
+		result = this.getCached (address);
+
+		// The query by another thread may not have covered this address
+		while (result == null)
+		{
+			boolean executed = this.fetch (address);
+
+			result = this.getCached (address);
+
+			if ((result == null) && (executed))
+			{
+				throw new IllegalStateException ("Failed to get a Network for " + address);
+			}
 		}
 
 		return result;
 	}
 
+	/**
+	 * Get the name of the Organization which "owns" the specified IP address.
+	 *
+	 * @param  address The IP address, not null
+	 *
+	 * @return         The name of the owning organization
+	 */
+
+	public String getOrgName (final InetAddress address)
+	{
+		this.log.trace ("getOwner: address={}", address);
+
+		try
+		{
+			return this.getOrgName (CIDRAddress.create (Preconditions.checkNotNull (address, "address")));
+		}
+		finally
+		{
+			this.publish ();
+		}
+	}
+
 	/**
 	 * Get the name of the Organization which "owns" the specified IP address.
 	 *
@@ -130,16 +565,86 @@ public final class Resolver
 	{
 		this.log.trace ("getOwner: address={}", address);
 
-		Preconditions.checkNotNull (address, "address");
+		try
+		{
+			return this.getOrgName (this.parse (Preconditions.checkNotNull (address, "address")));
+		}
+		finally
+		{
+			this.publish ();
+		}
+	}
+
+	/**
+	 * Get the names of the Organizations which "own" the specified IP
+	 * addresses.  The addresses are sorted and divided into contiguous ranges,
+	 * which are resolved concurrently using the specified number of threads.
+	 * Within each range the addresses are resolved in order, so that once the
+	 * "whois" query has been executed for an address, the rest of the
+	 * addresses in the same network are resolved from the cache.  The results
+	 * of the queries are published to the cache once, when all of the
+	 * addresses have been resolved.
+	 *
+	 * @param  addresses The IP addresses, not null
+	 * @param  threads   The number of threads to use, must be positive
+	 * @return           An unmodifiable <code>Map</code> from IP address to
+	 *                   the name of the owning organization
+	 *
+	 * @throws IllegalArgumentException if any of the addresses are invalid
+	 */
+
+	public Map<String, String> getOrgNames (final Collection<String> addresses, final int threads)
+	{
+		this.log.trace ("getOrgNames: addresses={}, threads={}", addresses, threads);
+
+		Preconditions.checkNotNull (addresses, "addresses");
+		Preconditions.checkArgument (threads > 0, "threads must be positive");
+
+		final Map<String, CIDRAddress> parsed = addresses.stream ()
+			.distinct ()
+			.collect (Collectors.toMap (x -> x, x -> this.parse (x)));
+
+		final List<String> sorted = parsed.keySet ()
+			.stream ()
+			.sorted (Comparator.comparing (parsed::get))
+			.collect (Collectors.toList ());
+
+		final int size = Math.max (1, (sorted.size () + threads - 1) / threads);
+		final List<Future<Map<String, String>>> ranges = new ArrayList<> ();
+		final ExecutorService workers = Executors.newFixedThreadPool (threads);
 
 		try
 		{
-			return this.getOrgName (InetAddress.getByName (address));
+			for (int i = 0; i < sorted.size (); i += size)
+			{
+				final List<String> range = sorted.subList (i, Math.min (i + size, sorted.size ()));
+
+				ranges.add (workers.submit (() -> range.stream ()
+							.collect (Collectors.toMap (x -> x, x -> this.getOrgName (parsed.get (x))))));
+			}
+
+			final Map<String, String> result = new HashMap<> ();
+
+			for (Future<Map<String, String>> range : ranges)
+			{
+				result.putAll (range.get ());
+			}
+
+			return Collections.unmodifiableMap (result);
 		}
-		catch (UnknownHostException ex)
+		catch (InterruptedException ex)
 		{
-			this.log.error ("The address ({}) is invalid", address);
-			throw new IllegalArgumentException (ex);
+			Thread.currentThread ().interrupt ();
+			throw new RuntimeException ("Interrupted while resolving addresses:", ex);
+		}
+		catch (ExecutionException ex)
+		{
+			throw new RuntimeException ("Failed to resolve addresses:", ex.getCause ());
+		}
+		finally
+		{
+			workers.shutdownNow ();
+			this.publish ();
 		}
 	}
 
@@ -152,7 +657,7 @@ public final class Resolver
 
 	public Stream<InetAddress> getAddresses ()
 	{
-		return this.cache.keySet ()
+		return this.cache.getNetworks ()
 			.stream ()
 			.map (CIDRAddress::getAddress);
 	}
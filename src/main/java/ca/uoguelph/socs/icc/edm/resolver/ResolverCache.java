@@ -0,0 +1,373 @@
+/* Copyright (C) 2016 James E. Stark
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uoguelph.socs.icc.edm.resolver;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent cache of the "whois" data retrieved by the
+ * <code>Resolver</code>.  The cache is an append-only text file, with one
+ * record per line, containing the network address, the length of the
+ * network prefix, the time at which the "whois" data was fetched, and the
+ * name of the organization which owns the network.  The fields are separated
+ * by tabs.
+ * <p>
+ * When the cache is opened, the records which are older than the time to
+ * live are discarded, and the most recent record for each network is kept.
+ * If any records were discarded, then the file is compacted by writing the
+ * remaining records to a temporary file, which replaces the cache file.  New
+ * records are appended to the file as they are fetched, and each record is
+ * flushed immediately, so that an interrupted run does not lose the data
+ * that it has already fetched.
+ *
+ * @author  James E. Stark
+ * @version 1.0
+ * @see     Resolver
+ */
+
+final class ResolverCache implements AutoCloseable
+{
+	/**
+	 * A record in the cache.
+	 *
+	 * @author  James E. Stark
+	 * @version 1.0
+	 */
+
+	private static final class Record
+	{
+		/** The <code>NetBlock</code> */
+		private final NetBlock block;
+
+		/** The time at which the "whois" data was fetched, in milliseconds */
+		private final long fetched;
+
+		/**
+		 * Create the <code>Record</code>.
+		 *
+		 * @param  block   The <code>NetBlock</code>, not null
+		 * @param  fetched The time at which the data was fetched
+		 */
+
+		private Record (final NetBlock block, final long fetched)
+		{
+			assert block != null : "block is NULL";
+
+			this.block = block;
+			this.fetched = fetched;
+		}
+	}
+
+	/** The field separator */
+	private static final String SEPARATOR;
+
+	/** The log */
+	private final Logger log;
+
+	/** The cache file */
+	private final Path file;
+
+	/** The time to live for the records, in milliseconds */
+	private final long ttl;
+
+	/** The live records, by network */
+	private final Map<CIDRAddress, Record> records;
+
+	/** The writer for appending records to the file */
+	private BufferedWriter writer;
+
+	/**
+	 * Static initializer to set the separator.
+	 */
+
+	static
+	{
+		SEPARATOR = "\t";
+	}
+
+	/**
+	 * Create the <code>ResolverCache</code>.
+	 *
+	 * @param  file The cache file, not null
+	 * @param  ttl  The time to live for the records, not null
+	 */
+
+	private ResolverCache (final Path file, final Duration ttl)
+	{
+		this.log = LoggerFactory.getLogger (this.getClass ());
+
+		assert file != null : "file is NULL";
+		assert ttl != null : "ttl is NULL";
+
+		this.file = file;
+		this.ttl = ttl.toMillis ();
+		this.records = new HashMap<> ();
+		this.writer = null;
+	}
+
+	/**
+	 * Open the cache file.  The live records are loaded from the file, which
+	 * is compacted if it contains any expired, duplicate or corrupt records.
+	 * The file is created if it does not exist.
+	 *
+	 * @param  file The cache file, not null
+	 * @param  ttl  The time to live for the records, not null
+	 * @return      The <code>ResolverCache</code>
+	 */
+
+	public static ResolverCache open (final Path file, final Duration ttl)
+	{
+		assert file != null : "file is NULL";
+		assert ttl != null : "ttl is NULL";
+
+		ResolverCache cache = new ResolverCache (file, ttl);
+
+		try
+		{
+			if (cache.load ())
+			{
+				cache.compact ();
+			}
+
+			cache.openWriter ();
+		}
+		catch (IOException ex)
+		{
+			throw new RuntimeException ("Failed to open the resolver cache:", ex);
+		}
+
+		return cache;
+	}
+
+	/**
+	 * Open the writer for appending records to the cache file.  The file is
+	 * created if it does not exist.
+	 *
+	 * @throws IOException if the file can not be opened
+	 */
+
+	private synchronized void openWriter () throws IOException
+	{
+		this.writer = Files.newBufferedWriter (this.file, StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Format a record as a line of the cache file.
+	 *
+	 * @param  record The <code>Record</code>, not null
+	 * @return        The line
+	 */
+
+	private static String format (final Record record)
+	{
+		assert record != null : "record is NULL";
+
+		return String.join (ResolverCache.SEPARATOR,
+				record.block.getAddress ().getHostAddress (),
+				Integer.toString (record.block.getAddress ().getLength ()),
+				Long.toString (record.fetched),
+				record.block.getOwner ().replaceAll ("[\\t\\r\\n]", " "));
+	}
+
+	/**
+	 * Parse a line of the cache file.
+	 *
+	 * @param  line The line, not null
+	 * @return      The <code>Record</code>
+	 *
+	 * @throws IllegalArgumentException if the line is not a valid record
+	 */
+
+	private static Record parse (final String line)
+	{
+		assert line != null : "line is NULL";
+
+		String[] fields = line.split (ResolverCache.SEPARATOR, 4);
+
+		if (fields.length != 4)
+		{
+			throw new IllegalArgumentException ("Wrong number of fields");
+		}
+
+		try
+		{
+			return new Record (new NetBlock (fields[3], CIDRAddress.builder ()
+						.setAddress (fields[0])
+						.setLength (Integer.parseInt (fields[1]))
+						.build ()),
+					Long.parseLong (fields[2]));
+		}
+		catch (UnknownHostException ex)
+		{
+			throw new IllegalArgumentException (ex);
+		}
+	}
+
+	/**
+	 * Load the live records from the cache file.
+	 *
+	 * @return <code>true</code> if any records were discarded,
+	 *         <code>false</code> otherwise
+	 *
+	 * @throws IOException if the file can not be read
+	 */
+
+	private boolean load () throws IOException
+	{
+		this.log.trace ("load:");
+
+		int lines = 0;
+
+		if (Files.exists (this.file))
+		{
+			long expiry = System.currentTimeMillis () - this.ttl;
+
+			try (BufferedReader reader = Files.newBufferedReader (this.file, StandardCharsets.UTF_8))
+			{
+				for (String line = reader.readLine (); line != null; line = reader.readLine ())
+				{
+					lines += 1;
+
+					try
+					{
+						Record record = ResolverCache.parse (line);
+
+						if (record.fetched >= expiry)
+						{
+							this.records.put (record.block.getAddress (), record);
+						}
+					}
+					catch (IllegalArgumentException ex)
+					{
+						this.log.warn ("Skipping corrupt resolver cache record: {}", line);
+					}
+				}
+			}
+		}
+
+		this.log.debug ("Loaded {} of {} records from the resolver cache", this.records.size (), lines);
+
+		return lines > this.records.size ();
+	}
+
+	/**
+	 * Rewrite the cache file, so that it only contains the live records.  The
+	 * records are written to a temporary file, which then replaces the cache
+	 * file.
+	 *
+	 * @throws IOException if the file can not be written
+	 */
+
+	private void compact () throws IOException
+	{
+		this.log.trace ("compact:");
+
+		Path temp = this.file.resolveSibling (this.file.getFileName () + ".tmp");
+
+		try (BufferedWriter out = Files.newBufferedWriter (temp, StandardCharsets.UTF_8))
+		{
+			for (Record record : this.records.values ())
+			{
+				out.write (ResolverCache.format (record));
+				out.newLine ();
+			}
+		}
+
+		Files.move (temp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Get the live <code>NetBlock</code> instances from the cache.
+	 *
+	 * @return An unmodifiable <code>Map</code> of network to organization name
+	 */
+
+	public Map<CIDRAddress, String> getNetBlocks ()
+	{
+		Map<CIDRAddress, String> result = new HashMap<> ();
+
+		this.records.values ()
+			.forEach (x -> result.put (x.block.getAddress (), x.block.getOwner ()));
+
+		return Collections.unmodifiableMap (result);
+	}
+
+	/**
+	 * Append the specified <code>NetBlock</code> to the cache file.  The
+	 * <code>NetBlock</code> is recorded as having been fetched now.
+	 *
+	 * @param  block The <code>NetBlock</code>, not null
+	 */
+
+	public synchronized void append (final NetBlock block)
+	{
+		assert block != null : "block is NULL";
+		assert this.writer != null : "cache is closed";
+
+		Record record = new Record (block, System.currentTimeMillis ());
+
+		try
+		{
+			this.writer.write (ResolverCache.format (record));
+			this.writer.newLine ();
+			this.writer.flush ();
+		}
+		catch (IOException ex)
+		{
+			throw new RuntimeException ("Failed to write to the resolver cache:", ex);
+		}
+	}
+
+	/**
+	 * Close the cache file.
+	 */
+
+	@Override
+	public synchronized void close ()
+	{
+		this.log.trace ("close:");
+
+		try
+		{
+			if (this.writer != null)
+			{
+				this.writer.close ();
+				this.writer = null;
+			}
+		}
+		catch (IOException ex)
+		{
+			throw new RuntimeException ("Failed to close the resolver cache:", ex);
+		}
+	}
+}
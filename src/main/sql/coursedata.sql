@@ -353,6 +353,29 @@ create table if not exists log_moodle_workshop_submission (
 
 comment on table log_moodle_workshop_submission is 'Relationship table for mapping log entries to moodle workshop submissions';
 
+--****************************************************************************--
+--  ID Sequences
+--****************************************************************************--
+
+-- The harvester allocates the ID numbers in blocks of 100 (the JDBC batch
+-- size), so the sequences must be incremented by the same amount.
+alter sequence course_id_seq increment by 100;
+alter sequence activity_source_id_seq increment by 100;
+alter sequence activity_type_id_seq increment by 100;
+alter sequence activity_id_seq increment by 100;
+alter sequence enrolment_role_id_seq increment by 100;
+alter sequence enrolment_id_seq increment by 100;
+alter sequence enrolment_activity_grade_id_seq increment by 100;
+alter sequence log_action_id_seq increment by 100;
+alter sequence log_network_id_seq increment by 100;
+alter sequence log_id_seq increment by 100;
+alter sequence activity_moodle_book_chapter_id_seq increment by 100;
+alter sequence activity_moodle_forum_discussion_id_seq increment by 100;
+alter sequence activity_moodle_forum_post_id_seq increment by 100;
+alter sequence activity_moodle_lesson_page_id_seq increment by 100;
+alter sequence activity_moodle_wiki_page_id_seq increment by 100;
+alter sequence activity_moodle_workshop_submission_id_seq increment by 100;
+
 --****************************************************************************--
 --  List of Known Modules (Activities)
 --****************************************************************************--
@@ -16,6 +16,9 @@ create table if not exists userdb.user_enrolment (
 	user_id bigint not null references userdb.user (id) on delete cascade on update cascade
 );
 
+-- Allocated in blocks of 100 by the harvester, see coursedata.sql
+alter sequence userdb.user_id_seq increment by 100;
+
 comment on schema userdb is 'Restricted access to identifying user information';
 comment on table userdb.user is 'Identifying user data';
 comment on table userdb.user_enrolment is 'User to enrolment mapping';
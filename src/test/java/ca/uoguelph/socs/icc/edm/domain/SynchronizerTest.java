@@ -0,0 +1,134 @@
+/* Copyright (C) 2016 James E. Stark
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uoguelph.socs.icc.edm.domain;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+import ca.uoguelph.socs.icc.edm.domain.datastore.Profile;
+import ca.uoguelph.socs.icc.edm.domain.datastore.jpa.JPADataStore;
+import ca.uoguelph.socs.icc.edm.domain.datastore.memory.MemDataStore;
+
+/**
+ * Tests for <code>DomainModel.Synchronizer</code>.
+ *
+ * @author  James E. Stark
+ * @version 1.0
+ */
+
+public class SynchronizerTest
+{
+	/** The number of <code>User</code> instances in the source */
+	private static final int USERS = 25;
+
+	private Profile profile;
+
+	private DomainModel source;
+
+	private static void populate (final DomainModel model)
+	{
+		model.getTransaction ().begin ();
+
+		Course course = Course.builder (model)
+			.setName ("TEST*1000")
+			.setSemester (Semester.FALL)
+			.setYear (2016)
+			.build ();
+
+		Role role = Role.builder (model)
+			.setName ("student")
+			.build ();
+
+		for (int i = 0; i < USERS; i++)
+		{
+			User.builder (model)
+				.setUsername (String.format ("user%d", i))
+				.setFirstname ("Test")
+				.setLastname (String.format ("User%d", i))
+				.addEnrolment (Enrolment.builder (model)
+						.setCourse (course)
+						.setRole (role)
+						.setFinalGrade (i % 100)
+						.setUsable (true)
+						.build ())
+				.build ();
+		}
+
+		model.getTransaction ().commit ();
+	}
+
+	@Before
+	public void setUp () throws Exception
+	{
+		this.profile = Profile.load (SynchronizerTest.class.getResource ("/TestProfile.xml"));
+		this.source = MemDataStore.create (this.profile);
+
+		SynchronizerTest.populate (this.source);
+	}
+
+	@After
+	public void tearDown ()
+	{
+		this.source.close ();
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void testWritersRequireSharedStorage ()
+	{
+		try (DomainModel dest = MemDataStore.create (this.profile))
+		{
+			dest.getSynchronizer ()
+				.setWriters (2);
+		}
+	}
+
+	@Test
+	public void testParallelWriters () throws Exception
+	{
+		Profile output = Profile.load (SynchronizerTest.class.getResource ("/TestOutputProfile.xml"));
+
+		try (DomainModel dest = JPADataStore.create (output))
+		{
+			dest.getSynchronizer ()
+				.addAll (this.source.getQuery (User.SELECTOR_ALL)
+						.queryAll ())
+				.setWriters (4)
+				.synchronize ();
+
+			try (DomainModel check = JPADataStore.create (output))
+			{
+				List<User> users = check.getQuery (User.SELECTOR_ALL)
+					.queryAll ();
+
+				assertEquals (USERS, users.size ());
+				assertEquals (USERS, check.getQuery (Enrolment.SELECTOR_ALL).queryAll ().size ());
+				assertEquals (1, check.getQuery (Course.SELECTOR_ALL).queryAll ().size ());
+
+				for (User user : users)
+				{
+					assertEquals (1, user.getEnrolments ().size ());
+					assertEquals ("student", user.getEnrolments ().get (0).getRole ().getName ());
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,274 @@
+/* Copyright (C) 2016 James E. Stark
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uoguelph.socs.icc.edm.domain.datastore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import ca.uoguelph.socs.icc.edm.domain.DomainModel;
+import ca.uoguelph.socs.icc.edm.domain.Network;
+import ca.uoguelph.socs.icc.edm.domain.datastore.memory.MemDataStore;
+
+/**
+ * Tests for <code>TranslationTable</code> and its <code>Segment</code>.
+ *
+ * @author  James E. Stark
+ * @version 1.0
+ */
+
+public class TranslationTableTest
+{
+	private static final TranslationTable TABLE = TranslationTable.getInstance ();
+
+	private DomainModel first;
+
+	private DomainModel second;
+
+	private DomainModel third;
+
+	private static Network create (final DomainModel model, final String name)
+	{
+		model.getTransaction ().begin ();
+		Network network = Network.builder (model)
+			.setName (name)
+			.build ();
+		model.getTransaction ().commit ();
+
+		return network;
+	}
+
+	private static Network copy (final Network network, final DomainModel model)
+	{
+		model.getTransaction ().begin ();
+		Network result = network.getBuilder (model)
+			.build ();
+		model.getTransaction ().commit ();
+
+		return result;
+	}
+
+	@Before
+	public void setUp () throws Exception
+	{
+		Profile profile = Profile.load (TranslationTableTest.class.getResource ("/TestProfile.xml"));
+
+		this.first = MemDataStore.create (profile);
+		this.second = MemDataStore.create (profile);
+		this.third = MemDataStore.create (profile);
+	}
+
+	@After
+	public void tearDown ()
+	{
+		TABLE.removeAll (this.first);
+		TABLE.removeAll (this.second);
+		TABLE.removeAll (this.third);
+	}
+
+	@Test
+	public void testSegmentPutGetRemove ()
+	{
+		Network value = create (this.first, "value");
+		TranslationTable.Segment segment = new TranslationTable.Segment ();
+
+		for (long i = 0; i < 10000; i ++)
+		{
+			segment.put (i * 31, value, false);
+		}
+
+		for (long i = 0; i < 10000; i += 2)
+		{
+			segment.remove (i * 31);
+		}
+
+		assertEquals (5000, segment.size ());
+
+		for (long i = 0; i < 10000; i ++)
+		{
+			if (i % 2 == 0)
+			{
+				assertNull (segment.get (i * 31));
+			}
+			else
+			{
+				assertSame (value, segment.get (i * 31));
+			}
+		}
+
+		assertNull (segment.get (-1));
+	}
+
+	@Test
+	public void testSegmentReuseRemoved ()
+	{
+		Network value = create (this.first, "value");
+		Network other = create (this.first, "other");
+		TranslationTable.Segment segment = new TranslationTable.Segment ();
+
+		segment.put (42, value, false);
+		segment.remove (42);
+		segment.put (42, other, true);
+
+		assertSame (other, segment.get (42));
+
+		segment.put (42, value, false);
+
+		assertEquals (1, segment.size ());
+		assertSame (value, segment.get (42));
+	}
+
+	@Test
+	public void testSegmentRebuildWithRemovals ()
+	{
+		Network value = create (this.first, "value");
+		TranslationTable.Segment segment = new TranslationTable.Segment ();
+
+		// Cycle the keys through the table, so that it is rebuilt to clear the tombstones
+		for (long i = 0; i < 100000; i ++)
+		{
+			segment.put (i, value, false);
+
+			if (i >= 8)
+			{
+				segment.remove (i - 8);
+			}
+		}
+
+		assertEquals (8, segment.size ());
+		assertSame (value, segment.get (99999));
+		assertSame (value, segment.get (99992));
+		assertNull (segment.get (99991));
+	}
+
+	@Test
+	public void testConcurrentReaders () throws Exception
+	{
+		Network value = create (this.first, "value");
+		TranslationTable.Segment segment = new TranslationTable.Segment ();
+
+		AtomicLong published = new AtomicLong (-1);
+		AtomicBoolean done = new AtomicBoolean (false);
+		AtomicReference<String> failure = new AtomicReference<> ();
+		List<Thread> readers = new ArrayList<> ();
+
+		for (int t = 0; t < 4; t ++)
+		{
+			Thread reader = new Thread (() -> {
+				while (! done.get () && failure.get () == null)
+				{
+					long limit = published.get ();
+
+					for (long i = Math.max (0, limit - 1000); i <= limit; i ++)
+					{
+						if (segment.get (i) != value)
+						{
+							failure.set ("Missing key: " + i);
+						}
+					}
+				}
+			});
+
+			readers.add (reader);
+			reader.start ();
+		}
+
+		for (long i = 0; i < 200000; i ++)
+		{
+			segment.put (i, value, false);
+			published.set (i);
+		}
+
+		done.set (true);
+
+		for (Thread reader : readers)
+		{
+			reader.join ();
+		}
+
+		assertNull (failure.get ());
+		assertEquals (200000, segment.size ());
+	}
+
+	@Test
+	public void testMapping ()
+	{
+		Network a = create (this.first, "network");
+		Network b = copy (a, this.second);
+
+		assertSame (b, TABLE.get (a, this.second).get ());
+		assertSame (a, TABLE.get (b, this.first).get ());
+		assertTrue (TABLE.contains (a, this.second));
+		assertTrue (TABLE.contains (a, this.first));
+		assertFalse (TABLE.contains (a, this.third));
+	}
+
+	@Test
+	public void testTransitiveMapping ()
+	{
+		Network a = create (this.first, "network");
+		Network b = copy (a, this.second);
+		Network c = copy (b, this.third);
+
+		assertSame (c, TABLE.get (a, this.third).get ());
+		assertSame (c, TABLE.get (b, this.third).get ());
+		assertSame (a, TABLE.get (c, this.first).get ());
+		assertSame (b, TABLE.get (c, this.second).get ());
+	}
+
+	@Test
+	public void testRemove ()
+	{
+		Network a = create (this.first, "network");
+		Network b = copy (a, this.second);
+		Network c = copy (b, this.third);
+
+		TABLE.remove (b);
+
+		assertFalse (TABLE.get (a, this.second).isPresent ());
+		assertFalse (TABLE.get (c, this.second).isPresent ());
+		assertSame (c, TABLE.get (a, this.third).get ());
+		assertSame (a, TABLE.get (c, this.first).get ());
+	}
+
+	@Test
+	public void testRemoveAll ()
+	{
+		Network a = create (this.first, "network");
+		Network b = copy (a, this.second);
+		Network c = copy (b, this.third);
+
+		TABLE.removeAll (this.second);
+
+		assertFalse (TABLE.get (a, this.second).isPresent ());
+		assertFalse (TABLE.get (c, this.second).isPresent ());
+		assertFalse (TABLE.contains (b, this.first));
+		assertSame (c, TABLE.get (a, this.third).get ());
+	}
+}
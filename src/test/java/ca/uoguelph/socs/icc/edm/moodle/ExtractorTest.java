@@ -0,0 +1,151 @@
+/* Copyright (C) 2016 James E. Stark
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uoguelph.socs.icc.edm.moodle;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import ca.uoguelph.socs.icc.edm.domain.DomainModel;
+import ca.uoguelph.socs.icc.edm.domain.User;
+import ca.uoguelph.socs.icc.edm.domain.datastore.Profile;
+import ca.uoguelph.socs.icc.edm.domain.datastore.jpa.JPADataStore;
+import ca.uoguelph.socs.icc.edm.domain.datastore.memory.MemDataStore;
+import ca.uoguelph.socs.icc.edm.resolver.Resolver;
+
+/**
+ * Tests for <code>Extractor</code>.
+ *
+ * @author  James E. Stark
+ * @version 1.0
+ */
+
+public class ExtractorTest
+{
+	/** The JDBC URL of the source database */
+	private static final String URL;
+
+	/** The ID of the last <code>LogEntry</code> in the first extraction */
+	private static final long LIMIT;
+
+	private Profile scratch;
+
+	private DomainModel source;
+
+	private Resolver resolver;
+
+	static
+	{
+		URL = "jdbc:h2:mem:moodletest";
+		LIMIT = 3;
+	}
+
+	private static void execute (final String... statements) throws SQLException
+	{
+		try (Connection connection = DriverManager.getConnection (ExtractorTest.URL, "sa", "");
+				Statement stmt = connection.createStatement ())
+		{
+			for (String sql : statements)
+			{
+				stmt.executeUpdate (sql);
+			}
+		}
+	}
+
+	private Extractor extract (final DomainModel dest)
+	{
+		Extractor extractor = new ExtractorFactory (() -> this.resolver)
+			.create (this.source);
+
+		extractor.setCourse (1L)
+			.setLimit (ExtractorTest.LIMIT)
+			.extract (dest);
+
+		return extractor;
+	}
+
+	@Before
+	public void setUp () throws Exception
+	{
+		this.scratch = Profile.load (ExtractorTest.class.getResource ("/TestProfile.xml"));
+		this.source = JPADataStore.create (Profile.load (ExtractorTest.class.getResource ("/TestInputProfile.xml")));
+		this.resolver = new Resolver (x -> Collections.emptyList ());
+
+		ExtractorTest.execute (
+				"INSERT INTO mdl_modules (id, name) VALUES (1, 'forum'), (2, 'page')",
+				"INSERT INTO mdl_user (id, username, firstname, lastname) VALUES (1, 'user1', 'Test', 'User1'), (2, 'user2', 'Test', 'User2')",
+				"INSERT INTO mdl_course (id, fullname, startdate) VALUES (1, 'Test Course', 1441080000)",
+				"INSERT INTO mdl_forum (id, name) VALUES (1, 'Forum')",
+				"INSERT INTO mdl_page (id, name) VALUES (1, 'Page')",
+				"INSERT INTO mdl_course_modules (id, instance, course, module) VALUES (1, 1, 1, 2), (2, 1, 1, 1)",
+				"INSERT INTO mdl_forum_discussions (id, name, forum) VALUES (1, 'Discussion 1', 1)",
+				"INSERT INTO mdl_log (id, action, cmid, time, module, userid, ip, info, url, course) VALUES "
+					+ "(1, 'view', 1, 1441080000, 'page', 1, '10.0.0.1', '1', 'view.php?id=1', 1), "
+					+ "(2, 'view discussion', 2, 1441080060, 'forum', 2, '10.0.0.2', '1', 'discuss.php?d=1', 1), "
+					+ "(3, 'view', 0, 1441080120, 'course', 1, '10.0.0.1', '1', 'view.php?id=1', 1)");
+	}
+
+	@After
+	public void tearDown ()
+	{
+		this.source.close ();
+	}
+
+	@Test
+	public void testResumeAfterSourceChange () throws Exception
+	{
+		Set<String> keys;
+		int users;
+
+		try (DomainModel dest = MemDataStore.create (this.scratch))
+		{
+			keys = new HashSet<> (this.extract (dest).getSourceKeys ().values ());
+			users = dest.getQuery (User.SELECTOR_ALL).queryAll ().size ();
+		}
+
+		assertEquals (3, keys.size ());
+		assertTrue (keys.contains ("Activity:1"));
+		assertTrue (keys.contains ("Activity:2"));
+		assertEquals (2, users);
+
+		ExtractorTest.execute (
+				"INSERT INTO mdl_user (id, username, firstname, lastname) VALUES (3, 'user3', 'Test', 'User3')",
+				"INSERT INTO mdl_page (id, name) VALUES (2, 'New Page')",
+				"INSERT INTO mdl_course_modules (id, instance, course, module) VALUES (3, 2, 1, 2)",
+				"INSERT INTO mdl_forum_discussions (id, name, forum) VALUES (2, 'Discussion 2', 1)",
+				"INSERT INTO mdl_log (id, action, cmid, time, module, userid, ip, info, url, course) VALUES "
+					+ "(4, 'view', 3, 1441080180, 'page', 3, '10.0.0.3', '2', 'view.php?id=3', 1), "
+					+ "(5, 'view discussion', 2, 1441080240, 'forum', 3, '10.0.0.3', '2', 'discuss.php?d=2', 1)");
+
+		try (DomainModel dest = MemDataStore.create (this.scratch))
+		{
+			assertEquals (keys, new HashSet<> (this.extract (dest).getSourceKeys ().values ()));
+			assertEquals (users, dest.getQuery (User.SELECTOR_ALL).queryAll ().size ());
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/* Copyright (C) 2016 James E. Stark
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uoguelph.socs.icc.edm.resolver;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for <code>ARINQuery</code>, against a <code>StubWhoisServer</code>.
+ *
+ * @author  James E. Stark
+ * @version 1.0
+ */
+
+public class ARINQueryTest
+{
+	/** The path of the query for the test address */
+	private static final String IP_PATH = "/rest/ip/131.104.97.5";
+
+	/** The path of the parent network */
+	private static final String PARENT_PATH = "/rest/net/NET-131-0-0-0-0";
+
+	/** The stub server */
+	private StubWhoisServer server;
+
+	@Before
+	public void setUp () throws Exception
+	{
+		this.server = new StubWhoisServer ();
+	}
+
+	@After
+	public void tearDown ()
+	{
+		this.server.close ();
+	}
+
+	private ARINQuery.Builder builder ()
+	{
+		return ARINQuery.builder ()
+			.setBaseURL (this.server.url ("/rest/ip/"))
+			.setRate (1000)
+			.setTimeout (2000)
+			.setBackoff (10);
+	}
+
+	private void addNetworks () throws Exception
+	{
+		this.server.reply (IP_PATH, StubWhoisServer.load ("net-uog.xml", this.server.url (PARENT_PATH)))
+			.reply (PARENT_PATH, StubWhoisServer.load ("net-131.xml", ""));
+	}
+
+	private static CIDRAddress address (final String address) throws Exception
+	{
+		return CIDRAddress.create (InetAddress.getByName (address));
+	}
+
+	@Test
+	public void testFollowsParent () throws Exception
+	{
+		this.addNetworks ();
+
+		List<NetBlock> blocks = this.builder ()
+			.build ()
+			.getNetBlocks (address ("131.104.97.5"));
+
+		assertEquals (1, blocks.size ());
+		assertEquals ("University of Guelph", blocks.get (0).getOwner ());
+		assertEquals (16, blocks.get (0).getAddress ().getLength ());
+		assertEquals (2, this.server.getRequests ());
+	}
+
+	@Test
+	public void testRetriesServerErrors () throws Exception
+	{
+		this.server.reply (IP_PATH, 503, null, "", 0)
+			.reply (IP_PATH, 429, "0", "", 0);
+		this.addNetworks ();
+
+		List<NetBlock> blocks = this.builder ()
+			.build ()
+			.getNetBlocks (address ("131.104.97.5"));
+
+		assertEquals ("University of Guelph", blocks.get (0).getOwner ());
+		assertEquals (4, this.server.getRequests ());
+	}
+
+	@Test
+	public void testGivesUp () throws Exception
+	{
+		this.server.reply (IP_PATH, 500, null, "", 0);
+
+		try
+		{
+			this.builder ()
+				.setAttempts (3)
+				.build ()
+				.getNetBlocks (address ("131.104.97.5"));
+
+			fail ("Expected the query to fail");
+		}
+		catch (RuntimeException ex)
+		{
+			assertEquals (3, this.server.getRequests ());
+		}
+	}
+
+	@Test
+	public void testRetriesTimeouts () throws Exception
+	{
+		this.server.reply (IP_PATH, 200, null, "", 1000);
+		this.addNetworks ();
+
+		List<NetBlock> blocks = this.builder ()
+			.setTimeout (200)
+			.build ()
+			.getNetBlocks (address ("131.104.97.5"));
+
+		assertEquals ("University of Guelph", blocks.get (0).getOwner ());
+	}
+
+	@Test
+	public void testLimitsConcurrency () throws Exception
+	{
+		List<CompletableFuture<List<NetBlock>>> futures = new ArrayList<> ();
+		ARINQuery query = this.builder ()
+			.setConcurrency (2)
+			.build ();
+
+		for (int i = 0; i < 8; i ++)
+		{
+			String path = "/rest/ip/131.104.97." + i;
+
+			this.server.reply (path, 200, null, StubWhoisServer.load ("net-131.xml", ""), 50);
+			futures.add (query.getNetBlocksAsync (address ("131.104.97." + i)));
+		}
+
+		for (CompletableFuture<List<NetBlock>> future : futures)
+		{
+			assertEquals ("American Registry for Internet Numbers", future.join ().get (0).getOwner ());
+		}
+
+		assertEquals (8, this.server.getRequests ());
+		assertTrue (this.server.getPeak () <= 2);
+	}
+}
@@ -0,0 +1,61 @@
+/* Copyright (C) 2016 James E. Stark
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uoguelph.socs.icc.edm.resolver;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for <code>ARINResponse</code>, against recorded ARIN responses.
+ *
+ * @author  James E. Stark
+ * @version 1.0
+ */
+
+public class ARINResponseTest
+{
+	private static ARINResponse parse (final String name, final String parent) throws Exception
+	{
+		return ARINResponse.parse (StubWhoisServer.load (name, parent).getBytes (StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testParent () throws Exception
+	{
+		ARINResponse response = parse ("net-uog.xml", "http://example.com/rest/net/NET-131-0-0-0-0");
+
+		assertEquals ("http://example.com/rest/net/NET-131-0-0-0-0", response.getParentRef ());
+		assertEquals ("University of Guelph", response.getOrgName ());
+		assertEquals (1, response.getBlocks ().size ());
+		assertEquals ("131.104.0.0", response.getBlocks ().get (0).getHostAddress ());
+		assertEquals (16, response.getBlocks ().get (0).getLength ());
+	}
+
+	@Test
+	public void testMultipleBlocks () throws Exception
+	{
+		ARINResponse response = parse ("net-multi.xml", "");
+
+		assertEquals ("", response.getParentRef ());
+		assertEquals ("Videotron Ltee", response.getOrgName ());
+		assertEquals (2, response.getBlocks ().size ());
+		assertEquals ("24.37.0.0", response.getBlocks ().get (1).getHostAddress ());
+	}
+}
@@ -0,0 +1,87 @@
+/* Copyright (C) 2016 James E. Stark
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uoguelph.socs.icc.edm.resolver;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for <code>CIDRAddress</code>.
+ *
+ * @author  James E. Stark
+ * @version 1.0
+ */
+
+public class CIDRAddressTest
+{
+	@Test
+	public void testCreateIPV4 () throws Exception
+	{
+		CIDRAddress network = CIDRAddress.create ("131.104.96.12/16");
+
+		assertEquals ("131.104.0.0", network.getHostAddress ());
+		assertEquals (16, network.getLength ());
+		assertEquals (32, network.getWidth ());
+		assertEquals (32, CIDRAddress.create ("131.104.96.12").getLength ());
+	}
+
+	@Test
+	public void testCreateIPV6 () throws Exception
+	{
+		CIDRAddress network = CIDRAddress.create ("2001:db8:1:2::1/48");
+
+		assertEquals (CIDRAddress.create ("2001:db8:1::"), network.getNetwork (128));
+		assertEquals (48, network.getLength ());
+		assertEquals (128, network.getWidth ());
+	}
+
+	@Test
+	public void testHasMemberIPV4 () throws Exception
+	{
+		CIDRAddress network = CIDRAddress.create ("131.104.0.0/16");
+
+		assertTrue (network.hasMember (CIDRAddress.create ("131.104.96.12")));
+		assertTrue (network.hasMember (CIDRAddress.create ("131.104.96.0/24")));
+		assertFalse (network.hasMember (CIDRAddress.create ("131.105.0.1")));
+	}
+
+	@Test
+	public void testHasMemberIPV6 () throws Exception
+	{
+		CIDRAddress network = CIDRAddress.create ("2001:db8::/32");
+
+		assertTrue (network.hasMember (CIDRAddress.create ("2001:db8:ffff::1")));
+		assertFalse (network.hasMember (CIDRAddress.create ("2001:db9::1")));
+	}
+
+	@Test
+	public void testGetBit () throws Exception
+	{
+		CIDRAddress ipv4 = CIDRAddress.create ("128.0.0.1");
+		CIDRAddress ipv6 = CIDRAddress.create ("8000::1");
+
+		assertEquals (1, ipv4.getBit (0));
+		assertEquals (0, ipv4.getBit (1));
+		assertEquals (1, ipv4.getBit (31));
+		assertEquals (1, ipv6.getBit (0));
+		assertEquals (0, ipv6.getBit (64));
+		assertEquals (1, ipv6.getBit (127));
+	}
+}
@@ -0,0 +1,134 @@
+/* Copyright (C) 2016 James E. Stark
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uoguelph.socs.icc.edm.resolver;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for <code>NetTrie</code>.
+ *
+ * @author  James E. Stark
+ * @version 1.0
+ */
+
+public class NetTrieTest
+{
+	private NetTrie<String> trie;
+
+	@Before
+	public void setUp () throws Exception
+	{
+		this.trie = new NetTrie<> ();
+
+		this.trie.put (CIDRAddress.create ("131.104.0.0/16"), "Guelph");
+		this.trie.put (CIDRAddress.create ("131.104.96.0/24"), "SOCS");
+		this.trie.put (CIDRAddress.create ("10.0.0.0/8"), "Private");
+		this.trie.put (CIDRAddress.create ("2001:db8::/32"), "Documentation");
+		this.trie.put (CIDRAddress.create ("2001:db8:1::/48"), "Site");
+	}
+
+	@Test
+	public void testContainsIPV4 () throws Exception
+	{
+		assertTrue (this.trie.contains (CIDRAddress.create ("131.104.0.0/16")));
+		assertTrue (this.trie.contains (CIDRAddress.create ("131.104.96.0/24")));
+		assertTrue (this.trie.contains (CIDRAddress.create ("10.0.0.0/8")));
+		assertFalse (this.trie.contains (CIDRAddress.create ("131.104.0.0/17")));
+		assertFalse (this.trie.contains (CIDRAddress.create ("131.0.0.0/8")));
+		assertFalse (this.trie.contains (CIDRAddress.create ("131.104.96.1")));
+	}
+
+	@Test
+	public void testContainsIPV6 () throws Exception
+	{
+		assertTrue (this.trie.contains (CIDRAddress.create ("2001:db8::/32")));
+		assertTrue (this.trie.contains (CIDRAddress.create ("2001:db8:1::/48")));
+		assertFalse (this.trie.contains (CIDRAddress.create ("2001:db8:2::/48")));
+		assertFalse (this.trie.contains (CIDRAddress.create ("2001::/16")));
+	}
+
+	@Test
+	public void testContainsDefaultRoute () throws Exception
+	{
+		assertFalse (this.trie.contains (CIDRAddress.create ("0.0.0.0/0")));
+		assertFalse (this.trie.contains (CIDRAddress.create ("::/0")));
+
+		this.trie.put (CIDRAddress.create ("0.0.0.0/0"), "Default");
+
+		assertTrue (this.trie.contains (CIDRAddress.create ("0.0.0.0/0")));
+		assertFalse (this.trie.contains (CIDRAddress.create ("::/0")));
+	}
+
+	@Test
+	public void testLongestPrefixIPV4 () throws Exception
+	{
+		assertEquals ("SOCS", this.trie.get (CIDRAddress.create ("131.104.96.12")));
+		assertEquals ("Guelph", this.trie.get (CIDRAddress.create ("131.104.97.12")));
+		assertEquals ("Private", this.trie.get (CIDRAddress.create ("10.1.2.3")));
+		assertNull (this.trie.get (CIDRAddress.create ("131.105.0.1")));
+	}
+
+	@Test
+	public void testLongestPrefixIPV6 () throws Exception
+	{
+		assertEquals ("Site", this.trie.get (CIDRAddress.create ("2001:db8:1::1")));
+		assertEquals ("Documentation", this.trie.get (CIDRAddress.create ("2001:db8:2::1")));
+		assertNull (this.trie.get (CIDRAddress.create ("2001:db9::1")));
+	}
+
+	@Test
+	public void testAddressFamiliesAreSeparate () throws Exception
+	{
+		this.trie.put (CIDRAddress.create ("::/0"), "Default6");
+
+		assertEquals ("Default6", this.trie.get (CIDRAddress.create ("2002::1")));
+		assertNull (this.trie.get (CIDRAddress.create ("192.0.2.1")));
+	}
+
+	@Test
+	public void testPutReplaces () throws Exception
+	{
+		this.trie.put (CIDRAddress.create ("131.104.0.0/16"), "UoG");
+
+		assertEquals (5, this.trie.size ());
+		assertEquals ("UoG", this.trie.get (CIDRAddress.create ("131.104.1.1")));
+	}
+
+	@Test
+	public void testGrowAndCopy () throws Exception
+	{
+		for (int i = 0; i < 256; i ++)
+		{
+			this.trie.put (CIDRAddress.create (String.format ("172.16.%d.0/24", i)), Integer.toString (i));
+		}
+
+		NetTrie<String> copy = new NetTrie<> (this.trie);
+		copy.put (CIDRAddress.create ("172.16.7.128/25"), "Copy");
+
+		assertEquals (261, this.trie.size ());
+		assertEquals ("7", this.trie.get (CIDRAddress.create ("172.16.7.200")));
+		assertEquals ("Copy", copy.get (CIDRAddress.create ("172.16.7.200")));
+		assertTrue (this.trie.contains (CIDRAddress.create ("172.16.255.0/24")));
+		assertFalse (this.trie.contains (CIDRAddress.create ("172.16.7.128/25")));
+	}
+}
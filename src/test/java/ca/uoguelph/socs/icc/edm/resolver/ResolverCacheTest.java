@@ -0,0 +1,134 @@
+/* Copyright (C) 2016 James E. Stark
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.uoguelph.socs.icc.edm.resolver;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for <code>ResolverCache</code>.
+ *
+ * @author  James E. Stark
+ * @version 1.0
+ */
+
+public class ResolverCacheTest
+{
+	private static final Duration TTL = Duration.ofDays (30);
+
+	private Path dir;
+
+	private Path file;
+
+	@Before
+	public void setUp () throws Exception
+	{
+		this.dir = Files.createTempDirectory ("resolver");
+		this.file = this.dir.resolve ("resolver.cache");
+	}
+
+	@After
+	public void tearDown () throws Exception
+	{
+		Files.deleteIfExists (this.dir.resolve ("resolver.cache.tmp"));
+		Files.deleteIfExists (this.file);
+		Files.deleteIfExists (this.dir);
+	}
+
+	private void write () throws Exception
+	{
+		try (ResolverCache cache = ResolverCache.open (this.file, TTL))
+		{
+			cache.append (new NetBlock ("University of Guelph", CIDRAddress.create ("131.104.0.0/16")));
+			cache.append (new NetBlock ("Documentation", CIDRAddress.create ("2001:db8::/32")));
+		}
+	}
+
+	@Test
+	public void testRoundTrip () throws Exception
+	{
+		this.write ();
+
+		try (ResolverCache cache = ResolverCache.open (this.file, TTL))
+		{
+			Map<CIDRAddress, String> blocks = cache.getNetBlocks ();
+
+			assertEquals (2, blocks.size ());
+			assertEquals ("University of Guelph", blocks.get (CIDRAddress.create ("131.104.0.0/16")));
+			assertEquals ("Documentation", blocks.get (CIDRAddress.create ("2001:db8::/32")));
+		}
+	}
+
+	@Test
+	public void testCorruptTail () throws Exception
+	{
+		this.write ();
+
+		// Simulate a run which was interrupted part way through a record
+		try (BufferedWriter out = Files.newBufferedWriter (this.file, StandardCharsets.UTF_8, StandardOpenOption.APPEND))
+		{
+			out.write ("192.0.2.0\t24\t14");
+		}
+
+		try (ResolverCache cache = ResolverCache.open (this.file, TTL))
+		{
+			assertEquals (2, cache.getNetBlocks ().size ());
+			assertEquals (2, Files.readAllLines (this.file, StandardCharsets.UTF_8).size ());
+
+			cache.append (new NetBlock ("Test Network", CIDRAddress.create ("192.0.2.0/24")));
+		}
+
+		try (ResolverCache cache = ResolverCache.open (this.file, TTL))
+		{
+			Map<CIDRAddress, String> blocks = cache.getNetBlocks ();
+
+			assertEquals (3, blocks.size ());
+			assertEquals ("Test Network", blocks.get (CIDRAddress.create ("192.0.2.0/24")));
+		}
+	}
+
+	@Test
+	public void testExpired () throws Exception
+	{
+		this.write ();
+
+		// A record fetched at the epoch, long past the time to live
+		try (BufferedWriter out = Files.newBufferedWriter (this.file, StandardCharsets.UTF_8, StandardOpenOption.APPEND))
+		{
+			out.write ("192.0.2.0\t24\t0\tExpired Network");
+			out.newLine ();
+		}
+
+		try (ResolverCache cache = ResolverCache.open (this.file, TTL))
+		{
+			assertEquals (2, cache.getNetBlocks ().size ());
+			assertEquals (2, Files.readAllLines (this.file, StandardCharsets.UTF_8).size ());
+		}
+	}
+}
@@ -0,0 +1,284 @@
+/* Copyright (C) 2016 James E. Stark
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uoguelph.socs.icc.edm.resolver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.io.ByteStreams;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP server which stands in for the ARIN "whois" service, so that
+ * <code>ARINQuery</code> can be tested without network access.  Each path is
+ * given a queue of responses, which are returned in order, with the last
+ * response repeated once the queue is down to one entry.  The server records
+ * the number of requests, and the highest number of requests which were
+ * being handled at the same time.
+ *
+ * @author  James E. Stark
+ * @version 1.0
+ */
+
+final class StubWhoisServer implements AutoCloseable
+{
+	/**
+	 * A canned response.
+	 *
+	 * @author  James E. Stark
+	 * @version 1.0
+	 */
+
+	private static final class Reply
+	{
+		/** The HTTP status code */
+		private final int status;
+
+		/** The value of the Retry-After header, null if none */
+		private final String retryAfter;
+
+		/** The body of the response */
+		private final byte[] body;
+
+		/** The time to wait before responding, in milliseconds */
+		private final long delay;
+
+		/**
+		 * Create the <code>Reply</code>.
+		 *
+		 * @param  status     The HTTP status code
+		 * @param  retryAfter The value of the Retry-After header, may be null
+		 * @param  body       The body of the response, not null
+		 * @param  delay      The time to wait before responding
+		 */
+
+		private Reply (final int status, final String retryAfter, final byte[] body, final long delay)
+		{
+			this.status = status;
+			this.retryAfter = retryAfter;
+			this.body = body;
+			this.delay = delay;
+		}
+	}
+
+	/** The HTTP server */
+	private final HttpServer server;
+
+	/** The responses for each path */
+	private final Map<String, Queue<Reply>> replies;
+
+	/** The total number of requests */
+	private final AtomicInteger requests;
+
+	/** The number of requests which are being handled */
+	private final AtomicInteger active;
+
+	/** The highest number of requests which were handled concurrently */
+	private final AtomicInteger peak;
+
+	/**
+	 * Create and start the <code>StubWhoisServer</code> on an ephemeral port
+	 * of the loopback interface.
+	 *
+	 * @throws IOException if the server can not be started
+	 */
+
+	StubWhoisServer () throws IOException
+	{
+		this.replies = new HashMap<> ();
+		this.requests = new AtomicInteger ();
+		this.active = new AtomicInteger ();
+		this.peak = new AtomicInteger ();
+
+		this.server = HttpServer.create (new InetSocketAddress ("127.0.0.1", 0), 0);
+		this.server.createContext ("/", this::handle);
+		this.server.setExecutor (Executors.newCachedThreadPool ());
+		this.server.start ();
+	}
+
+	/**
+	 * Load a recorded ARIN response from the test resources, substituting
+	 * <code>${parent}</code> with the specified URL.
+	 *
+	 * @param  name   The name of the resource, not null
+	 * @param  parent The URL of the parent network, not null
+	 * @return        The response
+	 *
+	 * @throws IOException if the resource can not be read
+	 */
+
+	static String load (final String name, final String parent) throws IOException
+	{
+		try (InputStream in = StubWhoisServer.class.getResourceAsStream ("/arin/" + name))
+		{
+			return new String (ByteStreams.toByteArray (in), StandardCharsets.UTF_8)
+				.replace ("${parent}", parent);
+		}
+	}
+
+	/**
+	 * Get the URL of the specified path on the server.
+	 *
+	 * @param  path The path, not null
+	 * @return      The URL
+	 */
+
+	String url (final String path)
+	{
+		return String.format ("http://127.0.0.1:%d%s", this.server.getAddress ().getPort (), path);
+	}
+
+	/**
+	 * Add a response for the specified path.
+	 *
+	 * @param  path       The path, not null
+	 * @param  status     The HTTP status code
+	 * @param  retryAfter The value of the Retry-After header, may be null
+	 * @param  body       The body of the response, not null
+	 * @param  delay      The time to wait before responding, in milliseconds
+	 * @return            This <code>StubWhoisServer</code>
+	 */
+
+	synchronized StubWhoisServer reply (final String path, final int status, final String retryAfter, final String body, final long delay)
+	{
+		this.replies.computeIfAbsent (path, x -> new ArrayDeque<> ())
+			.add (new Reply (status, retryAfter, body.getBytes (StandardCharsets.UTF_8), delay));
+
+		return this;
+	}
+
+	/**
+	 * Add a successful response for the specified path.
+	 *
+	 * @param  path The path, not null
+	 * @param  body The body of the response, not null
+	 * @return      This <code>StubWhoisServer</code>
+	 */
+
+	StubWhoisServer reply (final String path, final String body)
+	{
+		return this.reply (path, 200, null, body, 0);
+	}
+
+	/**
+	 * Get the next response for the specified path.
+	 *
+	 * @param  path The path, not null
+	 * @return      The <code>Reply</code>, null if there is none
+	 */
+
+	private synchronized Reply next (final String path)
+	{
+		Queue<Reply> queue = this.replies.get (path);
+
+		return (queue == null) ? null : (queue.size () > 1) ? queue.remove () : queue.peek ();
+	}
+
+	/**
+	 * Handle a request.
+	 *
+	 * @param  exchange The <code>HttpExchange</code>, not null
+	 *
+	 * @throws IOException if the response can not be sent
+	 */
+
+	private void handle (final HttpExchange exchange) throws IOException
+	{
+		this.requests.incrementAndGet ();
+		this.peak.accumulateAndGet (this.active.incrementAndGet (), Math::max);
+
+		try
+		{
+			Reply reply = this.next (exchange.getRequestURI ().getPath ());
+
+			if (reply == null)
+			{
+				reply = new Reply (404, null, new byte[0], 0);
+			}
+
+			if (reply.delay > 0)
+			{
+				Thread.sleep (reply.delay);
+			}
+
+			if (reply.retryAfter != null)
+			{
+				exchange.getResponseHeaders ().add ("Retry-After", reply.retryAfter);
+			}
+
+			exchange.getResponseHeaders ().add ("Content-Type", "application/xml");
+			exchange.sendResponseHeaders (reply.status, (reply.body.length > 0) ? reply.body.length : -1);
+
+			try (OutputStream out = exchange.getResponseBody ())
+			{
+				out.write (reply.body);
+			}
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread ().interrupt ();
+		}
+		finally
+		{
+			this.active.decrementAndGet ();
+			exchange.close ();
+		}
+	}
+
+	/**
+	 * Get the total number of requests which have been received.
+	 *
+	 * @return The number of requests
+	 */
+
+	int getRequests ()
+	{
+		return this.requests.get ();
+	}
+
+	/**
+	 * Get the highest number of requests which were handled concurrently.
+	 *
+	 * @return The number of requests
+	 */
+
+	int getPeak ()
+	{
+		return this.peak.get ();
+	}
+
+	/**
+	 * Stop the server.
+	 */
+
+	@Override
+	public void close ()
+	{
+		this.server.stop (0);
+	}
+}